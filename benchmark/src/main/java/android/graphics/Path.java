@@ -0,0 +1,69 @@
+package android.graphics;
+
+/**
+ * JVM stand-in for the framework Path, which is backed by native Skia code. It only folds every
+ * coordinate into a checksum, so benchmarks measure the parsing and arc math that feeds it.
+ */
+public class Path {
+
+    private int mOps;
+    private int mChecksum;
+
+    public void reset() {
+        mOps = 0;
+        mChecksum = 0;
+    }
+
+    public void rewind() {
+        reset();
+    }
+
+    public int getOps() {
+        return mOps;
+    }
+
+    public int getChecksum() {
+        return mChecksum;
+    }
+
+    private void record(float a, float b) {
+        mOps++;
+        mChecksum = 31 * (31 * mChecksum + Float.floatToIntBits(a)) + Float.floatToIntBits(b);
+    }
+
+    public void moveTo(float x, float y) {
+        record(x, y);
+    }
+
+    public void rMoveTo(float dx, float dy) {
+        record(dx, dy);
+    }
+
+    public void lineTo(float x, float y) {
+        record(x, y);
+    }
+
+    public void rLineTo(float dx, float dy) {
+        record(dx, dy);
+    }
+
+    public void quadTo(float x1, float y1, float x2, float y2) {
+        record(x1 + x2, y1 + y2);
+    }
+
+    public void rQuadTo(float dx1, float dy1, float dx2, float dy2) {
+        record(dx1 + dx2, dy1 + dy2);
+    }
+
+    public void cubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+        record(x1 + x2 + x3, y1 + y2 + y3);
+    }
+
+    public void rCubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+        record(x1 + x2 + x3, y1 + y2 + y3);
+    }
+
+    public void close() {
+        mOps++;
+    }
+}
@@ -0,0 +1,76 @@
+package com.afollestad.materialcamera.internal;
+
+import android.graphics.Path;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Flattens a full circle and an arc-heavy path at the sizes an icon is drawn at: 1 is the path's
+ * own units, 8 is a 24dp viewport drawn at 56dp on an xxhdpi screen.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ArcFlattenerBenchmark {
+
+    private static final String ARCS = "M12,2a10,10 0 1,0 0.01,0zM12,6a6,6 0 1,1 -0.01,0z" +
+            "M2,12A10,5 30 0,1 22,12A10,5 30 0,1 2,12z";
+
+    @Param({"1", "8", "40"})
+    public float scale;
+
+    private ArcFlattener mFlattener;
+    private CompiledPath mArcs;
+    private CompiledPath mFlattened;
+    private final float[] mSegments = new float[6 * ArcFlattener.MAX_SEGMENTS];
+    private final float[] mCurrent = new float[6];
+    private final Path mPath = new Path();
+
+    @Setup
+    public void setUp() {
+        mFlattener = new ArcFlattener(scale, ArcFlattener.SCREEN_TOLERANCE);
+        mArcs = CompiledPath.compile(ARCS);
+        mFlattened = mFlattener.flattenArcs(mArcs);
+    }
+
+    @Benchmark
+    public int circle() {
+        return mFlattener.arcTo(mSegments, 0, 12, 2, 12.01f, 2, 10, 10, 0, true, false);
+    }
+
+    @Benchmark
+    public Object flattenArcs() {
+        return mFlattener.flattenArcs(mArcs);
+    }
+
+    @Benchmark
+    public int replayArcs() {
+        mPath.reset();
+        PathParser.compiledToPath(mArcs, mPath, mCurrent, mFlattener);
+        return mPath.getChecksum();
+    }
+
+    @Benchmark
+    public int replayFlattened() {
+        mPath.reset();
+        PathParser.compiledToPath(mFlattened, mPath, mCurrent, mFlattener);
+        return mPath.getChecksum();
+    }
+}
@@ -0,0 +1,61 @@
+package com.afollestad.materialcamera.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a cached camera profile, which is what a warm start does instead of walking CameraManager.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CameraProfileBenchmark {
+
+    private final int[] mVideoWidths = {1920, 1280, 800, 768, 720, 640, 576, 480, 384, 352, 320, 240, 176};
+    private final int[] mVideoHeights = {1080, 720, 480, 432, 480, 480, 432, 320, 288, 288, 240, 160, 144};
+    private final int[] mPreviewWidths = {1920, 1440, 1280, 1024, 960, 800, 768, 720, 640, 576, 480, 384, 352, 320, 240, 176};
+    private final int[] mPreviewHeights = {1080, 1080, 720, 768, 720, 480, 432, 480, 480, 432, 320, 288, 288, 240, 160, 144};
+    private final int[] mFpsRangeLowers = {15, 24, 7, 30};
+    private final int[] mFpsRangeUppers = {15, 24, 30, 30};
+
+    private byte[] mProfile;
+
+    @Setup
+    public void setUp() throws IOException {
+        final CameraProfile profile = new CameraProfile("google/bullhead/bullhead:6.0.1/MMB29P/2473553:user/release-keys", true,
+                new CameraProfile.Camera[]{
+                        new CameraProfile.Camera("0", CameraProfile.FACING_BACK, 0, 90,
+                                mVideoWidths, mVideoHeights, mPreviewWidths, mPreviewHeights,
+                                mFpsRangeLowers, mFpsRangeUppers),
+                        new CameraProfile.Camera("1", CameraProfile.FACING_FRONT, 0, 270,
+                                mVideoWidths, mVideoHeights, mPreviewWidths, mPreviewHeights,
+                                mFpsRangeLowers, mFpsRangeUppers)
+                });
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        profile.write(out);
+        mProfile = out.toByteArray();
+    }
+
+    @Benchmark
+    public Object read() throws IOException {
+        return CameraProfile.read(new ByteArrayInputStream(mProfile));
+    }
+}
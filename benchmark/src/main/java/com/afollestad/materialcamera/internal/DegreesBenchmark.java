@@ -0,0 +1,44 @@
+package com.afollestad.materialcamera.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves the recording orientation for every sensor/display/facing combination.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DegreesBenchmark {
+
+    private final int[] mSensorOrientations = {Degrees.DEGREES_90, Degrees.DEGREES_270};
+    private final int[] mDisplayRotations = {Degrees.DEGREES_0, Degrees.DEGREES_90,
+            Degrees.DEGREES_180, Degrees.DEGREES_270};
+
+    @SuppressWarnings("ResourceType")
+    @Benchmark
+    public int getDisplayOrientation() {
+        int result = 0;
+        for (int sensor : mSensorOrientations) {
+            for (int display : mDisplayRotations) {
+                result += Degrees.getDisplayOrientation(sensor, display, false);
+                result += Degrees.getDisplayOrientation(sensor, display, true);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,61 @@
+package com.afollestad.materialcamera.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adds a second of 10 Mbps, 30 fps video to a full pre-roll ring, which is what the encoder thread
+ * does while the camera previews. Keyframes are ten times the size of the frames in between.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EncodedSampleRingBenchmark {
+
+    private static final int FRAME_RATE = 30;
+    private static final int KEY_FRAME_SIZE = 108000;
+    private static final int FRAME_SIZE = 10800;
+    private static final long FRAME_US = 1000000L / FRAME_RATE;
+
+    private EncodedSampleRing mRing;
+    private ByteBuffer mKeyFrame;
+    private ByteBuffer mFrame;
+    private long mTimeUs;
+
+    @Setup
+    public void setUp() {
+        mRing = new EncodedSampleRing(10000000 / 8 * 5, 60 * 5, 3000000);
+        mKeyFrame = ByteBuffer.allocateDirect(KEY_FRAME_SIZE);
+        mFrame = ByteBuffer.allocateDirect(FRAME_SIZE);
+        for (int i = 0; i < 10; i++)
+            addSecond();
+    }
+
+    @Benchmark
+    public int addSecond() {
+        for (int i = 0; i < FRAME_RATE; i++) {
+            final boolean keyFrame = i == 0;
+            final ByteBuffer sample = keyFrame ? mKeyFrame : mFrame;
+            sample.clear();
+            mRing.add(sample, sample.remaining(), mTimeUs, keyFrame);
+            mTimeUs += FRAME_US;
+        }
+        return mRing.size();
+    }
+}
@@ -0,0 +1,75 @@
+package com.afollestad.materialcamera.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Joins the parts of a paused recording, which is what happens between pressing stop and the
+ * preview showing up. Each part is two minutes of 8 Mbps video with audio.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Mp4ConcatenatorBenchmark {
+
+    private static final int PART_SECONDS = 120;
+    private static final int VIDEO_BIT_RATE = 8000000;
+
+    @Param({"2", "5"})
+    public int parts;
+
+    private File mDir;
+    private List<File> mParts;
+    private File mOutput;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("mp4concat", "");
+        //noinspection ResultOfMethodCallIgnored
+        mDir.delete();
+        //noinspection ResultOfMethodCallIgnored
+        mDir.mkdirs();
+        mParts = new ArrayList<>(parts);
+        for (int i = 0; i < parts; i++)
+            mParts.add(Mp4Fixtures.write(new File(mDir, "part" + i + ".mp4"), PART_SECONDS, VIDEO_BIT_RATE));
+        mOutput = new File(mDir, "joined.mp4");
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File file : mParts)
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        //noinspection ResultOfMethodCallIgnored
+        mOutput.delete();
+        //noinspection ResultOfMethodCallIgnored
+        mDir.delete();
+    }
+
+    @Benchmark
+    public long concatenate() throws IOException {
+        Mp4Concatenator.concatenate(mParts, mOutput);
+        return mOutput.length();
+    }
+}
@@ -0,0 +1,58 @@
+package com.afollestad.materialcamera.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Changes the rotation of two minutes of 8 Mbps video with audio, which only overwrites its track
+ * header's matrix, so it shouldn't cost more than reading the moov box.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Mp4MatrixBenchmark {
+
+    private File mFile;
+    private int mDegrees;
+
+    @Setup
+    public void setUp() throws IOException {
+        mFile = Mp4Fixtures.write(File.createTempFile("mp4matrix", ".mp4"), 120, 8000000);
+    }
+
+    @TearDown
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        mFile.delete();
+    }
+
+    @Benchmark
+    public int writeRotation() throws IOException {
+        mDegrees = (mDegrees + Degrees.DEGREES_90) % Degrees.DEGREES_360;
+        Mp4Matrix.writeRotation(mFile, mDegrees);
+        return mDegrees;
+    }
+
+    @Benchmark
+    public int readRotation() throws IOException {
+        return Mp4Matrix.readRotation(mFile);
+    }
+}
@@ -0,0 +1,94 @@
+package com.afollestad.materialcamera.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recovers two minutes of 8 Mbps video with audio, cut off in the middle of a frame with its moov
+ * box missing, the way a crash leaves MediaRecorder's file. Recovery overwrites the end of the file,
+ * which is put back before each call.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Mp4RecoveryBenchmark {
+
+    private static final int TAIL_SIZE = 2 * 1024 * 1024;
+
+    private File mFile;
+    private ByteBuffer mSampleDescription;
+    private long mMediaDataOffset;
+    private long mLength;
+    private ByteBuffer mTail;
+
+    @Setup
+    public void setUp() throws IOException {
+        mFile = Mp4Fixtures.write(File.createTempFile("mp4recovery", ".mp4"), 120, 8000000);
+        final Mp4File file = Mp4File.open(mFile);
+        try {
+            mSampleDescription = Mp4Recovery.readSampleDescription(file);
+            final long start = file.getMediaDataStart();
+            mMediaDataOffset = start - 8;
+            mLength = start + (file.getMediaDataEnd() - start) * 2 / 3;
+        } finally {
+            file.close();
+        }
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(mFile, "rw");
+        try {
+            final FileChannel channel = randomAccessFile.getChannel();
+            channel.truncate(mLength);
+            mTail = ByteBuffer.allocate(TAIL_SIZE);
+            channel.read(mTail, mLength - TAIL_SIZE);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void cutOff() throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(mFile, "rw");
+        try {
+            final FileChannel channel = randomAccessFile.getChannel();
+            channel.truncate(mLength);
+            mTail.rewind();
+            channel.write(mTail, mLength - TAIL_SIZE);
+            // The size MediaRecorder fills in when it stops.
+            channel.write(ByteBuffer.allocate(4), mMediaDataOffset);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        mFile.delete();
+    }
+
+    @Benchmark
+    public int recover() throws IOException {
+        return Mp4Recovery.recover(mFile, mSampleDescription.duplicate(), 30, Degrees.DEGREES_90, 8000000);
+    }
+}
@@ -0,0 +1,68 @@
+package com.afollestad.materialcamera.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads what the result intent reports about a recording, and indexes its samples. The video is
+ * a low bit rate so long recordings don't fill the disk, neither touches the media data anyway.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Mp4SampleIndexBenchmark {
+
+    @Param({"2", "60"})
+    public int minutes;
+
+    private File mFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        mFile = Mp4Fixtures.write(File.createTempFile("mp4index", ".mp4"), minutes * 60, 200000);
+    }
+
+    @TearDown
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        mFile.delete();
+    }
+
+    @Benchmark
+    public long readInfo() throws IOException {
+        return Mp4Info.read(Collections.singletonList(mFile)).bitRate;
+    }
+
+    @Benchmark
+    public int buildIndex() throws IOException {
+        final Mp4File file = Mp4File.open(mFile);
+        try {
+            int samples = 0;
+            for (Mp4Track track : file.tracks)
+                samples += Mp4SampleIndex.build(track, Mp4SampleIndex.DEFAULT_HEAP_BUDGET).sampleCount;
+            return samples;
+        } finally {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.afollestad.materialcamera.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trims ten seconds off both ends of two minutes of 8 Mbps video with audio, which is what using
+ * a trimmed recording waits for on the playback screen.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Mp4TrimmerBenchmark {
+
+    private File mInput;
+    private File mOutput;
+
+    @Setup
+    public void setUp() throws IOException {
+        mInput = Mp4Fixtures.write(File.createTempFile("mp4trimmer", ".mp4"), 120, 8000000);
+        mOutput = File.createTempFile("mp4trimmer", ".mp4");
+    }
+
+    @TearDown
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        mInput.delete();
+        //noinspection ResultOfMethodCallIgnored
+        mOutput.delete();
+    }
+
+    @Benchmark
+    public long trim() throws IOException {
+        return Mp4Trimmer.trim(mInput, mOutput, 10000000, 110000000);
+    }
+}
@@ -0,0 +1,144 @@
+package com.afollestad.materialcamera.internal;
+
+import android.graphics.Path;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses and replays the path data of the library's vector icons.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PathParserBenchmark {
+
+    // Copied from res/drawable, plus one arc-heavy path since none of the icons use arcs.
+    private static final String[][] PATHS = {
+            {"record", "M12,7c-2.76,0 -5,2.24 -5,5s2.24,5 5,5 5,-2.24 5,-5 -2.24,-5 -5,-5zm0,-5C6.48,2 2,6.48 2,12s4.48,10 10,10 10,-4.48 10,-10S17.52,2 12,2zm0,18c-4.42,0 -8,-3.58 -8,-8s3.58,-8 8,-8 8,3.58 8,8 -3.58,8 -8,8z"},
+            {"stop", "M6,6h12v12H6z"},
+            {"camera_front", "M10,20H5v2h5v2l3,-3 -3,-3v2zm4,0v2h5v-2h-5zM12,8c1.1,0 2,-0.9 2,-2s-0.9,-2 -2,-2 -1.99,0.9 -1.99,2S10.9,8 12,8zm5,-8H7C5.9,0 5,0.9 5,2v14c0,1.1 0.9,2 2,2h10c1.1,0 2,-0.9 2,-2V2c0,-1.1 -0.9,-2 -2,-2zM7,2h10v10.5c0,-1.67 -3.33,-2.5 -5,-2.5s-5,0.83 -5,2.5V2z"},
+            {"camera_rear", "M10,20H5v2h5v2l3,-3 -3,-3v2zm4,0v2h5v-2h-5zm3,-20H7C5.9,0 5,0.9 5,2v14c0,1.1 0.9,2 2,2h10c1.1,0 2,-0.9 2,-2V2c0,-1.1 -0.9,-2 -2,-2zm-5,6c-1.11,0 -2,-0.9 -2,-2s0.89,-2 1.99,-2 2,0.9 2,2C14,5.1 13.1,6 12,6z"},
+            {"arcs", "M12,2a10,10 0 1,0 0.01,0zM12,6a6,6 0 1,1 -0.01,0zM2,12A10,5 30 0,1 22,12A10,5 30 0,1 2,12z"}
+    };
+
+    @Param({"record", "stop", "camera_front", "camera_rear", "arcs"})
+    public String icon;
+
+    private String mPathData;
+    private PathParser.PathDataNode[] mNodes;
+    private PathParser.PathDataNode[] mMorphNodes;
+    private CompiledPath mCompiled;
+    private CompiledPath mMorphTarget;
+    private final float[] mCurrent = new float[6];
+    private float mFraction;
+    private final Path mPath = new Path();
+    private final PathDataScanner mScanner = new PathDataScanner();
+    private final PathDataCache mCache = new PathDataCache(8);
+    private byte[] mCompiledBytes;
+
+    @Setup
+    public void setUp() throws IOException {
+        for (String[] path : PATHS) {
+            if (path[0].equals(icon)) {
+                mPathData = path[1];
+                break;
+            }
+        }
+        mNodes = PathParser.createNodesFromPathData(mPathData);
+        mMorphNodes = PathParser.deepCopyNodes(mNodes);
+        mCompiled = CompiledPath.compile(mPathData);
+        mMorphTarget = mCompiled.copy();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        mCompiled.write(new DataOutputStream(bytes));
+        mCompiledBytes = bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Object createNodesFromPathData() {
+        return PathParser.createNodesFromPathData(mPathData);
+    }
+
+    @Benchmark
+    public Object createNodesWithSharedScanner() {
+        return PathParser.createNodesFromPathData(mPathData, mScanner);
+    }
+
+    @Benchmark
+    public int scan() {
+        mScanner.scan(mPathData);
+        return mScanner.getParamCount();
+    }
+
+    @Benchmark
+    public int nodesToPath() {
+        mPath.reset();
+        PathParser.PathDataNode.nodesToPath(mNodes, mPath);
+        return mPath.getChecksum();
+    }
+
+    @Benchmark
+    public int parseAndReplay() {
+        mPath.reset();
+        PathParser.PathDataNode.nodesToPath(PathParser.createNodesFromPathData(mPathData), mPath);
+        return mPath.getChecksum();
+    }
+
+    @Benchmark
+    public Object compile() {
+        return CompiledPath.compile(mPathData, mScanner);
+    }
+
+    @Benchmark
+    public Object readCompiled() throws IOException {
+        return CompiledPath.read(new DataInputStream(new ByteArrayInputStream(mCompiledBytes)));
+    }
+
+    @Benchmark
+    public Object cachedCompile() {
+        return mCache.get(mPathData);
+    }
+
+    @Benchmark
+    public int compiledToPath() {
+        mPath.reset();
+        PathParser.compiledToPath(mCompiled, mPath, mCurrent);
+        return mPath.getChecksum();
+    }
+
+    @Benchmark
+    public Object interpolateNodes() {
+        mFraction = mFraction >= 1f ? 0f : mFraction + 0.1f;
+        for (int i = 0; i < mMorphNodes.length; i++)
+            mMorphNodes[i].interpolatePathDataNode(mNodes[i], mNodes[i], mFraction);
+        return mMorphNodes;
+    }
+
+    @Benchmark
+    public Object interpolateCompiled() {
+        mFraction = mFraction >= 1f ? 0f : mFraction + 0.1f;
+        mMorphTarget.interpolate(mCompiled, mCompiled, mFraction);
+        return mMorphTarget;
+    }
+}
@@ -0,0 +1,60 @@
+package com.afollestad.materialcamera.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the video and preview size selection that both camera fragments do on every open.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SizeChooserBenchmark {
+
+    // A typical back camera's MediaRecorder and SurfaceTexture output sizes.
+    private final int[] mVideoWidths = {1920, 1280, 800, 768, 720, 640, 576, 480, 384, 352, 320, 240, 176};
+    private final int[] mVideoHeights = {1080, 720, 480, 432, 480, 480, 432, 320, 288, 288, 240, 160, 144};
+    private final int[] mPreviewWidths = {1920, 1440, 1280, 1024, 960, 800, 768, 720, 640, 576, 480, 384, 352, 320, 240, 176};
+    private final int[] mPreviewHeights = {1080, 1080, 720, 768, 720, 480, 432, 480, 480, 432, 320, 288, 288, 240, 160, 144};
+
+    @Setup
+    public void setUp() {
+        negotiate();
+    }
+
+    @Benchmark
+    public int chooseVideoSize() {
+        return SizeChooser.chooseVideoSize(mVideoWidths, mVideoHeights, SizeChooser.Policy.DEFAULT);
+    }
+
+    @Benchmark
+    public int choosePreviewSize() {
+        return SizeChooser.choosePreviewSize(mPreviewWidths, mPreviewHeights, 1080, 1920, 640, 480);
+    }
+
+    @Benchmark
+    public Object negotiate() {
+        return SizeChooser.negotiate("0", 1080, 1920, SizeChooser.Policy.DEFAULT,
+                mVideoWidths, mVideoHeights, mPreviewWidths, mPreviewHeights);
+    }
+
+    @Benchmark
+    public Object getCached() {
+        return SizeChooser.getCached("0", 1080, 1920, SizeChooser.Policy.DEFAULT);
+    }
+}
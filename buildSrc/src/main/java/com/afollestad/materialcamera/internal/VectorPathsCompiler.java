@@ -0,0 +1,211 @@
+package com.afollestad.materialcamera.internal;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * Build-time half of {@link VectorPathsAsset}: reads vector drawable XML files, compiles their
+ * path data with the same parser the library uses at runtime, and writes the binary asset.
+ * <p>
+ * Only plain vectors are compiled: a {@code <vector>} whose children are {@code <path>} elements
+ * with a literal fill color. Anything else (selectors, groups, strokes, color resources) is
+ * skipped and keeps being inflated through MrVector at runtime. Attributes of {@code <vector>}
+ * itself other than its size and viewport, e.g. android:alpha or android:tint, fail the build
+ * rather than being dropped from the compiled icon.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class VectorPathsCompiler {
+
+    private static final String ANDROID_NS = "http://schemas.android.com/apk/res/android";
+
+    private VectorPathsCompiler() {
+    }
+
+    /**
+     * @return the resource entry names of the icons that were compiled.
+     * @throws IllegalArgumentException if a vector is malformed, e.g. has invalid path data.
+     * @throws IOException              if reading a file or writing the asset fails.
+     */
+    public static List<String> compile(File[] xmlFiles, File outputFile) throws IOException {
+        final File[] files = xmlFiles.clone();
+        // Sorted so the asset is byte-for-byte reproducible.
+        Arrays.sort(files);
+        final DocumentBuilder builder = newDocumentBuilder();
+        final Map<String, VectorPathsAsset.Icon> icons = new LinkedHashMap<>();
+        for (File file : files) {
+            final Document document;
+            try {
+                document = builder.parse(file);
+            } catch (Exception e) {
+                throw new IllegalArgumentException(file.getName() + ": " + e.getMessage(), e);
+            }
+            final VectorPathsAsset.Icon icon = compileVector(file.getName(), document.getDocumentElement());
+            if (icon != null)
+                icons.put(entryName(file), icon);
+        }
+
+        final File parent = outputFile.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Unable to create " + parent);
+        final OutputStream os = new BufferedOutputStream(new FileOutputStream(outputFile));
+        try {
+            VectorPathsAsset.write(icons, os);
+        } finally {
+            os.close();
+        }
+        return new ArrayList<>(icons.keySet());
+    }
+
+    private static VectorPathsAsset.Icon compileVector(String fileName, Element vector) {
+        if (!"vector".equals(vector.getTagName()))
+            return null;
+        checkVectorAttributes(fileName, vector);
+        final List<Integer> fillColors = new ArrayList<>();
+        final List<CompiledPath> paths = new ArrayList<>();
+        final List<String> pathData = new ArrayList<>();
+        final NodeList children = vector.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            final Node child = children.item(i);
+            if (child.getNodeType() != Node.ELEMENT_NODE)
+                continue;
+            final Element path = (Element) child;
+            if (!"path".equals(path.getTagName()) || hasUnsupportedAttributes(path))
+                return null;
+            final String fillColor = path.getAttributeNS(ANDROID_NS, "fillColor");
+            if (!fillColor.startsWith("#"))
+                return null;
+            fillColors.add(parseColor(fileName, fillColor));
+            pathData.add(path.getAttributeNS(ANDROID_NS, "pathData"));
+            try {
+                paths.add(CompiledPath.compile(pathData.get(pathData.size() - 1)));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException(fileName + ": " + e.getMessage(), e);
+            }
+        }
+        if (paths.isEmpty())
+            return null;
+
+        final int[] colors = new int[fillColors.size()];
+        for (int i = 0; i < colors.length; i++)
+            colors[i] = fillColors.get(i);
+        return new VectorPathsAsset.Icon(
+                parseDimension(fileName, vector, "width"),
+                parseDimension(fileName, vector, "height"),
+                parseFloat(fileName, vector, "viewportWidth"),
+                parseFloat(fileName, vector, "viewportHeight"),
+                VectorPathsAsset.checksum(pathData), colors, paths.toArray(new CompiledPath[paths.size()]));
+    }
+
+    private static void checkVectorAttributes(String fileName, Element vector) {
+        for (int i = 0; i < vector.getAttributes().getLength(); i++) {
+            final Node attribute = vector.getAttributes().item(i);
+            if (!ANDROID_NS.equals(attribute.getNamespaceURI()))
+                continue;
+            final String name = attribute.getLocalName();
+            if (!"width".equals(name) && !"height".equals(name) && !"viewportWidth".equals(name) &&
+                    !"viewportHeight".equals(name))
+                throw new IllegalArgumentException(fileName + ": android:" + name +
+                        " on <vector> isn't supported by the precompiled icons");
+        }
+    }
+
+    private static boolean hasUnsupportedAttributes(Element path) {
+        for (int i = 0; i < path.getAttributes().getLength(); i++) {
+            final Node attribute = path.getAttributes().item(i);
+            if (!ANDROID_NS.equals(attribute.getNamespaceURI()))
+                continue;
+            final String name = attribute.getLocalName();
+            if (!"pathData".equals(name) && !"fillColor".equals(name) && !"name".equals(name))
+                return true;
+        }
+        return false;
+    }
+
+    private static float parseDimension(String fileName, Element vector, String attribute) {
+        final String value = vector.getAttributeNS(ANDROID_NS, attribute);
+        if (!value.endsWith("dp"))
+            throw new IllegalArgumentException(fileName + ": android:" + attribute +
+                    " must be in dp, was \"" + value + "\"");
+        return parseFloat(fileName, attribute, value.substring(0, value.length() - 2));
+    }
+
+    private static float parseFloat(String fileName, Element vector, String attribute) {
+        return parseFloat(fileName, attribute, vector.getAttributeNS(ANDROID_NS, attribute));
+    }
+
+    private static float parseFloat(String fileName, String attribute, String value) {
+        try {
+            final float result = Float.parseFloat(value);
+            if (result > 0)
+                return result;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException(fileName + ": invalid android:" + attribute +
+                " \"" + value + "\"");
+    }
+
+    /**
+     * Parses #RGB, #ARGB, #RRGGBB and #AARRGGBB, the same forms Android accepts in resources.
+     */
+    private static int parseColor(String fileName, String value) {
+        final String hex = value.substring(1);
+        try {
+            final long parsed = Long.parseLong(hex, 16);
+            switch (hex.length()) {
+                case 3:
+                case 4: {
+                    int color = hex.length() == 3 ? 0xF : 0;
+                    for (int shift = (hex.length() - 1) * 4; shift >= 0; shift -= 4)
+                        color = (color << 4) | (int) ((parsed >> shift) & 0xF);
+                    // Duplicate every nibble: #fff becomes #ffffffff.
+                    int expanded = 0;
+                    for (int shift = 12; shift >= 0; shift -= 4) {
+                        final int nibble = (color >> shift) & 0xF;
+                        expanded = (expanded << 8) | (nibble << 4) | nibble;
+                    }
+                    return expanded;
+                }
+                case 6:
+                    return 0xFF000000 | (int) parsed;
+                case 8:
+                    return (int) parsed;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException(fileName + ": invalid android:fillColor \"" + value + "\"");
+    }
+
+    private static String entryName(File file) {
+        final String name = file.getName();
+        final int dot = name.lastIndexOf('.');
+        return dot == -1 ? name : name.substring(0, dot);
+    }
+
+    private static DocumentBuilder newDocumentBuilder() {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        try {
+            return factory.newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
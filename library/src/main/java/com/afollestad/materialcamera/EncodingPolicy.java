@@ -0,0 +1,80 @@
+package com.afollestad.materialcamera;
+
+import java.io.Serializable;
+
+/**
+ * Decides the video bit rate and frame rate a recording is encoded at. The bit rate scales with
+ * the pixels encoded per second, {@code width * height * frameRate * bitsPerPixel}, clamped to a
+ * minimum and maximum, so a 480p clip isn't written at the rate a 1080p one needs. Subclass it to
+ * plug in a different model; it's passed to the recorder in an Intent, so it must stay
+ * serializable.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class EncodingPolicy implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final float DEFAULT_BITS_PER_PIXEL = 0.1f;
+    public static final int DEFAULT_MIN_BIT_RATE = 500000;
+    public static final int DEFAULT_MAX_BIT_RATE = 20000000;
+    public static final int DEFAULT_FRAME_RATE = 30;
+
+    private final float mBitsPerPixel;
+    private final int mMinBitRate;
+    private final int mMaxBitRate;
+    private final int mTargetFrameRate;
+
+    public EncodingPolicy() {
+        this(DEFAULT_BITS_PER_PIXEL, DEFAULT_MIN_BIT_RATE, DEFAULT_MAX_BIT_RATE, DEFAULT_FRAME_RATE);
+    }
+
+    /**
+     * @param bitsPerPixel    Bits spent per pixel per frame, around 0.1 is good quality H.264.
+     * @param minBitRate      The lowest bit rate, in bits per second.
+     * @param maxBitRate      The highest bit rate, in bits per second.
+     * @param targetFrameRate The frame rate to record at, if the camera can run that fast.
+     */
+    public EncodingPolicy(float bitsPerPixel, int minBitRate, int maxBitRate, int targetFrameRate) {
+        if (bitsPerPixel <= 0f || minBitRate <= 0 || maxBitRate < minBitRate || targetFrameRate <= 0)
+            throw new IllegalArgumentException("Invalid encoding policy.");
+        mBitsPerPixel = bitsPerPixel;
+        mMinBitRate = minBitRate;
+        mMaxBitRate = maxBitRate;
+        mTargetFrameRate = targetFrameRate;
+    }
+
+    public float getBitsPerPixel() {
+        return mBitsPerPixel;
+    }
+
+    public int getMinBitRate() {
+        return mMinBitRate;
+    }
+
+    public int getMaxBitRate() {
+        return mMaxBitRate;
+    }
+
+    public int getTargetFrameRate() {
+        return mTargetFrameRate;
+    }
+
+    /**
+     * @return the bit rate, in bits per second, to encode video of the given size and frame rate at.
+     */
+    public int getBitRate(int width, int height, int frameRate) {
+        final double bitRate = (double) width * height * frameRate * mBitsPerPixel;
+        return (int) Math.max(mMinBitRate, Math.min(mMaxBitRate, Math.round(bitRate)));
+    }
+
+    /**
+     * @param maxSupportedFrameRate The fastest the camera runs, or -1 if unknown.
+     * @return the frame rate to record at.
+     */
+    public int getFrameRate(int maxSupportedFrameRate) {
+        if (maxSupportedFrameRate <= 0)
+            return mTargetFrameRate;
+        return Math.min(mTargetFrameRate, maxSupportedFrameRate);
+    }
+}
@@ -1,10 +1,12 @@
 package com.afollestad.materialcamera;
 
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
 import android.support.annotation.AttrRes;
 import android.support.annotation.ColorInt;
 import android.support.annotation.ColorRes;
+import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
@@ -15,6 +17,10 @@ import com.afollestad.materialcamera.internal.VideoRecorderActivity2;
 import com.afollestad.materialdialogs.util.DialogUtils;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.List;
 
 /**
  * @author Aidan Follestad (afollestad)
@@ -22,6 +28,73 @@ import java.io.File;
 public class MaterialCamera {
 
     public static final String ERROR_EXTRA = "mcam_error";
+    /**
+     * A long extra in the result: milliseconds from pressing record until the first frame was
+     * recorded, or until the recorder started where that can't be observed. Absent if unknown.
+     */
+    public static final String RECORD_LATENCY_EXTRA = "mcam_record_latency";
+    /**
+     * A String ArrayList extra in the result when a recording was split at the max file size, see
+     * {@link #segmentAtMaxFileSize(boolean)}: the URIs of all its files in order. The result's data
+     * is the first of them.
+     */
+    public static final String SEGMENTS_EXTRA = "mcam_segments";
+    /**
+     * A long extra in the result: milliseconds from stopping the recording until it was ready to
+     * preview, spent joining its parts (see {@link #allowPause(boolean)}) and moving its index to
+     * the front (see {@link #fastStart(boolean)}). Absent if neither was needed.
+     */
+    public static final String PROCESSING_TIME_EXTRA = "mcam_processing_time";
+    /**
+     * A long extra in the result: the recording's duration in milliseconds, read from the file
+     * (or all of {@link #SEGMENTS_EXTRA}) as it's returned. Absent if the file couldn't be read,
+     * as are {@link #WIDTH_EXTRA}, {@link #HEIGHT_EXTRA} and {@link #BIT_RATE_EXTRA}.
+     */
+    public static final String DURATION_EXTRA = "mcam_duration";
+    /**
+     * An int extra in the result: the video's width in pixels, before the rotation it's played
+     * back with.
+     */
+    public static final String WIDTH_EXTRA = "mcam_width";
+    /**
+     * An int extra in the result: the video's height in pixels, before the rotation it's played
+     * back with.
+     */
+    public static final String HEIGHT_EXTRA = "mcam_height";
+    /**
+     * A long extra in the result: the recording's average bit rate in bits per second, audio
+     * included.
+     */
+    public static final String BIT_RATE_EXTRA = "mcam_bit_rate";
+    /**
+     * A String ArrayList extra in the result: the URIs of earlier recordings that were cut off,
+     * e.g. when the app crashed, which {@link #recoverRecording(Context, File)} can make playable.
+     * Looked for in the background as the camera opens. Absent if there are none.
+     */
+    public static final String RECOVERABLE_EXTRA = "mcam_recoverable";
+
+    @IntDef({QUALITY_LOW_BANDWIDTH, QUALITY_BALANCED, QUALITY_HIGH})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Quality {
+    }
+
+    /**
+     * Up to 480p at 24 fps, with low bit rates for uploading over slow connections.
+     */
+    public static final int QUALITY_LOW_BANDWIDTH = 1;
+    /**
+     * Up to 720p at 30 fps.
+     */
+    public static final int QUALITY_BALANCED = 2;
+    /**
+     * Up to 1080p at 30 fps, with stereo audio.
+     */
+    public static final int QUALITY_HIGH = 3;
+
+    /**
+     * The longest pre-roll {@link #preRollSeconds(int)} accepts, it's kept encoded in memory.
+     */
+    public static final int MAX_PRE_ROLL_SECONDS = 10;
 
     private Activity mContext;
     private long mLengthLimit = -1;
@@ -31,10 +104,27 @@ public class MaterialCamera {
     private int mPrimaryColor;
     private boolean mShowPortraitWarning = true;
     private boolean mDefaultToFrontFacing = false;
+    private int mPreRollSeconds = 0;
+    private EncodingPolicy mEncodingPolicy;
+    private int mQuality = 0;
+    private int mVideoBitrate = -1;
+    private int mFrameRate = -1;
+    private int mAudioBitrate = -1;
+    private int mAudioSampleRate = -1;
+    private int mAudioChannels = -1;
+    private int mMaxResolution = -1;
+    private boolean mAllowHevc = true;
+    private long mMaxFileSize = -1;
+    private boolean mSegmentAtMaxFileSize = false;
+    private boolean mAllowPause = false;
+    private boolean mFastStart = false;
+    private boolean mAllowTrim = true;
 
     public MaterialCamera(@NonNull Activity context) {
         mContext = context;
         mPrimaryColor = DialogUtils.resolveColor(context, R.attr.colorPrimary);
+        // Opening the camera waits for the profile, getIntent() only reads what it saved last time.
+        CameraUtil.preloadCameraProfile(context);
     }
 
     public MaterialCamera lengthLimitMillis(long lengthLimitMs) {
@@ -93,6 +183,134 @@ public class MaterialCamera {
         return this;
     }
 
+    /**
+     * Keeps the last few seconds encoded while the camera previews, so recordings start up to
+     * this many seconds before record was pressed. Only applies to devices using the Camera2 API.
+     *
+     * @param seconds 0 for none, up to {@link #MAX_PRE_ROLL_SECONDS}.
+     */
+    public MaterialCamera preRollSeconds(int seconds) {
+        if (seconds < 0 || seconds > MAX_PRE_ROLL_SECONDS)
+            throw new IllegalArgumentException("The pre-roll must be 0 to " + MAX_PRE_ROLL_SECONDS + " seconds.");
+        mPreRollSeconds = seconds;
+        return this;
+    }
+
+    /**
+     * Sets how the video bit rate and frame rate are chosen, see {@link EncodingPolicy}.
+     */
+    public MaterialCamera encodingPolicy(@Nullable EncodingPolicy policy) {
+        mEncodingPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Picks the encoder settings from a preset. The options below override single values of it.
+     */
+    public MaterialCamera quality(@Quality int quality) {
+        mQuality = quality;
+        return this;
+    }
+
+    /**
+     * Records video at a fixed bit rate, in bits per second, instead of the encoding policy's.
+     */
+    public MaterialCamera videoBitrate(int bitsPerSecond) {
+        mVideoBitrate = bitsPerSecond;
+        return this;
+    }
+
+    /**
+     * Records at this frame rate, or as close as the camera gets.
+     */
+    public MaterialCamera frameRate(int framesPerSecond) {
+        mFrameRate = framesPerSecond;
+        return this;
+    }
+
+    public MaterialCamera audioBitrate(int bitsPerSecond) {
+        mAudioBitrate = bitsPerSecond;
+        return this;
+    }
+
+    public MaterialCamera audioSampleRate(int hertz) {
+        mAudioSampleRate = hertz;
+        return this;
+    }
+
+    public MaterialCamera audioChannels(int channels) {
+        mAudioChannels = channels;
+        return this;
+    }
+
+    /**
+     * Limits the video size to this height in landscape, e.g. 720 for 720p.
+     */
+    public MaterialCamera maxResolution(int height) {
+        mMaxResolution = height;
+        return this;
+    }
+
+    /**
+     * Whether to record HEVC on Android 7.0+ devices with a hardware HEVC encoder that can keep
+     * up, instead of H.264. HEVC is recorded at 60% of the encoding policy's bit rate, for about
+     * the same quality, unless a video bit rate is set explicitly. Defaults to true.
+     */
+    public MaterialCamera allowHevc(boolean allow) {
+        mAllowHevc = allow;
+        return this;
+    }
+
+    /**
+     * Limits the size of the recorded file. Recording stops when it's reached, unless
+     * {@link #segmentAtMaxFileSize(boolean)} is set.
+     */
+    public MaterialCamera maxFileSizeBytes(long bytes) {
+        mMaxFileSize = bytes;
+        return this;
+    }
+
+    /**
+     * Keeps recording in a new file whenever the max file size is reached, instead of stopping.
+     * All files come back in {@link #SEGMENTS_EXTRA}.
+     */
+    public MaterialCamera segmentAtMaxFileSize(boolean segment) {
+        mSegmentAtMaxFileSize = segment;
+        return this;
+    }
+
+    /**
+     * Shows a pause button while recording. The parts recorded between pauses are joined into one
+     * file when recording stops, without re-encoding. Not available with pre-roll, a max file size,
+     * or before Android 6.0 on devices using the Camera2 API. Defaults to false.
+     */
+    public MaterialCamera allowPause(boolean allow) {
+        mAllowPause = allow;
+        return this;
+    }
+
+    /**
+     * Moves the recording's index (its moov box) in front of the media data once it's stopped,
+     * so it can be played while it's still downloading, e.g. from a server it's uploaded to.
+     * MediaRecorder can only write it at the end. Takes about as long as copying the file.
+     * Defaults to false.
+     */
+    public MaterialCamera fastStart(boolean fastStart) {
+        mFastStart = fastStart;
+        return this;
+    }
+
+    /**
+     * Shows handles on the playback screen's seek bar for cutting the start and end off the
+     * recording before it's used. It's cut without re-encoding, so the start moves back to the
+     * last key frame before it. Not available when the recording continues in more files at the
+     * max file size. Defaults to true.
+     */
+    public MaterialCamera allowTrim(boolean allow) {
+        mAllowTrim = allow;
+        return this;
+    }
+
     public Intent getIntent() {
         final Class<?> cls = CameraUtil.hasCamera2(mContext) ?
                 VideoRecorderActivity2.class : VideoRecorderActivity.class;
@@ -103,10 +321,80 @@ public class MaterialCamera {
                 .putExtra("save_dir", mSaveDir)
                 .putExtra("primary_color", mPrimaryColor)
                 .putExtra("show_portrait_warning", mShowPortraitWarning)
-                .putExtra("default_to_front_facing", mDefaultToFrontFacing);
+                .putExtra("default_to_front_facing", mDefaultToFrontFacing)
+                .putExtra("pre_roll_seconds", mPreRollSeconds)
+                .putExtra("encoding_policy", mEncodingPolicy)
+                .putExtra("quality", mQuality)
+                .putExtra("video_bit_rate", mVideoBitrate)
+                .putExtra("frame_rate", mFrameRate)
+                .putExtra("audio_bit_rate", mAudioBitrate)
+                .putExtra("audio_sample_rate", mAudioSampleRate)
+                .putExtra("audio_channels", mAudioChannels)
+                .putExtra("max_resolution", mMaxResolution)
+                .putExtra("allow_hevc", mAllowHevc)
+                .putExtra("max_file_size", mMaxFileSize)
+                .putExtra("segment_at_max_file_size", mSegmentAtMaxFileSize)
+                .putExtra("allow_pause", mAllowPause)
+                .putExtra("fast_start", mFastStart)
+                .putExtra("allow_trim", mAllowTrim);
     }
 
     public void start(int requestCode) {
         mContext.startActivityForResult(getIntent(), requestCode);
     }
-}
\ No newline at end of file
+
+    /**
+     * Finds recordings that were cut off before they were finished, e.g. when the app crashed or
+     * the camera failed, and can't be played as they are. Reads each of them, so call this off
+     * the main thread.
+     */
+    @NonNull
+    public static List<File> findRecoverableRecordings(@NonNull Context context) {
+        return CameraUtil.findRecoverableRecordings(context);
+    }
+
+    /**
+     * Makes one of {@link #findRecoverableRecordings(Context)} playable, in place, from its video
+     * frames up to the last complete one. Its audio can't be recovered. Needs a recording finished
+     * earlier with the same video codec and size, and rewrites the file, so call this off the
+     * main thread.
+     *
+     * @return the number of video frames recovered.
+     */
+    public static int recoverRecording(@NonNull Context context, @NonNull File file) throws IOException {
+        return CameraUtil.recoverRecording(context, file);
+    }
+
+    /**
+     * @return the rotation in degrees players show a recorded video with, or -1 if its track
+     * header does more than rotate it by a multiple of 90 degrees, e.g. mirror it.
+     */
+    public static int getVideoRotation(@NonNull File file) throws IOException {
+        return CameraUtil.getVideoRotation(file);
+    }
+
+    /**
+     * Changes the rotation players show a recorded video with, e.g. to fix one recorded with the
+     * wrong orientation. Only the rotation in the video's track header is overwritten, in place;
+     * the frames aren't touched, so this takes no longer than opening the file. Not on the main
+     * thread though, it reads the file's index.
+     *
+     * @param degrees Clockwise, 0, 90, 180 or 270; replacing the rotation it was recorded with.
+     */
+    public static void setVideoRotation(@NonNull File file, int degrees) throws IOException {
+        CameraUtil.setVideoRotation(file, degrees);
+    }
+
+    /**
+     * Cuts a recorded video down to the part between startMs and endMs, in place and without
+     * re-encoding: only the sample tables are rewritten and the kept media data copied. The video
+     * has to start with a key frame, so it starts at the last one at or before startMs. Not on the
+     * main thread, though it takes milliseconds rather than seconds even for long recordings.
+     *
+     * @return where the trimmed video starts in the original, in milliseconds.
+     * @throws IllegalArgumentException if startMs isn't before endMs and the end of the video.
+     */
+    public static long trimVideo(@NonNull File file, long startMs, long endMs) throws IOException {
+        return CameraUtil.trimVideo(file, startMs * 1000, endMs * 1000) / 1000;
+    }
+}
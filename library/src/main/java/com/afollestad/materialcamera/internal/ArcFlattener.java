@@ -0,0 +1,373 @@
+package com.afollestad.materialcamera.internal;
+
+import android.graphics.Path;
+import android.util.Log;
+
+/**
+ * Converts SVG elliptical arcs to cubic Bezier segments. The number of segments comes from the
+ * arc's radius on screen and an error tolerance in pixels, so a large icon on a dense screen gets
+ * enough segments to look exact while a small one does less work. Segment points are advanced by
+ * a rotation recurrence, so an arc costs a fixed number of trig calls no matter how many segments
+ * it needs.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class ArcFlattener {
+
+    private static final String LOGTAG = "ArcFlattener";
+
+    /**
+     * The tolerance used when the on-screen size of a path isn't known: path units are treated as
+     * pixels and the error is kept well below one of them.
+     */
+    public static final float DEFAULT_TOLERANCE = 0.01f;
+    /**
+     * A tenth of a pixel, invisible once antialiased.
+     */
+    public static final float SCREEN_TOLERANCE = 0.1f;
+
+    public static final ArcFlattener DEFAULT = new ArcFlattener(1f, DEFAULT_TOLERANCE);
+
+    /**
+     * No segment sweeps more than 90 degrees, past that the cubic approximation degrades quickly.
+     */
+    private static final double MAX_SEGMENT_SWEEP = Math.PI / 2;
+    /**
+     * A full circle split this many times is exact to ~1e-10 of its radius.
+     */
+    static final int MAX_SEGMENTS = 64;
+
+    private final float mScale;
+    private final float mTolerance;
+
+    /**
+     * @param scale     How many pixels one path unit covers on screen, e.g. the drawable's width in
+     *                  pixels divided by its viewport width.
+     * @param tolerance The maximum distance in pixels between the curves and the true arc.
+     */
+    public ArcFlattener(float scale, float tolerance) {
+        if (scale <= 0 || tolerance <= 0)
+            throw new IllegalArgumentException("Scale and tolerance must be greater than 0.");
+        mScale = scale;
+        mTolerance = tolerance;
+    }
+
+    public float getScale() {
+        return mScale;
+    }
+
+    public float getTolerance() {
+        return mTolerance;
+    }
+
+    /**
+     * @param radius The arc's larger radius in path units.
+     * @param sweep  The arc's sweep in radians, positive or negative.
+     * @return the fewest cubic segments that keep the arc within the tolerance.
+     */
+    public int getSegmentCount(double radius, double sweep) {
+        final double absSweep = Math.abs(sweep);
+        if (absSweep == 0)
+            return 0;
+        final double pixelRadius = radius * mScale;
+        // The radial error of one cubic spanning t radians is r * 4/27 * sin^6(t/4) / cos^2(t/4),
+        // about r * t^6 / 27648 for small t. Start from the small angle estimate, then step up
+        // until the exact error fits.
+        final double estimate = Math.pow(27648.0 * mTolerance / pixelRadius, 1.0 / 6.0);
+        final double maxSweep = Math.min(MAX_SEGMENT_SWEEP, estimate);
+        int segments = (int) Math.max(1, Math.min(MAX_SEGMENTS, Math.ceil(absSweep / maxSweep)));
+        while (segments < MAX_SEGMENTS && getError(pixelRadius, absSweep / segments) > mTolerance)
+            segments++;
+        return segments;
+    }
+
+    private static double getError(double radius, double segmentSweep) {
+        final double sin = Math.sin(segmentSweep / 4);
+        final double cos = Math.cos(segmentSweep / 4);
+        final double sin2 = sin * sin;
+        return radius * (4.0 / 27.0) * sin2 * sin2 * sin2 / (cos * cos);
+    }
+
+    /**
+     * Appends the arc from (x0, y0) to (x1, y1) to p as cubic segments, with the parameters of the
+     * SVG arc command. The current point of p must be (x0, y0).
+     */
+    public void arcTo(Path p, float x0, float y0, float x1, float y1, float a, float b,
+                      float theta, boolean isMoreThanHalf, boolean isPositiveArc) {
+        flatten(p, null, 0, x0, y0, x1, y1, a, b, theta, isMoreThanHalf, isPositiveArc);
+    }
+
+    /**
+     * Same as {@link #arcTo(Path, float, float, float, float, float, float, float, boolean,
+     * boolean)}, but writes the segments to out as absolute cubic parameters (x1 y1 x2 y2 x y).
+     * out needs room for 6 * {@link #MAX_SEGMENTS} floats after offset.
+     *
+     * @return how many segments were written, 0 when the arc draws nothing or is a straight line.
+     */
+    public int arcTo(float[] out, int offset, float x0, float y0, float x1, float y1, float a,
+                     float b, float theta, boolean isMoreThanHalf, boolean isPositiveArc) {
+        return flatten(null, out, offset, x0, y0, x1, y1, a, b, theta, isMoreThanHalf, isPositiveArc);
+    }
+
+    /**
+     * Converts every arc in the path to cubic segments in one pass, so replaying the result never
+     * goes through arc math. Because the segment count depends on this flattener's scale and
+     * tolerance, the result can only morph into paths flattened the same way.
+     *
+     * @return a new path without arc commands, or path itself if it has none.
+     */
+    public CompiledPath flattenArcs(CompiledPath path) {
+        final int count = path.getCommandCount();
+        boolean hasArcs = false;
+        for (int i = 0; i < count && !hasArcs; i++) {
+            final char command = path.getCommand(i);
+            hasArcs = command == 'a' || command == 'A';
+        }
+        if (!hasArcs)
+            return path;
+
+        final float[] val = path.getParams();
+        final PathBuilder out = new PathBuilder(count, val.length);
+        final float[] segment = new float[6 * MAX_SEGMENTS];
+        float currentX = 0;
+        float currentY = 0;
+        float startX = 0;
+        float startY = 0;
+        char previousCmd = 'm';
+        for (int i = 0; i < count; i++) {
+            final char cmd = path.getCommand(i);
+            final int start = path.getParamStart(i);
+            final int end = path.getParamEnd(i);
+            if (cmd == 'a' || cmd == 'A') {
+                for (int k = start; k < end; k += 7) {
+                    final float x1 = cmd == 'a' ? currentX + val[k + 5] : val[k + 5];
+                    final float y1 = cmd == 'a' ? currentY + val[k + 6] : val[k + 6];
+                    final int segments = arcTo(segment, 0, currentX, currentY, x1, y1,
+                            val[k], val[k + 1], val[k + 2], val[k + 3] != 0, val[k + 4] != 0);
+                    if (segments > 0) {
+                        out.add('C', segment, 0, segments * 6);
+                    } else {
+                        segment[0] = x1;
+                        segment[1] = y1;
+                        out.add('L', segment, 0, 2);
+                    }
+                    currentX = x1;
+                    currentY = y1;
+                }
+            } else {
+                if ((cmd == 's' || cmd == 'S') && (previousCmd == 'a' || previousCmd == 'A')) {
+                    // After an arc, a smooth curve doesn't reflect any control point. After the
+                    // cubics that replace it, it would; a zero length line keeps the old shape.
+                    segment[0] = currentX;
+                    segment[1] = currentY;
+                    out.add('L', segment, 0, 2);
+                }
+                out.add(cmd, val, start, end - start);
+                final int incr = CompiledPath.getParamsPerSegment(cmd);
+                if (incr == 0) {
+                    currentX = startX;
+                    currentY = startY;
+                }
+                for (int k = start; incr > 0 && k < end; k += incr) {
+                    final boolean relative = cmd >= 'a';
+                    switch (cmd) {
+                        case 'h':
+                        case 'H':
+                            currentX = relative ? currentX + val[k] : val[k];
+                            break;
+                        case 'v':
+                        case 'V':
+                            currentY = relative ? currentY + val[k] : val[k];
+                            break;
+                        default:
+                            // Every other command ends with the segment's end point.
+                            currentX = relative ? currentX + val[k + incr - 2] : val[k + incr - 2];
+                            currentY = relative ? currentY + val[k + incr - 1] : val[k + incr - 1];
+                            break;
+                    }
+                    if (cmd == 'm' || cmd == 'M') {
+                        startX = currentX;
+                        startY = currentY;
+                    }
+                }
+            }
+            previousCmd = cmd;
+        }
+        return out.build();
+    }
+
+    private int flatten(Path p, float[] out, int offset, float x0, float y0, float x1, float y1,
+                        float a, float b, float theta, boolean isMoreThanHalf, boolean isPositiveArc) {
+        if (a == 0 || b == 0) {
+            // A zero radius arc is a straight line.
+            if (p != null)
+                p.lineTo(x1, y1);
+            return 0;
+        }
+        /* Convert rotation angle from degrees to radians */
+        final double thetaD = Math.toRadians(theta);
+        /* Pre-compute rotation matrix entries */
+        final double cosTheta = Math.cos(thetaD);
+        final double sinTheta = Math.sin(thetaD);
+        /* Transform (x0, y0) and (x1, y1) into unit space */
+        /* using (inverse) rotation, followed by (inverse) scale */
+        final double x0p = (x0 * cosTheta + y0 * sinTheta) / a;
+        final double y0p = (-x0 * sinTheta + y0 * cosTheta) / b;
+        final double x1p = (x1 * cosTheta + y1 * sinTheta) / a;
+        final double y1p = (-x1 * sinTheta + y1 * cosTheta) / b;
+        /* Compute differences and averages */
+        final double dx = x0p - x1p;
+        final double dy = y0p - y1p;
+        final double xm = (x0p + x1p) / 2;
+        final double ym = (y0p + y1p) / 2;
+        /* Solve for intersecting unit circles */
+        final double dsq = dx * dx + dy * dy;
+        if (dsq == 0.0) {
+            Log.w(LOGTAG, " Points are coincident");
+            return 0; /* Points are coincident */
+        }
+        final double disc = 1.0 / dsq - 1.0 / 4.0;
+        if (disc < 0.0) {
+            Log.w(LOGTAG, "Points are too far apart " + dsq);
+            final float adjust = (float) (Math.sqrt(dsq) / 1.99999);
+            return flatten(p, out, offset, x0, y0, x1, y1, a * adjust, b * adjust, theta,
+                    isMoreThanHalf, isPositiveArc);
+        }
+        final double s = Math.sqrt(disc);
+        final double sdx = s * dx;
+        final double sdy = s * dy;
+        double cx;
+        double cy;
+        if (isMoreThanHalf == isPositiveArc) {
+            cx = xm - sdy;
+            cy = ym + sdx;
+        } else {
+            cx = xm + sdy;
+            cy = ym - sdx;
+        }
+        final double eta0 = Math.atan2((y0p - cy), (x0p - cx));
+        final double eta1 = Math.atan2((y1p - cy), (x1p - cx));
+        double sweep = (eta1 - eta0);
+        if (isPositiveArc != (sweep >= 0)) {
+            if (sweep > 0) {
+                sweep -= 2 * Math.PI;
+            } else {
+                sweep += 2 * Math.PI;
+            }
+        }
+        cx *= a;
+        cy *= b;
+        final double tcx = cx;
+        cx = cx * cosTheta - cy * sinTheta;
+        cy = tcx * sinTheta + cy * cosTheta;
+
+        final int segments = getSegmentCount(Math.max(Math.abs(a), Math.abs(b)), sweep);
+        if (segments == 0)
+            return 0;
+        // Taken from equations at: http://spaceroots.org/documents/ellipse/node8.html
+        // Every segment spans the same angle, so its rotation and control point length are
+        // computed once and the angle is advanced with cos(e + d) = cos e cos d - sin e sin d.
+        // The control points sit 4/3 tan(d/4) along the tangent, the length the error bound in
+        // getSegmentCount() is exact for.
+        final double anglePerSegment = sweep / segments;
+        final double cosStep = Math.cos(anglePerSegment);
+        final double sinStep = Math.sin(anglePerSegment);
+        final double alpha = 4.0 / 3.0 * Math.tan(anglePerSegment / 4);
+        final double aCos = a * cosTheta;
+        final double aSin = a * sinTheta;
+        final double bCos = b * cosTheta;
+        final double bSin = b * sinTheta;
+
+        double cosEta = Math.cos(eta0);
+        double sinEta = Math.sin(eta0);
+        double e1x = x0;
+        double e1y = y0;
+        double ep1x = -aCos * sinEta - bSin * cosEta;
+        double ep1y = -aSin * sinEta + bCos * cosEta;
+        for (int i = 0; i < segments; i++) {
+            final double nextCos = cosEta * cosStep - sinEta * sinStep;
+            sinEta = sinEta * cosStep + cosEta * sinStep;
+            cosEta = nextCos;
+            double e2x = cx + aCos * cosEta - bSin * sinEta;
+            double e2y = cy + aSin * cosEta + bCos * sinEta;
+            if (i == segments - 1) {
+                // End exactly where the command says, whatever rounding the recurrence picked up.
+                e2x = x1;
+                e2y = y1;
+            }
+            final double ep2x = -aCos * sinEta - bSin * cosEta;
+            final double ep2y = -aSin * sinEta + bCos * cosEta;
+            final float q1x = (float) (e1x + alpha * ep1x);
+            final float q1y = (float) (e1y + alpha * ep1y);
+            final float q2x = (float) (e2x - alpha * ep2x);
+            final float q2y = (float) (e2y - alpha * ep2y);
+            if (p != null) {
+                p.cubicTo(q1x, q1y, q2x, q2y, (float) e2x, (float) e2y);
+            } else {
+                out[offset++] = q1x;
+                out[offset++] = q1y;
+                out[offset++] = q2x;
+                out[offset++] = q2y;
+                out[offset++] = (float) e2x;
+                out[offset++] = (float) e2y;
+            }
+            e1x = e2x;
+            e1y = e2y;
+            ep1x = ep2x;
+            ep1y = ep2y;
+        }
+        return segments;
+    }
+
+    /**
+     * Accumulates the commands of a path that's being rewritten.
+     */
+    private static class PathBuilder {
+
+        private byte[] mCommands;
+        private int[] mOffsets;
+        private float[] mParams;
+        private int mCommandCount;
+        private int mParamCount;
+
+        PathBuilder(int commandCapacity, int paramCapacity) {
+            mCommands = new byte[commandCapacity];
+            mOffsets = new int[commandCapacity + 1];
+            mParams = new float[paramCapacity];
+        }
+
+        void add(char command, float[] params, int start, int length) {
+            if (mCommandCount == mCommands.length) {
+                final byte[] commands = new byte[mCommandCount * 2];
+                System.arraycopy(mCommands, 0, commands, 0, mCommandCount);
+                mCommands = commands;
+                final int[] offsets = new int[mCommandCount * 2 + 1];
+                System.arraycopy(mOffsets, 0, offsets, 0, mCommandCount + 1);
+                mOffsets = offsets;
+            }
+            if (mParamCount + length > mParams.length) {
+                final float[] newParams = new float[Math.max(mParams.length * 2, mParamCount + length)];
+                System.arraycopy(mParams, 0, newParams, 0, mParamCount);
+                mParams = newParams;
+            }
+            System.arraycopy(params, start, mParams, mParamCount, length);
+            mCommands[mCommandCount] = (byte) command;
+            mOffsets[mCommandCount] = mParamCount;
+            mCommandCount++;
+            mParamCount += length;
+            mOffsets[mCommandCount] = mParamCount;
+        }
+
+        CompiledPath build() {
+            final byte[] commands = new byte[mCommandCount];
+            System.arraycopy(mCommands, 0, commands, 0, mCommandCount);
+            final int[] offsets = new int[mCommandCount + 1];
+            System.arraycopy(mOffsets, 0, offsets, 0, mCommandCount + 1);
+            final float[] params = new float[mParamCount];
+            System.arraycopy(mParams, 0, params, 0, mParamCount);
+            return new CompiledPath(commands, offsets, params);
+        }
+    }
+}
@@ -2,13 +2,16 @@ package com.afollestad.materialcamera.internal;
 
 import android.app.Activity;
 import android.app.Fragment;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
 import android.media.MediaRecorder;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.v4.content.ContextCompat;
 import android.util.Log;
@@ -18,13 +21,22 @@ import android.view.ViewGroup;
 import android.widget.ImageButton;
 import android.widget.TextView;
 
+import com.afollestad.materialcamera.EncodingPolicy;
 import com.afollestad.materialcamera.MaterialCamera;
 import com.afollestad.materialcamera.R;
 import com.afollestad.materialdialogs.DialogAction;
 import com.afollestad.materialdialogs.MaterialDialog;
-import com.telly.mrvector.MrVector;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static android.app.Activity.RESULT_CANCELED;
 import static com.afollestad.materialcamera.internal.BaseVideoRecorderActivity.CAMERA_POSITION_BACK;
@@ -36,21 +48,47 @@ abstract class BaseCameraVideoFragment extends Fragment implements OutputUriInte
 
     protected ImageButton mButtonVideo;
     protected ImageButton mButtonFacing;
+    protected ImageButton mButtonPause;
     protected TextView mRecordDuration;
 
-    protected static Drawable mRecordIcon;
-    protected static Drawable mStopIcon;
-    protected static Drawable mCameraFrontIcon;
-    protected static Drawable mCameraBackIcon;
-
-    protected static final float PREFERRED_ASPECT_RATIO = 4f / 3f;
-    protected static final int PREFERRED_PIXEL_HEIGHT = 480;
+    protected RecordButtonDrawable mRecordButtonIcon;
+    protected Drawable mCameraFrontIcon;
+    protected Drawable mCameraBackIcon;
+    protected Drawable mPauseIcon;
+    protected Drawable mResumeIcon;
 
     protected String mOutputUri;
     protected VideoActivityInterface mInterface;
     protected boolean mIsRecording;
+    // Still recording while paused, mIsRecording stays true.
+    protected boolean mIsPaused;
     protected Handler mPositionHandler;
     protected MediaRecorder mMediaRecorder;
+    // When record was last pressed, in SystemClock.elapsedRealtime() time.
+    protected long mRecordPressedAt;
+    private EncodingSettings mEncodingSettings;
+    // Files finished at a pause, joined with the last one when recording stops.
+    private final ArrayList<String> mParts = new ArrayList<>();
+    private long mPausedAt;
+    private boolean mStoppedWhilePaused;
+
+    /**
+     * Joins and rewrites finished recordings off the main thread, one at a time in the order
+     * they're finished.
+     */
+    private static final Executor sPostProcessor;
+
+    static {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                return new Thread(r, "MaterialCameraPostProcessor");
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        sPostProcessor = executor;
+    }
 
     protected static void LOG(Object context, String message) {
         Log.d(context instanceof Class<?> ? ((Class<?>) context).getSimpleName() :
@@ -85,43 +123,35 @@ abstract class BaseCameraVideoFragment extends Fragment implements OutputUriInte
         return inflater.inflate(R.layout.fragment_videocapture, container, false);
     }
 
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
-        mRecordIcon = null;
-        mStopIcon = null;
-        mCameraFrontIcon = null;
-        mCameraBackIcon = null;
-    }
-
     @Override
     public void onViewCreated(View view, Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
 
         final Resources r = getResources();
-        if (mRecordIcon == null)
-            mRecordIcon = MrVector.inflate(r, R.drawable.ic_action_record);
-        if (mStopIcon == null)
-            mStopIcon = MrVector.inflate(r, R.drawable.ic_action_stop);
-        if (mCameraFrontIcon == null)
-            mCameraFrontIcon = MrVector.inflate(r, R.drawable.ic_camera_front);
-        if (mCameraBackIcon == null)
-            mCameraBackIcon = MrVector.inflate(r, R.drawable.ic_camera_rear);
+        mRecordButtonIcon = new RecordButtonDrawable(r);
+        mCameraFrontIcon = VectorIconCache.get(r, R.drawable.ic_camera_front);
+        mCameraBackIcon = VectorIconCache.get(r, R.drawable.ic_camera_rear);
+        mPauseIcon = VectorIconCache.get(r, R.drawable.ic_action_pause);
+        mResumeIcon = VectorIconCache.get(r, R.drawable.ic_action_record);
 
         mButtonVideo = (ImageButton) view.findViewById(R.id.video);
         mButtonFacing = (ImageButton) view.findViewById(R.id.facing);
+        mButtonPause = (ImageButton) view.findViewById(R.id.pause);
         mRecordDuration = (TextView) view.findViewById(R.id.recordDuration);
         mButtonFacing.setImageDrawable(mInterface.getCurrentCameraPosition() == CAMERA_POSITION_BACK ?
                 mCameraFrontIcon : mCameraBackIcon);
+        mButtonVideo.setImageDrawable(mRecordButtonIcon);
         if (mMediaRecorder != null && mIsRecording) {
-            mButtonVideo.setImageDrawable(mStopIcon);
+            mRecordButtonIcon.setRecording(true, false);
         } else {
-            mButtonVideo.setImageDrawable(mRecordIcon);
             mInterface.setDidRecord(false);
         }
 
         mButtonVideo.setOnClickListener(this);
         mButtonFacing.setOnClickListener(this);
+        mButtonPause.setOnClickListener(this);
+        mButtonPause.setImageDrawable(mIsPaused ? mResumeIcon : mPauseIcon);
+        mButtonPause.setVisibility(mIsRecording && canPause() ? View.VISIBLE : View.GONE);
 
         final int primaryColor = getArguments().getInt("primary_color");
         view.findViewById(R.id.controlsFrame).setBackgroundColor(CameraUtil.darkenColor(primaryColor));
@@ -133,12 +163,15 @@ abstract class BaseCameraVideoFragment extends Fragment implements OutputUriInte
     @Override
     public void onDestroyView() {
         super.onDestroyView();
-        mRecordIcon = null;
-        mStopIcon = null;
+        mRecordButtonIcon.cancelAnimation();
+        mRecordButtonIcon = null;
         mCameraFrontIcon = null;
         mCameraBackIcon = null;
+        mPauseIcon = null;
+        mResumeIcon = null;
         mButtonVideo = null;
         mButtonFacing = null;
+        mButtonPause = null;
         mRecordDuration = null;
     }
 
@@ -201,6 +234,82 @@ abstract class BaseCameraVideoFragment extends Fragment implements OutputUriInte
         else return (Integer) mInterface.getFrontCamera();
     }
 
+    /**
+     * @return the quality preset, encoding policy and overrides set on MaterialCamera.
+     */
+    @NonNull
+    protected final EncodingSettings getEncodingSettings() {
+        if (mEncodingSettings == null) {
+            final Bundle args = getArguments();
+            mEncodingSettings = new EncodingSettings(args.getInt("quality", 0),
+                    (EncodingPolicy) args.getSerializable("encoding_policy"),
+                    args.getInt("video_bit_rate", -1), args.getInt("frame_rate", -1),
+                    args.getInt("audio_bit_rate", -1), args.getInt("audio_sample_rate", -1),
+                    args.getInt("audio_channels", -1), args.getInt("max_resolution", -1),
+                    args.getBoolean("allow_hevc", true));
+        }
+        return mEncodingSettings;
+    }
+
+    /**
+     * @return the most bytes a recorded file may have, or -1 if it's not limited.
+     */
+    protected final long getMaxFileSize() {
+        return getArguments().getLong("max_file_size", -1);
+    }
+
+    /**
+     * @return whether recording continues in a new file when the max file size is reached.
+     */
+    protected final boolean shouldSegmentAtMaxFileSize() {
+        return getMaxFileSize() > 0 && getArguments().getBoolean("segment_at_max_file_size", false);
+    }
+
+    /**
+     * Called once recording switched from finishedPath to nextPath at the max file size.
+     */
+    protected final void onSegmentStarted(String finishedPath, String nextPath) {
+        LOG(this, "Max file size reached, continuing in " + nextPath);
+        if (mInterface != null)
+            mInterface.addSegment(Uri.fromFile(new File(finishedPath)).toString());
+        final File finished = new File(finishedPath);
+        final File next = new File(nextPath);
+        final Activity activity = getActivity();
+        final Context context = activity != null ? activity.getApplicationContext() : null;
+        final boolean fastStart = isFastStart();
+        // Done while recording continues, and before the last file's turn at the end.
+        sPostProcessor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (context != null) {
+                    RecordingJournal.continueIn(context, finished, next);
+                    RecordingJournal.finish(context, finished);
+                }
+                if (fastStart)
+                    fastStart(finished);
+            }
+        });
+        mOutputUri = Uri.fromFile(next).toString();
+    }
+
+    /**
+     * @return whether the pause button is shown while recording. Pausing finishes the file and
+     * resuming starts the next one, so it's left out when a max file size splits files already.
+     */
+    protected boolean canPause() {
+        return getArguments().getBoolean("allow_pause", false) && getMaxFileSize() <= 0;
+    }
+
+    /**
+     * @return what the video and preview sizes are negotiated for.
+     */
+    protected SizeChooser.Policy getSizePolicy() {
+        final int maxResolution = getEncodingSettings().maxResolution;
+        if (maxResolution == SizeChooser.Policy.DEFAULT.maxHeight)
+            return SizeChooser.Policy.DEFAULT;
+        return new SizeChooser.Policy(SizeChooser.Policy.DEFAULT.aspectRatio, maxResolution);
+    }
+
     public final void stopCounter() {
         if (mPositionHandler != null) {
             mPositionHandler.removeCallbacks(mPositionUpdater);
@@ -210,25 +319,200 @@ abstract class BaseCameraVideoFragment extends Fragment implements OutputUriInte
 
     public final void releaseRecorder() {
         if (mMediaRecorder != null) {
-            try {
-                mMediaRecorder.stop();
-            } catch (IllegalStateException ignored) {
-            }
-            mMediaRecorder.reset();
-            mMediaRecorder.release();
+            releaseRecorder(mMediaRecorder);
             mMediaRecorder = null;
         }
     }
 
+    /**
+     * Stops the recorder, which finalizes its file, and releases it. Can be called on any thread.
+     */
+    protected static void releaseRecorder(MediaRecorder recorder) {
+        try {
+            recorder.stop();
+        } catch (RuntimeException ignored) {
+            // Already stopped at the max file size, or nothing was recorded.
+        }
+        recorder.reset();
+        recorder.release();
+    }
+
     public void startRecordingVideo() {
         final int orientation = Degrees.getActivityOrientation(getActivity());
         //noinspection ResourceType
         getActivity().setRequestedOrientation(orientation);
         mInterface.setDidRecord(true);
+        mRecordPressedAt = SystemClock.elapsedRealtime();
+        mIsPaused = false;
+        mParts.clear();
+        if (canPause()) {
+            mButtonPause.setImageDrawable(mPauseIcon);
+            mButtonPause.setVisibility(View.VISIBLE);
+        }
+    }
+
+    /**
+     * Stops recording into the current file, subclasses finish it and report it with
+     * {@link #onPartFinished(String)}.
+     */
+    public void pauseRecordingVideo() {
+        mIsPaused = true;
+        mPausedAt = System.currentTimeMillis();
+        stopCounter();
+        mButtonPause.setImageDrawable(mResumeIcon);
+    }
+
+    /**
+     * Continues recording into a new file, the time spent paused doesn't count towards the
+     * recording's length.
+     */
+    public void resumeRecordingVideo() {
+        mIsPaused = false;
+        if (mInterface.getRecordingStart() > -1)
+            mInterface.setRecordingStart(mInterface.getRecordingStart() + System.currentTimeMillis() - mPausedAt);
+        startCounter();
+        mButtonPause.setImageDrawable(mPauseIcon);
+    }
+
+    protected final void onPartFinished(String path) {
+        mParts.add(path);
+    }
+
+    /**
+     * Reports how long it took from pressing record until the first frame was recorded.
+     */
+    protected final void onRecordStartLatency(long latencyMs) {
+        LOG(this, "Press to first recorded frame: " + latencyMs + "ms");
+        if (mInterface != null)
+            mInterface.setRecordStartLatency(latencyMs);
     }
 
     public void stopRecordingVideo(boolean reachedZero) {
         getActivity().setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_UNSPECIFIED);
+        mStoppedWhilePaused = mIsPaused;
+        mIsPaused = false;
+        if (mButtonPause != null)
+            mButtonPause.setVisibility(View.GONE);
+    }
+
+    /**
+     * Shows the recording once it's finalized. If it was paused, its parts are joined into the
+     * first part's file first, and with fast start its moov box is moved to the front; both on
+     * {@link #sPostProcessor}, where its {@link RecordingJournal} is finished too.
+     */
+    protected final void showPreview(final boolean reachedZero) {
+        final boolean fastStart = isFastStart();
+        final Context context = getActivity().getApplicationContext();
+        if (mParts.isEmpty() && (!fastStart || mOutputUri == null)) {
+            if (mOutputUri != null) {
+                final File output = new File(Uri.parse(mOutputUri).getPath());
+                sPostProcessor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        RecordingJournal.finish(context, output);
+                    }
+                });
+            }
+            mInterface.onShowPreview(mOutputUri, reachedZero);
+            return;
+        }
+        final List<File> parts = new ArrayList<>(mParts.size() + 1);
+        for (String part : mParts)
+            parts.add(new File(part));
+        mParts.clear();
+        if (mOutputUri != null) {
+            final File current = new File(Uri.parse(mOutputUri).getPath());
+            if (mStoppedWhilePaused) {
+                // Prepared for the next part, but never recorded to.
+                //noinspection ResultOfMethodCallIgnored
+                current.delete();
+            } else {
+                parts.add(current);
+            }
+        }
+        mOutputUri = null;
+        if (mButtonVideo != null)
+            mButtonVideo.setEnabled(false);
+
+        final Handler handler = new Handler();
+        sPostProcessor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final long start = SystemClock.elapsedRealtime();
+                File output = null;
+                for (File part : parts)
+                    RecordingJournal.finish(context, part);
+                // No parts if the only one was discarded, e.g. stopped while paused right after
+                // starting; nothing is delivered then, like when no part was finished.
+                if (parts.size() == 1) {
+                    output = parts.get(0);
+                } else if (parts.size() > 1) {
+                    try {
+                        output = Mp4Concatenator.joinParts(parts);
+                    } catch (IOException e) {
+                        // The parts are left as they were, the longest one is the best there is.
+                        output = findLongestPart(parts);
+                        Log.w(BaseCameraVideoFragment.class.getSimpleName(), "Failed to join the recorded parts, delivering " +
+                                (output != null ? output.getName() : "nothing") + " instead.", e);
+                    }
+                }
+                if (output != null && fastStart)
+                    fastStart(output);
+                final long elapsed = SystemClock.elapsedRealtime() - start;
+                final File result = output;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mButtonVideo != null)
+                            mButtonVideo.setEnabled(true);
+                        if (mInterface == null) return;
+                        LOG(BaseCameraVideoFragment.this, "Processed " + parts.size() + " part(s) in " + elapsed + "ms");
+                        mInterface.setProcessingTime(elapsed);
+                        if (result != null)
+                            mOutputUri = Uri.fromFile(result).toString();
+                        mInterface.onShowPreview(mOutputUri, reachedZero);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return the part that plays the longest, or null if none can be read.
+     */
+    private static File findLongestPart(List<File> parts) {
+        File longest = null;
+        long longestMs = -1;
+        for (File part : parts) {
+            if (!part.exists()) continue;
+            final long durationMs;
+            try {
+                durationMs = Mp4Info.read(Collections.singletonList(part)).durationMs;
+            } catch (IOException e) {
+                continue;
+            }
+            if (durationMs > longestMs) {
+                longest = part;
+                longestMs = durationMs;
+            }
+        }
+        return longest;
+    }
+
+    protected final boolean isFastStart() {
+        return getArguments().getBoolean("fast_start", false);
+    }
+
+    // Leaves the file as it is if it fails, it still plays once it's downloaded.
+    private static void fastStart(File file) {
+        final long start = SystemClock.elapsedRealtime();
+        try {
+            if (Mp4FastStart.process(file))
+                LOG(BaseCameraVideoFragment.class, "Moved the moov box of " + file.getName() + " to the front in " +
+                        (SystemClock.elapsedRealtime() - start) + "ms");
+        } catch (IOException e) {
+            Log.w(BaseCameraVideoFragment.class.getSimpleName(), "Fast start failed for " + file, e);
+        }
     }
 
     @Override
@@ -254,10 +538,14 @@ abstract class BaseCameraVideoFragment extends Fragment implements OutputUriInte
     public void onClick(View view) {
         if (view.getId() == R.id.facing) {
             mInterface.toggleCameraPosition();
-            mButtonFacing.setImageResource(mInterface.getCurrentCameraPosition() == BaseVideoRecorderActivity.CAMERA_POSITION_BACK ?
-                    R.drawable.ic_camera_front : R.drawable.ic_camera_rear);
+            mButtonFacing.setImageDrawable(mInterface.getCurrentCameraPosition() == BaseVideoRecorderActivity.CAMERA_POSITION_BACK ?
+                    mCameraFrontIcon : mCameraBackIcon);
             closeCamera();
             openCamera();
+        } else if (view.getId() == R.id.pause) {
+            if (!mIsRecording) return;
+            if (mIsPaused) resumeRecordingVideo();
+            else pauseRecordingVideo();
         } else if (view.getId() == R.id.video) {
             if (mIsRecording) {
                 stopRecordingVideo(false);
@@ -3,6 +3,7 @@ package com.afollestad.materialcamera.internal;
 import android.Manifest;
 import android.app.Activity;
 import android.app.Fragment;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
@@ -15,6 +16,7 @@ import android.support.annotation.Nullable;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
 import android.view.Window;
 import android.view.WindowManager;
 
@@ -24,14 +26,19 @@ import com.afollestad.materialcamera.TimeLimitReachedException;
 import com.afollestad.materialdialogs.MaterialDialog;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author Aidan Follestad (afollestad)
  */
 abstract class BaseVideoRecorderActivity extends AppCompatActivity implements VideoActivityInterface {
 
+    private static final String TAG = "BaseVideoRecorderActivity";
+
     private int mCameraPosition = CAMERA_POSITION_UNKNOWN;
     private boolean mRequestingPermission;
     private long mRecordingStart = -1;
@@ -40,6 +47,11 @@ abstract class BaseVideoRecorderActivity extends AppCompatActivity implements Vi
     private Object mFrontCameraId;
     private Object mBackCameraId;
     private boolean mDidRecord = false;
+    private long mRecordStartLatency = -1;
+    private long mProcessingTime = -1;
+    private ArrayList<String> mSegments = new ArrayList<>();
+    // Cut off recordings from earlier processes, null until they were looked for.
+    private ArrayList<String> mRecoverable;
 
     public static final int PERMISSION_RC = 69;
 
@@ -60,6 +72,10 @@ abstract class BaseVideoRecorderActivity extends AppCompatActivity implements Vi
         outState.putLong("recording_start", mRecordingStart);
         outState.putLong("recording_end", mRecordingEnd);
         outState.putLong("length_limit", mLengthLimit);
+        outState.putLong("record_start_latency", mRecordStartLatency);
+        outState.putLong("processing_time", mProcessingTime);
+        outState.putStringArrayList("segments", mSegments);
+        outState.putStringArrayList("recoverable", mRecoverable);
         if (mFrontCameraId instanceof String) {
             outState.putString("front_camera_id_str", (String) mFrontCameraId);
             outState.putString("back_camera_id_str", (String) mBackCameraId);
@@ -99,12 +115,19 @@ abstract class BaseVideoRecorderActivity extends AppCompatActivity implements Vi
         if (null == savedInstanceState) {
             checkPermissions();
             mLengthLimit = getIntent().getLongExtra("length_limit", -1);
+            findRecoverableRecordings();
         } else {
             mCameraPosition = savedInstanceState.getInt("camera_position", -1);
             mRequestingPermission = savedInstanceState.getBoolean("requesting_permission", false);
             mRecordingStart = savedInstanceState.getLong("recording_start", -1);
             mRecordingEnd = savedInstanceState.getLong("recording_end", -1);
             mLengthLimit = savedInstanceState.getLong("length_limit", -1);
+            mRecordStartLatency = savedInstanceState.getLong("record_start_latency", -1);
+            mProcessingTime = savedInstanceState.getLong("processing_time", -1);
+            final ArrayList<String> segments = savedInstanceState.getStringArrayList("segments");
+            if (segments != null)
+                mSegments = segments;
+            mRecoverable = savedInstanceState.getStringArrayList("recoverable");
             if (savedInstanceState.containsKey("front_camera_id_str")) {
                 mFrontCameraId = savedInstanceState.getString("front_camera_id_str");
                 mBackCameraId = savedInstanceState.getString("back_camera_id_str");
@@ -255,6 +278,10 @@ abstract class BaseVideoRecorderActivity extends AppCompatActivity implements Vi
     public final void onRetry(@Nullable String outputUri) {
         if (outputUri != null)
             deleteOutputFile(outputUri);
+        for (String segment : mSegments)
+            deleteOutputFile(segment);
+        mSegments.clear();
+        mProcessingTime = -1;
         if (!shouldAutoSubmit())
             setRecordingStart(-1);
         getFragmentManager().beginTransaction()
@@ -277,7 +304,9 @@ abstract class BaseVideoRecorderActivity extends AppCompatActivity implements Vi
                 // No countdown, reset timer to 0
                 setRecordingStart(-1);
             }
-            Fragment frag = PlaybackVideoFragment.newInstance(outputUri, allowRetry(),
+            // Recordings continued in more files can't be trimmed as one.
+            final boolean allowTrim = getIntent().getBooleanExtra("allow_trim", true) && mSegments.isEmpty();
+            Fragment frag = PlaybackVideoFragment.newInstance(outputUri, allowRetry(), allowTrim,
                     getIntent().getIntExtra("primary_color", 0));
             getFragmentManager().beginTransaction()
                     .replace(R.id.container, frag)
@@ -330,12 +359,65 @@ abstract class BaseVideoRecorderActivity extends AppCompatActivity implements Vi
     @Override
     public final void useVideo(String uri) {
         if (uri != null) {
-            setResult(Activity.RESULT_OK, getIntent()
-                    .setDataAndType(Uri.parse(uri), "video/mp4"));
+            final Intent result;
+            final ArrayList<String> segments = new ArrayList<>(mSegments);
+            if (!segments.contains(uri))
+                segments.add(uri);
+            if (mSegments.isEmpty()) {
+                result = getIntent().setDataAndType(Uri.parse(uri), "video/mp4");
+            } else {
+                result = getIntent().setDataAndType(Uri.parse(segments.get(0)), "video/mp4")
+                        .putStringArrayListExtra(MaterialCamera.SEGMENTS_EXTRA, segments);
+            }
+            putVideoInfo(result, segments);
+            if (mRecordStartLatency != -1)
+                result.putExtra(MaterialCamera.RECORD_LATENCY_EXTRA, mRecordStartLatency);
+            if (mProcessingTime != -1)
+                result.putExtra(MaterialCamera.PROCESSING_TIME_EXTRA, mProcessingTime);
+            if (mRecoverable != null && !mRecoverable.isEmpty())
+                result.putStringArrayListExtra(MaterialCamera.RECOVERABLE_EXTRA, mRecoverable);
+            setResult(Activity.RESULT_OK, result);
         }
         finish();
     }
 
+    // Reads every file an earlier process was recording to, so it's done in the background.
+    private void findRecoverableRecordings() {
+        final Context context = getApplicationContext();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final List<File> files = RecordingJournal.findRecoverable(context);
+                final ArrayList<String> uris = new ArrayList<>(files.size());
+                for (File file : files)
+                    uris.add(Uri.fromFile(file).toString());
+                if (!uris.isEmpty())
+                    Log.d(TAG, "Found " + uris.size() + " recording(s) to recover.");
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mRecoverable = uris;
+                    }
+                });
+            }
+        }, TAG + "Recovery").start();
+    }
+
+    private static void putVideoInfo(Intent result, List<String> uris) {
+        final List<File> files = new ArrayList<>(uris.size());
+        for (String uri : uris)
+            files.add(new File(Uri.parse(uri).getPath()));
+        try {
+            final Mp4Info info = Mp4Info.read(files);
+            result.putExtra(MaterialCamera.DURATION_EXTRA, info.durationMs)
+                    .putExtra(MaterialCamera.WIDTH_EXTRA, info.width)
+                    .putExtra(MaterialCamera.HEIGHT_EXTRA, info.height)
+                    .putExtra(MaterialCamera.BIT_RATE_EXTRA, info.bitRate);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read the recording's duration and size.", e);
+        }
+    }
+
     @Override
     public void setDidRecord(boolean didRecord) {
         mDidRecord = didRecord;
@@ -345,4 +427,19 @@ abstract class BaseVideoRecorderActivity extends AppCompatActivity implements Vi
     public boolean didRecord() {
         return mDidRecord;
     }
+
+    @Override
+    public void setRecordStartLatency(long latencyMs) {
+        mRecordStartLatency = latencyMs;
+    }
+
+    @Override
+    public void setProcessingTime(long processingMs) {
+        mProcessingTime = processingMs;
+    }
+
+    @Override
+    public void addSegment(String uri) {
+        mSegments.add(uri);
+    }
 }
\ No newline at end of file
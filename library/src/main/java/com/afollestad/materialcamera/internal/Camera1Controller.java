@@ -0,0 +1,663 @@
+package com.afollestad.materialcamera.internal;
+
+import android.content.Context;
+import android.hardware.Camera;
+import android.media.CamcorderProfile;
+import android.media.MediaRecorder;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Runs every {@link Camera} and recorder call of the legacy camera path on its own thread, so
+ * opening the camera, switching cameras and starting or stopping a recording don't block the main
+ * thread. Calls are queued in order and return immediately; results are delivered to the
+ * {@link Listener} on the main thread. The camera is opened on this thread too, so its own
+ * callbacks (auto focus) arrive here rather than on the main looper.
+ * <p>
+ * Once the preview runs, a recorder is prepared ahead of time (see {@link #prepareRecorder}), so
+ * starting a recording only has to start it. With a max file size, recording continues in the
+ * next file when it's reached: handed to the recorder ahead of time where it can switch files by
+ * itself, or in a new recorder right after the old one stopped where it can't.
+ * <p>
+ * Like {@link CameraSessionController}, each open starts a generation and each close ends it, and
+ * results that belong to an older generation are dropped.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@SuppressWarnings("deprecation")
+class Camera1Controller {
+
+    private static final String TAG = "Camera1Controller";
+
+    public interface Listener {
+
+        /**
+         * @param frontCameraId The first front facing camera, or -1 if there's none.
+         * @param backCameraId  The first back facing camera, or -1 if there's none.
+         */
+        void onCamerasFound(int frontCameraId, int backCameraId);
+
+        void onOpened(@NonNull SizeChooser.Result sizes);
+
+        void onAutoFocus(boolean success);
+
+        /**
+         * @param outputPath The file being recorded to.
+         * @param latencyMs  How long it took from pressing record until the recorder started.
+         */
+        void onRecordingStarted(@NonNull MediaRecorder recorder, @NonNull String outputPath, long latencyMs);
+
+        /**
+         * @param recorder The recorder that records from now on, it may be the same as before.
+         */
+        void onSegmentStarted(@NonNull MediaRecorder recorder, @NonNull String finishedPath, @NonNull String nextPath);
+
+        /**
+         * The recorder stopped at the max file size, and doesn't continue in a new file.
+         */
+        void onMaxFileSizeReached();
+
+        void onError(@NonNull Exception e);
+    }
+
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Listener mListener;
+    private final EncodingSettings mEncodingSettings;
+    private final Context mContext;
+    private final long mMaxFileSize;
+    private final boolean mSegmentAtMaxFileSize;
+
+    // Only written on the main thread, read on both.
+    private volatile int mGeneration;
+
+    // Only touched on the camera thread.
+    private Camera mCamera;
+    private int mCameraId;
+    private SizeChooser.Result mSizes;
+    private int mDisplayOrientation;
+    private SurfaceHolder mPreviewHolder;
+    private String mNextOutputPath;
+    private int mNextRotation;
+    private MediaRecorder mReadyRecorder;
+    private String mReadyOutputPath;
+    private int mReadyRotation;
+    private MediaRecorder mActiveRecorder;
+    private String mActivePath;
+    private Surface mRecordingSurface;
+    private int mRecordingRotation;
+    private File mFirstSegment;
+    private int mSegmentIndex;
+    private String mNextSegmentPath;
+
+    private final MediaRecorder.OnInfoListener mInfoListener = new MediaRecorder.OnInfoListener() {
+        @Override
+        public void onInfo(MediaRecorder mr, int what, int extra) {
+            // Called on the camera thread, the recorders are created on it.
+            if (mr != mActiveRecorder) return;
+            final int generation = mGeneration;
+            switch (what) {
+                case MediaRecorderCompat.MEDIA_RECORDER_INFO_MAX_FILESIZE_APPROACHING:
+                    if (mSegmentAtMaxFileSize && mNextSegmentPath == null) {
+                        final File next = CameraUtil.makeSegmentFile(mFirstSegment, mSegmentIndex + 1);
+                        if (MediaRecorderCompat.setNextOutputFile(mr, next)) {
+                            mSegmentIndex++;
+                            mNextSegmentPath = next.getAbsolutePath();
+                        }
+                    }
+                    break;
+                case MediaRecorderCompat.MEDIA_RECORDER_INFO_NEXT_OUTPUT_FILE_STARTED:
+                    if (mNextSegmentPath != null) {
+                        deliverSegment(mr, mActivePath, mNextSegmentPath);
+                        mActivePath = mNextSegmentPath;
+                        mNextSegmentPath = null;
+                    }
+                    break;
+                case MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_REACHED:
+                    discardNextSegment();
+                    if (mSegmentAtMaxFileSize) {
+                        restartRecording(generation);
+                    } else {
+                        mMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (generation == mGeneration)
+                                    mListener.onMaxFileSizeReached();
+                            }
+                        });
+                    }
+                    break;
+            }
+        }
+    };
+
+    /**
+     * @param maxFileSize          The most bytes a recorded file may have, or -1.
+     * @param segmentAtMaxFileSize Whether to continue in a new file when that's reached.
+     */
+    public Camera1Controller(@NonNull Context context, @NonNull Listener listener,
+                             @NonNull EncodingSettings encodingSettings, long maxFileSize,
+                             boolean segmentAtMaxFileSize) {
+        mContext = context.getApplicationContext();
+        mListener = listener;
+        mEncodingSettings = encodingSettings;
+        mMaxFileSize = maxFileSize;
+        mSegmentAtMaxFileSize = segmentAtMaxFileSize;
+        mThread = new HandlerThread("Camera1Background");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    private static int[] widths(List<Camera.Size> sizes) {
+        final int[] widths = new int[sizes.size()];
+        for (int i = 0; i < widths.length; i++)
+            widths[i] = sizes.get(i).width;
+        return widths;
+    }
+
+    private static int[] heights(List<Camera.Size> sizes) {
+        final int[] heights = new int[sizes.size()];
+        for (int i = 0; i < heights.length; i++)
+            heights[i] = sizes.get(i).height;
+        return heights;
+    }
+
+    /**
+     * Looks up the front and back cameras, see {@link Listener#onCamerasFound(int, int)}.
+     */
+    public void findCameras() {
+        final int generation = mGeneration;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                int frontCameraId = -1;
+                int backCameraId = -1;
+                final Camera.CameraInfo info = new Camera.CameraInfo();
+                final int numberOfCameras = Camera.getNumberOfCameras();
+                for (int i = 0; i < numberOfCameras; i++) {
+                    if (frontCameraId != -1 && backCameraId != -1) break;
+                    Camera.getCameraInfo(i, info);
+                    if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT && frontCameraId == -1)
+                        frontCameraId = i;
+                    else if (info.facing == Camera.CameraInfo.CAMERA_FACING_BACK && backCameraId == -1)
+                        backCameraId = i;
+                }
+                final int front = frontCameraId;
+                final int back = backCameraId;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration)
+                            mListener.onCamerasFound(front, back);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Closes the current camera, if any, opens the given one and negotiates its sizes.
+     *
+     * @param deviceRotation The display rotation, see {@link Degrees#getDisplayRotation}.
+     */
+    public void open(final int cameraId, final int viewWidth, final int viewHeight,
+                     final SizeChooser.Policy policy, final int deviceRotation) {
+        final int generation = ++mGeneration;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                releaseCamera();
+                if (generation != mGeneration) return;
+                try {
+                    mCameraId = cameraId == -1 ? 0 : cameraId;
+                    mCamera = Camera.open(mCameraId);
+                    final Camera.Parameters parameters = mCamera.getParameters();
+                    final String cameraKey = "camera1:" + cameraId;
+                    SizeChooser.Result sizes = SizeChooser.getCached(cameraKey, viewWidth, viewHeight, policy);
+                    if (sizes == null) {
+                        final List<Camera.Size> previewSizes = parameters.getSupportedPreviewSizes();
+                        List<Camera.Size> videoSizes = parameters.getSupportedVideoSizes();
+                        // Null when the camera can't record at sizes other than its preview sizes.
+                        if (videoSizes == null) videoSizes = previewSizes;
+                        sizes = SizeChooser.negotiate(cameraKey, viewWidth, viewHeight, policy,
+                                widths(videoSizes), heights(videoSizes),
+                                widths(previewSizes), heights(previewSizes));
+                    }
+                    parameters.setPreviewSize(sizes.previewWidth, sizes.previewHeight);
+                    setDisplayOrientation(parameters, deviceRotation);
+                    mCamera.setParameters(parameters);
+                    mSizes = sizes;
+                } catch (IllegalStateException e) {
+                    releaseCamera();
+                    deliverError(generation, new Exception("Cannot access the camera.", e));
+                    return;
+                } catch (RuntimeException e2) {
+                    releaseCamera();
+                    deliverError(generation, new Exception("Cannot access the camera, you may need to restart your device.", e2));
+                    return;
+                }
+                final SizeChooser.Result sizes = mSizes;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration)
+                            mListener.onOpened(sizes);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * (Re)starts the preview on the holder's surface.
+     */
+    public void startPreview(final SurfaceHolder holder) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCamera == null || holder.getSurface() == null) return;
+                discardReadyRecorder();
+                try {
+                    mCamera.stopPreview();
+                } catch (Exception ignored) {
+                }
+                try {
+                    mCamera.setPreviewDisplay(holder);
+                    mCamera.startPreview();
+                    mPreviewHolder = holder;
+                } catch (Throwable e) {
+                    Log.d(TAG, "Error starting camera preview: " + e.getMessage());
+                    return;
+                }
+                prepareReadyRecorder();
+            }
+        });
+    }
+
+    public void updateDisplayOrientation(final int deviceRotation) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCamera != null)
+                    setDisplayOrientation(mCamera.getParameters(), deviceRotation);
+            }
+        });
+    }
+
+    public void autoFocus() {
+        final int generation = mGeneration;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCamera == null) return;
+                // The recorder holds the camera unlocked, it's prepared again once focused.
+                discardReadyRecorder();
+                mCamera.cancelAutoFocus();
+                mCamera.autoFocus(new Camera.AutoFocusCallback() {
+                    @Override
+                    public void onAutoFocus(final boolean success, Camera camera) {
+                        prepareReadyRecorder();
+                        mMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (generation == mGeneration)
+                                    mListener.onAutoFocus(success);
+                            }
+                        });
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Prepares a recorder recording to outputPath as soon as the preview runs, so
+     * {@link #startRecording} doesn't have to. The file is deleted again if it's never recorded to.
+     */
+    public void prepareRecorder(final String outputPath, final int deviceRotation) {
+        final int generation = mGeneration;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mGeneration) return;
+                discardReadyRecorder();
+                mNextOutputPath = outputPath;
+                mNextRotation = deviceRotation;
+                prepareReadyRecorder();
+            }
+        });
+    }
+
+    /**
+     * Starts the prepared recorder, or prepares and starts one recording to outputPath if none is
+     * prepared for this rotation, see {@link Listener#onRecordingStarted}.
+     *
+     * @param pressedAt When record was pressed, in {@link SystemClock#elapsedRealtime()} time.
+     */
+    public void startRecording(final String outputPath, final Surface previewSurface,
+                               final int deviceRotation, final long pressedAt) {
+        final int generation = mGeneration;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCamera == null || generation != mGeneration) return;
+                MediaRecorder recorder = null;
+                String path = outputPath;
+                if (mReadyRecorder != null && mReadyRotation == deviceRotation) {
+                    recorder = mReadyRecorder;
+                    path = mReadyOutputPath;
+                    mReadyRecorder = null;
+                    mReadyOutputPath = null;
+                } else {
+                    discardReadyRecorder();
+                }
+                mNextOutputPath = null;
+                try {
+                    if (recorder == null)
+                        recorder = buildRecorder(outputPath, previewSurface, deviceRotation);
+                } catch (Exception e) {
+                    deliverError(generation, e);
+                    return;
+                }
+                try {
+                    recorder.start();
+                } catch (Throwable t) {
+                    releaseRecorder(recorder);
+                    deliverError(generation, new Exception("Failed to start recording: " + t.getMessage(), t));
+                    return;
+                }
+                final long latency = SystemClock.elapsedRealtime() - pressedAt;
+                mActiveRecorder = recorder;
+                mActivePath = path;
+                mRecordingSurface = previewSurface;
+                mRecordingRotation = deviceRotation;
+                mFirstSegment = new File(path);
+                mSegmentIndex = 1;
+                final MediaRecorder started = recorder;
+                final String startedPath = path;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration)
+                            mListener.onRecordingStarted(started, startedPath, latency);
+                        else
+                            releaseStaleRecorder(started);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Releases a recorder that started after the camera was closed, unless close() got to it first.
+     * Only touches the recorder, a camera reopened since stays open.
+     */
+    private void releaseStaleRecorder(final MediaRecorder recorder) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (recorder != mActiveRecorder) return;
+                releaseRecorder(recorder);
+                mActiveRecorder = null;
+                mRecordingSurface = null;
+            }
+        });
+    }
+
+    /**
+     * Stops the recorder, finalizing its file, and prepares one recording to nextPath so resuming
+     * with {@link #startRecording} only starts it.
+     */
+    public void pauseRecording(@NonNull final MediaRecorder recorder, final String nextPath,
+                               final int deviceRotation) {
+        final int generation = mGeneration;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Already released by close() otherwise.
+                if (recorder != mActiveRecorder) return;
+                releaseRecorder(recorder);
+                mActiveRecorder = null;
+                mRecordingSurface = null;
+                if (generation != mGeneration) return;
+                mNextOutputPath = nextPath;
+                mNextRotation = deviceRotation;
+                prepareReadyRecorder();
+            }
+        });
+    }
+
+    /**
+     * Stops the recorder, if any, and closes the camera.
+     *
+     * @param then Optionally run on the main thread afterwards, once the recording is finalized.
+     */
+    public void close(@Nullable final MediaRecorder recorder, @Nullable final Runnable then) {
+        final int generation = ++mGeneration;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (recorder != null)
+                    releaseRecorder(recorder);
+                // A new recorder the listener hasn't heard of yet, see restartRecording().
+                if (mActiveRecorder != null && mActiveRecorder != recorder)
+                    releaseRecorder(mActiveRecorder);
+                mActiveRecorder = null;
+                mRecordingSurface = null;
+                discardNextSegment();
+                discardReadyRecorder();
+                mNextOutputPath = null;
+                mPreviewHolder = null;
+                releaseCamera();
+                if (then != null) {
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation == mGeneration)
+                                then.run();
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes the camera and stops the camera thread. The controller can't be used afterwards.
+     */
+    public void release() {
+        close(null, null);
+        mThread.quitSafely();
+    }
+
+    private void prepareReadyRecorder() {
+        if (mCamera == null || mPreviewHolder == null || mNextOutputPath == null || mReadyRecorder != null)
+            return;
+        try {
+            mReadyRecorder = buildRecorder(mNextOutputPath, mPreviewHolder.getSurface(), mNextRotation);
+            mReadyOutputPath = mNextOutputPath;
+            mReadyRotation = mNextRotation;
+        } catch (Exception e) {
+            // Not fatal yet, startRecording() tries again and reports it.
+            Log.w(TAG, "Failed to prepare the recorder ahead of time.", e);
+        }
+    }
+
+    private void discardReadyRecorder() {
+        if (mReadyRecorder != null) {
+            releaseRecorder(mReadyRecorder);
+            //noinspection ResultOfMethodCallIgnored
+            new File(mReadyOutputPath).delete();
+            mReadyRecorder = null;
+            mReadyOutputPath = null;
+        }
+    }
+
+    /**
+     * Continues the recording in the next file with a new recorder, the active one stopped at the
+     * max file size.
+     */
+    private void restartRecording(int generation) {
+        if (mCamera == null || mRecordingSurface == null) return;
+        final String finishedPath = mActivePath;
+        releaseRecorder(mActiveRecorder);
+        mActiveRecorder = null;
+        final File next = CameraUtil.makeSegmentFile(mFirstSegment, ++mSegmentIndex);
+        final MediaRecorder recorder;
+        try {
+            recorder = buildRecorder(next.getAbsolutePath(), mRecordingSurface, mRecordingRotation);
+        } catch (Exception e) {
+            deliverError(generation, e);
+            return;
+        }
+        try {
+            recorder.start();
+        } catch (Throwable t) {
+            releaseRecorder(recorder);
+            deliverError(generation, new Exception("Failed to start recording: " + t.getMessage(), t));
+            return;
+        }
+        mActiveRecorder = recorder;
+        mActivePath = next.getAbsolutePath();
+        deliverSegment(recorder, finishedPath, mActivePath);
+    }
+
+    // A next file handed to the recorder that it never switched to.
+    private void discardNextSegment() {
+        if (mNextSegmentPath != null) {
+            //noinspection ResultOfMethodCallIgnored
+            new File(mNextSegmentPath).delete();
+            mNextSegmentPath = null;
+        }
+    }
+
+    private MediaRecorder buildRecorder(String outputPath, Surface previewSurface, int deviceRotation) throws Exception {
+        MediaRecorder recorder = null;
+        try {
+            setDisplayOrientation(mCamera.getParameters(), deviceRotation);
+            recorder = new MediaRecorder();
+            mCamera.unlock();
+            recorder.setCamera(mCamera);
+            recorder.setAudioSource(MediaRecorder.AudioSource.CAMCORDER);
+            recorder.setVideoSource(MediaRecorder.VideoSource.CAMERA);
+            // What setProfile() does, with the video codec and the settings' rates swapped in.
+            final CamcorderProfile profile = CamcorderProfile.get(mCameraId, getProfileQuality(mCameraId));
+            final EncodingSettings settings = mEncodingSettings;
+            final int frameRate = settings.getFrameRate(profile.videoFrameRate);
+            recorder.setOutputFormat(profile.fileFormat);
+            recorder.setVideoFrameRate(frameRate);
+            recorder.setVideoSize(mSizes.videoWidth, mSizes.videoHeight);
+            final int videoEncoder = VideoEncoderChooser.choose(
+                    CameraUtil.getVideoEncoders(mContext, settings.allowHevc),
+                    mSizes.videoWidth, mSizes.videoHeight, frameRate);
+            final int bitRate = settings.getVideoBitRate(mSizes.videoWidth, mSizes.videoHeight, frameRate, videoEncoder);
+            recorder.setVideoEncodingBitRate(bitRate);
+            recorder.setVideoEncoder(videoEncoder);
+            recorder.setAudioEncodingBitRate(settings.audioBitRate > 0 ? settings.audioBitRate : profile.audioBitRate);
+            recorder.setAudioChannels(settings.audioChannels > 0 ? settings.audioChannels : profile.audioChannels);
+            recorder.setAudioSamplingRate(settings.audioSampleRate > 0 ? settings.audioSampleRate : profile.audioSampleRate);
+            recorder.setAudioEncoder(profile.audioCodec);
+            recorder.setOutputFile(outputPath);
+            recorder.setOrientationHint(mDisplayOrientation);
+            recorder.setPreviewDisplay(previewSurface);
+            RecordingJournal.begin(mContext, new File(outputPath), VideoEncoderChooser.getMimeType(videoEncoder),
+                    mSizes.videoWidth, mSizes.videoHeight, frameRate, bitRate, mDisplayOrientation);
+            if (mMaxFileSize > 0) {
+                recorder.setMaxFileSize(mMaxFileSize);
+                recorder.setOnInfoListener(mInfoListener);
+            }
+        } catch (Throwable t) {
+            t.printStackTrace();
+            if (recorder != null)
+                releaseRecorder(recorder);
+            throw new Exception("Failed to begin recording: " + t.getMessage(), t);
+        }
+        try {
+            recorder.prepare();
+            return recorder;
+        } catch (Throwable e) {
+            releaseRecorder(recorder);
+            throw new Exception("Failed to prepare the media recorder: " + e.getMessage(), e);
+        }
+    }
+
+    private static int getProfileQuality(int cameraId) {
+        if (CamcorderProfile.hasProfile(cameraId, CamcorderProfile.QUALITY_480P))
+            return CamcorderProfile.QUALITY_480P;
+        if (CamcorderProfile.hasProfile(cameraId, CamcorderProfile.QUALITY_720P))
+            return CamcorderProfile.QUALITY_720P;
+        return CamcorderProfile.QUALITY_HIGH;
+    }
+
+    private void setDisplayOrientation(Camera.Parameters parameters, int deviceRotation) {
+        final Camera.CameraInfo info = new Camera.CameraInfo();
+        Camera.getCameraInfo(mCameraId, info);
+        final boolean front = info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT;
+        mDisplayOrientation = Degrees.getDisplayOrientation(info.orientation, deviceRotation, front);
+        Log.d(TAG, String.format("Orientations: Sensor = %d˚, Device = %d˚, Display = %d˚",
+                info.orientation, deviceRotation, mDisplayOrientation));
+
+        int previewOrientation = mDisplayOrientation;
+        if (Degrees.isPortrait(deviceRotation) && front)
+            previewOrientation = Degrees.mirror(mDisplayOrientation);
+        parameters.setRotation(previewOrientation);
+        mCamera.setDisplayOrientation(previewOrientation);
+    }
+
+    private void releaseRecorder(MediaRecorder recorder) {
+        try {
+            recorder.stop();
+        } catch (RuntimeException ignored) {
+        }
+        recorder.reset();
+        recorder.release();
+        if (mCamera != null) {
+            try {
+                mCamera.lock();
+            } catch (Throwable ignored) {
+            }
+        }
+    }
+
+    private void releaseCamera() {
+        if (mCamera != null) {
+            try {
+                mCamera.lock();
+            } catch (Throwable ignored) {
+            }
+            mCamera.release();
+            mCamera = null;
+        }
+    }
+
+    private void deliverSegment(final MediaRecorder recorder, final String finishedPath, final String nextPath) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Not dropped once close() was called, the file is part of that recording.
+                mListener.onSegmentStarted(recorder, finishedPath, nextPath);
+            }
+        });
+    }
+
+    private void deliverError(final int generation, final Exception e) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (generation == mGeneration)
+                    mListener.onError(e);
+            }
+        });
+    }
+}
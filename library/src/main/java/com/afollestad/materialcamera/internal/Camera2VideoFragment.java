@@ -19,14 +19,16 @@ import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.MediaCodec;
 import android.media.MediaRecorder;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
+import android.util.Range;
 import android.util.Size;
 import android.view.Surface;
 import android.view.TextureView;
@@ -37,12 +39,9 @@ import com.afollestad.materialcamera.R;
 import com.afollestad.materialdialogs.DialogAction;
 import com.afollestad.materialdialogs.MaterialDialog;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 
 import static com.afollestad.materialcamera.internal.BaseVideoRecorderActivity.CAMERA_POSITION_BACK;
 import static com.afollestad.materialcamera.internal.BaseVideoRecorderActivity.CAMERA_POSITION_FRONT;
@@ -54,6 +53,9 @@ import static com.afollestad.materialcamera.internal.BaseVideoRecorderActivity.C
 @TargetApi(Build.VERSION_CODES.LOLLIPOP)
 public class Camera2VideoFragment extends BaseCameraVideoFragment implements View.OnClickListener {
 
+    // The most the preview runs at while the user is only framing the shot.
+    private static final int IDLE_PREVIEW_FPS = 15;
+
     private CameraDevice mCameraDevice;
     private CameraCaptureSession mPreviewSession;
     private AutoFitTextureView mTextureView;
@@ -64,10 +66,94 @@ public class Camera2VideoFragment extends BaseCameraVideoFragment implements Vie
     private int mSensorOrientation;
     @Degrees.DegreeUnits
     private int mDisplayOrientation;
-    private CaptureRequest.Builder mPreviewBuilder;
-    private HandlerThread mBackgroundThread;
-    private Handler mBackgroundHandler;
-    private final Semaphore mCameraOpenCloseLock = new Semaphore(1);
+    private CaptureRequest mIdleRequest;
+    private CaptureRequest mRecordRequest;
+    private Range<Integer> mIdleFpsRange;
+    private Range<Integer> mRecordFpsRange;
+    private int mRecordFrameRate;
+    private Surface mPersistentSurface;
+    private CameraSessionController mController;
+    private String mOpeningCameraId;
+    private CameraProfile mProfile;
+    private boolean mProfileLoaded;
+    // Bumped by closeCamera(), so a profile loading at the time doesn't go on to open the camera.
+    private int mProfileRequest;
+    private int mPreRollSeconds;
+    private PreRollRecorder mPreRoll;
+    // Written on the main thread before the record request is posted, read on the camera thread.
+    private volatile boolean mAwaitingFirstFrame;
+    private File mFirstSegment;
+    private int mSegmentIndex;
+    private String mNextSegmentPath;
+
+    private final CameraCaptureSession.CaptureCallback mRecordCaptureCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureStarted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                     long timestamp, long frameNumber) {
+            if (!mAwaitingFirstFrame) return;
+            mAwaitingFirstFrame = false;
+            final long latency = SystemClock.elapsedRealtime() - mRecordPressedAt;
+            final Activity activity = getActivity();
+            if (activity != null) {
+                activity.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onRecordStartLatency(latency);
+                    }
+                });
+            }
+        }
+    };
+
+    private final MediaRecorder.OnInfoListener mRecorderInfoListener = new MediaRecorder.OnInfoListener() {
+        @Override
+        public void onInfo(MediaRecorder mr, int what, int extra) {
+            if (mr != mMediaRecorder || !mIsRecording) return;
+            switch (what) {
+                case MediaRecorderCompat.MEDIA_RECORDER_INFO_MAX_FILESIZE_APPROACHING:
+                    if (shouldSegmentAtMaxFileSize() && mNextSegmentPath == null) {
+                        final File next = CameraUtil.makeSegmentFile(mFirstSegment, mSegmentIndex + 1);
+                        if (MediaRecorderCompat.setNextOutputFile(mr, next)) {
+                            mSegmentIndex++;
+                            mNextSegmentPath = next.getAbsolutePath();
+                        }
+                    }
+                    break;
+                case MediaRecorderCompat.MEDIA_RECORDER_INFO_NEXT_OUTPUT_FILE_STARTED:
+                    if (mNextSegmentPath != null) {
+                        onSegmentStarted(Uri.parse(mOutputUri).getPath(), mNextSegmentPath);
+                        mNextSegmentPath = null;
+                    }
+                    break;
+                case MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_REACHED:
+                    discardNextSegment();
+                    // Without a persistent surface, a new recorder would need a new session.
+                    if (shouldSegmentAtMaxFileSize() && mPersistentSurface != null)
+                        restartRecorder();
+                    else stopRecordingVideo(false);
+                    break;
+            }
+        }
+    };
+
+    private final PreRollRecorder.Listener mPreRollListener = new PreRollRecorder.Listener() {
+        @Override
+        public void onError(@NonNull Exception e) {
+            throwError(e);
+        }
+
+        @Override
+        public void onSegmentStarted(@NonNull String finishedPath, @NonNull String nextPath) {
+            // Also after stopRecordingVideo(), the file it finished is this one then.
+            Camera2VideoFragment.this.onSegmentStarted(finishedPath, nextPath);
+        }
+
+        @Override
+        public void onMaxFileSizeReached() {
+            if (mIsRecording)
+                stopRecordingVideo(false);
+        }
+    };
 
     private final TextureView.SurfaceTextureListener mSurfaceTextureListener = new TextureView.SurfaceTextureListener() {
         @Override
@@ -90,33 +176,28 @@ public class Camera2VideoFragment extends BaseCameraVideoFragment implements Vie
         }
     };
 
-    private final CameraDevice.StateCallback mStateCallback = new CameraDevice.StateCallback() {
+    private final CameraSessionController.Listener mSessionListener = new CameraSessionController.Listener() {
         @Override
         public void onOpened(@NonNull CameraDevice cameraDevice) {
             mCameraDevice = cameraDevice;
             startPreview();
-            mCameraOpenCloseLock.release();
             if (null != mTextureView) {
                 configureTransform(mTextureView.getWidth(), mTextureView.getHeight());
             }
         }
 
         @Override
-        public void onDisconnected(@NonNull CameraDevice cameraDevice) {
-            mCameraOpenCloseLock.release();
-            cameraDevice.close();
-            mCameraDevice = null;
+        public void onSessionConfigured(@NonNull CameraCaptureSession cameraCaptureSession) {
+            mPreviewSession = cameraCaptureSession;
+            updatePreview();
         }
 
         @Override
-        public void onError(@NonNull CameraDevice cameraDevice, int error) {
-            mCameraOpenCloseLock.release();
-            cameraDevice.close();
+        public void onError(@NonNull Exception e) {
+            mOpeningCameraId = null;
             mCameraDevice = null;
-            Activity activity = getActivity();
-            if (null != activity) {
-                activity.finish();
-            }
+            mPreviewSession = null;
+            throwError(e);
         }
     };
 
@@ -126,46 +207,71 @@ public class Camera2VideoFragment extends BaseCameraVideoFragment implements Vie
         return fragment;
     }
 
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mController = new CameraSessionController(mSessionListener);
+        mPreRollSeconds = getArguments().getInt("pre_roll_seconds", 0);
+        prewarmCamera();
+    }
+
     /**
-     * In this sample, we choose a video size with 3x4 aspect ratio. Also, we don't use sizes larger
-     * than 1080p, since MediaRecorder cannot handle such a high-resolution video.
-     *
-     * @param choices The list of available sizes
-     * @return The video size
+     * Starts opening the camera before the layout is inflated, so the device opens while the
+     * preview surface is created instead of after. {@link #openCamera()} picks up the device, or
+     * the open that's still pending, once the surface exists.
      */
-    private static Size chooseVideoSize(Size[] choices) {
-        Size backupSize = null;
-        for (Size size : choices) {
-            if (size.getHeight() <= PREFERRED_PIXEL_HEIGHT) {
-                if (size.getWidth() == size.getHeight() * PREFERRED_ASPECT_RATIO)
-                    return size;
-                backupSize = size;
+    private void prewarmCamera() {
+        final Activity activity = getActivity();
+        if (null == activity || activity.isFinishing()) return;
+        whenProfileLoaded(new Runnable() {
+            @Override
+            public void run() {
+                final Activity activity = getActivity();
+                if (null == activity || activity.isFinishing() || mOpeningCameraId != null) return;
+                final CameraManager manager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
+                try {
+                    resolveCameraPosition(manager, mProfile);
+                } catch (CameraAccessException | NullPointerException e) {
+                    // openCamera() tries again and reports the error.
+                    return;
+                }
+                final String cameraId = (String) mInterface.getCurrentCameraId();
+                if (cameraId == null) return;
+                mMediaRecorder = new MediaRecorder();
+                mOpeningCameraId = cameraId;
+                mController.open(manager, cameraId);
             }
-        }
-        if (backupSize != null) return backupSize;
-        LOG(Camera2VideoFragment.class, "Couldn't find any suitable video size");
-        return choices[choices.length - 1];
+        });
     }
 
-    private static Size chooseOptimalSize(Size[] choices, int width, int height, Size aspectRatio) {
-        // Collect the supported resolutions that are at least as big as the preview Surface
-        List<Size> bigEnough = new ArrayList<>();
-        int w = aspectRatio.getWidth();
-        int h = aspectRatio.getHeight();
-        for (Size option : choices) {
-            if (option.getHeight() == option.getWidth() * h / w &&
-                    option.getWidth() >= width && option.getHeight() >= height) {
-                bigEnough.add(option);
-            }
-        }
-
-        // Pick the smallest of those, assuming we found any
-        if (bigEnough.size() > 0) {
-            return Collections.min(bigEnough, new CompareSizesByArea());
-        } else {
-            LOG(Camera2VideoFragment.class, "Couldn't find any suitable preview size");
-            return choices[0];
+    /**
+     * Runs then on the main thread once the {@link CameraProfile} has loaded. The first time it's
+     * waited for on the camera thread, where opening the camera would wait for it anyway, and
+     * then is dropped if the camera was closed in the meantime.
+     */
+    private void whenProfileLoaded(final Runnable then) {
+        if (mProfileLoaded) {
+            then.run();
+            return;
         }
+        final Context context = getActivity().getApplicationContext();
+        final int request = mProfileRequest;
+        final CameraProfile[] profile = new CameraProfile[1];
+        mController.post(new Runnable() {
+            @Override
+            public void run() {
+                profile[0] = CameraProfileStore.get(context);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                if (mController == null) return;
+                mProfile = profile[0];
+                mProfileLoaded = true;
+                if (request == mProfileRequest)
+                    then.run();
+            }
+        });
     }
 
     @Override
@@ -183,7 +289,6 @@ public class Camera2VideoFragment extends BaseCameraVideoFragment implements Vie
     @Override
     public void onResume() {
         super.onResume();
-        startBackgroundThread();
         if (mTextureView.isAvailable()) {
             openCamera();
         } else {
@@ -192,29 +297,15 @@ public class Camera2VideoFragment extends BaseCameraVideoFragment implements Vie
     }
 
     @Override
-    public void onPause() {
-        stopBackgroundThread();
-        super.onPause();
-    }
-
-    /**
-     * Starts a background thread and its {@link Handler}.
-     */
-    private void startBackgroundThread() {
-        mBackgroundThread = new HandlerThread("CameraBackground");
-        mBackgroundThread.start();
-        mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
-    }
-
-    private void stopBackgroundThread() {
-        stopCounter();
-        mBackgroundThread.quitSafely();
-        try {
-            mBackgroundThread.join();
-            mBackgroundThread = null;
-            mBackgroundHandler = null;
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    public void onDestroy() {
+        super.onDestroy();
+        if (mController != null) {
+            mController.release();
+            mController = null;
+        }
+        if (mPersistentSurface != null) {
+            mPersistentSurface.release();
+            mPersistentSurface = null;
         }
     }
 
@@ -224,61 +315,63 @@ public class Camera2VideoFragment extends BaseCameraVideoFragment implements Vie
         final int height = mTextureView.getHeight();
         final Activity activity = getActivity();
         if (null == activity || activity.isFinishing()) return;
+        if (!mProfileLoaded) {
+            whenProfileLoaded(new Runnable() {
+                @Override
+                public void run() {
+                    if (mTextureView != null)
+                        openCamera();
+                }
+            });
+            return;
+        }
         CameraManager manager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
         try {
-            if (!mCameraOpenCloseLock.tryAcquire(2500, TimeUnit.MILLISECONDS))
-                throwError(new Exception("Time out waiting to lock camera opening."));
-            if (mInterface.getFrontCamera() == null || mInterface.getBackCamera() == null) {
-                for (String cameraId : manager.getCameraIdList()) {
-                    if (cameraId == null) continue;
-                    if (mInterface.getFrontCamera() != null && mInterface.getBackCamera() != null)
-                        break;
-                    CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
-                    //noinspection ConstantConditions
-                    int facing = characteristics.get(CameraCharacteristics.LENS_FACING);
-                    if (facing == CameraCharacteristics.LENS_FACING_FRONT)
-                        mInterface.setFrontCamera(cameraId);
-                    else if (facing == CameraCharacteristics.LENS_FACING_BACK)
-                        mInterface.setBackCamera(cameraId);
+            final CameraProfile profile = mProfile;
+            resolveCameraPosition(manager, profile);
+            mButtonFacing.setImageDrawable(getCurrentCameraPosition() == CAMERA_POSITION_BACK ?
+                    mCameraFrontIcon : mCameraBackIcon);
+
+            // Choose the sizes for camera preview and video recording
+            final String cameraId = (String) mInterface.getCurrentCameraId();
+            final CameraProfile.Camera camera = profile != null ? profile.getCamera(cameraId) : null;
+            final SizeChooser.Policy policy = getSizePolicy();
+            final EncodingSettings encodingSettings = getEncodingSettings();
+            SizeChooser.Result sizes = SizeChooser.getCached(cameraId, width, height, policy);
+            if (camera != null) {
+                if (sizes == null) {
+                    sizes = SizeChooser.negotiate(cameraId, width, height, policy,
+                            camera.videoWidths, camera.videoHeights,
+                            camera.previewWidths, camera.previewHeights);
                 }
-            }
-            if (mInterface.getCurrentCameraPosition() == CAMERA_POSITION_UNKNOWN) {
-                if (getArguments().getBoolean("default_to_front_facing", false)) {
-                    // Check front facing first
-                    if (mInterface.getFrontCamera() != null) {
-                        mButtonFacing.setImageResource(R.drawable.ic_camera_rear);
-                        mInterface.setCameraPosition(CAMERA_POSITION_FRONT);
-                    } else {
-                        mButtonFacing.setImageResource(R.drawable.ic_camera_front);
-                        if (mInterface.getBackCamera() != null)
-                            mInterface.setCameraPosition(CAMERA_POSITION_BACK);
-                        else mInterface.setCameraPosition(CAMERA_POSITION_UNKNOWN);
-                    }
-                } else {
-                    // Check back facing first
-                    if (mInterface.getBackCamera() != null) {
-                        mButtonFacing.setImageResource(R.drawable.ic_camera_front);
-                        mInterface.setCameraPosition(CAMERA_POSITION_BACK);
-                    } else {
-                        mButtonFacing.setImageResource(R.drawable.ic_camera_rear);
-                        if (mInterface.getFrontCamera() != null)
-                            mInterface.setCameraPosition(CAMERA_POSITION_FRONT);
-                        else mInterface.setCameraPosition(CAMERA_POSITION_UNKNOWN);
-                    }
+                //noinspection ResourceType
+                mSensorOrientation = camera.sensorOrientation;
+                final int fpsRange = camera.findFpsRange(IDLE_PREVIEW_FPS);
+                mIdleFpsRange = fpsRange != -1 ?
+                        new Range<>(camera.fpsRangeLowers[fpsRange], camera.fpsRangeUppers[fpsRange]) : null;
+                final int recordFpsRange = camera.findFpsRange(encodingSettings.getTargetFrameRate());
+                mRecordFpsRange = recordFpsRange != -1 ?
+                        new Range<>(camera.fpsRangeLowers[recordFpsRange], camera.fpsRangeUppers[recordFpsRange]) : null;
+            } else {
+                CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
+                StreamConfigurationMap map = characteristics
+                        .get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+                assert map != null;
+                if (sizes == null) {
+                    final Size[] videoSizes = map.getOutputSizes(MediaRecorder.class);
+                    final Size[] previewSizes = map.getOutputSizes(SurfaceTexture.class);
+                    sizes = SizeChooser.negotiate(cameraId, width, height, policy,
+                            CameraProfileStore.widths(videoSizes), CameraProfileStore.heights(videoSizes),
+                            CameraProfileStore.widths(previewSizes), CameraProfileStore.heights(previewSizes));
                 }
+                //noinspection ConstantConditions,ResourceType
+                mSensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+                mIdleFpsRange = null;
+                mRecordFpsRange = null;
             }
-
-            // Choose the sizes for camera preview and video recording
-            CameraCharacteristics characteristics = manager.getCameraCharacteristics((String) mInterface.getCurrentCameraId());
-            StreamConfigurationMap map = characteristics
-                    .get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-            assert map != null;
-            mVideoSize = chooseVideoSize(map.getOutputSizes(MediaRecorder.class));
-            mPreviewSize = chooseOptimalSize(map.getOutputSizes(SurfaceTexture.class),
-                    width, height, mVideoSize);
-
-            //noinspection ConstantConditions,ResourceType
-            mSensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+            mRecordFrameRate = encodingSettings.getFrameRate(mRecordFpsRange != null ? mRecordFpsRange.getUpper() : -1);
+            mVideoSize = new Size(sizes.videoWidth, sizes.videoHeight);
+            mPreviewSize = new Size(sizes.previewWidth, sizes.previewHeight);
 
             @Degrees.DegreeUnits
             int deviceRotation = Degrees.getDisplayRotation(getActivity());
@@ -295,87 +388,168 @@ public class Camera2VideoFragment extends BaseCameraVideoFragment implements Vie
                 mTextureView.setAspectRatio(mPreviewSize.getHeight(), mPreviewSize.getWidth());
             }
             configureTransform(width, height);
-            mMediaRecorder = new MediaRecorder();
-            // noinspection ResourceType
-            manager.openCamera((String) mInterface.getCurrentCameraId(), mStateCallback, null);
+            if (!cameraId.equals(mOpeningCameraId)) {
+                mMediaRecorder = new MediaRecorder();
+                mOpeningCameraId = cameraId;
+                mController.open(manager, cameraId);
+            } else if (mCameraDevice != null && mIdleRequest == null) {
+                // The pre-warmed device opened before the surface was ready.
+                startPreview();
+            }
         } catch (CameraAccessException e) {
             throwError(new Exception("Cannot access the camera.", e));
         } catch (NullPointerException e) {
             // Currently an NPE is thrown when the Camera2API is used but not supported on the
             // device this code runs.
             new ErrorDialog().show(getFragmentManager(), "dialog");
-        } catch (InterruptedException e) {
-            throwError(new Exception("Interrupted while trying to lock camera opening.", e));
         }
     }
 
-    @Override
-    public void closeCamera() {
-        try {
-            mCameraOpenCloseLock.acquire();
-            if (null != mCameraDevice) {
-                mCameraDevice.close();
-                mCameraDevice = null;
+    /**
+     * Finds the front and back cameras, and picks the one to open if none has been picked yet.
+     */
+    private void resolveCameraPosition(CameraManager manager, CameraProfile profile) throws CameraAccessException {
+        if (profile != null && (mInterface.getFrontCamera() == null || mInterface.getBackCamera() == null)) {
+            if (profile.getCameraId(CameraProfile.FACING_FRONT) != null)
+                mInterface.setFrontCamera(profile.getCameraId(CameraProfile.FACING_FRONT));
+            if (profile.getCameraId(CameraProfile.FACING_BACK) != null)
+                mInterface.setBackCamera(profile.getCameraId(CameraProfile.FACING_BACK));
+        } else if (mInterface.getFrontCamera() == null || mInterface.getBackCamera() == null) {
+            for (String cameraId : manager.getCameraIdList()) {
+                if (cameraId == null) continue;
+                if (mInterface.getFrontCamera() != null && mInterface.getBackCamera() != null)
+                    break;
+                CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
+                //noinspection ConstantConditions
+                int facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+                if (facing == CameraCharacteristics.LENS_FACING_FRONT)
+                    mInterface.setFrontCamera(cameraId);
+                else if (facing == CameraCharacteristics.LENS_FACING_BACK)
+                    mInterface.setBackCamera(cameraId);
             }
-            if (null != mMediaRecorder) {
-                mMediaRecorder.release();
-                mMediaRecorder = null;
+        }
+        if (mInterface.getCurrentCameraPosition() == CAMERA_POSITION_UNKNOWN) {
+            if (getArguments().getBoolean("default_to_front_facing", false)) {
+                // Check front facing first
+                if (mInterface.getFrontCamera() != null) {
+                    mInterface.setCameraPosition(CAMERA_POSITION_FRONT);
+                } else {
+                    if (mInterface.getBackCamera() != null)
+                        mInterface.setCameraPosition(CAMERA_POSITION_BACK);
+                    else mInterface.setCameraPosition(CAMERA_POSITION_UNKNOWN);
+                }
+            } else {
+                // Check back facing first
+                if (mInterface.getBackCamera() != null) {
+                    mInterface.setCameraPosition(CAMERA_POSITION_BACK);
+                } else {
+                    if (mInterface.getFrontCamera() != null)
+                        mInterface.setCameraPosition(CAMERA_POSITION_FRONT);
+                    else mInterface.setCameraPosition(CAMERA_POSITION_UNKNOWN);
+                }
             }
-        } catch (InterruptedException e) {
-            throwError(new Exception("Interrupted while trying to lock camera opening.", e));
-        } finally {
-            mCameraOpenCloseLock.release();
         }
     }
 
+    @Override
+    public void closeCamera() {
+        mProfileRequest++;
+        mOpeningCameraId = null;
+        mCameraDevice = null;
+        mPreviewSession = null;
+        mIdleRequest = null;
+        mRecordRequest = null;
+        // The recorder is the device's output, so it's released after the device is closed.
+        final MediaRecorder recorder = mMediaRecorder;
+        mMediaRecorder = null;
+        final PreRollRecorder preRoll = mPreRoll;
+        mPreRoll = null;
+        File unused = null;
+        if (recorder != null && !mIsRecording && mOutputUri != null) {
+            // Prepared ahead of time but never recorded to, see setUpMediaRecorder().
+            unused = new File(Uri.parse(mOutputUri).getPath());
+            mOutputUri = null;
+        }
+        final File unusedFile = unused;
+        final Runnable releaseRecorders = recorder == null && preRoll == null ? null : new Runnable() {
+            @Override
+            public void run() {
+                if (recorder != null)
+                    recorder.release();
+                if (preRoll != null)
+                    preRoll.release();
+                // After the recorder, it may still have been preparing it.
+                if (unusedFile != null) {
+                    //noinspection ResultOfMethodCallIgnored
+                    unusedFile.delete();
+                }
+            }
+        };
+        if (mController != null)
+            mController.close(releaseRecorders);
+        else if (releaseRecorders != null)
+            releaseRecorders.run();
+    }
+
     private void startPreview() {
-        if (null == mCameraDevice || !mTextureView.isAvailable() || null == mPreviewSize)
+        if (null == mCameraDevice || null == mTextureView || !mTextureView.isAvailable() || null == mPreviewSize)
             return;
+        if (mPreRollSeconds > 0) {
+            setUpPreRoll();
+        } else {
+            final CameraDevice device = mCameraDevice;
+            final File output = getOutputMediaFile();
+            mOutputUri = Uri.fromFile(output).toString();
+            setUpMediaRecorder(output, new Runnable() {
+                @Override
+                public void run() {
+                    if (device == mCameraDevice)
+                        startSession(mPersistentSurface != null ? mPersistentSurface : mMediaRecorder.getSurface());
+                }
+            });
+        }
+    }
+
+    private void startSession(Surface recorderSurface) {
         try {
-            if (!setUpMediaRecorder()) return;
             SurfaceTexture texture = mTextureView.getSurfaceTexture();
             assert texture != null;
             texture.setDefaultBufferSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
-            mPreviewBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
-            List<Surface> surfaces = new ArrayList<>();
-
-            Surface previewSurface = new Surface(texture);
-            surfaces.add(previewSurface);
-            mPreviewBuilder.addTarget(previewSurface);
-
-            Surface recorderSurface = mMediaRecorder.getSurface();
-            surfaces.add(recorderSurface);
-            mPreviewBuilder.addTarget(recorderSurface);
-
-            mCameraDevice.createCaptureSession(surfaces, new CameraCaptureSession.StateCallback() {
-                @Override
-                public void onConfigured(@NonNull CameraCaptureSession cameraCaptureSession) {
-                    mPreviewSession = cameraCaptureSession;
-                    updatePreview();
-                }
-
-                @Override
-                public void onConfigureFailed(@NonNull CameraCaptureSession cameraCaptureSession) {
-                    throwError(new Exception("Camera configuration failed"));
-                }
-            }, mBackgroundHandler);
+            final Surface previewSurface = new Surface(texture);
+
+            // The session is configured for recording up front so recording starts by swapping
+            // the repeating request, but until then only the preview is fed, at a reduced rate.
+            final CaptureRequest.Builder idleBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            idleBuilder.addTarget(previewSurface);
+            setUpCaptureRequestBuilder(idleBuilder);
+            if (mIdleFpsRange != null)
+                idleBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mIdleFpsRange);
+            mIdleRequest = idleBuilder.build();
+
+            final CaptureRequest.Builder recordBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+            recordBuilder.addTarget(previewSurface);
+            recordBuilder.addTarget(recorderSurface);
+            setUpCaptureRequestBuilder(recordBuilder);
+            if (mRecordFpsRange != null)
+                recordBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mRecordFpsRange);
+            mRecordRequest = recordBuilder.build();
+            // The pre-roll encoder is fed all the time.
+            if (mPreRoll != null)
+                mIdleRequest = mRecordRequest;
+
+            mController.createSession(Arrays.asList(previewSurface, recorderSurface));
         } catch (CameraAccessException e) {
             e.printStackTrace();
         }
     }
 
     private void updatePreview() {
-        if (null == mCameraDevice) {
+        if (null == mCameraDevice || null == mIdleRequest) {
             return;
         }
-        try {
-            setUpCaptureRequestBuilder(mPreviewBuilder);
-            HandlerThread thread = new HandlerThread("CameraPreview");
-            thread.start();
-            mPreviewSession.setRepeatingRequest(mPreviewBuilder.build(), null, mBackgroundHandler);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-        }
+        if (mIsRecording && !mIsPaused)
+            mController.setRepeatingRequest(mRecordRequest, mRecordCaptureCallback);
+        else mController.setRepeatingRequest(mIdleRequest);
     }
 
     private void setUpCaptureRequestBuilder(CaptureRequest.Builder builder) {
@@ -407,39 +581,206 @@ public class Camera2VideoFragment extends BaseCameraVideoFragment implements Vie
         mTextureView.setTransform(matrix);
     }
 
-    private boolean setUpMediaRecorder() {
+    /**
+     * Sets the recorder up to record into outputFile. It's configured and prepared on the camera
+     * thread: choosing the encoder can wait for the encoders to be profiled, and starting the
+     * file's {@link RecordingJournal} syncs it to disk.
+     *
+     * @param then Optionally run on the main thread once the recorder is prepared, unless it was
+     *             released or replaced meanwhile.
+     */
+    private void setUpMediaRecorder(final File outputFile, @Nullable final Runnable then) {
         final Activity activity = getActivity();
-        if (null == activity) return false;
+        if (null == activity) return;
         if (mMediaRecorder == null)
             mMediaRecorder = new MediaRecorder();
-        boolean canUseAudio = true;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
-            canUseAudio = activity.checkSelfPermission(Manifest.permission.RECORD_AUDIO) == PackageManager.PERMISSION_GRANTED;
-        if (canUseAudio) {
-            mMediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
-        } else {
-            Toast.makeText(getActivity(), R.string.mcam_no_audio_access, Toast.LENGTH_LONG).show();
-        }
-        mMediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
-        mMediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
-        mMediaRecorder.setVideoEncodingBitRate(10000000);
-        mMediaRecorder.setVideoFrameRate(15);
-        mMediaRecorder.setVideoSize(mVideoSize.getWidth(), mVideoSize.getHeight());
-        mMediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.H264);
-        if (canUseAudio)
-            mMediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
-        Uri uri = Uri.fromFile(getOutputMediaFile());
-        mOutputUri = uri.toString();
-        mMediaRecorder.setOutputFile(uri.getPath());
-        mMediaRecorder.setOrientationHint(mDisplayOrientation);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && mPersistentSurface == null) {
+            // Outlives the recorder, so the capture session doesn't depend on a recorder instance.
+            mPersistentSurface = MediaCodec.createPersistentInputSurface();
+        }
+        final MediaRecorder recorder = mMediaRecorder;
+        final Surface persistentSurface = mPersistentSurface;
+        final boolean canUseAudio = canUseAudio(activity);
+        final EncodingSettings settings = getEncodingSettings();
+        final int width = mVideoSize.getWidth();
+        final int height = mVideoSize.getHeight();
+        final int frameRate = mRecordFrameRate;
+        final int orientation = mDisplayOrientation;
+        final long maxFileSize = getMaxFileSize();
+        mController.post(new Runnable() {
+            @Override
+            public void run() {
+                Throwable error = null;
+                try {
+                    if (canUseAudio)
+                        recorder.setAudioSource(MediaRecorder.AudioSource.MIC);
+                    recorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
+                        recorder.setInputSurface(persistentSurface);
+                    recorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
+                    final int videoEncoder = chooseVideoEncoder(activity, width, height, frameRate);
+                    final int bitRate = settings.getVideoBitRate(width, height, frameRate, videoEncoder);
+                    recorder.setVideoEncodingBitRate(bitRate);
+                    recorder.setVideoFrameRate(frameRate);
+                    recorder.setVideoSize(width, height);
+                    recorder.setVideoEncoder(videoEncoder);
+                    if (canUseAudio) {
+                        recorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
+                        if (settings.audioBitRate > 0)
+                            recorder.setAudioEncodingBitRate(settings.audioBitRate);
+                        if (settings.audioSampleRate > 0)
+                            recorder.setAudioSamplingRate(settings.audioSampleRate);
+                        if (settings.audioChannels > 0)
+                            recorder.setAudioChannels(settings.audioChannels);
+                    }
+                    recorder.setOutputFile(outputFile.getPath());
+                    recorder.setOrientationHint(orientation);
+                    RecordingJournal.begin(activity, outputFile, VideoEncoderChooser.getMimeType(videoEncoder),
+                            width, height, frameRate, bitRate, orientation);
+                    if (maxFileSize > 0) {
+                        recorder.setMaxFileSize(maxFileSize);
+                        recorder.setOnInfoListener(mRecorderInfoListener);
+                    }
+                    recorder.prepare();
+                } catch (Throwable e) {
+                    error = e;
+                }
+                final Throwable failure = error;
+                activity.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (recorder != mMediaRecorder) return;
+                        if (failure != null)
+                            throwError(new Exception("Failed to prepare the media recorder: " + failure.getMessage(), failure));
+                        else if (then != null)
+                            then.run();
+                    }
+                });
+            }
+        }, null);
+    }
+
+    /**
+     * Starts the pre-roll encoder on the camera thread, creating the codecs and allocating its
+     * rings takes a while, then starts the session with its input surface on the main thread.
+     */
+    private void setUpPreRoll() {
+        final Activity activity = getActivity();
+        if (null == activity) return;
+        final PreRollRecorder previous = mPreRoll;
+        mPreRoll = null;
+        final CameraDevice device = mCameraDevice;
+        final EncodingSettings settings = getEncodingSettings();
+        final int width = mVideoSize.getWidth();
+        final int height = mVideoSize.getHeight();
+        final int frameRate = mRecordFrameRate;
+        final boolean audio = canUseAudio(activity);
+        final long maxFileSize = getMaxFileSize();
+        final boolean segmentAtMaxFileSize = shouldSegmentAtMaxFileSize();
+        final CameraManager manager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
+        final String cameraId = (String) mInterface.getCurrentCameraId();
+        mController.post(new Runnable() {
+            @Override
+            public void run() {
+                if (previous != null)
+                    previous.release();
+                final boolean realtimeTimestamps = hasRealtimeTimestamps(manager, cameraId);
+                final int videoEncoder = chooseVideoEncoder(activity, width, height, frameRate);
+                final int bitRate = settings.getVideoBitRate(width, height, frameRate, videoEncoder);
+                final PreRollRecorder preRoll = new PreRollRecorder(VideoEncoderChooser.getMimeType(videoEncoder),
+                        width, height, bitRate, frameRate, mPreRollSeconds, audio, settings.audioBitRate,
+                        settings.audioSampleRate, settings.audioChannels, maxFileSize, segmentAtMaxFileSize,
+                        realtimeTimestamps, mPreRollListener);
+                Surface surface = null;
+                Exception error = null;
+                try {
+                    surface = preRoll.start();
+                } catch (IOException | IllegalStateException e) {
+                    preRoll.release();
+                    error = e;
+                }
+                final Surface inputSurface = surface;
+                final Exception failure = error;
+                activity.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (failure != null) {
+                            throwError(new Exception("Failed to prepare the pre-roll encoder: " + failure.getMessage(), failure));
+                        } else if (device != mCameraDevice || mPreRoll != null) {
+                            // The camera was closed or reopened meanwhile.
+                            preRoll.release();
+                        } else {
+                            mPreRoll = preRoll;
+                            startSession(inputSurface);
+                        }
+                    }
+                });
+            }
+        }, null);
+    }
 
+    /**
+     * @return whether the camera stamps frames with the boot clock rather than the monotonic one,
+     * which cameras that don't say use in practice.
+     */
+    private static boolean hasRealtimeTimestamps(CameraManager manager, String cameraId) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) return false;
         try {
-            mMediaRecorder.prepare();
-            return true;
-        } catch (Throwable e) {
-            throwError(new Exception("Failed to prepare the media recorder: " + e.getMessage(), e));
+            final Integer source = manager.getCameraCharacteristics(cameraId)
+                    .get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+            return source != null && source == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+        } catch (CameraAccessException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Continues the recording in the next file, the recorder stopped at the max file size. The
+     * persistent surface stays the session's output meanwhile, so only the recorder is set up again.
+     */
+    private void restartRecorder() {
+        final String finishedPath = Uri.parse(mOutputUri).getPath();
+        final File next = CameraUtil.makeSegmentFile(mFirstSegment, ++mSegmentIndex);
+        mMediaRecorder.reset();
+        // Deleted by stopRecordingVideo() if it stops before recording continues.
+        mNextSegmentPath = next.getAbsolutePath();
+        setUpMediaRecorder(next, new Runnable() {
+            @Override
+            public void run() {
+                if (!mIsRecording) return;
+                mNextSegmentPath = null;
+                try {
+                    mMediaRecorder.start();
+                } catch (RuntimeException e) {
+                    throwError(new Exception("Failed to continue recording: " + e.getMessage(), e));
+                    return;
+                }
+                onSegmentStarted(finishedPath, next.getAbsolutePath());
+            }
+        });
+    }
+
+    // A next file handed to the recorder that it never switched to.
+    private void discardNextSegment() {
+        if (mNextSegmentPath != null) {
+            //noinspection ResultOfMethodCallIgnored
+            new File(mNextSegmentPath).delete();
+            mNextSegmentPath = null;
+        }
+    }
+
+    private int chooseVideoEncoder(Activity activity, int width, int height, int frameRate) {
+        return VideoEncoderChooser.choose(CameraUtil.getVideoEncoders(activity, getEncodingSettings().allowHevc),
+                width, height, frameRate);
+    }
+
+    private boolean canUseAudio(Activity activity) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M &&
+                activity.checkSelfPermission(Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
+            Toast.makeText(activity, R.string.mcam_no_audio_access, Toast.LENGTH_LONG).show();
             return false;
         }
+        return true;
     }
 
     @Override
@@ -447,7 +788,7 @@ public class Camera2VideoFragment extends BaseCameraVideoFragment implements Vie
         super.startRecordingVideo();
         try {
             // UI
-            mButtonVideo.setImageResource(R.drawable.ic_action_stop);
+            mRecordButtonIcon.setRecording(true, true);
             mButtonFacing.setVisibility(View.GONE);
 
             // Only start counter if count down wasn't already started
@@ -456,8 +797,32 @@ public class Camera2VideoFragment extends BaseCameraVideoFragment implements Vie
                 startCounter();
             }
 
-            // Start recording
-            mMediaRecorder.start();
+            // The recorder was prepared with the preview, so this only starts feeding it.
+            mAwaitingFirstFrame = true;
+            mController.setRepeatingRequest(mRecordRequest, mRecordCaptureCallback);
+            if (mPreRoll != null) {
+                final File output = getOutputMediaFile();
+                mOutputUri = Uri.fromFile(output).toString();
+                final Context context = getActivity().getApplicationContext();
+                final String mimeType = mPreRoll.getVideoMimeType();
+                final int width = mVideoSize.getWidth();
+                final int height = mVideoSize.getHeight();
+                final int frameRate = mRecordFrameRate;
+                final int bitRate = mPreRoll.getBitRate();
+                final int rotation = mDisplayOrientation;
+                // The journal is synced to disk, that's not waited for here.
+                mController.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        RecordingJournal.begin(context, output, mimeType, width, height, frameRate, bitRate, rotation);
+                    }
+                }, null);
+                mPreRoll.startRecording(output.getPath(), mDisplayOrientation);
+            } else {
+                mMediaRecorder.start();
+            }
+            mFirstSegment = new File(Uri.parse(mOutputUri).getPath());
+            mSegmentIndex = 1;
             mIsRecording = true;
 
             mButtonVideo.setEnabled(false);
@@ -475,37 +840,127 @@ public class Camera2VideoFragment extends BaseCameraVideoFragment implements Vie
         }
     }
 
+    /**
+     * Needs the persistent surface, the session keeps it as its output while the recorder is
+     * set up again for the next part.
+     */
     @Override
-    public void stopRecordingVideo(boolean reachedZero) {
-        super.stopRecordingVideo(reachedZero);
-        mIsRecording = false;
-
-        if (mInterface.hasLengthLimit() && mInterface.shouldAutoSubmit() &&
-                (mInterface.getRecordingStart() < 0 || mMediaRecorder == null)) {
-            stopCounter();
-            releaseRecorder();
-            mInterface.onShowPreview(mOutputUri, reachedZero);
-            return;
-        }
+    protected boolean canPause() {
+        return super.canPause() && mPreRollSeconds == 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    }
 
-        if (!mInterface.didRecord())
-            mOutputUri = null;
+    @Override
+    public void pauseRecordingVideo() {
+        super.pauseRecordingVideo();
+        if (mIdleRequest != null)
+            mController.setRepeatingRequest(mIdleRequest);
+        final String finishedPath = Uri.parse(mOutputUri).getPath();
+        final MediaRecorder recorder = mMediaRecorder;
+        final Activity activity = getActivity();
+        // Stopping finalizes the part, that's done on the camera thread like setting up the next.
+        mController.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    recorder.stop();
+                } catch (RuntimeException e) {
+                    // Nothing was recorded to it.
+                    //noinspection ResultOfMethodCallIgnored
+                    new File(finishedPath).delete();
+                    recorder.reset();
+                    return;
+                }
+                recorder.reset();
+                activity.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPartFinished(finishedPath);
+                    }
+                });
+            }
+        }, null);
+        // Prepared now, so resuming only starts it.
+        final File next = CameraUtil.makeSegmentFile(mFirstSegment, ++mSegmentIndex);
+        mOutputUri = Uri.fromFile(next).toString();
+        setUpMediaRecorder(next, null);
+    }
 
-        releaseRecorder();
-        mButtonVideo.setImageResource(R.drawable.ic_action_record);
-        mButtonFacing.setVisibility(View.VISIBLE);
-        if (mInterface.getRecordingStart() > -1 && getActivity() != null)
-            mInterface.onShowPreview(mOutputUri, reachedZero);
+    @Override
+    public void resumeRecordingVideo() {
+        super.resumeRecordingVideo();
+        mController.setRepeatingRequest(mRecordRequest, mRecordCaptureCallback);
+        final MediaRecorder recorder = mMediaRecorder;
+        final Activity activity = getActivity();
+        // After the recorder was prepared for this part, which is queued on the camera thread too.
+        mController.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    recorder.start();
+                } catch (final RuntimeException e) {
+                    activity.runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            throwError(new Exception("Failed to resume recording: " + e.getMessage(), e));
+                        }
+                    });
+                }
+            }
+        }, null);
+    }
 
+    @Override
+    public void stopRecordingVideo(final boolean reachedZero) {
+        super.stopRecordingVideo(reachedZero);
+        mIsRecording = false;
+        // Stop feeding the recorder before it's released.
+        if (mIdleRequest != null)
+            mController.setRepeatingRequest(mIdleRequest);
         stopCounter();
-    }
 
-    static class CompareSizesByArea implements Comparator<Size> {
-        @Override
-        public int compare(Size lhs, Size rhs) {
-            // We cast here to ensure the multiplications won't overflow
-            return Long.signum((long) lhs.getWidth() * lhs.getHeight() -
-                    (long) rhs.getWidth() * rhs.getHeight());
+        final boolean autoSubmit = mInterface.hasLengthLimit() && mInterface.shouldAutoSubmit() &&
+                (mInterface.getRecordingStart() < 0 || (mMediaRecorder == null && mPreRoll == null));
+        if (!autoSubmit) {
+            if (!mInterface.didRecord())
+                mOutputUri = null;
+            mRecordButtonIcon.setRecording(false, true);
+            mButtonFacing.setVisibility(View.VISIBLE);
+        }
+
+        final Runnable showPreview = new Runnable() {
+            @Override
+            public void run() {
+                if (mInterface != null && (autoSubmit || (mInterface.getRecordingStart() > -1 && getActivity() != null)))
+                    showPreview(reachedZero);
+            }
+        };
+        if (mPreRoll != null) {
+            // Stopping the muxer finalizes the file, the preview is shown once that's done.
+            mPreRoll.stopRecording(showPreview);
+        } else if (mMediaRecorder != null && mController != null) {
+            // Stopping finalizes the file, which takes long enough to drop frames on the main thread.
+            final MediaRecorder recorder = mMediaRecorder;
+            mMediaRecorder = null;
+            if (mButtonVideo != null)
+                mButtonVideo.setEnabled(false);
+            mController.post(new Runnable() {
+                @Override
+                public void run() {
+                    releaseRecorder(recorder);
+                }
+            }, new Runnable() {
+                @Override
+                public void run() {
+                    if (mButtonVideo != null)
+                        mButtonVideo.setEnabled(true);
+                    discardNextSegment();
+                    showPreview.run();
+                }
+            });
+        } else {
+            releaseRecorder();
+            discardNextSegment();
+            showPreview.run();
         }
     }
 
@@ -2,8 +2,6 @@ package com.afollestad.materialcamera.internal;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
-import android.hardware.Camera;
-import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
@@ -11,16 +9,14 @@ import android.view.SurfaceView;
 @SuppressLint("ViewConstructor")
 class CameraPreview extends SurfaceView implements SurfaceHolder.Callback {
 
-    private final static String TAG = "SF-CameraPreview";
-
     protected final SurfaceHolder mHolder;
-    private final Camera mCamera;
+    private final Camera1Controller mController;
     private int mRatioWidth = 0;
     private int mRatioHeight = 0;
 
-    public CameraPreview(Context context, Camera camera) {
+    public CameraPreview(Context context, Camera1Controller controller) {
         super(context);
-        mCamera = camera;
+        mController = controller;
         mHolder = getHolder();
         mHolder.addCallback(this);
         mHolder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
@@ -28,12 +24,7 @@ class CameraPreview extends SurfaceView implements SurfaceHolder.Callback {
 
     @Override
     public void surfaceCreated(SurfaceHolder holder) {
-        try {
-            mCamera.setPreviewDisplay(holder);
-            mCamera.startPreview();
-        } catch (Throwable e) {
-            Log.d(TAG, "Error setting camera preview: " + e.getMessage());
-        }
+        mController.startPreview(holder);
     }
 
     @Override
@@ -45,16 +36,7 @@ class CameraPreview extends SurfaceView implements SurfaceHolder.Callback {
     public void surfaceChanged(SurfaceHolder holder, int format, int w, int h) {
         if (mHolder.getSurface() == null)
             return;
-        try {
-            mCamera.stopPreview();
-        } catch (Exception ignored) {
-        }
-        try {
-            mCamera.setPreviewDisplay(mHolder);
-            mCamera.startPreview();
-        } catch (Exception e) {
-            Log.d(TAG, "Error starting camera preview: " + e.getMessage());
-        }
+        mController.startPreview(mHolder);
     }
 
     /**
@@ -0,0 +1,210 @@
+package com.afollestad.materialcamera.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * What the device's Camera2 cameras can do, as far as the library cares: each camera's facing,
+ * hardware level, sensor orientation, output sizes and frame rate ranges. Querying these from CameraManager is a
+ * binder round trip per camera and key, so the profile is probed once per build fingerprint and
+ * kept on disk by {@link CameraProfileStore}. The encoders are profiled separately, see
+ * {@link EncoderProfile}.
+ * <p>
+ * Layout: magic, version, fingerprint, whether Camera2 is supported, camera count, then per camera
+ * its ID, facing, hardware level, sensor orientation, its video then preview sizes as a count
+ * followed by width/height pairs, and its auto exposure frame rate ranges as a count followed by
+ * lower/upper pairs.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class CameraProfile {
+
+    static final int MAGIC = 0x4D434350; // "MCCP"
+    static final int VERSION = 4;
+
+    // The values of CameraCharacteristics.LENS_FACING_* and INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY.
+    public static final int FACING_FRONT = 0;
+    public static final int FACING_BACK = 1;
+    public static final int HARDWARE_LEVEL_LEGACY = 2;
+
+    static final class Camera {
+
+        final String id;
+        final int facing;
+        final int hardwareLevel;
+        final int sensorOrientation;
+        final int[] videoWidths;
+        final int[] videoHeights;
+        final int[] previewWidths;
+        final int[] previewHeights;
+        final int[] fpsRangeLowers;
+        final int[] fpsRangeUppers;
+
+        Camera(String id, int facing, int hardwareLevel, int sensorOrientation,
+               int[] videoWidths, int[] videoHeights, int[] previewWidths, int[] previewHeights,
+               int[] fpsRangeLowers, int[] fpsRangeUppers) {
+            if (videoWidths.length != videoHeights.length || previewWidths.length != previewHeights.length)
+                throw new IllegalArgumentException("Every size needs a width and a height.");
+            if (fpsRangeLowers.length != fpsRangeUppers.length)
+                throw new IllegalArgumentException("Every frame rate range needs a lower and an upper bound.");
+            this.id = id;
+            this.facing = facing;
+            this.hardwareLevel = hardwareLevel;
+            this.sensorOrientation = sensorOrientation;
+            this.videoWidths = videoWidths;
+            this.videoHeights = videoHeights;
+            this.previewWidths = previewWidths;
+            this.previewHeights = previewHeights;
+            this.fpsRangeLowers = fpsRangeLowers;
+            this.fpsRangeUppers = fpsRangeUppers;
+        }
+
+        /**
+         * Picks the auto exposure frame rate range for running at up to maxFps: the one with the
+         * lowest upper bound that still reaches maxFps, and among those the one with the lowest
+         * lower bound, so exposure can still slow down in low light. If no range reaches maxFps,
+         * the fastest one is picked.
+         *
+         * @return the index of the chosen range, or -1 if there are no ranges.
+         */
+        public int findFpsRange(int maxFps) {
+            int best = -1;
+            for (int i = 0; i < fpsRangeUppers.length; i++) {
+                if (best == -1 || isBetterFpsRange(i, best, maxFps))
+                    best = i;
+            }
+            return best;
+        }
+
+        private boolean isBetterFpsRange(int a, int b, int maxFps) {
+            final boolean aReaches = fpsRangeUppers[a] >= maxFps;
+            final boolean bReaches = fpsRangeUppers[b] >= maxFps;
+            if (aReaches != bReaches)
+                return aReaches;
+            if (fpsRangeUppers[a] != fpsRangeUppers[b])
+                return aReaches ? fpsRangeUppers[a] < fpsRangeUppers[b] : fpsRangeUppers[a] > fpsRangeUppers[b];
+            return fpsRangeLowers[a] < fpsRangeLowers[b];
+        }
+    }
+
+    final String fingerprint;
+    final boolean camera2Supported;
+    final Camera[] cameras;
+
+    /**
+     * @param camera2Supported Whether the Camera2 fragment can be used, see
+     *                         {@link CameraUtil#hasCamera2(android.content.Context)}.
+     */
+    CameraProfile(String fingerprint, boolean camera2Supported, Camera[] cameras) {
+        this.fingerprint = fingerprint;
+        this.camera2Supported = camera2Supported;
+        this.cameras = cameras;
+    }
+
+    /**
+     * @return the camera with the given ID, or null if it wasn't profiled.
+     */
+    public Camera getCamera(String id) {
+        for (Camera camera : cameras) {
+            if (camera.id.equals(id))
+                return camera;
+        }
+        return null;
+    }
+
+    /**
+     * @return the ID of the first camera facing the given way, or null if there's none.
+     */
+    public String getCameraId(int facing) {
+        for (Camera camera : cameras) {
+            if (camera.facing == facing)
+                return camera.id;
+        }
+        return null;
+    }
+
+    /**
+     * Reads a profile. The stream is read completely but not closed.
+     *
+     * @throws IOException if reading fails, or the stream isn't a supported camera profile.
+     */
+    public static CameraProfile read(InputStream stream) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(stream.available(), 512));
+        final byte[] chunk = new byte[4096];
+        int read;
+        while ((read = stream.read(chunk)) != -1)
+            buffer.write(chunk, 0, read);
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a camera profile.");
+        final int version = in.readUnsignedShort();
+        if (version != VERSION)
+            throw new IOException("Unsupported camera profile version " + version + ".");
+        final String fingerprint = in.readUTF();
+        final boolean camera2Supported = in.readBoolean();
+        final Camera[] cameras = new Camera[in.readUnsignedByte()];
+        for (int i = 0; i < cameras.length; i++) {
+            final String id = in.readUTF();
+            final int facing = in.readByte();
+            final int hardwareLevel = in.readByte();
+            final int sensorOrientation = in.readShort();
+            final int[] videoWidths = new int[in.readUnsignedShort()];
+            final int[] videoHeights = new int[videoWidths.length];
+            readSizes(in, videoWidths, videoHeights);
+            final int[] previewWidths = new int[in.readUnsignedShort()];
+            final int[] previewHeights = new int[previewWidths.length];
+            readSizes(in, previewWidths, previewHeights);
+            final int[] fpsRangeLowers = new int[in.readUnsignedShort()];
+            final int[] fpsRangeUppers = new int[fpsRangeLowers.length];
+            readSizes(in, fpsRangeLowers, fpsRangeUppers);
+            cameras[i] = new Camera(id, facing, hardwareLevel, sensorOrientation,
+                    videoWidths, videoHeights, previewWidths, previewHeights,
+                    fpsRangeLowers, fpsRangeUppers);
+        }
+        return new CameraProfile(fingerprint, camera2Supported, cameras);
+    }
+
+    /**
+     * Writes the profile in the format read by {@link #read(InputStream)}. The stream isn't closed.
+     */
+    public void write(OutputStream stream) throws IOException {
+        final DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeUTF(fingerprint);
+        out.writeBoolean(camera2Supported);
+        out.writeByte(cameras.length);
+        for (Camera camera : cameras) {
+            out.writeUTF(camera.id);
+            out.writeByte(camera.facing);
+            out.writeByte(camera.hardwareLevel);
+            out.writeShort(camera.sensorOrientation);
+            writeSizes(out, camera.videoWidths, camera.videoHeights);
+            writeSizes(out, camera.previewWidths, camera.previewHeights);
+            writeSizes(out, camera.fpsRangeLowers, camera.fpsRangeUppers);
+        }
+        out.flush();
+    }
+
+    // Also used for frame rate ranges, as lower/upper pairs.
+    private static void readSizes(DataInputStream in, int[] widths, int[] heights) throws IOException {
+        for (int i = 0; i < widths.length; i++) {
+            widths[i] = in.readInt();
+            heights[i] = in.readInt();
+        }
+    }
+
+    private static void writeSizes(DataOutputStream out, int[] widths, int[] heights) throws IOException {
+        out.writeShort(widths.length);
+        for (int i = 0; i < widths.length; i++) {
+            out.writeInt(widths[i]);
+            out.writeInt(heights[i]);
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package com.afollestad.materialcamera.internal;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Loads the {@link CameraProfile} on a background thread, once per process. The profile is read
+ * from the cache directory if it was written by the same build fingerprint, and otherwise probed
+ * from CameraManager and written back, so only the first start after an install or a system
+ * update walks the cameras.
+ * <p>
+ * Whether Camera2 is supported is also kept in shared preferences, which can be read on the main
+ * thread before the profile has loaded, see {@link #isCamera2Supported(Context)}.
+ * <p>
+ * The {@link EncoderProfile} is loaded the same way by a task of its own, which is only started
+ * when a recorder is first set up, so listing the codecs never delays opening the camera.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+final class CameraProfileStore {
+
+    private static final String TAG = "CameraProfileStore";
+    private static final String FILE_NAME = "mcam_camera_profile.bin";
+    private static final String ENCODERS_FILE_NAME = "mcam_encoder_profile.bin";
+    private static final String PREFERENCES_NAME = "mcam_camera_profile";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_CAMERA2_SUPPORTED = "camera2_supported";
+    private static final int[] REFERENCE_WIDTHS = {3840, 1920, 1280, 640};
+    private static final int[] REFERENCE_HEIGHTS = {2160, 1080, 720, 480};
+
+    private static FutureTask<CameraProfile> sTask;
+    private static FutureTask<EncoderProfile> sEncoderTask;
+
+    private CameraProfileStore() {
+    }
+
+    /**
+     * Starts loading the profile in the background, if it hasn't been started yet or the last
+     * attempt failed, e.g. because the camera service wasn't ready.
+     */
+    public static void preload(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+            getTask(context, true);
+    }
+
+    /**
+     * Never waits, so it's safe on the main thread right after {@link #preload(Context)}.
+     *
+     * @return the profile if it has finished loading, otherwise null.
+     */
+    @Nullable
+    public static CameraProfile peek(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)
+            return null;
+        return getTask(context, false).isDone() ? get(context) : null;
+    }
+
+    /**
+     * Never probes the cameras, so it's safe on the main thread. Only the first launch after an
+     * install or a system update has no answer, until the profile has loaded.
+     *
+     * @return whether the profile of this build fingerprint supports Camera2, or null if it isn't
+     * known yet.
+     */
+    @Nullable
+    public static Boolean isCamera2Supported(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)
+            return false;
+        final CameraProfile profile = peek(context);
+        if (profile != null) return profile.camera2Supported;
+        final SharedPreferences preferences = getPreferences(context);
+        if (!Build.FINGERPRINT.equals(preferences.getString(KEY_FINGERPRINT, null)) ||
+                !preferences.contains(KEY_CAMERA2_SUPPORTED))
+            return null;
+        return preferences.getBoolean(KEY_CAMERA2_SUPPORTED, false);
+    }
+
+    /**
+     * Waits for the profile to load. This is quick once {@link #preload(Context)} has had a head
+     * start, but the first start after an install or a system update probes the cameras, so it's
+     * only called off the main thread.
+     *
+     * @return the profile, or null before Lollipop or if the cameras couldn't be queried. A failed
+     * load isn't retried here, only by the next {@link #preload(Context)}.
+     */
+    @Nullable
+    public static CameraProfile get(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)
+            return null;
+        try {
+            return getTask(context, false).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            // Logged by the task.
+            return null;
+        }
+    }
+
+    /**
+     * Waits for the encoders to be profiled, starting that if it hasn't been started yet. The
+     * first call after an install or a system update lists every codec, so it's only made off the
+     * main thread.
+     *
+     * @return the encoders, or null before Lollipop or if they couldn't be listed.
+     */
+    @Nullable
+    public static EncoderProfile.Encoder[] getEncoders(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)
+            return null;
+        try {
+            return getEncoderTask(context).get().encoders;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            // Logged by the task.
+            return null;
+        }
+    }
+
+    private static synchronized FutureTask<CameraProfile> getTask(Context context, boolean retryFailed) {
+        if (sTask == null || (retryFailed && hasFailed(sTask))) {
+            final Context appContext = context.getApplicationContext();
+            sTask = new FutureTask<>(new Callable<CameraProfile>() {
+                @Override
+                public CameraProfile call() throws Exception {
+                    try {
+                        final CameraProfile profile = load(appContext);
+                        getPreferences(appContext).edit()
+                                .putString(KEY_FINGERPRINT, profile.fingerprint)
+                                .putBoolean(KEY_CAMERA2_SUPPORTED, profile.camera2Supported)
+                                .apply();
+                        return profile;
+                    } catch (Exception e) {
+                        Log.w(TAG, "Failed to probe the cameras.", e);
+                        throw e;
+                    }
+                }
+            });
+            new Thread(sTask, TAG).start();
+        }
+        return sTask;
+    }
+
+    private static synchronized FutureTask<EncoderProfile> getEncoderTask(Context context) {
+        if (sEncoderTask == null || hasFailed(sEncoderTask)) {
+            final Context appContext = context.getApplicationContext();
+            sEncoderTask = new FutureTask<>(new Callable<EncoderProfile>() {
+                @Override
+                public EncoderProfile call() throws Exception {
+                    try {
+                        return loadEncoders(appContext);
+                    } catch (RuntimeException e) {
+                        Log.w(TAG, "Failed to list the encoders.", e);
+                        throw e;
+                    }
+                }
+            });
+            new Thread(sEncoderTask, TAG + "Encoders").start();
+        }
+        return sEncoderTask;
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    private static boolean hasFailed(FutureTask<?> task) {
+        if (!task.isDone()) return false;
+        try {
+            task.get();
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return true;
+        }
+    }
+
+    private static CameraProfile load(Context context) throws CameraAccessException {
+        final File file = new File(context.getCacheDir(), FILE_NAME);
+        if (file.exists()) {
+            FileInputStream is = null;
+            try {
+                is = new FileInputStream(file);
+                final CameraProfile profile = CameraProfile.read(is);
+                if (profile.fingerprint.equals(Build.FINGERPRINT))
+                    return profile;
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to read the camera profile, probing again.", e);
+            } finally {
+                CameraUtil.closeQuietly(is);
+            }
+        }
+
+        final CameraProfile profile = probe(context);
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            profile.write(bytes);
+            save(file, bytes.toByteArray());
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write the camera profile.", e);
+        }
+        return profile;
+    }
+
+    private static EncoderProfile loadEncoders(Context context) {
+        final File file = new File(context.getCacheDir(), ENCODERS_FILE_NAME);
+        if (file.exists()) {
+            FileInputStream is = null;
+            try {
+                is = new FileInputStream(file);
+                final EncoderProfile profile = EncoderProfile.read(is);
+                if (profile.fingerprint.equals(Build.FINGERPRINT))
+                    return profile;
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to read the encoder profile, probing again.", e);
+            } finally {
+                CameraUtil.closeQuietly(is);
+            }
+        }
+
+        final EncoderProfile profile = new EncoderProfile(Build.FINGERPRINT, probeEncoders());
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            profile.write(bytes);
+            save(file, bytes.toByteArray());
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write the encoder profile.", e);
+        }
+        return profile;
+    }
+
+    // Written to a temporary file first, so a crash halfway leaves no partial profile behind.
+    private static void save(File file, byte[] data) throws IOException {
+        final File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream os = null;
+        try {
+            os = new FileOutputStream(temp);
+            os.write(data);
+            os.close();
+            os = null;
+            if (!temp.renameTo(file))
+                throw new IOException("Failed to rename " + temp + " to " + file + ".");
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw e;
+        } finally {
+            CameraUtil.closeQuietly(os);
+        }
+    }
+
+    private static CameraProfile probe(Context context) throws CameraAccessException {
+        final CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        final String[] idList = manager.getCameraIdList();
+        boolean camera2Supported = idList.length > 0;
+        final List<CameraProfile.Camera> cameras = new ArrayList<>(idList.length);
+        for (String id : idList) {
+            if (id == null || id.trim().isEmpty()) {
+                camera2Supported = false;
+                continue;
+            }
+            final CameraCharacteristics characteristics = manager.getCameraCharacteristics(id);
+            final Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+            final Integer hardwareLevel = characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+            final Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+            final StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            if (facing == null || hardwareLevel == null || sensorOrientation == null || map == null) {
+                camera2Supported = false;
+                continue;
+            }
+            if (hardwareLevel == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY)
+                camera2Supported = false;
+            final Size[] videoSizes = sizesOrEmpty(map.getOutputSizes(MediaRecorder.class));
+            final Size[] previewSizes = sizesOrEmpty(map.getOutputSizes(SurfaceTexture.class));
+            final Range<?>[] fpsRanges = rangesOrEmpty(
+                    characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES));
+            final int[] fpsRangeLowers = new int[fpsRanges.length];
+            final int[] fpsRangeUppers = new int[fpsRanges.length];
+            for (int i = 0; i < fpsRanges.length; i++) {
+                fpsRangeLowers[i] = (Integer) fpsRanges[i].getLower();
+                fpsRangeUppers[i] = (Integer) fpsRanges[i].getUpper();
+            }
+            cameras.add(new CameraProfile.Camera(id, facing, hardwareLevel, sensorOrientation,
+                    widths(videoSizes), heights(videoSizes), widths(previewSizes), heights(previewSizes),
+                    fpsRangeLowers, fpsRangeUppers));
+        }
+        return new CameraProfile(Build.FINGERPRINT, camera2Supported,
+                cameras.toArray(new CameraProfile.Camera[cameras.size()]));
+    }
+
+    private static EncoderProfile.Encoder[] probeEncoders() {
+        final List<EncoderProfile.Encoder> encoders = new ArrayList<>();
+        for (MediaCodecInfo info : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+            if (!info.isEncoder()) continue;
+            for (String type : info.getSupportedTypes()) {
+                if (!VideoEncoderChooser.MIME_TYPE_AVC.equalsIgnoreCase(type) &&
+                        !VideoEncoderChooser.MIME_TYPE_HEVC.equalsIgnoreCase(type))
+                    continue;
+                final MediaCodecInfo.VideoCapabilities capabilities;
+                try {
+                    capabilities = info.getCapabilitiesForType(type).getVideoCapabilities();
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+                if (capabilities == null) continue;
+                final long maxPixelRate = getMaxPixelRate(capabilities);
+                if (maxPixelRate == 0) continue;
+                encoders.add(new EncoderProfile.Encoder(type.toLowerCase(Locale.US), info.getName(),
+                        VideoEncoderChooser.isHardware(info.getName()),
+                        capabilities.getSupportedWidths().getUpper(),
+                        capabilities.getSupportedHeights().getUpper(), maxPixelRate));
+            }
+        }
+        return encoders.toArray(new EncoderProfile.Encoder[encoders.size()]);
+    }
+
+    // The pixel rate at the largest common recording size the encoder supports.
+    private static long getMaxPixelRate(MediaCodecInfo.VideoCapabilities capabilities) {
+        for (int i = 0; i < REFERENCE_WIDTHS.length; i++) {
+            final int width = REFERENCE_WIDTHS[i];
+            final int height = REFERENCE_HEIGHTS[i];
+            if (!capabilities.isSizeSupported(width, height)) continue;
+            final Range<Double> frameRates = capabilities.getSupportedFrameRatesFor(width, height);
+            return (long) width * height * frameRates.getUpper().longValue();
+        }
+        return 0;
+    }
+
+    private static Size[] sizesOrEmpty(Size[] sizes) {
+        return sizes != null ? sizes : new Size[0];
+    }
+
+    private static Range<?>[] rangesOrEmpty(Range<?>[] ranges) {
+        return ranges != null ? ranges : new Range<?>[0];
+    }
+
+    static int[] widths(Size[] sizes) {
+        final int[] widths = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++)
+            widths[i] = sizes[i].getWidth();
+        return widths;
+    }
+
+    static int[] heights(Size[] sizes) {
+        final int[] heights = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++)
+            heights[i] = sizes[i].getHeight();
+        return heights;
+    }
+}
@@ -0,0 +1,303 @@
+package com.afollestad.materialcamera.internal;
+
+import android.annotation.TargetApi;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.Surface;
+
+import java.util.List;
+
+/**
+ * Opens, configures and closes a Camera2 device on its own thread, so none of it blocks the main
+ * thread. Every call is queued in order on the camera thread and returns immediately; results are
+ * delivered to the {@link Listener} on the main thread.
+ * <p>
+ * Each {@link #open} starts a new generation and {@link #close} ends it. Callbacks belonging to an
+ * older generation are dropped, and a device that finishes opening after it was cancelled is
+ * closed right away, so a fast close/open (switching cameras, pausing during an open) never leaks
+ * a device or reports a stale one.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class CameraSessionController {
+
+    public interface Listener {
+
+        void onOpened(@NonNull CameraDevice device);
+
+        void onSessionConfigured(@NonNull CameraCaptureSession session);
+
+        void onError(@NonNull Exception e);
+    }
+
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Listener mListener;
+
+    // Only written on the main thread, read on both.
+    private volatile int mGeneration;
+
+    // Only touched on the camera thread.
+    private CameraDevice mDevice;
+    private CameraCaptureSession mSession;
+    private int mDeviceGeneration;
+    private int mPendingOpens;
+    private boolean mReleased;
+
+    public CameraSessionController(@NonNull Listener listener) {
+        mListener = listener;
+        mThread = new HandlerThread("CameraBackground");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * @return the camera thread's handler, for capture callbacks.
+     */
+    public Handler getHandler() {
+        return mHandler;
+    }
+
+    /**
+     * Closes the current device, if any, and opens the given camera.
+     */
+    public void open(final CameraManager manager, final String cameraId) {
+        final int generation = ++mGeneration;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                closeDevice();
+                if (generation != mGeneration) return;
+                try {
+                    // noinspection ResourceType
+                    manager.openCamera(cameraId, new DeviceCallback(generation), mHandler);
+                    mPendingOpens++;
+                } catch (CameraAccessException | SecurityException e) {
+                    deliverError(generation, new Exception("Cannot access the camera.", e));
+                }
+            }
+        });
+    }
+
+    /**
+     * Creates a capture session on the device delivered to {@link Listener#onOpened}. Ignored if
+     * the device has been closed since.
+     */
+    public void createSession(final List<Surface> surfaces) {
+        final int generation = mGeneration;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mDevice == null || mDeviceGeneration != generation) return;
+                try {
+                    mDevice.createCaptureSession(surfaces, new SessionCallback(generation), mHandler);
+                } catch (CameraAccessException | IllegalStateException e) {
+                    deliverError(generation, new Exception("Camera configuration failed", e));
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts repeating the request on the session delivered to {@link Listener#onSessionConfigured}.
+     */
+    public void setRepeatingRequest(CaptureRequest request) {
+        setRepeatingRequest(request, null);
+    }
+
+    /**
+     * @param callback Optionally notified of each capture, on the camera thread.
+     */
+    public void setRepeatingRequest(final CaptureRequest request,
+                                    @Nullable final CameraCaptureSession.CaptureCallback callback) {
+        final int generation = mGeneration;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mSession == null || mDeviceGeneration != generation) return;
+                try {
+                    mSession.setRepeatingRequest(request, callback, mHandler);
+                } catch (CameraAccessException | IllegalStateException e) {
+                    deliverError(generation, new Exception("Failed to start the camera preview.", e));
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs the task on the camera thread after everything queued before it, for recorder work that
+     * would stall the main thread.
+     *
+     * @param then Optionally run on the main thread once the task is done.
+     */
+    public void post(final Runnable task, @Nullable final Runnable then) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                task.run();
+                if (then != null)
+                    mMainHandler.post(then);
+            }
+        });
+    }
+
+    /**
+     * Cancels a pending open and closes the current device.
+     *
+     * @param afterClose Optionally run on the camera thread once the device is closed, e.g. to
+     *                   release the MediaRecorder that was its target.
+     */
+    public void close(@Nullable final Runnable afterClose) {
+        mGeneration++;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                closeDevice();
+                if (afterClose != null)
+                    afterClose.run();
+            }
+        });
+    }
+
+    /**
+     * Closes the device and stops the camera thread once no open is pending, so a device that
+     * finishes opening late is still closed. The controller can't be used afterwards.
+     */
+    public void release() {
+        mGeneration++;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                closeDevice();
+                mReleased = true;
+                quitIfIdle();
+            }
+        });
+    }
+
+    private void closeDevice() {
+        if (mSession != null) {
+            mSession.close();
+            mSession = null;
+        }
+        if (mDevice != null) {
+            mDevice.close();
+            mDevice = null;
+        }
+    }
+
+    private void quitIfIdle() {
+        if (mReleased && mPendingOpens == 0)
+            mThread.quitSafely();
+    }
+
+    private void deliverError(final int generation, final Exception e) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (generation == mGeneration)
+                    mListener.onError(e);
+            }
+        });
+    }
+
+    private class DeviceCallback extends CameraDevice.StateCallback {
+
+        private final int mOpenGeneration;
+        private boolean mFinished;
+
+        DeviceCallback(int generation) {
+            mOpenGeneration = generation;
+        }
+
+        private void finishOpen() {
+            if (!mFinished) {
+                mFinished = true;
+                mPendingOpens--;
+            }
+        }
+
+        @Override
+        public void onOpened(@NonNull final CameraDevice device) {
+            finishOpen();
+            if (mOpenGeneration != mGeneration) {
+                device.close();
+                quitIfIdle();
+                return;
+            }
+            mDevice = device;
+            mDeviceGeneration = mOpenGeneration;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mOpenGeneration == mGeneration)
+                        mListener.onOpened(device);
+                }
+            });
+        }
+
+        @Override
+        public void onDisconnected(@NonNull CameraDevice device) {
+            finishOpen();
+            forget(device);
+            quitIfIdle();
+        }
+
+        @Override
+        public void onError(@NonNull CameraDevice device, int error) {
+            finishOpen();
+            forget(device);
+            deliverError(mOpenGeneration, new Exception("Camera error " + error + "."));
+            quitIfIdle();
+        }
+
+        private void forget(CameraDevice device) {
+            if (mDevice == device) {
+                mSession = null;
+                mDevice = null;
+            }
+            device.close();
+        }
+    }
+
+    private class SessionCallback extends CameraCaptureSession.StateCallback {
+
+        private final int mSessionGeneration;
+
+        SessionCallback(int generation) {
+            mSessionGeneration = generation;
+        }
+
+        @Override
+        public void onConfigured(@NonNull final CameraCaptureSession session) {
+            if (mSessionGeneration != mGeneration || mDeviceGeneration != mSessionGeneration) {
+                session.close();
+                return;
+            }
+            mSession = session;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mSessionGeneration == mGeneration)
+                        mListener.onSessionConfigured(session);
+                }
+            });
+        }
+
+        @Override
+        public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+            deliverError(mSessionGeneration, new Exception("Camera configuration failed"));
+        }
+    }
+}
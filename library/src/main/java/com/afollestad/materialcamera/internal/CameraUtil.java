@@ -11,9 +11,12 @@ import android.support.annotation.ColorInt;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.TimeUnit;
 
@@ -40,14 +43,74 @@ public class CameraUtil {
         return new File(dir, "VID_" + timeStamp + extension);
     }
 
+    /**
+     * @return the file segment index (2 and up) of a recording that started in first is written to,
+     * e.g. VID_20160101_120000_2.mp4.
+     */
+    static File makeSegmentFile(File first, int index) {
+        final String name = first.getName();
+        final int dot = name.lastIndexOf('.');
+        final String base = dot != -1 ? name.substring(0, dot) : name;
+        final String extension = dot != -1 ? name.substring(dot) : "";
+        return new File(first.getParentFile(), base + "_" + index + extension);
+    }
+
     public static boolean hasCamera(Context context) {
         return context.getPackageManager().hasSystemFeature(PackageManager.FEATURE_CAMERA) ||
                 context.getPackageManager().hasSystemFeature(PackageManager.FEATURE_CAMERA_FRONT);
     }
 
+    /**
+     * Starts loading the device's camera profile in the background, so opening the camera doesn't
+     * have to query CameraManager on the main thread, nor {@link #hasCamera2(Context)} once it's
+     * loaded.
+     */
+    public static void preloadCameraProfile(Context context) {
+        CameraProfileStore.preload(context);
+    }
+
+    /**
+     * @return recordings an earlier process was cut off in the middle of, which
+     * {@link #recoverRecording(Context, File)} can make playable. Reads every such file, so not on
+     * the main thread.
+     */
+    @NonNull
+    public static List<File> findRecoverableRecordings(Context context) {
+        return RecordingJournal.findRecoverable(context);
+    }
+
+    /**
+     * @return the number of video frames recovered.
+     */
+    public static int recoverRecording(Context context, File file) throws IOException {
+        return RecordingJournal.recover(context, file);
+    }
+
+    /**
+     * @return the rotation players show the video in file with, or -1 if it's also mirrored or
+     * not by a multiple of 90 degrees.
+     */
+    public static int getVideoRotation(File file) throws IOException {
+        return Mp4Matrix.readRotation(file);
+    }
+
+    public static void setVideoRotation(File file, int degrees) throws IOException {
+        Mp4Matrix.writeRotation(file, degrees);
+    }
+
+    /**
+     * @return where the trimmed video starts in the original, in microseconds.
+     */
+    public static long trimVideo(File file, long startUs, long endUs) throws IOException {
+        return Mp4Trimmer.process(file, startUs, endUs);
+    }
+
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     public static boolean hasCamera2(Context context) {
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) return false;
+        // Called on the main thread, so the cameras are only queried here if they never were.
+        final Boolean supported = CameraProfileStore.isCamera2Supported(context);
+        if (supported != null) return supported;
         try {
             CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
             String[] idList = manager.getCameraIdList();
@@ -76,6 +139,19 @@ public class CameraUtil {
         }
     }
 
+    /**
+     * @return the encoders to choose the video codec from, see {@link VideoEncoderChooser}, or
+     * null if only H.264 can be recorded. Blocks until the encoders are profiled, so it's only
+     * called where recorders are set up, off the main thread.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    @Nullable
+    static EncoderProfile.Encoder[] getVideoEncoders(Context context, boolean allowHevc) {
+        // MediaRecorder.VideoEncoder.HEVC was added in API 24.
+        if (!allowHevc || Build.VERSION.SDK_INT < 24) return null;
+        return CameraProfileStore.getEncoders(context);
+    }
+
     @ColorInt
     public static int darkenColor(@ColorInt int color) {
         float[] hsv = new float[3];
@@ -84,4 +160,12 @@ public class CameraUtil {
         color = Color.HSVToColor(hsv);
         return color;
     }
+
+    public static void closeQuietly(@Nullable Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (Throwable ignored) {
+        }
+    }
 }
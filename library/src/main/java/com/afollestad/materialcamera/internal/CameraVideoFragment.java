@@ -4,23 +4,19 @@ import android.annotation.TargetApi;
 import android.app.Activity;
 import android.content.res.Configuration;
 import android.graphics.Point;
-import android.hardware.Camera;
-import android.media.CamcorderProfile;
 import android.media.MediaRecorder;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
-import android.util.Log;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
 import android.view.View;
 import android.widget.RelativeLayout;
 import android.widget.Toast;
 
 import com.afollestad.materialcamera.R;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.io.File;
 
 import static com.afollestad.materialcamera.internal.BaseVideoRecorderActivity.CAMERA_POSITION_BACK;
 import static com.afollestad.materialcamera.internal.BaseVideoRecorderActivity.CAMERA_POSITION_FRONT;
@@ -36,50 +32,102 @@ public class CameraVideoFragment extends BaseCameraVideoFragment implements View
     CameraPreview mPreviewView;
     RelativeLayout mPreviewFrame;
 
-    private Camera.Size mVideoSize;
-    private Camera mCamera;
+    private Camera1Controller mController;
     private Point mWindowSize;
-    private int mDisplayOrientation;
+    private boolean mCameraOpen;
+    private boolean mCamerasFound;
+    private File mFirstPart;
+    private int mPartIndex;
+    // Set while resuming, the recording's start and latency were reported already.
+    private boolean mResuming;
+
+    private final Camera1Controller.Listener mCameraListener = new Camera1Controller.Listener() {
+        @Override
+        public void onCamerasFound(int frontCameraId, int backCameraId) {
+            mCamerasFound = true;
+            if (frontCameraId != -1)
+                mInterface.setFrontCamera(frontCameraId);
+            if (backCameraId != -1)
+                mInterface.setBackCamera(backCameraId);
+            openCamera();
+        }
 
-    public static CameraVideoFragment newInstance() {
-        CameraVideoFragment fragment = new CameraVideoFragment();
-        fragment.setRetainInstance(true);
-        return fragment;
-    }
+        @Override
+        public void onOpened(@NonNull SizeChooser.Result sizes) {
+            mCameraOpen = true;
+            createPreview();
+            // Ready to record once the preview runs, so pressing record only starts the recorder.
+            mController.prepareRecorder(getOutputMediaFile().getAbsolutePath(),
+                    Degrees.getDisplayRotation(getActivity()));
+        }
 
-    private static Camera.Size chooseVideoSize(List<Camera.Size> choices) {
-        Camera.Size backupSize = null;
-        for (Camera.Size size : choices) {
-            if (size.height <= PREFERRED_PIXEL_HEIGHT) {
-                if (size.width == size.height * PREFERRED_ASPECT_RATIO)
-                    return size;
-                backupSize = size;
-            }
+        @Override
+        public void onAutoFocus(boolean success) {
+            if (!success)
+                Toast.makeText(getActivity(), "Unable to auto-focus!", Toast.LENGTH_SHORT).show();
         }
-        if (backupSize != null) return backupSize;
-        LOG(CameraVideoFragment.class, "Couldn't find any suitable video size");
-        return choices.get(choices.size() - 1);
-    }
 
-    private static Camera.Size chooseOptimalSize(List<Camera.Size> choices, int width, int height, Camera.Size aspectRatio) {
-        // Collect the supported resolutions that are at least as big as the preview Surface
-        List<Camera.Size> bigEnough = new ArrayList<>();
-        int w = aspectRatio.width;
-        int h = aspectRatio.height;
-        for (Camera.Size option : choices) {
-            if (option.height == width * h / w &&
-                    option.width >= width && option.height >= height) {
-                bigEnough.add(option);
+        @Override
+        public void onRecordingStarted(@NonNull MediaRecorder recorder, @NonNull String outputPath, long latencyMs) {
+            mMediaRecorder = recorder;
+            mOutputUri = Uri.fromFile(new File(outputPath)).toString();
+            mIsRecording = true;
+            if (mResuming) {
+                mResuming = false;
+                return;
             }
+            mFirstPart = new File(outputPath);
+            mPartIndex = 1;
+            onRecordStartLatency(latencyMs);
+
+            // Only start counter if count down wasn't already started
+            if (!mInterface.hasLengthLimit()) {
+                mInterface.setRecordingStart(System.currentTimeMillis());
+                startCounter();
+            }
+
+            mButtonVideo.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if (mButtonVideo != null)
+                        mButtonVideo.setEnabled(true);
+                }
+            }, 1000);
         }
 
-        // Pick the smallest of those, assuming we found any
-        if (bigEnough.size() > 0) {
-            return Collections.min(bigEnough, new CompareSizesByArea());
-        } else {
-            LOG(CameraVideoFragment.class, "Couldn't find any suitable preview size");
-            return choices.get(0);
+        @Override
+        public void onSegmentStarted(@NonNull MediaRecorder recorder, @NonNull String finishedPath, @NonNull String nextPath) {
+            // Also delivered after stopRecordingVideo(), the file it finished is this one then.
+            if (mIsRecording)
+                mMediaRecorder = recorder;
+            CameraVideoFragment.this.onSegmentStarted(finishedPath, nextPath);
         }
+
+        @Override
+        public void onMaxFileSizeReached() {
+            if (mIsRecording)
+                stopRecordingVideo(false);
+        }
+
+        @Override
+        public void onError(@NonNull Exception e) {
+            mCameraOpen = false;
+            mInterface.setRecordingStart(-1);
+            throwError(e);
+        }
+    };
+
+    public static CameraVideoFragment newInstance() {
+        CameraVideoFragment fragment = new CameraVideoFragment();
+        fragment.setRetainInstance(true);
+        return fragment;
+    }
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mController = new Camera1Controller(getActivity(), mCameraListener, getEncodingSettings(),
+                getMaxFileSize(), shouldSegmentAtMaxFileSize());
     }
 
     @Override
@@ -93,32 +141,26 @@ public class CameraVideoFragment extends BaseCameraVideoFragment implements View
     public void onDestroyView() {
         super.onDestroyView();
         mPreviewFrame = null;
+        mPreviewView = null;
     }
 
     @Override
-    public void onResume() {
-        super.onResume();
-        openCamera();
+    public void onDestroy() {
+        super.onDestroy();
+        mController.release();
     }
 
     @Override
-    public void onPause() {
-        if (mCamera != null) mCamera.lock();
-        super.onPause();
+    public void onResume() {
+        super.onResume();
+        openCamera();
     }
 
     @Override
     public void onClick(View view) {
         if (view.getId() == R.id.rootFrame) {
-            if (mCamera == null) return;
-            mCamera.cancelAutoFocus();
-            mCamera.autoFocus(new Camera.AutoFocusCallback() {
-                @Override
-                public void onAutoFocus(boolean success, Camera camera) {
-                    if (!success)
-                        Toast.makeText(getActivity(), "Unable to auto-focus!", Toast.LENGTH_SHORT).show();
-                }
-            });
+            if (!mCameraOpen) return;
+            mController.autoFocus();
         } else {
             super.onClick(view);
         }
@@ -128,31 +170,20 @@ public class CameraVideoFragment extends BaseCameraVideoFragment implements View
     public void openCamera() {
         final Activity activity = getActivity();
         if (null == activity || activity.isFinishing()) return;
+        if (!mCamerasFound && (mInterface.getBackCamera() == null || mInterface.getFrontCamera() == null)) {
+            // Opens once they're found, see onCamerasFound().
+            mController.findCameras();
+            return;
+        }
         try {
-            final int mBackCameraId = mInterface.getBackCamera() != null ? (Integer) mInterface.getBackCamera() : -1;
-            final int mFrontCameraId = mInterface.getFrontCamera() != null ? (Integer) mInterface.getFrontCamera() : -1;
-            if (mBackCameraId == -1 || mFrontCameraId == -1) {
-                int numberOfCameras = Camera.getNumberOfCameras();
-                for (int i = 0; i < numberOfCameras; i++) {
-                    //noinspection ConstantConditions
-                    if (mFrontCameraId != -1 && mBackCameraId != -1) break;
-                    Camera.CameraInfo info = new Camera.CameraInfo();
-                    Camera.getCameraInfo(i, info);
-                    if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT && mFrontCameraId == -1) {
-                        mInterface.setFrontCamera(i);
-                    } else if (info.facing == Camera.CameraInfo.CAMERA_FACING_BACK && mBackCameraId == -1) {
-                        mInterface.setBackCamera(i);
-                    }
-                }
-            }
             if (getCurrentCameraPosition() == CAMERA_POSITION_UNKNOWN) {
                 if (getArguments().getBoolean("default_to_front_facing", false)) {
                     // Check front facing first
                     if (mInterface.getFrontCamera() != null && (Integer) mInterface.getFrontCamera() != -1) {
-                        mButtonFacing.setImageResource(R.drawable.ic_camera_rear);
+                        mButtonFacing.setImageDrawable(mCameraBackIcon);
                         mInterface.setCameraPosition(CAMERA_POSITION_FRONT);
                     } else {
-                        mButtonFacing.setImageResource(R.drawable.ic_camera_front);
+                        mButtonFacing.setImageDrawable(mCameraFrontIcon);
                         if (mInterface.getBackCamera() != null && (Integer) mInterface.getBackCamera() != -1)
                             mInterface.setCameraPosition(CAMERA_POSITION_BACK);
                         else mInterface.setCameraPosition(CAMERA_POSITION_UNKNOWN);
@@ -160,10 +191,10 @@ public class CameraVideoFragment extends BaseCameraVideoFragment implements View
                 } else {
                     // Check back facing first
                     if (mInterface.getBackCamera() != null && (Integer) mInterface.getBackCamera() != -1) {
-                        mButtonFacing.setImageResource(R.drawable.ic_camera_front);
+                        mButtonFacing.setImageDrawable(mCameraFrontIcon);
                         mInterface.setCameraPosition(CAMERA_POSITION_BACK);
                     } else {
-                        mButtonFacing.setImageResource(R.drawable.ic_camera_rear);
+                        mButtonFacing.setImageDrawable(mCameraBackIcon);
                         if (mInterface.getFrontCamera() != null && (Integer) mInterface.getFrontCamera() != -1)
                             mInterface.setCameraPosition(CAMERA_POSITION_FRONT);
                         else mInterface.setCameraPosition(CAMERA_POSITION_UNKNOWN);
@@ -174,57 +205,28 @@ public class CameraVideoFragment extends BaseCameraVideoFragment implements View
             if (mWindowSize == null)
                 mWindowSize = new Point();
             activity.getWindowManager().getDefaultDisplay().getSize(mWindowSize);
-            int toOpen = getCurrentCameraId();
-            mCamera = Camera.open(toOpen == -1 ? 0 : toOpen);
-            Camera.Parameters parameters = mCamera.getParameters();
-            List<Camera.Size> videoSizes = parameters.getSupportedPreviewSizes();
-            if (videoSizes == null) videoSizes = parameters.getSupportedPreviewSizes();
-            mVideoSize = chooseVideoSize(videoSizes);
-            Camera.Size previewSize = chooseOptimalSize(parameters.getSupportedPreviewSizes(),
-                    mWindowSize.x, mWindowSize.y, mVideoSize);
-            parameters.setPreviewSize(previewSize.width, previewSize.height);
-            setCameraDisplayOrientation(parameters);
-            mCamera.setParameters(parameters);
-            createPreview();
-            mMediaRecorder = new MediaRecorder();
-        } catch (IllegalStateException e) {
-            throwError(new Exception("Cannot access the camera.", e));
-        } catch (RuntimeException e2) {
-            throwError(new Exception("Cannot access the camera, you may need to restart your device.", e2));
+            mCameraOpen = false;
+            mController.open(getCurrentCameraId(), mWindowSize.x, mWindowSize.y, getSizePolicy(),
+                    Degrees.getDisplayRotation(activity));
+        } catch (RuntimeException e) {
+            throwError(new Exception("Cannot access the camera, you may need to restart your device.", e));
         }
     }
 
     @Override
     public void onConfigurationChanged(Configuration newConfig) {
         super.onConfigurationChanged(newConfig);
-        if (mCamera != null)
-            setCameraDisplayOrientation(mCamera.getParameters());
-    }
-
-    private void setCameraDisplayOrientation(Camera.Parameters parameters) {
-        Camera.CameraInfo info =
-                new Camera.CameraInfo();
-        Camera.getCameraInfo(getCurrentCameraId(), info);
-        final int deviceOrientation = Degrees.getDisplayRotation(getActivity());
-        mDisplayOrientation = Degrees.getDisplayOrientation(
-                info.orientation, deviceOrientation, info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT);
-        Log.d("CameraVideoFragment", String.format("Orientations: Sensor = %d˚, Device = %d˚, Display = %d˚",
-                info.orientation, deviceOrientation, mDisplayOrientation));
-
-        int previewOrientation = mDisplayOrientation;
-        if (Degrees.isPortrait(deviceOrientation) && getCurrentCameraPosition() == CAMERA_POSITION_FRONT)
-            previewOrientation = Degrees.mirror(mDisplayOrientation);
-        parameters.setRotation(previewOrientation);
-        mCamera.setDisplayOrientation(previewOrientation);
+        if (mCameraOpen)
+            mController.updateDisplayOrientation(Degrees.getDisplayRotation(getActivity()));
     }
 
     private void createPreview() {
         Activity activity = getActivity();
-        if (activity == null) return;
+        if (activity == null || mPreviewFrame == null) return;
         if (mWindowSize == null)
             mWindowSize = new Point();
         activity.getWindowManager().getDefaultDisplay().getSize(mWindowSize);
-        mPreviewView = new CameraPreview(getActivity(), mCamera);
+        mPreviewView = new CameraPreview(getActivity(), mController);
         if (mPreviewFrame.getChildCount() > 0 && mPreviewFrame.getChildAt(0) instanceof CameraPreview)
             mPreviewFrame.removeViewAt(0);
         mPreviewFrame.addView(mPreviewView, 0);
@@ -233,135 +235,81 @@ public class CameraVideoFragment extends BaseCameraVideoFragment implements View
 
     @Override
     public void closeCamera() {
-        try {
-            if (mCamera != null) {
-                try {
-                    mCamera.lock();
-                } catch (Throwable ignored) {
-                }
-                mCamera.release();
-                mCamera = null;
-            }
-        } catch (IllegalStateException e) {
-            throwError(new Exception("Illegal state while trying to close camera.", e));
-        }
-    }
-
-    private boolean prepareMediaRecorder(int forceQuality) {
-        try {
-            final Activity activity = getActivity();
-            if (null == activity) return false;
-            setCameraDisplayOrientation(mCamera.getParameters());
-            mMediaRecorder = new MediaRecorder();
-            mCamera.unlock();
-            mMediaRecorder.setCamera(mCamera);
-            mMediaRecorder.setAudioSource(MediaRecorder.AudioSource.CAMCORDER);
-            mMediaRecorder.setVideoSource(MediaRecorder.VideoSource.CAMERA);
-            final CamcorderProfile profile = CamcorderProfile.get(getCurrentCameraId(),
-                    forceQuality == -1 ? CamcorderProfile.QUALITY_480P : forceQuality);
-            mMediaRecorder.setProfile(profile);
-            mMediaRecorder.setVideoSize(mVideoSize.width, mVideoSize.height);
-            Uri uri = Uri.fromFile(getOutputMediaFile());
-            mOutputUri = uri.toString();
-            mMediaRecorder.setOutputFile(uri.getPath());
-            mMediaRecorder.setOrientationHint(mDisplayOrientation);
-            mMediaRecorder.setPreviewDisplay(mPreviewView.getHolder().getSurface());
-
-            try {
-                mMediaRecorder.prepare();
-                return true;
-            } catch (Throwable e) {
-                throwError(new Exception("Failed to prepare the media recorder: " + e.getMessage(), e));
-                return false;
-            }
-        } catch (Throwable t) {
-            t.printStackTrace();
-            if (forceQuality == CamcorderProfile.QUALITY_720P) {
-                throwError(new Exception("Failed to begin recording: " + t.getMessage(), t));
-                return false;
-            }
-            return prepareMediaRecorder(CamcorderProfile.QUALITY_720P);
-        }
+        mCameraOpen = false;
+        // The recorder records from the camera, so it's stopped before the camera is released.
+        final MediaRecorder recorder = mMediaRecorder;
+        mMediaRecorder = null;
+        mController.close(recorder, null);
     }
 
     @Override
     public void startRecordingVideo() {
+        if (!mCameraOpen || mPreviewView == null) return;
         super.startRecordingVideo();
-        if (prepareMediaRecorder(-1)) {
-            try {
-                // UI
-                mButtonVideo.setImageResource(R.drawable.ic_action_stop);
-                mButtonFacing.setVisibility(View.GONE);
-
-                // Only start counter if count down wasn't already started
-                if (!mInterface.hasLengthLimit()) {
-                    mInterface.setRecordingStart(System.currentTimeMillis());
-                    startCounter();
-                }
+        // UI
+        mRecordButtonIcon.setRecording(true, true);
+        mButtonFacing.setVisibility(View.GONE);
+        // Enabled again a second after recording starts, see onRecordingStarted().
+        mButtonVideo.setEnabled(false);
+
+        // Records to the prepared file if there is one, see onRecordingStarted().
+        mController.startRecording(getOutputMediaFile().getAbsolutePath(),
+                mPreviewView.getHolder().getSurface(), Degrees.getDisplayRotation(getActivity()),
+                mRecordPressedAt);
+    }
 
-                // Start recording
-                mMediaRecorder.start();
-                mIsRecording = true;
+    @Override
+    public void pauseRecordingVideo() {
+        if (mMediaRecorder == null) return;
+        super.pauseRecordingVideo();
+        onPartFinished(Uri.parse(mOutputUri).getPath());
+        // The controller finishes the file before anything else posted after this runs.
+        mController.pauseRecording(mMediaRecorder,
+                CameraUtil.makeSegmentFile(mFirstPart, ++mPartIndex).getAbsolutePath(),
+                Degrees.getDisplayRotation(getActivity()));
+        mMediaRecorder = null;
+        mOutputUri = null;
+    }
 
-                mButtonVideo.setEnabled(false);
-                mButtonVideo.postDelayed(new Runnable() {
-                    @Override
-                    public void run() {
-                        mButtonVideo.setEnabled(true);
-                    }
-                }, 1000);
-            } catch (Throwable t) {
-                t.printStackTrace();
-                mInterface.setRecordingStart(-1);
-                stopRecordingVideo(false);
-                throwError(new Exception("Failed to start recording: " + t.getMessage(), t));
-            }
-        }
+    @Override
+    public void resumeRecordingVideo() {
+        if (!mCameraOpen || mPreviewView == null) return;
+        super.resumeRecordingVideo();
+        mResuming = true;
+        // Set now, so it's joined even if stopping comes before onRecordingStarted().
+        final File part = CameraUtil.makeSegmentFile(mFirstPart, mPartIndex);
+        mOutputUri = Uri.fromFile(part).toString();
+        mController.startRecording(part.getAbsolutePath(),
+                mPreviewView.getHolder().getSurface(), Degrees.getDisplayRotation(getActivity()),
+                SystemClock.elapsedRealtime());
     }
 
     @Override
     public void stopRecordingVideo(final boolean reachedZero) {
         super.stopRecordingVideo(reachedZero);
         mIsRecording = false;
-
-        if (mInterface.hasLengthLimit() && mInterface.shouldAutoSubmit() &&
-                (mInterface.getRecordingStart() < 0 || mMediaRecorder == null)) {
-            stopCounter();
-            if (mCamera != null)
-                mCamera.lock();
-            releaseRecorder();
-            closeCamera();
-            mButtonFacing.postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    mInterface.onShowPreview(mOutputUri, reachedZero);
-                }
-            }, 100);
-            return;
-        }
-
-        if (mCamera != null)
-            mCamera.lock();
-        releaseRecorder();
-        closeCamera();
-
-        if (!mInterface.didRecord())
-            mOutputUri = null;
-
-        mButtonVideo.setImageResource(R.drawable.ic_action_record);
-        mButtonFacing.setVisibility(View.VISIBLE);
-        if (mInterface.getRecordingStart() > -1 && getActivity() != null)
-            mInterface.onShowPreview(mOutputUri, reachedZero);
-
+        mResuming = false;
         stopCounter();
-    }
 
-    static class CompareSizesByArea implements Comparator<Camera.Size> {
-        @Override
-        public int compare(Camera.Size lhs, Camera.Size rhs) {
-            // We cast here to ensure the multiplications won't overflow
-            return Long.signum((long) lhs.width * lhs.height -
-                    (long) rhs.width * rhs.height);
+        final boolean autoSubmit = mInterface.hasLengthLimit() && mInterface.shouldAutoSubmit() &&
+                (mInterface.getRecordingStart() < 0 || mMediaRecorder == null);
+        if (!autoSubmit) {
+            if (!mInterface.didRecord())
+                mOutputUri = null;
+            mRecordButtonIcon.setRecording(false, true);
+            mButtonFacing.setVisibility(View.VISIBLE);
         }
+
+        // Stopping the recorder finalizes the file, the preview is shown once that's done.
+        final MediaRecorder recorder = mMediaRecorder;
+        mMediaRecorder = null;
+        mCameraOpen = false;
+        mController.close(recorder, new Runnable() {
+            @Override
+            public void run() {
+                if (autoSubmit || (mInterface.getRecordingStart() > -1 && getActivity() != null))
+                    showPreview(reachedZero);
+            }
+        });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,245 @@
+package com.afollestad.materialcamera.internal;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A parsed vector path stored as flat arrays instead of one PathDataNode per command: a byte per
+ * command, one float array holding every command's parameters, and an offset table into it.
+ * Build it once with {@link #compile(String)}, replay it into a Path with
+ * {@link PathParser#compiledToPath(CompiledPath, android.graphics.Path)}, and morph between two
+ * compatible paths in place with {@link #interpolate(CompiledPath, CompiledPath, float)}.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class CompiledPath {
+
+    private final byte[] mCommands;
+    private final int[] mOffsets;
+    private final float[] mParams;
+    private boolean mFrozen;
+
+    CompiledPath(byte[] commands, int[] offsets, float[] params) {
+        mCommands = commands;
+        mOffsets = offsets;
+        mParams = params;
+    }
+
+    /**
+     * @param pathData The string representing a path, the same as "d" string in svg file.
+     * @throws RuntimeException if the path data is malformed.
+     */
+    public static CompiledPath compile(String pathData) {
+        return compile(pathData, new PathDataScanner());
+    }
+
+    /**
+     * Same as {@link #compile(String)}, reusing the given scanner's buffers.
+     */
+    public static CompiledPath compile(String pathData, PathDataScanner scanner) {
+        scanner.scan(pathData);
+        final int count = scanner.getCommandCount();
+        final byte[] commands = new byte[count];
+        final int[] offsets = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            final char command = scanner.getCommand(i);
+            final int paramCount = scanner.getParamEnd(i) - scanner.getParamStart(i);
+            final int perSegment = getParamsPerSegment(command);
+            if (perSegment < 0) {
+                throw new RuntimeException("Error in parsing " + pathData +
+                        ": unknown command '" + command + "'");
+            } else if (!isValidParamCount(perSegment, paramCount)) {
+                throw new RuntimeException("Error in parsing " + pathData + ": command '" +
+                        command + "' has " + paramCount + " parameters");
+            }
+            commands[i] = (byte) command;
+            offsets[i] = scanner.getParamStart(i);
+        }
+        offsets[count] = scanner.getParamCount();
+        final float[] params = new float[scanner.getParamCount()];
+        System.arraycopy(scanner.getParams(), 0, params, 0, params.length);
+        return new CompiledPath(commands, offsets, params);
+    }
+
+    /**
+     * Reads a path written by {@link #write(DataOutput)}.
+     *
+     * @throws IOException if the input is truncated or doesn't hold a valid path.
+     */
+    public static CompiledPath read(DataInput in) throws IOException {
+        final int count = in.readUnsignedShort();
+        final byte[] commands = new byte[count];
+        in.readFully(commands);
+        final int[] offsets = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            final int paramCount = in.readUnsignedShort();
+            final int perSegment = getParamsPerSegment((char) commands[i]);
+            if (perSegment < 0 || !isValidParamCount(perSegment, paramCount))
+                throw new IOException("Invalid compiled path: command '" + (char) commands[i] +
+                        "' has " + paramCount + " parameters");
+            offsets[i + 1] = offsets[i] + paramCount;
+        }
+        final float[] params = new float[offsets[count]];
+        for (int i = 0; i < params.length; i++)
+            params[i] = in.readFloat();
+        return new CompiledPath(commands, offsets, params);
+    }
+
+    /**
+     * Writes the command count, the commands, each command's parameter count, and then every
+     * parameter. Counts are unsigned shorts, which is plenty for icon paths.
+     *
+     * @throws IOException if writing fails, or the path is too big for the format.
+     */
+    public void write(DataOutput out) throws IOException {
+        if (mCommands.length > 0xFFFF)
+            throw new IOException("Too many commands to write: " + mCommands.length);
+        out.writeShort(mCommands.length);
+        out.write(mCommands);
+        for (int i = 0; i < mCommands.length; i++) {
+            final int paramCount = mOffsets[i + 1] - mOffsets[i];
+            if (paramCount > 0xFFFF)
+                throw new IOException("Too many parameters to write: " + paramCount);
+            out.writeShort(paramCount);
+        }
+        for (float param : mParams)
+            out.writeFloat(param);
+    }
+
+    private static boolean isValidParamCount(int perSegment, int paramCount) {
+        return perSegment == 0 ? paramCount == 0 : paramCount % perSegment == 0;
+    }
+
+    /**
+     * @return how many parameters one segment of the command takes, 0 for close, or -1 if the
+     * command isn't a path command.
+     */
+    public static int getParamsPerSegment(char command) {
+        switch (command) {
+            case 'z':
+            case 'Z':
+                return 0;
+            case 'm':
+            case 'M':
+            case 'l':
+            case 'L':
+            case 't':
+            case 'T':
+                return 2;
+            case 'h':
+            case 'H':
+            case 'v':
+            case 'V':
+                return 1;
+            case 'c':
+            case 'C':
+                return 6;
+            case 's':
+            case 'S':
+            case 'q':
+            case 'Q':
+                return 4;
+            case 'a':
+            case 'A':
+                return 7;
+            default:
+                return -1;
+        }
+    }
+
+    public int getCommandCount() {
+        return mCommands.length;
+    }
+
+    public char getCommand(int index) {
+        return (char) mCommands[index];
+    }
+
+    public int getParamStart(int index) {
+        return mOffsets[index];
+    }
+
+    public int getParamEnd(int index) {
+        return mOffsets[index + 1];
+    }
+
+    /**
+     * @return every command's parameters back to back; see {@link #getParamStart(int)}.
+     */
+    public float[] getParams() {
+        return mParams;
+    }
+
+    /**
+     * @return a mutable copy that shares this path's (immutable) commands and offsets.
+     */
+    public CompiledPath copy() {
+        return new CompiledPath(mCommands, mOffsets, mParams.clone());
+    }
+
+    /**
+     * Makes this path read-only, so it can be shared. Morphing a frozen path throws an
+     * IllegalStateException.
+     */
+    public void freeze() {
+        mFrozen = true;
+    }
+
+    public boolean isFrozen() {
+        return mFrozen;
+    }
+
+    /**
+     * @return whether this path can morph into (or out of) the other one, i.e. both have the same
+     * commands with the same number of parameters.
+     */
+    public boolean canMorph(CompiledPath other) {
+        if (other == null) {
+            return false;
+        }
+        if (other.mCommands == mCommands && other.mOffsets == mOffsets) {
+            return true;
+        }
+        if (other.mCommands.length != mCommands.length) {
+            return false;
+        }
+        for (int i = 0; i < mCommands.length; i++) {
+            if (mCommands[i] != other.mCommands[i] || mOffsets[i + 1] != other.mOffsets[i + 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the source's parameters into this path. Before calling this, make sure
+     * canMorph(source) is true.
+     */
+    public void set(CompiledPath source) {
+        checkNotFrozen();
+        System.arraycopy(source.mParams, 0, mParams, 0, mParams.length);
+    }
+
+    /**
+     * Sets this path's parameters to the interpolation between from and to. Before calling this,
+     * make sure this path can morph into both.
+     *
+     * @param fraction The fraction to interpolate, 0 being from and 1 being to.
+     */
+    public void interpolate(CompiledPath from, CompiledPath to, float fraction) {
+        checkNotFrozen();
+        final float[] params = mParams;
+        final float[] fromParams = from.mParams;
+        final float[] toParams = to.mParams;
+        final float inverse = 1 - fraction;
+        for (int i = 0; i < params.length; i++) {
+            params[i] = fromParams[i] * inverse + toParams[i] * fraction;
+        }
+    }
+
+    private void checkNotFrozen() {
+        if (mFrozen)
+            throw new IllegalStateException("This path is shared and can't be modified, copy() it first.");
+    }
+}
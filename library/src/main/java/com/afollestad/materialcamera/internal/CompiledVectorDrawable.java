@@ -0,0 +1,121 @@
+package com.afollestad.materialcamera.internal;
+
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Draws a precompiled vector icon from {@link VectorPathsAsset}. The Paths are replayed once per
+ * icon and shared by every Drawable created from the same constant state.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+class CompiledVectorDrawable extends Drawable {
+
+    private final IconState mState;
+    private final float mDensity;
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private int mAlpha = 255;
+
+    public CompiledVectorDrawable(Resources r, VectorPathsAsset.Icon icon) {
+        this(new IconState(icon, r.getDisplayMetrics().density), r);
+    }
+
+    private CompiledVectorDrawable(IconState state, Resources r) {
+        mState = state;
+        mDensity = r != null ? r.getDisplayMetrics().density : 1f;
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        final Rect bounds = getBounds();
+        if (bounds.isEmpty())
+            return;
+        final VectorPathsAsset.Icon icon = mState.mIcon;
+        final int saveCount = canvas.save();
+        canvas.translate(bounds.left, bounds.top);
+        canvas.scale(bounds.width() / icon.viewportWidth, bounds.height() / icon.viewportHeight);
+        for (int i = 0; i < mState.mPaths.length; i++) {
+            final int color = icon.fillColors[i];
+            mPaint.setColor(color);
+            mPaint.setAlpha(Color.alpha(color) * mAlpha / 255);
+            canvas.drawPath(mState.mPaths[i], mPaint);
+        }
+        canvas.restoreToCount(saveCount);
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        if (mAlpha != alpha) {
+            mAlpha = alpha;
+            invalidateSelf();
+        }
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        mPaint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return (int) (mState.mIcon.width * mDensity + 0.5f);
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return (int) (mState.mIcon.height * mDensity + 0.5f);
+    }
+
+    @Override
+    public ConstantState getConstantState() {
+        return mState;
+    }
+
+    private static class IconState extends ConstantState {
+
+        final VectorPathsAsset.Icon mIcon;
+        final Path[] mPaths;
+
+        IconState(VectorPathsAsset.Icon icon, float density) {
+            mIcon = icon;
+            // Arcs are flattened for the icon's intrinsic size on this screen.
+            final float scale = Math.max(icon.width / icon.viewportWidth,
+                    icon.height / icon.viewportHeight) * density;
+            final ArcFlattener arcs = new ArcFlattener(scale, ArcFlattener.SCREEN_TOLERANCE);
+            final float[] current = new float[6];
+            mPaths = new Path[icon.paths.length];
+            for (int i = 0; i < mPaths.length; i++) {
+                mPaths[i] = new Path();
+                PathParser.compiledToPath(icon.paths[i], mPaths[i], current, arcs);
+            }
+        }
+
+        @Override
+        public Drawable newDrawable() {
+            return new CompiledVectorDrawable(this, null);
+        }
+
+        @Override
+        public Drawable newDrawable(Resources res) {
+            return new CompiledVectorDrawable(this, res);
+        }
+
+        @Override
+        public int getChangingConfigurations() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.afollestad.materialcamera.internal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A fixed size ring of encoded samples, the last few seconds of one track for pre-roll. Samples
+ * are dropped from the front a keyframe group at a time, so the ring always starts at a keyframe
+ * and everything in it can be decoded. Nothing is allocated after construction: sample data is
+ * kept contiguously in one byte array (a sample that doesn't fit at the end starts over at the
+ * front), and timestamps, offsets, sizes and keyframe flags in parallel primitive arrays.
+ * <p>
+ * Samples are addressed from 0, the oldest, to {@link #size()} - 1, the newest.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class EncodedSampleRing {
+
+    private final byte[] mData;
+    private final long[] mTimesUs;
+    private final int[] mOffsets;
+    private final int[] mSizes;
+    private final boolean[] mKeyFrames;
+    private final long mMaxDurationUs;
+
+    private int mFirst;
+    private int mCount;
+
+    /**
+     * @param byteCapacity  How many bytes of samples the ring holds at most.
+     * @param maxSamples    How many samples the ring holds at most.
+     * @param maxDurationUs How far back the ring needs to reach, older keyframe groups are
+     *                      dropped once a newer keyframe is at least this old.
+     */
+    EncodedSampleRing(int byteCapacity, int maxSamples, long maxDurationUs) {
+        if (byteCapacity <= 0 || maxSamples <= 0)
+            throw new IllegalArgumentException("The ring needs room for at least one sample.");
+        mData = new byte[byteCapacity];
+        mTimesUs = new long[maxSamples];
+        mOffsets = new int[maxSamples];
+        mSizes = new int[maxSamples];
+        mKeyFrames = new boolean[maxSamples];
+        mMaxDurationUs = maxDurationUs;
+    }
+
+    /**
+     * Copies a sample from src's position into the ring, advancing src's position by size.
+     *
+     * @return false if the sample was dropped: it doesn't start with a keyframe, or it's larger
+     * than the ring. Later samples are dropped until the next keyframe in the latter case too.
+     */
+    public boolean add(ByteBuffer src, int size, long timeUs, boolean keyFrame) {
+        if (size <= 0)
+            return false;
+        if (size > mData.length) {
+            clear();
+            return false;
+        }
+        if (keyFrame)
+            trim(timeUs);
+        else if (mCount == 0)
+            return false;
+
+        int offset;
+        while ((offset = findRoom(size)) == -1 || mCount == mTimesUs.length)
+            dropGroup();
+        if (mCount == 0 && !keyFrame)
+            return false;
+
+        final int index = physical(mCount);
+        src.get(mData, offset, size);
+        mTimesUs[index] = timeUs;
+        mOffsets[index] = offset;
+        mSizes[index] = size;
+        mKeyFrames[index] = keyFrame;
+        mCount++;
+        return true;
+    }
+
+    public void clear() {
+        mFirst = 0;
+        mCount = 0;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    public long getTimeUs(int n) {
+        return mTimesUs[physical(n)];
+    }
+
+    public int getSize(int n) {
+        return mSizes[physical(n)];
+    }
+
+    public boolean isKeyFrame(int n) {
+        return mKeyFrames[physical(n)];
+    }
+
+    /**
+     * Copies sample n into dst at its position, advancing dst's position by the sample's size.
+     */
+    public void copyTo(int n, ByteBuffer dst) {
+        final int index = physical(n);
+        dst.put(mData, mOffsets[index], mSizes[index]);
+    }
+
+    /**
+     * @return the newest keyframe at least preRollUs older than the newest sample, or the oldest
+     * sample if none is that old yet. -1 if the ring is empty.
+     */
+    public int findStart(long preRollUs) {
+        if (mCount == 0)
+            return -1;
+        final long targetUs = getTimeUs(mCount - 1) - preRollUs;
+        for (int n = mCount - 1; n > 0; n--) {
+            if (isKeyFrame(n) && getTimeUs(n) <= targetUs)
+                return n;
+        }
+        return 0;
+    }
+
+    private int physical(int n) {
+        return (mFirst + n) % mTimesUs.length;
+    }
+
+    private int findRoom(int size) {
+        if (mCount == 0)
+            return 0;
+        final int head = mOffsets[mFirst];
+        final int last = physical(mCount - 1);
+        final int tail = mOffsets[last] + mSizes[last];
+        if (mOffsets[last] >= head) {
+            if (mData.length - tail >= size)
+                return tail;
+            if (head >= size)
+                return 0;
+        } else if (head - tail >= size) {
+            return tail;
+        }
+        return -1;
+    }
+
+    private int findNextKeyFrame() {
+        for (int n = 1; n < mCount; n++) {
+            if (isKeyFrame(n))
+                return n;
+        }
+        return -1;
+    }
+
+    private void dropGroup() {
+        final int next = findNextKeyFrame();
+        drop(next == -1 ? mCount : next);
+    }
+
+    // Drops leading groups that are no longer needed to reach back mMaxDurationUs from timeUs.
+    private void trim(long timeUs) {
+        final long targetUs = timeUs - mMaxDurationUs;
+        int next;
+        while ((next = findNextKeyFrame()) != -1 && getTimeUs(next) <= targetUs)
+            drop(next);
+    }
+
+    private void drop(int count) {
+        mFirst = physical(count);
+        mCount -= count;
+        if (mCount == 0)
+            mFirst = 0;
+    }
+}
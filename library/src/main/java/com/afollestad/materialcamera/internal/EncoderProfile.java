@@ -0,0 +1,102 @@
+package com.afollestad.materialcamera.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The device's H.264 and HEVC encoders, for {@link VideoEncoderChooser}. Listing them walks every
+ * codec on the device, so like the {@link CameraProfile} they're probed once per build fingerprint
+ * and kept on disk by {@link CameraProfileStore}, but only once a recorder is set up.
+ * <p>
+ * Layout: magic, version, fingerprint, encoder count, then per encoder its MIME type, name,
+ * whether it's a hardware encoder, its max width and height and its max pixel rate.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class EncoderProfile {
+
+    static final int MAGIC = 0x4D434550; // "MCEP"
+    static final int VERSION = 1;
+
+    static final class Encoder {
+
+        final String mimeType;
+        final String name;
+        final boolean hardware;
+        final int maxWidth;
+        final int maxHeight;
+        /**
+         * Width * height * frames per second at the largest size the encoder was profiled at.
+         */
+        final long maxPixelRate;
+
+        Encoder(String mimeType, String name, boolean hardware, int maxWidth, int maxHeight, long maxPixelRate) {
+            this.mimeType = mimeType;
+            this.name = name;
+            this.hardware = hardware;
+            this.maxWidth = maxWidth;
+            this.maxHeight = maxHeight;
+            this.maxPixelRate = maxPixelRate;
+        }
+    }
+
+    final String fingerprint;
+    final Encoder[] encoders;
+
+    EncoderProfile(String fingerprint, Encoder[] encoders) {
+        this.fingerprint = fingerprint;
+        this.encoders = encoders;
+    }
+
+    /**
+     * Reads a profile. The stream is read completely but not closed.
+     *
+     * @throws IOException if reading fails, or the stream isn't a supported encoder profile.
+     */
+    public static EncoderProfile read(InputStream stream) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(stream.available(), 256));
+        final byte[] chunk = new byte[4096];
+        int read;
+        while ((read = stream.read(chunk)) != -1)
+            buffer.write(chunk, 0, read);
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not an encoder profile.");
+        final int version = in.readUnsignedShort();
+        if (version != VERSION)
+            throw new IOException("Unsupported encoder profile version " + version + ".");
+        final String fingerprint = in.readUTF();
+        final Encoder[] encoders = new Encoder[in.readUnsignedByte()];
+        for (int i = 0; i < encoders.length; i++) {
+            encoders[i] = new Encoder(in.readUTF(), in.readUTF(), in.readBoolean(),
+                    in.readInt(), in.readInt(), in.readLong());
+        }
+        return new EncoderProfile(fingerprint, encoders);
+    }
+
+    /**
+     * Writes the profile in the format read by {@link #read(InputStream)}. The stream isn't closed.
+     */
+    public void write(OutputStream stream) throws IOException {
+        final DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeUTF(fingerprint);
+        out.writeByte(encoders.length);
+        for (Encoder encoder : encoders) {
+            out.writeUTF(encoder.mimeType);
+            out.writeUTF(encoder.name);
+            out.writeBoolean(encoder.hardware);
+            out.writeInt(encoder.maxWidth);
+            out.writeInt(encoder.maxHeight);
+            out.writeLong(encoder.maxPixelRate);
+        }
+        out.flush();
+    }
+}
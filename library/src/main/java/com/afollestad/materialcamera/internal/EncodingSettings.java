@@ -0,0 +1,114 @@
+package com.afollestad.materialcamera.internal;
+
+import com.afollestad.materialcamera.EncodingPolicy;
+import com.afollestad.materialcamera.MaterialCamera;
+
+/**
+ * What a recording is encoded with: a quality preset, an {@link EncodingPolicy} for the video
+ * rates, and the explicit overrides set on {@link MaterialCamera} on top of both. A value of -1
+ * means it wasn't set, and the recorder keeps its own default.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class EncodingSettings {
+
+    /**
+     * HEVC reaches the quality of H.264 at roughly this much of its bit rate.
+     */
+    static final float HEVC_BIT_RATE_FACTOR = 0.6f;
+
+    public final EncodingPolicy policy;
+    public final int videoBitRate;
+    public final int frameRate;
+    public final int audioBitRate;
+    public final int audioSampleRate;
+    public final int audioChannels;
+    /**
+     * The tallest video that's allowed, see {@link SizeChooser.Policy#maxHeight}.
+     */
+    public final int maxResolution;
+    /**
+     * Whether HEVC may be recorded where the device can encode it in hardware.
+     */
+    public final boolean allowHevc;
+
+    /**
+     * @param quality One of MaterialCamera's QUALITY_* constants, or 0 for the defaults.
+     * @param policy  Replaces the preset's policy if not null.
+     */
+    EncodingSettings(int quality, EncodingPolicy policy, int videoBitRate, int frameRate,
+                     int audioBitRate, int audioSampleRate, int audioChannels, int maxResolution,
+                     boolean allowHevc) {
+        EncodingPolicy presetPolicy;
+        int presetAudioBitRate = -1;
+        int presetAudioSampleRate = -1;
+        int presetAudioChannels = -1;
+        int presetMaxResolution = SizeChooser.Policy.DEFAULT.maxHeight;
+        switch (quality) {
+            case MaterialCamera.QUALITY_LOW_BANDWIDTH:
+                presetPolicy = new EncodingPolicy(0.05f, 250000, 1500000, 24);
+                presetAudioBitRate = 64000;
+                presetAudioSampleRate = 44100;
+                presetAudioChannels = 1;
+                presetMaxResolution = 480;
+                break;
+            case MaterialCamera.QUALITY_BALANCED:
+                presetPolicy = new EncodingPolicy(0.08f, 500000, 4000000, 30);
+                presetAudioBitRate = 96000;
+                presetAudioSampleRate = 44100;
+                presetAudioChannels = 1;
+                presetMaxResolution = 720;
+                break;
+            case MaterialCamera.QUALITY_HIGH:
+                presetPolicy = new EncodingPolicy(0.12f, 1000000, 16000000, 30);
+                presetAudioBitRate = 128000;
+                presetAudioSampleRate = 48000;
+                presetAudioChannels = 2;
+                presetMaxResolution = 1080;
+                break;
+            default:
+                presetPolicy = new EncodingPolicy();
+                break;
+        }
+        this.policy = policy != null ? policy : presetPolicy;
+        this.videoBitRate = videoBitRate;
+        this.frameRate = frameRate;
+        this.audioBitRate = audioBitRate > 0 ? audioBitRate : presetAudioBitRate;
+        this.audioSampleRate = audioSampleRate > 0 ? audioSampleRate : presetAudioSampleRate;
+        this.audioChannels = audioChannels > 0 ? audioChannels : presetAudioChannels;
+        this.maxResolution = maxResolution > 0 ? maxResolution : presetMaxResolution;
+        this.allowHevc = allowHevc;
+    }
+
+    /**
+     * @return the frame rate the camera's frame rate range is chosen for.
+     */
+    public int getTargetFrameRate() {
+        return frameRate > 0 ? frameRate : policy.getTargetFrameRate();
+    }
+
+    /**
+     * @param maxSupportedFrameRate The fastest the camera runs, or -1 if unknown.
+     * @return the frame rate to record at.
+     */
+    public int getFrameRate(int maxSupportedFrameRate) {
+        if (frameRate <= 0)
+            return policy.getFrameRate(maxSupportedFrameRate);
+        return maxSupportedFrameRate > 0 ? Math.min(frameRate, maxSupportedFrameRate) : frameRate;
+    }
+
+    /**
+     * @param videoEncoder The encoder chosen by {@link VideoEncoderChooser}. HEVC gets
+     *                     {@link #HEVC_BIT_RATE_FACTOR} of the policy's bit rate, unless the bit
+     *                     rate was set explicitly.
+     * @return the bit rate, in bits per second, to encode video of the given size and frame rate at.
+     */
+    public int getVideoBitRate(int width, int height, int frameRate, int videoEncoder) {
+        if (videoBitRate > 0)
+            return videoBitRate;
+        final int bitRate = policy.getBitRate(width, height, frameRate);
+        if (videoEncoder != VideoEncoderChooser.VIDEO_ENCODER_HEVC)
+            return bitRate;
+        return Math.max(policy.getMinBitRate(), Math.round(bitRate * HEVC_BIT_RATE_FACTOR));
+    }
+}
@@ -0,0 +1,62 @@
+package com.afollestad.materialcamera.internal;
+
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.File;
+import java.lang.reflect.Method;
+
+/**
+ * {@link MediaRecorder} APIs newer than the SDK the library compiles against, looked up
+ * reflectively where the device has them.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class MediaRecorderCompat {
+
+    private static final String TAG = "MediaRecorderCompat";
+
+    // MediaRecorder.MEDIA_RECORDER_INFO_*, declared from API 26 on.
+    public static final int MEDIA_RECORDER_INFO_MAX_FILESIZE_APPROACHING = 802;
+    public static final int MEDIA_RECORDER_INFO_NEXT_OUTPUT_FILE_STARTED = 803;
+
+    private static Method sSetNextOutputFile;
+    private static boolean sLookedUp;
+
+    private MediaRecorderCompat() {
+    }
+
+    /**
+     * Hands the recorder the file to continue in once the current one reaches its max file size,
+     * see {@link #MEDIA_RECORDER_INFO_NEXT_OUTPUT_FILE_STARTED}. Without it (before API 26) the
+     * recorder stops at the max file size instead.
+     *
+     * @return false if the device can't switch files while recording.
+     */
+    public static boolean setNextOutputFile(MediaRecorder recorder, File file) {
+        final Method method = getSetNextOutputFile();
+        if (method == null) return false;
+        try {
+            method.invoke(recorder, file);
+            return true;
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to set the next output file.", e);
+            return false;
+        }
+    }
+
+    private static synchronized Method getSetNextOutputFile() {
+        if (!sLookedUp) {
+            sLookedUp = true;
+            if (Build.VERSION.SDK_INT >= 26) {
+                try {
+                    sSetNextOutputFile = MediaRecorder.class.getMethod("setNextOutputFile", File.class);
+                } catch (NoSuchMethodException e) {
+                    Log.w(TAG, "MediaRecorder.setNextOutputFile() is missing.", e);
+                }
+            }
+        }
+        return sSetNextOutputFile;
+    }
+}
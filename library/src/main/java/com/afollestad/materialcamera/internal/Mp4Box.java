@@ -0,0 +1,160 @@
+package com.afollestad.materialcamera.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The header of an ISO base media (MP4) box: its type, and where it is in the file. Offsets are
+ * always absolute file offsets, also for boxes read out of a mapped part of the file.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class Mp4Box {
+
+    public static final int FTYP = type("ftyp");
+    public static final int MOOV = type("moov");
+    public static final int MDAT = type("mdat");
+    public static final int FREE = type("free");
+    public static final int MVHD = type("mvhd");
+    public static final int TRAK = type("trak");
+    public static final int TKHD = type("tkhd");
+    public static final int EDTS = type("edts");
+    public static final int MDIA = type("mdia");
+    public static final int MDHD = type("mdhd");
+    public static final int HDLR = type("hdlr");
+    public static final int MINF = type("minf");
+    public static final int STBL = type("stbl");
+    public static final int STSD = type("stsd");
+    public static final int STTS = type("stts");
+    public static final int CTTS = type("ctts");
+    public static final int STSS = type("stss");
+    public static final int STSC = type("stsc");
+    public static final int STSZ = type("stsz");
+    public static final int STCO = type("stco");
+    public static final int CO64 = type("co64");
+
+    public static final int HANDLER_VIDEO = type("vide");
+    public static final int HANDLER_SOUND = type("soun");
+
+    public final int type;
+    public final long offset;
+    public final long size;
+    public final int headerSize;
+
+    Mp4Box(int type, long offset, long size, int headerSize) {
+        this.type = type;
+        this.offset = offset;
+        this.size = size;
+        this.headerSize = headerSize;
+    }
+
+    public long getDataOffset() {
+        return offset + headerSize;
+    }
+
+    public long getDataSize() {
+        return size - headerSize;
+    }
+
+    public long getEnd() {
+        return offset + size;
+    }
+
+    @Override
+    public String toString() {
+        return typeName(type) + "@" + offset + "+" + size;
+    }
+
+    public static int type(String fourcc) {
+        return (fourcc.charAt(0) << 24) | (fourcc.charAt(1) << 16) | (fourcc.charAt(2) << 8) | fourcc.charAt(3);
+    }
+
+    public static String typeName(int type) {
+        return new String(new char[]{(char) ((type >>> 24) & 0xFF), (char) ((type >>> 16) & 0xFF),
+                (char) ((type >>> 8) & 0xFF), (char) (type & 0xFF)});
+    }
+
+    static IOException malformed(String message) {
+        return new IOException("Malformed MP4 file: " + message);
+    }
+
+    /**
+     * Reads the header of a top level box straight from the file.
+     *
+     * @param header Scratch space for the header, at least 16 bytes.
+     * @return null if there's no room for another box before end.
+     */
+    static Mp4Box read(FileChannel channel, long offset, long end, ByteBuffer header) throws IOException {
+        if (end - offset < 8) return null;
+        header.clear();
+        header.limit((int) Math.min(16, end - offset));
+        while (header.hasRemaining()) {
+            if (channel.read(header, offset + header.position()) < 0)
+                break;
+        }
+        return parse(header, 0, header.position(), offset, end);
+    }
+
+    /**
+     * Reads the header of a box out of buffer, which holds the file from base on.
+     *
+     * @return null if there's no room for another box before end.
+     */
+    static Mp4Box read(ByteBuffer buffer, long base, long offset, long end) throws IOException {
+        if (end - offset < 8) return null;
+        final int index = (int) (offset - base);
+        return parse(buffer, index, (int) Math.min(16, end - offset), offset, end);
+    }
+
+    private static Mp4Box parse(ByteBuffer buffer, int index, int available, long offset, long end) throws IOException {
+        if (available < 8)
+            throw malformed("truncated box header at " + offset);
+        long size = buffer.getInt(index) & 0xFFFFFFFFL;
+        final int type = buffer.getInt(index + 4);
+        int headerSize = 8;
+        if (size == 1) {
+            if (available < 16)
+                throw malformed("truncated box header at " + offset);
+            size = buffer.getLong(index + 8);
+            headerSize = 16;
+        } else if (size == 0) {
+            // Extends to the end of the file (or the parent).
+            size = end - offset;
+        }
+        if (size < headerSize || offset + size > end)
+            throw malformed(typeName(type) + " box at " + offset + " has an invalid size " + size);
+        return new Mp4Box(type, offset, size, headerSize);
+    }
+
+    /**
+     * @return the boxes directly inside parent, which is held by buffer from base on.
+     */
+    static List<Mp4Box> readChildren(ByteBuffer buffer, long base, Mp4Box parent) throws IOException {
+        return readChildren(buffer, base, parent.getDataOffset(), parent.getEnd());
+    }
+
+    static List<Mp4Box> readChildren(ByteBuffer buffer, long base, long start, long end) throws IOException {
+        final List<Mp4Box> children = new ArrayList<>();
+        long offset = start;
+        Mp4Box box;
+        while ((box = read(buffer, base, offset, end)) != null) {
+            children.add(box);
+            offset = box.getEnd();
+        }
+        return children;
+    }
+
+    /**
+     * @return the first box of the given type, or null if there's none.
+     */
+    static Mp4Box find(List<Mp4Box> boxes, int type) {
+        for (Mp4Box box : boxes) {
+            if (box.type == type)
+                return box;
+        }
+        return null;
+    }
+}
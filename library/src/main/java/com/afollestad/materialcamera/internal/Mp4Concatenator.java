@@ -0,0 +1,344 @@
+package com.afollestad.materialcamera.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Joins MP4 files recorded one after another with the same settings, e.g. the parts of a paused
+ * recording, without re-encoding. The output is the first file's ftyp, one mdat with every file's
+ * media data copied in with {@link FileChannel#transferTo}, and a moov whose sample tables are
+ * the inputs' tables back to back, with chunk offsets moved to where the data ended up.
+ * <p>
+ * Tables are streamed from the inputs' mapped moov boxes through {@link Mp4Output}'s buffer, so
+ * the heap used doesn't grow with the length of the recording. Each track of a part (but the last)
+ * is padded to the length of the part's longest track by stretching its last sample, otherwise
+ * audio and video drift apart with every part.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class Mp4Concatenator {
+
+    private Mp4Concatenator() {
+    }
+
+    /**
+     * @throws IOException if an input can't be read, or its tracks don't match the first input's.
+     */
+    public static void concatenate(List<File> inputs, File output) throws IOException {
+        if (inputs.isEmpty())
+            throw new IllegalArgumentException("Nothing to concatenate.");
+        final Mp4File[] files = new Mp4File[inputs.size()];
+        RandomAccessFile out = null;
+        try {
+            for (int i = 0; i < files.length; i++)
+                files[i] = Mp4File.open(inputs.get(i));
+            checkCompatible(files);
+            //noinspection ResultOfMethodCallIgnored
+            output.delete();
+            out = new RandomAccessFile(output, "rw");
+            write(files, out.getChannel());
+        } finally {
+            for (Mp4File file : files)
+                CameraUtil.closeQuietly(file);
+            CameraUtil.closeQuietly(out);
+        }
+    }
+
+    /**
+     * Joins the parts of a recording into the first part's file, and deletes the other parts.
+     * Parts that were never finished (e.g. nothing was recorded to them) are deleted and skipped.
+     *
+     * @return the joined file, or null if no part was finished.
+     */
+    public static File joinParts(List<File> parts) throws IOException {
+        final List<File> finished = new ArrayList<>(parts.size());
+        for (File part : parts) {
+            try {
+                Mp4File.open(part).close();
+                finished.add(part);
+            } catch (IOException e) {
+                //noinspection ResultOfMethodCallIgnored
+                part.delete();
+            }
+        }
+        if (finished.isEmpty()) return null;
+        final File first = finished.get(0);
+        if (finished.size() == 1) return first;
+
+        final File joined = new File(first.getParentFile(), "joining_" + first.getName());
+        try {
+            concatenate(finished, joined);
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            joined.delete();
+            throw e;
+        }
+        for (File part : finished) {
+            //noinspection ResultOfMethodCallIgnored
+            part.delete();
+        }
+        if (!joined.renameTo(first))
+            throw new IOException("Failed to move " + joined + " to " + first);
+        return first;
+    }
+
+    private static void checkCompatible(Mp4File[] files) throws IOException {
+        final Mp4File first = files[0];
+        for (int i = 1; i < files.length; i++) {
+            final Mp4File file = files[i];
+            if (file.tracks.size() != first.tracks.size())
+                throw new IOException(file.file.getName() + " has different tracks than " + first.file.getName());
+            for (int t = 0; t < first.tracks.size(); t++) {
+                final Mp4Track a = first.tracks.get(t);
+                final Mp4Track b = file.tracks.get(t);
+                if (a.handlerType != b.handlerType || a.timescale != b.timescale ||
+                        !first.slice(a.stsd).equals(file.slice(b.stsd)))
+                    throw new IOException(file.file.getName() + " was recorded with different settings than " +
+                            first.file.getName());
+            }
+        }
+    }
+
+    private static void write(Mp4File[] files, FileChannel channel) throws IOException {
+        final Mp4File first = files[0];
+        final Mp4Output out = new Mp4Output(channel, 0);
+        if (first.ftyp != null) {
+            out.transferFrom(first.channel, first.ftyp.offset, first.ftyp.size);
+        }
+
+        long payloadSize = 0;
+        for (Mp4File file : files)
+            payloadSize += file.getMediaDataEnd() - file.getMediaDataStart();
+        out.putBoxHeader(Mp4Box.MDAT, payloadSize);
+        // How far each file's chunk offsets move.
+        final long[] shifts = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            final long start = files[i].getMediaDataStart();
+            final long size = files[i].getMediaDataEnd() - start;
+            shifts[i] = out.position() - start;
+            out.transferFrom(files[i].channel, start, size);
+        }
+        final boolean largeChunkOffsets = out.position() > 0xFFFFFFFFL;
+
+        final Tables tables = new Tables(files, shifts, largeChunkOffsets);
+        Mp4MoovWriter.write(out, first, tables);
+        out.flush();
+        channel.truncate(out.position());
+    }
+
+    private static final class Tables implements Mp4MoovWriter.Tables {
+
+        private final Mp4File[] mFiles;
+        private final long[] mShifts;
+        private final boolean mLargeChunkOffsets;
+        // [part][track], in the track's timescale.
+        private final long[][] mDurations;
+        private final long[][] mPadding;
+
+        Tables(Mp4File[] files, long[] shifts, boolean largeChunkOffsets) {
+            mFiles = files;
+            mShifts = shifts;
+            mLargeChunkOffsets = largeChunkOffsets;
+            final int trackCount = files[0].tracks.size();
+            mDurations = new long[files.length][trackCount];
+            mPadding = new long[files.length][trackCount];
+            for (int i = 0; i < files.length; i++) {
+                long partUs = 0;
+                for (int t = 0; t < trackCount; t++) {
+                    final Mp4Track track = files[i].tracks.get(t);
+                    mDurations[i][t] = track.getSampleDurationSum();
+                    partUs = Math.max(partUs, Mp4MoovWriter.scale(mDurations[i][t], track.timescale, 1000000));
+                }
+                if (i == files.length - 1) break;
+                for (int t = 0; t < trackCount; t++) {
+                    final Mp4Track track = files[i].tracks.get(t);
+                    if (track.sampleCount == 0) continue;
+                    final long target = Mp4MoovWriter.scale(partUs, 1000000, track.timescale);
+                    mPadding[i][t] = Math.max(0, target - mDurations[i][t]);
+                }
+            }
+        }
+
+        private Mp4Track track(int part, int track) {
+            return mFiles[part].tracks.get(track);
+        }
+
+        @Override
+        public long getMediaDuration(int track) {
+            long duration = 0;
+            for (int i = 0; i < mFiles.length; i++)
+                duration += mDurations[i][track] + mPadding[i][track];
+            return duration;
+        }
+
+        @Override
+        public void write(Mp4Output out, int track) throws IOException {
+            writeStts(out, track);
+            writeCtts(out, track);
+            writeStss(out, track);
+            writeStsc(out, track);
+            writeStsz(out, track);
+            writeChunkOffsets(out, track);
+        }
+
+        private void writeStts(Mp4Output out, int t) throws IOException {
+            long entries = 0;
+            for (int i = 0; i < mFiles.length; i++) {
+                final Mp4Track track = track(i, t);
+                entries += track.sttsEntryCount;
+                // The padded last sample gets an entry of its own.
+                if (mPadding[i][t] > 0 && track.getSttsSampleCount(track.sttsEntryCount - 1) > 1)
+                    entries++;
+            }
+            final long box = out.beginBox(Mp4Box.STTS);
+            out.putInt(0);
+            out.putUnsignedInt(entries);
+            for (int i = 0; i < mFiles.length; i++) {
+                final Mp4Track track = track(i, t);
+                final int last = track.sttsEntryCount - 1;
+                for (int e = 0; e < track.sttsEntryCount; e++) {
+                    final int count = track.getSttsSampleCount(e);
+                    final int delta = track.getSttsDelta(e);
+                    if (e != last || mPadding[i][t] == 0) {
+                        out.putInt(count);
+                        out.putInt(delta);
+                        continue;
+                    }
+                    if (count > 1) {
+                        out.putInt(count - 1);
+                        out.putInt(delta);
+                    }
+                    out.putInt(1);
+                    out.putUnsignedInt((delta & 0xFFFFFFFFL) + mPadding[i][t]);
+                }
+            }
+            out.endBox(box);
+        }
+
+        private void writeCtts(Mp4Output out, int t) throws IOException {
+            boolean any = false;
+            int version = 0;
+            long entries = 0;
+            for (int i = 0; i < mFiles.length; i++) {
+                final Mp4Track track = track(i, t);
+                if (track.ctts != null) {
+                    any = true;
+                    version = Math.max(version, track.getCttsVersion());
+                    entries += track.cttsEntryCount;
+                } else if (track.sampleCount > 0) {
+                    entries++;
+                }
+            }
+            if (!any) return;
+            final long box = out.beginBox(Mp4Box.CTTS);
+            out.putInt(version << 24);
+            out.putUnsignedInt(entries);
+            for (int i = 0; i < mFiles.length; i++) {
+                final Mp4Track track = track(i, t);
+                if (track.ctts != null) {
+                    for (int e = 0; e < track.cttsEntryCount; e++) {
+                        out.putInt(track.getCttsSampleCount(e));
+                        out.putInt(track.getCttsOffset(e));
+                    }
+                } else if (track.sampleCount > 0) {
+                    out.putInt(track.sampleCount);
+                    out.putInt(0);
+                }
+            }
+            out.endBox(box);
+        }
+
+        private void writeStss(Mp4Output out, int t) throws IOException {
+            boolean any = false;
+            long entries = 0;
+            for (int i = 0; i < mFiles.length; i++) {
+                final Mp4Track track = track(i, t);
+                if (track.stss != null) any = true;
+                // Without stss every sample is a sync sample.
+                entries += track.stss != null ? track.syncSampleCount : track.sampleCount;
+            }
+            if (!any) return;
+            final long box = out.beginBox(Mp4Box.STSS);
+            out.putInt(0);
+            out.putUnsignedInt(entries);
+            long firstSample = 0;
+            for (int i = 0; i < mFiles.length; i++) {
+                final Mp4Track track = track(i, t);
+                if (track.stss != null) {
+                    for (int e = 0; e < track.syncSampleCount; e++)
+                        out.putUnsignedInt(firstSample + (track.getSyncSample(e) & 0xFFFFFFFFL));
+                } else {
+                    for (int s = 1; s <= track.sampleCount; s++)
+                        out.putUnsignedInt(firstSample + s);
+                }
+                firstSample += track.sampleCount;
+            }
+            out.endBox(box);
+        }
+
+        private void writeStsc(Mp4Output out, int t) throws IOException {
+            long entries = 0;
+            for (int i = 0; i < mFiles.length; i++)
+                entries += track(i, t).stscEntryCount;
+            final long box = out.beginBox(Mp4Box.STSC);
+            out.putInt(0);
+            out.putUnsignedInt(entries);
+            long firstChunk = 0;
+            for (int i = 0; i < mFiles.length; i++) {
+                final Mp4Track track = track(i, t);
+                for (int e = 0; e < track.stscEntryCount; e++) {
+                    out.putUnsignedInt(firstChunk + (track.getStscFirstChunk(e) & 0xFFFFFFFFL));
+                    out.putInt(track.getStscSamplesPerChunk(e));
+                    out.putInt(track.getStscDescriptionIndex(e));
+                }
+                firstChunk += track.chunkCount;
+            }
+            out.endBox(box);
+        }
+
+        private void writeStsz(Mp4Output out, int t) throws IOException {
+            final int uniformSize = track(0, t).uniformSampleSize;
+            boolean uniform = uniformSize != 0;
+            long samples = 0;
+            for (int i = 0; i < mFiles.length; i++) {
+                final Mp4Track track = track(i, t);
+                uniform &= track.uniformSampleSize == uniformSize;
+                samples += track.sampleCount;
+            }
+            final long box = out.beginBox(Mp4Box.STSZ);
+            out.putInt(0);
+            out.putInt(uniform ? uniformSize : 0);
+            out.putUnsignedInt(samples);
+            if (!uniform) {
+                for (int i = 0; i < mFiles.length; i++) {
+                    final Mp4Track track = track(i, t);
+                    for (int s = 0; s < track.sampleCount; s++)
+                        out.putInt(track.getSampleSize(s));
+                }
+            }
+            out.endBox(box);
+        }
+
+        private void writeChunkOffsets(Mp4Output out, int t) throws IOException {
+            long chunks = 0;
+            for (int i = 0; i < mFiles.length; i++)
+                chunks += track(i, t).chunkCount;
+            final long box = out.beginBox(mLargeChunkOffsets ? Mp4Box.CO64 : Mp4Box.STCO);
+            out.putInt(0);
+            out.putUnsignedInt(chunks);
+            for (int i = 0; i < mFiles.length; i++) {
+                final Mp4Track track = track(i, t);
+                for (int c = 0; c < track.chunkCount; c++) {
+                    final long offset = track.getChunkOffset(c) + mShifts[i];
+                    if (mLargeChunkOffsets) out.putLong(offset);
+                    else out.putUnsignedInt(offset);
+                }
+            }
+            out.endBox(box);
+        }
+    }
+}
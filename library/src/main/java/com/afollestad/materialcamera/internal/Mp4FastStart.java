@@ -0,0 +1,171 @@
+package com.afollestad.materialcamera.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Moves the moov box of an MP4 file in front of its media data, so it can be played while it's
+ * still downloading. MediaRecorder can only write it at the end, once it knows every sample. The
+ * media data is copied with {@link java.nio.channels.FileChannel#transferTo}, and the chunk
+ * offsets, the only thing in moov that points into the file, are moved along with it.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class Mp4FastStart {
+
+    private Mp4FastStart() {
+    }
+
+    /**
+     * Rewrites file in place, through a temporary file next to it.
+     *
+     * @return false if the moov box was already at the front.
+     */
+    public static boolean process(File file) throws IOException {
+        final File temp = new File(file.getParentFile(), "faststart_" + file.getName());
+        try {
+            if (!moveMoovToFront(file, temp)) return false;
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw e;
+        }
+        if (!file.exists()) {
+            // Deleted meanwhile, e.g. the recording was retried.
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return false;
+        }
+        if (!temp.renameTo(file))
+            throw new IOException("Failed to move " + temp + " to " + file);
+        return true;
+    }
+
+    /**
+     * Writes input to output with its moov box in front of the media data.
+     *
+     * @return false, without writing output, if the moov box was already at the front.
+     */
+    public static boolean moveMoovToFront(File input, File output) throws IOException {
+        final Mp4File file = Mp4File.open(input);
+        RandomAccessFile out = null;
+        try {
+            Mp4Box mdat = null;
+            for (Mp4Box box : file.boxes) {
+                if (box.type == Mp4Box.MDAT) {
+                    mdat = box;
+                    break;
+                }
+            }
+            if (mdat == null || file.moov.offset < mdat.offset) return false;
+
+            // Chunk offsets past 4 GB need 64 bits once the moov box is in front of them.
+            long largeOffsetsGrowth = 0;
+            for (Mp4Track track : file.tracks) {
+                if (!track.largeChunkOffsets)
+                    largeOffsetsGrowth += 4L * track.chunkCount;
+            }
+            final boolean largeChunkOffsets = file.length + file.moov.size + largeOffsetsGrowth > 0xFFFFFFFFL;
+            final Shift shift = new Shift(mdat.offset, file.moov, getSize(file, file.moov, largeChunkOffsets));
+
+            //noinspection ResultOfMethodCallIgnored
+            output.delete();
+            out = new RandomAccessFile(output, "rw");
+            final Mp4Output writer = new Mp4Output(out.getChannel(), 0);
+            for (Mp4Box box : file.boxes) {
+                if (box == mdat) {
+                    final long moov = writer.position();
+                    copy(writer, file, file.moov, shift, largeChunkOffsets);
+                    if (writer.position() - moov != shift.moovSize)
+                        throw new IOException("The moov box came out " + (writer.position() - moov) +
+                                " bytes, not " + shift.moovSize);
+                }
+                if (box != file.moov)
+                    writer.transferFrom(file.channel, box.offset, box.size);
+            }
+            writer.flush();
+            out.getChannel().truncate(writer.position());
+            return true;
+        } finally {
+            CameraUtil.closeQuietly(file);
+            CameraUtil.closeQuietly(out);
+        }
+    }
+
+    // Where everything at or past the insertion point ends up.
+    private static final class Shift {
+
+        final long insertAt;
+        final Mp4Box oldMoov;
+        final long moovSize;
+
+        Shift(long insertAt, Mp4Box oldMoov, long moovSize) {
+            this.insertAt = insertAt;
+            this.oldMoov = oldMoov;
+            this.moovSize = moovSize;
+        }
+
+        long apply(long offset) {
+            if (offset < insertAt) return offset;
+            if (offset < oldMoov.offset) return offset + moovSize;
+            return offset + moovSize - oldMoov.size;
+        }
+    }
+
+    private static boolean isContainer(int type) {
+        return type == Mp4Box.MOOV || type == Mp4Box.TRAK || type == Mp4Box.MDIA ||
+                type == Mp4Box.MINF || type == Mp4Box.STBL;
+    }
+
+    // The size copy() writes the box with.
+    private static long getSize(Mp4File file, Mp4Box box, boolean largeChunkOffsets) throws IOException {
+        if (isContainer(box.type)) {
+            long size = 8;
+            for (Mp4Box child : file.readChildren(box))
+                size += getSize(file, child, largeChunkOffsets);
+            return size;
+        } else if (box.type == Mp4Box.STCO || box.type == Mp4Box.CO64) {
+            final boolean large = box.type == Mp4Box.CO64 || largeChunkOffsets;
+            return 16 + (large ? 8L : 4L) * getEntryCount(file, box);
+        }
+        return box.size;
+    }
+
+    private static void copy(Mp4Output out, Mp4File file, Mp4Box box, Shift shift,
+                             boolean largeChunkOffsets) throws IOException {
+        if (isContainer(box.type)) {
+            final long start = out.beginBox(box.type);
+            for (Mp4Box child : file.readChildren(box))
+                copy(out, file, child, shift, largeChunkOffsets);
+            out.endBox(start);
+        } else if (box.type == Mp4Box.STCO || box.type == Mp4Box.CO64) {
+            final boolean wasLarge = box.type == Mp4Box.CO64;
+            final boolean large = wasLarge || largeChunkOffsets;
+            final long count = getEntryCount(file, box);
+            final long start = out.beginBox(large ? Mp4Box.CO64 : Mp4Box.STCO);
+            out.putInt(0);
+            out.putUnsignedInt(count);
+            final long entries = box.getDataOffset() + 8;
+            for (long i = 0; i < count; i++) {
+                final long offset = shift.apply(wasLarge ? file.getLong(entries + i * 8) :
+                        file.getUnsignedInt(entries + i * 4));
+                if (large) out.putLong(offset);
+                else out.putUnsignedInt(offset);
+            }
+            out.endBox(start);
+        } else {
+            out.put(file.slice(box));
+        }
+    }
+
+    private static long getEntryCount(Mp4File file, Mp4Box box) throws IOException {
+        if (box.getDataSize() < 8)
+            throw Mp4Box.malformed(Mp4Box.typeName(box.type) + " box is truncated");
+        final long count = file.getUnsignedInt(box.getDataOffset() + 4);
+        final int entrySize = box.type == Mp4Box.CO64 ? 8 : 4;
+        if (8 + count * entrySize > box.getDataSize())
+            throw Mp4Box.malformed(Mp4Box.typeName(box.type) + " box has too many entries");
+        return count;
+    }
+}
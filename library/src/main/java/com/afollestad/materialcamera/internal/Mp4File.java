@@ -0,0 +1,155 @@
+package com.afollestad.materialcamera.internal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An MP4 file opened for reading its structure. Only box headers are read from the top level of
+ * the file; moov is memory mapped and parsed in place, and mdat isn't touched at all, so opening a
+ * file costs the same no matter how long the recording is.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class Mp4File implements Closeable {
+
+    public final File file;
+    public final FileChannel channel;
+    public final long length;
+    public final List<Mp4Box> boxes;
+    public final Mp4Box ftyp;
+    public final Mp4Box moov;
+    public final Mp4Box mvhd;
+    public final int timescale;
+    public final long duration;
+    public final List<Mp4Box> moovChildren;
+    public final List<Mp4Track> tracks;
+
+    private final RandomAccessFile mRandomAccessFile;
+    private final ByteBuffer mMoovData;
+
+    private Mp4File(File file, RandomAccessFile randomAccessFile) throws IOException {
+        this.file = file;
+        mRandomAccessFile = randomAccessFile;
+        channel = randomAccessFile.getChannel();
+        length = channel.size();
+
+        final List<Mp4Box> boxes = new ArrayList<>();
+        final ByteBuffer header = ByteBuffer.allocate(16);
+        long offset = 0;
+        Mp4Box box;
+        while ((box = Mp4Box.read(channel, offset, length, header)) != null) {
+            boxes.add(box);
+            offset = box.getEnd();
+        }
+        this.boxes = Collections.unmodifiableList(boxes);
+        ftyp = Mp4Box.find(boxes, Mp4Box.FTYP);
+        moov = Mp4Box.find(boxes, Mp4Box.MOOV);
+        if (moov == null)
+            throw Mp4Box.malformed("no moov box, the recording wasn't finished");
+        if (moov.size > Integer.MAX_VALUE)
+            throw Mp4Box.malformed("moov box is too large");
+        mMoovData = channel.map(FileChannel.MapMode.READ_ONLY, moov.offset, moov.size);
+
+        moovChildren = Collections.unmodifiableList(Mp4Box.readChildren(mMoovData, moov.offset, moov));
+        mvhd = Mp4Box.find(moovChildren, Mp4Box.MVHD);
+        if (mvhd == null)
+            throw Mp4Box.malformed("no mvhd box");
+        final boolean version1 = getByte(mvhd.getDataOffset()) == 1;
+        timescale = getInt(mvhd.getDataOffset() + (version1 ? 20 : 12));
+        duration = version1 ? getLong(mvhd.getDataOffset() + 24) : getUnsignedInt(mvhd.getDataOffset() + 16);
+        if (timescale <= 0)
+            throw Mp4Box.malformed("no movie timescale");
+
+        final List<Mp4Track> tracks = new ArrayList<>();
+        for (Mp4Box child : moovChildren) {
+            if (child.type == Mp4Box.TRAK)
+                tracks.add(new Mp4Track(this, child));
+        }
+        this.tracks = Collections.unmodifiableList(tracks);
+    }
+
+    public static Mp4File open(File file) throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            return new Mp4File(file, randomAccessFile);
+        } catch (IOException | RuntimeException e) {
+            CameraUtil.closeQuietly(randomAccessFile);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the first track with the given handler type, e.g. {@link Mp4Box#HANDLER_VIDEO}, or null.
+     */
+    public Mp4Track findTrack(int handlerType) {
+        for (Mp4Track track : tracks) {
+            if (track.handlerType == handlerType)
+                return track;
+        }
+        return null;
+    }
+
+    /**
+     * @return where the first mdat box's payload starts; every sample is between this and
+     * {@link #getMediaDataEnd()}.
+     */
+    public long getMediaDataStart() throws IOException {
+        for (Mp4Box box : boxes) {
+            if (box.type == Mp4Box.MDAT)
+                return box.getDataOffset();
+        }
+        throw Mp4Box.malformed("no mdat box");
+    }
+
+    public long getMediaDataEnd() throws IOException {
+        for (int i = boxes.size() - 1; i >= 0; i--) {
+            if (boxes.get(i).type == Mp4Box.MDAT)
+                return boxes.get(i).getEnd();
+        }
+        throw Mp4Box.malformed("no mdat box");
+    }
+
+    // Accessors for data inside moov, by absolute file offset.
+
+    public int getByte(long offset) {
+        return mMoovData.get((int) (offset - moov.offset)) & 0xFF;
+    }
+
+    public int getInt(long offset) {
+        return mMoovData.getInt((int) (offset - moov.offset));
+    }
+
+    public long getUnsignedInt(long offset) {
+        return getInt(offset) & 0xFFFFFFFFL;
+    }
+
+    public long getLong(long offset) {
+        return mMoovData.getLong((int) (offset - moov.offset));
+    }
+
+    /**
+     * @return the whole box, which has to be inside moov, as a read-only buffer.
+     */
+    public ByteBuffer slice(Mp4Box box) {
+        final ByteBuffer slice = mMoovData.duplicate();
+        slice.position((int) (box.offset - moov.offset));
+        slice.limit((int) (box.getEnd() - moov.offset));
+        return slice;
+    }
+
+    List<Mp4Box> readChildren(Mp4Box parent) throws IOException {
+        return Mp4Box.readChildren(mMoovData, moov.offset, parent);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mRandomAccessFile.close();
+    }
+}
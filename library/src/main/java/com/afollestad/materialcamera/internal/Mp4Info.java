@@ -0,0 +1,66 @@
+package com.afollestad.materialcamera.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The duration, resolution and bit rate of a recording, read from the headers and sample sizes of
+ * its MP4 files without touching their media data.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class Mp4Info {
+
+    public final long durationMs;
+    public final int width;
+    public final int height;
+    /**
+     * Bits per second of all tracks together, or 0 if the recording has no duration.
+     */
+    public final long bitRate;
+
+    private Mp4Info(long durationMs, int width, int height, long bitRate) {
+        this.durationMs = durationMs;
+        this.width = width;
+        this.height = height;
+        this.bitRate = bitRate;
+    }
+
+    /**
+     * @param files A recording's files in order, e.g. the segments it was split into. The
+     *              resolution is the first file's.
+     */
+    public static Mp4Info read(List<File> files) throws IOException {
+        long durationMs = 0;
+        long sampleBytes = 0;
+        int width = 0;
+        int height = 0;
+        for (File f : files) {
+            final Mp4File file = Mp4File.open(f);
+            try {
+                durationMs += Mp4MoovWriter.scale(file.duration, file.timescale, 1000);
+                for (Mp4Track track : file.tracks)
+                    sampleBytes += getSampleBytes(track);
+                final Mp4Track video = file.findTrack(Mp4Box.HANDLER_VIDEO);
+                if (width == 0 && video != null) {
+                    width = video.width;
+                    height = video.height;
+                }
+            } finally {
+                CameraUtil.closeQuietly(file);
+            }
+        }
+        final long bitRate = durationMs > 0 ? sampleBytes * 8 * 1000 / durationMs : 0;
+        return new Mp4Info(durationMs, width, height, bitRate);
+    }
+
+    private static long getSampleBytes(Mp4Track track) {
+        if (track.uniformSampleSize != 0)
+            return (track.uniformSampleSize & 0xFFFFFFFFL) * track.sampleCount;
+        long bytes = 0;
+        for (int i = 0; i < track.sampleCount; i++)
+            bytes += track.getSampleSize(i) & 0xFFFFFFFFL;
+        return bytes;
+    }
+}
@@ -0,0 +1,122 @@
+package com.afollestad.materialcamera.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The transformation matrix of a track header, which is how MP4 files store the rotation players
+ * apply to the video (MediaRecorder's orientation hint). Only multiples of 90 degrees are written.
+ * The matrix has a fixed size and place in tkhd, so the rotation of a finished file can be changed
+ * by overwriting it where it is.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class Mp4Matrix {
+
+    private static final int ONE = 0x10000;
+    private static final int MINUS_ONE = 0xFFFF0000;
+    // 2.30 fixed point.
+    private static final int W = 0x40000000;
+    private static final int SIZE = 9 * 4;
+
+    private Mp4Matrix() {
+    }
+
+    /**
+     * @return the nine matrix fields in file order (a, b, u, c, d, v, x, y, w), as MediaRecorder
+     * writes them for the rotation.
+     */
+    public static int[] forRotation(@Degrees.DegreeUnits int degrees) throws IOException {
+        switch (Degrees.naturalize(degrees)) {
+            case Degrees.DEGREES_0:
+                return new int[]{ONE, 0, 0, 0, ONE, 0, 0, 0, W};
+            case Degrees.DEGREES_90:
+                return new int[]{0, ONE, 0, MINUS_ONE, 0, 0, 0, 0, W};
+            case Degrees.DEGREES_180:
+                return new int[]{MINUS_ONE, 0, 0, 0, MINUS_ONE, 0, 0, 0, W};
+            case Degrees.DEGREES_270:
+                return new int[]{0, MINUS_ONE, 0, ONE, 0, 0, 0, 0, W};
+        }
+        throw new IOException("Rotation " + degrees + " isn't a multiple of 90 degrees.");
+    }
+
+    public static void write(Mp4Output out, @Degrees.DegreeUnits int degrees) throws IOException {
+        for (int field : forRotation(degrees))
+            out.putInt(field);
+    }
+
+    /**
+     * @return the rotation of the file's video, or -1 if its matrix does more than rotate it by a
+     * multiple of 90 degrees, e.g. mirror it.
+     */
+    public static int readRotation(File file) throws IOException {
+        final Mp4File mp4 = Mp4File.open(file);
+        try {
+            final Mp4Track video = mp4.findTrack(Mp4Box.HANDLER_VIDEO);
+            if (video == null)
+                throw new IOException(file + " has no video track.");
+            final long matrix = getOffset(mp4, video);
+            for (int degrees = 0; degrees < 360; degrees += 90) {
+                final int[] fields = forRotation(degrees);
+                boolean matches = true;
+                // The translation doesn't matter to players, only the 2x2 part.
+                for (int i : new int[]{0, 1, 3, 4})
+                    matches &= mp4.getInt(matrix + i * 4) == fields[i];
+                if (matches) return degrees;
+            }
+            return -1;
+        } finally {
+            CameraUtil.closeQuietly(mp4);
+        }
+    }
+
+    /**
+     * Replaces the matrix of every video track in file, writing 36 bytes per track and nothing
+     * else.
+     */
+    public static void writeRotation(File file, @Degrees.DegreeUnits int degrees) throws IOException {
+        final ByteBuffer matrix = ByteBuffer.allocate(SIZE);
+        for (int field : forRotation(degrees))
+            matrix.putInt(field);
+
+        final List<Long> offsets = new ArrayList<>();
+        final Mp4File mp4 = Mp4File.open(file);
+        try {
+            for (Mp4Track track : mp4.tracks) {
+                if (track.isVideo())
+                    offsets.add(getOffset(mp4, track));
+            }
+        } finally {
+            CameraUtil.closeQuietly(mp4);
+        }
+        if (offsets.isEmpty())
+            throw new IOException(file + " has no video track.");
+
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            final FileChannel channel = randomAccessFile.getChannel();
+            for (long offset : offsets) {
+                matrix.rewind();
+                while (matrix.hasRemaining())
+                    channel.write(matrix, offset + matrix.position());
+            }
+        } finally {
+            CameraUtil.closeQuietly(randomAccessFile);
+        }
+    }
+
+    // Where the matrix of a track's header is in the file.
+    private static long getOffset(Mp4File file, Mp4Track track) throws IOException {
+        final boolean version1 = file.getByte(track.tkhd.getDataOffset()) == 1;
+        // Times, track ID and duration, then layer, alternate group, volume and reserved fields.
+        final int offset = (version1 ? 36 : 24) + 16;
+        if (track.tkhd.getDataSize() < offset + SIZE + 8)
+            throw Mp4Box.malformed("tkhd box of track " + track.trackId + " is truncated");
+        return track.tkhd.getDataOffset() + offset;
+    }
+}
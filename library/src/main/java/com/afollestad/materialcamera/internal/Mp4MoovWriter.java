@@ -0,0 +1,124 @@
+package com.afollestad.materialcamera.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes a moov box for new sample tables, taking everything else from a template file's moov:
+ * the boxes on the way down to each track's stbl are rebuilt with the new durations, every other
+ * box is copied as is. Edit lists are dropped, they'd refer to the template's timeline.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class Mp4MoovWriter {
+
+    interface Tables {
+
+        /**
+         * @return the duration of the template's track'th track, in the track's timescale.
+         */
+        long getMediaDuration(int track);
+
+        /**
+         * Writes the sample table boxes of the template's track'th track, everything in stbl but stsd.
+         */
+        void write(Mp4Output out, int track) throws IOException;
+    }
+
+    private Mp4MoovWriter() {
+    }
+
+    public static void write(Mp4Output out, Mp4File template, Tables tables) throws IOException {
+        long movieDuration = 0;
+        final long[] trackDurations = new long[template.tracks.size()];
+        for (int i = 0; i < trackDurations.length; i++) {
+            final Mp4Track track = template.tracks.get(i);
+            trackDurations[i] = scale(tables.getMediaDuration(i), track.timescale, template.timescale);
+            movieDuration = Math.max(movieDuration, trackDurations[i]);
+        }
+
+        final long moov = out.beginBox(Mp4Box.MOOV);
+        int track = 0;
+        for (Mp4Box box : template.moovChildren) {
+            if (box.type == Mp4Box.MVHD) {
+                writeWithDuration(out, template, box, 16, movieDuration);
+            } else if (box.type == Mp4Box.TRAK) {
+                writeTrak(out, template.tracks.get(track), tables, track, trackDurations[track]);
+                track++;
+            } else {
+                out.put(template.slice(box));
+            }
+        }
+        out.endBox(moov);
+    }
+
+    private static void writeTrak(Mp4Output out, Mp4Track track, Tables tables, int index,
+                                  long movieDuration) throws IOException {
+        final Mp4File file = track.file;
+        final long trak = out.beginBox(Mp4Box.TRAK);
+        for (Mp4Box box : file.readChildren(track.trak)) {
+            if (box.type == Mp4Box.TKHD) {
+                writeWithDuration(out, file, box, 20, movieDuration);
+            } else if (box.type == Mp4Box.MDIA) {
+                final long mdia = out.beginBox(Mp4Box.MDIA);
+                for (Mp4Box mdiaChild : file.readChildren(box)) {
+                    if (mdiaChild.type == Mp4Box.MDHD) {
+                        writeWithDuration(out, file, mdiaChild, 16, tables.getMediaDuration(index));
+                    } else if (mdiaChild.type == Mp4Box.MINF) {
+                        final long minf = out.beginBox(Mp4Box.MINF);
+                        for (Mp4Box minfChild : file.readChildren(mdiaChild)) {
+                            if (minfChild.type == Mp4Box.STBL) {
+                                final long stbl = out.beginBox(Mp4Box.STBL);
+                                out.put(file.slice(track.stsd));
+                                tables.write(out, index);
+                                out.endBox(stbl);
+                            } else {
+                                out.put(file.slice(minfChild));
+                            }
+                        }
+                        out.endBox(minf);
+                    } else {
+                        out.put(file.slice(mdiaChild));
+                    }
+                }
+                out.endBox(mdia);
+            } else if (box.type != Mp4Box.EDTS) {
+                out.put(file.slice(box));
+            }
+        }
+        out.endBox(trak);
+    }
+
+    /**
+     * Copies a full box with a duration field (mvhd, tkhd or mdhd), replacing the duration.
+     *
+     * @param version0Offset Where the duration is in a version 0 box, relative to its data. It's
+     *                       8 bytes further in version 1 boxes, past the 64 bit creation and
+     *                       modification times.
+     */
+    private static void writeWithDuration(Mp4Output out, Mp4File file, Mp4Box box, int version0Offset,
+                                          long duration) throws IOException {
+        final boolean version1 = file.getByte(box.getDataOffset()) == 1;
+        final long field = box.getDataOffset() + (version1 ? version0Offset + 8 : version0Offset);
+        final ByteBuffer slice = file.slice(box);
+        final int limit = slice.limit();
+        slice.limit(slice.position() + (int) (field - box.offset));
+        out.put(slice);
+        if (version1) {
+            out.putLong(duration);
+        } else {
+            out.putUnsignedInt(duration);
+        }
+        slice.limit(limit);
+        slice.position(slice.position() + (version1 ? 8 : 4));
+        out.put(slice);
+    }
+
+    /**
+     * @return value in timescale units converted to newTimescale units, rounded.
+     */
+    static long scale(long value, long timescale, long newTimescale) {
+        if (timescale == newTimescale) return value;
+        return (value * newTimescale + timescale / 2) / timescale;
+    }
+}
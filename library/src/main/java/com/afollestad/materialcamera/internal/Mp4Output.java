@@ -0,0 +1,136 @@
+package com.afollestad.materialcamera.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes MP4 boxes to a file through one fixed size buffer. Box sizes are filled in once the box is
+ * finished (see {@link #beginBox}), and media data is copied between files with
+ * {@link FileChannel#transferTo} so it never passes through the heap.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class Mp4Output {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    // Where the buffer's first byte goes in the file.
+    private long mBufferOffset;
+
+    Mp4Output(FileChannel channel, long position) {
+        mChannel = channel;
+        mBufferOffset = position;
+    }
+
+    public long position() {
+        return mBufferOffset + mBuffer.position();
+    }
+
+    public void putInt(int value) throws IOException {
+        ensure(4);
+        mBuffer.putInt(value);
+    }
+
+    public void putLong(long value) throws IOException {
+        ensure(8);
+        mBuffer.putLong(value);
+    }
+
+    /**
+     * Writes what's remaining of src, advancing its position.
+     */
+    public void put(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            ensure(1);
+            final int count = Math.min(src.remaining(), mBuffer.remaining());
+            final int limit = src.limit();
+            src.limit(src.position() + count);
+            mBuffer.put(src);
+            src.limit(limit);
+        }
+    }
+
+    /**
+     * Writes a 32 bit value, failing instead of overflowing.
+     */
+    public void putUnsignedInt(long value) throws IOException {
+        if (value < 0 || value > 0xFFFFFFFFL)
+            throw new IOException("Value " + value + " doesn't fit the MP4 field.");
+        putInt((int) value);
+    }
+
+    /**
+     * Starts a box whose size is filled in by {@link #endBox(long)}.
+     *
+     * @return the box's offset, to pass to endBox().
+     */
+    public long beginBox(int type) throws IOException {
+        final long offset = position();
+        putInt(0);
+        putInt(type);
+        return offset;
+    }
+
+    public void endBox(long offset) throws IOException {
+        final long size = position() - offset;
+        if (size > 0xFFFFFFFFL)
+            throw new IOException("Box at " + offset + " is too large.");
+        if (offset >= mBufferOffset) {
+            mBuffer.putInt((int) (offset - mBufferOffset), (int) size);
+        } else {
+            final ByteBuffer field = ByteBuffer.allocate(4);
+            field.putInt(0, (int) size);
+            writeFully(field, offset);
+        }
+    }
+
+    /**
+     * Writes the header of a box with dataSize bytes of data to follow, with a 64 bit size if needed.
+     */
+    public void putBoxHeader(int type, long dataSize) throws IOException {
+        if (dataSize + 8 <= 0xFFFFFFFFL) {
+            putInt((int) (dataSize + 8));
+            putInt(type);
+        } else {
+            putInt(1);
+            putInt(type);
+            putLong(dataSize + 16);
+        }
+    }
+
+    /**
+     * Copies count bytes of src from position on.
+     */
+    public void transferFrom(FileChannel src, long position, long count) throws IOException {
+        flush();
+        long done = 0;
+        while (done < count) {
+            mChannel.position(mBufferOffset + done);
+            final long transferred = src.transferTo(position + done, count - done, mChannel);
+            if (transferred <= 0)
+                throw new IOException("The input ended " + (count - done) + " bytes early.");
+            done += transferred;
+        }
+        mBufferOffset += count;
+    }
+
+    public void flush() throws IOException {
+        mBuffer.flip();
+        writeFully(mBuffer, mBufferOffset);
+        mBufferOffset += mBuffer.limit();
+        mBuffer.clear();
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (mBuffer.remaining() < bytes)
+            flush();
+    }
+
+    private void writeFully(ByteBuffer src, long offset) throws IOException {
+        while (src.hasRemaining())
+            offset += mChannel.write(src, offset);
+    }
+}
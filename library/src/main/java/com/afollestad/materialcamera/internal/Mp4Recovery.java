@@ -0,0 +1,567 @@
+package com.afollestad.materialcamera.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Makes a recording that was cut off before MediaRecorder wrote its moov box (the app died, or the
+ * camera failed mid-recording) playable again. MediaRecorder writes H.264 and HEVC frames into mdat
+ * as length prefixed NAL units, so the frames can be found again by walking those lengths, in one
+ * pass over the file through a small buffer. What was found goes to a temporary file instead of the
+ * heap, and becomes a new moov box at the end of the last complete frame.
+ * <p>
+ * Only video comes back: AAC frames have no length or sync marker to find them by. Frames are
+ * given a constant frame rate, and the codec configuration (the sample description) has to come
+ * from a finished recording made with the same encoder and size.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class Mp4Recovery {
+
+    public static final int TIMESCALE = 90000;
+
+    private static final int AVC1 = Mp4Box.type("avc1");
+    private static final int HVC1 = Mp4Box.type("hvc1");
+    private static final int HEV1 = Mp4Box.type("hev1");
+
+    // How many NAL units in a row it takes to trust that video starts somewhere.
+    private static final int RUN_LENGTH = 3;
+    private static final long MIN_NAL_SIZE_LIMIT = 1024 * 1024;
+    private static final int WINDOW_SIZE = 64 * 1024;
+    // Offset, size and whether it's a sync sample.
+    private static final int RECORD_SIZE = 13;
+
+    private final Window mScan;
+    private final Window mProbe;
+    private final long mEnd;
+    private final boolean mHevc;
+    private final int mHeaderSize;
+    private final long mMaxNalSize;
+    private final DataOutputStream mRecords;
+
+    private int mFrameCount;
+    private int mSyncFrameCount;
+    private long mDataEnd;
+
+    // The frame being put together, if mFrameStart isn't -1.
+    private long mFrameStart = -1;
+    private long mFrameEnd;
+    private boolean mFrameHasSlice;
+    private boolean mFrameIsSync;
+
+    private Mp4Recovery(FileChannel channel, long end, boolean hevc, long maxNalSize, DataOutputStream records) {
+        mScan = new Window(channel, end);
+        mProbe = new Window(channel, end);
+        mEnd = end;
+        mHevc = hevc;
+        mHeaderSize = hevc ? 2 : 1;
+        mMaxNalSize = maxNalSize;
+        mRecords = records;
+    }
+
+    /**
+     * @return the mdat box MediaRecorder was writing to when it stopped, reaching to the end of the
+     * file, or null if the file was finished or has no media data.
+     */
+    public static Mp4Box findUnfinishedMediaData(File file) throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            return findMediaData(randomAccessFile.getChannel(), true);
+        } finally {
+            CameraUtil.closeQuietly(randomAccessFile);
+        }
+    }
+
+    /**
+     * @return whether the file has an mdat box with anything in it, finished or not.
+     */
+    public static boolean hasMediaData(File file) throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            return findMediaData(randomAccessFile.getChannel(), false) != null;
+        } finally {
+            CameraUtil.closeQuietly(randomAccessFile);
+        }
+    }
+
+    /**
+     * @param unfinished Whether to give up on finding one once a moov box shows the file was
+     *                   finished.
+     */
+    private static Mp4Box findMediaData(FileChannel channel, boolean unfinished) throws IOException {
+        final long length = channel.size();
+        final ByteBuffer header = ByteBuffer.allocate(16);
+        Mp4Box mdat = null;
+        long offset = 0;
+        while (length - offset >= 8) {
+            header.clear();
+            while (header.hasRemaining()) {
+                if (channel.read(header, offset + header.position()) < 0)
+                    break;
+            }
+            long size = header.getInt(0) & 0xFFFFFFFFL;
+            final int type = header.getInt(4);
+            int headerSize = 8;
+            if (size == 1) {
+                size = header.position() == 16 ? header.getLong(8) : 0;
+                headerSize = 16;
+            }
+            if (size < headerSize || offset + size > length) {
+                // MediaRecorder fills in the size of mdat when it stops. Anything else this broken
+                // is a moov box that was being written after it.
+                if (type == Mp4Box.MDAT && offset + headerSize <= length)
+                    return new Mp4Box(Mp4Box.MDAT, offset, length - offset, headerSize);
+                break;
+            }
+            if (type == Mp4Box.MOOV && unfinished) return null;
+            if (type == Mp4Box.MDAT)
+                mdat = new Mp4Box(Mp4Box.MDAT, offset, size, headerSize);
+            offset += size;
+        }
+        return mdat != null && mdat.getDataSize() > 0 ? mdat : null;
+    }
+
+    /**
+     * @return the video track's stsd box, to recover later recordings with, or null if there's no
+     * video track.
+     */
+    public static ByteBuffer readSampleDescription(Mp4File file) {
+        final Mp4Track video = file.findTrack(Mp4Box.HANDLER_VIDEO);
+        if (video == null) return null;
+        final ByteBuffer slice = file.slice(video.stsd);
+        final ByteBuffer copy = ByteBuffer.allocate(slice.remaining());
+        copy.put(slice);
+        copy.flip();
+        return copy;
+    }
+
+    /**
+     * @return the sample entry type and size of a sample description, e.g. "avc1_1920x1080"; what
+     * recordings have to share to be recovered with it.
+     */
+    public static String getSampleDescriptionName(ByteBuffer stsd) throws IOException {
+        final int entry = getEntry(stsd);
+        return Mp4Box.typeName(stsd.getInt(entry + 4)) + "_" + (stsd.getShort(entry + 32) & 0xFFFF) +
+                "x" + (stsd.getShort(entry + 34) & 0xFFFF);
+    }
+
+    // Where the first sample entry of an stsd box starts; sample descriptions always have one.
+    private static int getEntry(ByteBuffer stsd) throws IOException {
+        final int start = stsd.position();
+        if (stsd.remaining() < 16 + 36 || stsd.getInt(start + 4) != Mp4Box.STSD ||
+                (stsd.getInt(start) & 0xFFFFFFFFL) != stsd.remaining() || stsd.getInt(start + 12) < 1)
+            throw Mp4Box.malformed("invalid sample description");
+        final int type = stsd.getInt(start + 20);
+        if (type != AVC1 && type != HVC1 && type != HEV1)
+            throw new IOException("Can't recover " + Mp4Box.typeName(type) + " video.");
+        return start + 16;
+    }
+
+    /**
+     * Scans file for video frames, and writes the sample tables for them where the last complete
+     * frame ends, making it a video only MP4 file. Whatever came after that is cut off.
+     *
+     * @param sampleDescription An stsd box from {@link #readSampleDescription(Mp4File)}.
+     * @param rotation          The orientation hint the recording was made with.
+     * @param bitRate           The video bit rate the recording was made with, which limits how
+     *                          large a NAL unit can get before the scan stops believing in it.
+     * @return the number of frames recovered.
+     */
+    public static int recover(File file, ByteBuffer sampleDescription, int frameRate,
+                              @Degrees.DegreeUnits int rotation, int bitRate) throws IOException {
+        final int entry = getEntry(sampleDescription);
+        final boolean hevc = sampleDescription.getInt(entry + 4) != AVC1;
+        final File records = new File(file.getAbsoluteFile().getParentFile(), "recovery_" + file.getName());
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            final FileChannel channel = randomAccessFile.getChannel();
+            final Mp4Box mdat = findMediaData(channel, true);
+            if (mdat == null)
+                throw new IOException(file + " has no unfinished media data.");
+
+            final Mp4Recovery recovery = new Mp4Recovery(channel, mdat.getEnd(), hevc,
+                    Math.max(MIN_NAL_SIZE_LIMIT, bitRate / 8), new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(records), WINDOW_SIZE)));
+            try {
+                recovery.scan(mdat.getDataOffset());
+            } finally {
+                recovery.mRecords.close();
+            }
+            if (recovery.mFrameCount == 0)
+                throw new IOException("No complete video frames in " + file);
+
+            final Mp4Output out = new Mp4Output(channel, recovery.mDataEnd);
+            recovery.writeMoov(out, sampleDescription, entry, records, frameRate > 0 ? frameRate : 30, rotation);
+            out.flush();
+            channel.truncate(out.position());
+
+            // Last, so the file still looks unfinished if this is interrupted.
+            final long mdatSize = recovery.mDataEnd - mdat.offset;
+            final ByteBuffer size = ByteBuffer.allocate(8);
+            if (mdat.headerSize == 16) {
+                size.putLong(0, mdatSize);
+                writeFully(channel, size, mdat.offset + 8);
+            } else {
+                if (mdatSize > 0xFFFFFFFFL)
+                    throw new IOException("The mdat box of " + file + " is too large for its header.");
+                size.putInt(0, (int) mdatSize);
+                size.limit(4);
+                writeFully(channel, size, mdat.offset);
+            }
+            return recovery.mFrameCount;
+        } finally {
+            CameraUtil.closeQuietly(randomAccessFile);
+            //noinspection ResultOfMethodCallIgnored
+            records.delete();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer src, long offset) throws IOException {
+        while (src.hasRemaining())
+            offset += channel.write(src, offset);
+    }
+
+    private void scan(long start) throws IOException {
+        long position = start;
+        // The last NAL unit of the previous run, which nothing valid followed.
+        long tail = -1;
+        int tailLength = 0;
+        while (true) {
+            final long run = findRun(position);
+            if (tail != -1) {
+                // That's how video chunks end, audio comes next. But it's also what a NAL unit made
+                // up of the audio right after one looks like, and its length would have skipped
+                // the start of the next run.
+                if (run == -1 || run >= tail + 4 + tailLength)
+                    addNal(tail, tailLength);
+                finishFrame();
+                tail = -1;
+            }
+            if (run == -1) return;
+
+            long nal = run;
+            int length = readNalLength(mScan, nal);
+            while (true) {
+                final long next = nal + 4 + length;
+                if (next == mEnd) {
+                    addNal(nal, length);
+                    finishFrame();
+                    return;
+                }
+                final int nextLength = readNalLength(mProbe, next);
+                if (nextLength == -1) {
+                    tail = nal;
+                    tailLength = length;
+                    position = nal + 1;
+                    break;
+                }
+                addNal(nal, length);
+                nal = next;
+                length = nextLength;
+            }
+        }
+    }
+
+    // The first position from start on where RUN_LENGTH NAL units follow each other, or -1.
+    private long findRun(long start) throws IOException {
+        for (long position = start; position < mEnd; position++) {
+            long nal = position;
+            int units = 0;
+            while (units < RUN_LENGTH) {
+                final int length = readNalLength(units == 0 ? mScan : mProbe, nal);
+                if (length == -1) break;
+                units++;
+                nal += 4 + length;
+                if (nal == mEnd) {
+                    units = RUN_LENGTH;
+                    break;
+                }
+            }
+            if (units == RUN_LENGTH) return position;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the length of the NAL unit at position, or -1 if there's none that fits the file.
+     */
+    private int readNalLength(Window window, long position) throws IOException {
+        if (!window.load(position, 4 + mHeaderSize + 1)) return -1;
+        final long length = window.getInt(position) & 0xFFFFFFFFL;
+        if (length <= mHeaderSize || length > mMaxNalSize || position + 4 + length > mEnd)
+            return -1;
+        final int type = getNalType(window, position);
+        if (type == -1) return -1;
+        if (mHevc) {
+            final int layerAndTemporalId = window.get(position + 5);
+            // A base layer unit, with a temporal ID of at least one.
+            if (((window.get(position + 4) & 1) << 5 | layerAndTemporalId >> 3) != 0 ||
+                    (layerAndTemporalId & 7) == 0)
+                return -1;
+            if (type > 21 && type < 32 || type > 35 && type != 39 && type != 40 || type > 9 && type < 16)
+                return -1;
+        } else {
+            final int refIdc = window.get(position + 4) >> 5 & 3;
+            switch (type) {
+                case 1:
+                    break;
+                case 5:
+                case 7:
+                case 8:
+                    if (refIdc == 0) return -1;
+                    break;
+                case 6:
+                case 9:
+                    if (refIdc != 0) return -1;
+                    break;
+                default:
+                    return -1;
+            }
+        }
+        return (int) length;
+    }
+
+    // -1 if the forbidden bit is set.
+    private int getNalType(Window window, long position) {
+        final int header = window.get(position + 4);
+        if ((header & 0x80) != 0) return -1;
+        return mHevc ? header >> 1 & 0x3F : header & 0x1F;
+    }
+
+    private void addNal(long position, int length) throws IOException {
+        mScan.load(position, 4 + mHeaderSize + 1);
+        final int type = getNalType(mScan, position);
+        final boolean slice = mHevc ? type < 32 : type == 1 || type == 5;
+        final boolean startsFrame;
+        if (slice) {
+            // first_mb_in_slice is 0, or first_slice_segment_in_pic_flag is set.
+            startsFrame = (mScan.get(position + 4 + mHeaderSize) & 0x80) != 0;
+        } else {
+            // Parameter sets, delimiters and SEI come before the slices, except suffix SEI.
+            startsFrame = type != 40 || !mHevc;
+        }
+        if (startsFrame && mFrameHasSlice)
+            finishFrame();
+        if (mFrameStart == -1)
+            mFrameStart = position;
+        mFrameEnd = position + 4 + length;
+        if (slice) {
+            mFrameHasSlice = true;
+            if (mHevc ? type >= 16 && type <= 21 : type == 5)
+                mFrameIsSync = true;
+        }
+    }
+
+    private void finishFrame() throws IOException {
+        // Playback has to start at a sync frame.
+        if (mFrameStart != -1 && mFrameHasSlice && (mFrameIsSync || mFrameCount > 0)) {
+            mRecords.writeLong(mFrameStart);
+            mRecords.writeInt((int) (mFrameEnd - mFrameStart));
+            mRecords.writeBoolean(mFrameIsSync);
+            mFrameCount++;
+            if (mFrameIsSync) mSyncFrameCount++;
+            mDataEnd = mFrameEnd;
+        }
+        mFrameStart = -1;
+        mFrameHasSlice = false;
+        mFrameIsSync = false;
+    }
+
+    private void writeMoov(Mp4Output out, ByteBuffer stsd, int entry, File records, int frameRate,
+                           int rotation) throws IOException {
+        final int width = stsd.getShort(entry + 32) & 0xFFFF;
+        final int height = stsd.getShort(entry + 34) & 0xFFFF;
+        final int delta = Math.round((float) TIMESCALE / frameRate);
+        final long mediaDuration = (long) mFrameCount * delta;
+        final long durationMs = Mp4MoovWriter.scale(mediaDuration, TIMESCALE, 1000);
+
+        final long moov = out.beginBox(Mp4Box.MOOV);
+        final long mvhd = beginFullBox(out, Mp4Box.MVHD, 0);
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(1000);
+        out.putUnsignedInt(durationMs);
+        out.putInt(0x10000);
+        out.putInt(0x01000000);
+        out.putLong(0);
+        Mp4Matrix.write(out, Degrees.DEGREES_0);
+        for (int i = 0; i < 6; i++)
+            out.putInt(0);
+        out.putInt(2);
+        out.endBox(mvhd);
+
+        final long trak = out.beginBox(Mp4Box.TRAK);
+        final long tkhd = beginFullBox(out, Mp4Box.TKHD, 7);
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(1);
+        out.putInt(0);
+        out.putUnsignedInt(durationMs);
+        out.putLong(0);
+        out.putInt(0);
+        out.putInt(0);
+        Mp4Matrix.write(out, rotation);
+        out.putInt(width << 16);
+        out.putInt(height << 16);
+        out.endBox(tkhd);
+
+        final long mdia = out.beginBox(Mp4Box.MDIA);
+        final long mdhd = beginFullBox(out, Mp4Box.MDHD, 0);
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(TIMESCALE);
+        out.putUnsignedInt(mediaDuration);
+        // "und" language.
+        out.putInt(0x55c40000);
+        out.endBox(mdhd);
+        final long hdlr = beginFullBox(out, Mp4Box.HDLR, 0);
+        out.putInt(0);
+        out.putInt(Mp4Box.HANDLER_VIDEO);
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(0);
+        out.endBox(hdlr);
+
+        final long minf = out.beginBox(Mp4Box.MINF);
+        final long vmhd = beginFullBox(out, Mp4Box.type("vmhd"), 1);
+        out.putLong(0);
+        out.endBox(vmhd);
+        final long dinf = out.beginBox(Mp4Box.type("dinf"));
+        final long dref = beginFullBox(out, Mp4Box.type("dref"), 0);
+        out.putInt(1);
+        out.endBox(beginFullBox(out, Mp4Box.type("url "), 1));
+        out.endBox(dref);
+        out.endBox(dinf);
+
+        final long stbl = out.beginBox(Mp4Box.STBL);
+        out.put(stsd.duplicate());
+
+        final long stts = beginFullBox(out, Mp4Box.STTS, 0);
+        out.putInt(1);
+        out.putInt(mFrameCount);
+        out.putInt(delta);
+        out.endBox(stts);
+
+        if (mSyncFrameCount < mFrameCount) {
+            final long stss = beginFullBox(out, Mp4Box.STSS, 0);
+            out.putInt(mSyncFrameCount);
+            final DataInputStream in = openRecords(records);
+            try {
+                for (int i = 0; i < mFrameCount; i++) {
+                    in.skipBytes(RECORD_SIZE - 1);
+                    if (in.readBoolean())
+                        out.putInt(i + 1);
+                }
+            } finally {
+                in.close();
+            }
+            out.endBox(stss);
+        }
+
+        // A chunk per frame; there's no telling how MediaRecorder grouped them.
+        final long stsc = beginFullBox(out, Mp4Box.STSC, 0);
+        out.putInt(1);
+        out.putInt(1);
+        out.putInt(1);
+        out.putInt(1);
+        out.endBox(stsc);
+
+        final long stsz = beginFullBox(out, Mp4Box.STSZ, 0);
+        out.putInt(0);
+        out.putInt(mFrameCount);
+        DataInputStream in = openRecords(records);
+        try {
+            for (int i = 0; i < mFrameCount; i++) {
+                in.skipBytes(8);
+                out.putInt(in.readInt());
+                in.skipBytes(1);
+            }
+        } finally {
+            in.close();
+        }
+        out.endBox(stsz);
+
+        final boolean largeChunkOffsets = mDataEnd > 0xFFFFFFFFL;
+        final long chunkOffsets = beginFullBox(out, largeChunkOffsets ? Mp4Box.CO64 : Mp4Box.STCO, 0);
+        out.putInt(mFrameCount);
+        in = openRecords(records);
+        try {
+            for (int i = 0; i < mFrameCount; i++) {
+                final long offset = in.readLong();
+                if (largeChunkOffsets) out.putLong(offset);
+                else out.putUnsignedInt(offset);
+                in.skipBytes(RECORD_SIZE - 8);
+            }
+        } finally {
+            in.close();
+        }
+        out.endBox(chunkOffsets);
+
+        out.endBox(stbl);
+        out.endBox(minf);
+        out.endBox(mdia);
+        out.endBox(trak);
+        out.endBox(moov);
+    }
+
+    private static DataInputStream openRecords(File records) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(records), WINDOW_SIZE));
+    }
+
+    private static long beginFullBox(Mp4Output out, int type, int flags) throws IOException {
+        final long box = out.beginBox(type);
+        out.putInt(flags);
+        return box;
+    }
+
+    // A part of the file in memory; scanning goes forward, so it's refilled from where it's needed.
+    private static final class Window {
+
+        private final FileChannel mChannel;
+        private final long mEnd;
+        private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(WINDOW_SIZE);
+        private long mStart = -1;
+
+        Window(FileChannel channel, long end) {
+            mChannel = channel;
+            mEnd = end;
+        }
+
+        /**
+         * @return false if the file ends before position + count.
+         */
+        boolean load(long position, int count) throws IOException {
+            if (position + count > mEnd) return false;
+            if (mStart != -1 && position >= mStart && position + count <= mStart + mBuffer.limit())
+                return true;
+            mBuffer.clear();
+            mBuffer.limit((int) Math.min(WINDOW_SIZE, mEnd - position));
+            while (mBuffer.hasRemaining()) {
+                if (mChannel.read(mBuffer, position + mBuffer.position()) < 0)
+                    throw new IOException("The file ended at " + (position + mBuffer.position()));
+            }
+            mBuffer.flip();
+            mStart = position;
+            return true;
+        }
+
+        int get(long position) {
+            return mBuffer.get((int) (position - mStart)) & 0xFF;
+        }
+
+        int getInt(long position) {
+            return mBuffer.getInt((int) (position - mStart));
+        }
+    }
+}
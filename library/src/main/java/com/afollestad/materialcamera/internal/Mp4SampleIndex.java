@@ -0,0 +1,176 @@
+package com.afollestad.materialcamera.internal;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Where each sample of an {@link Mp4Track} is and when it plays, resolved from the sample tables
+ * into primitive arrays once, so lookups don't have to walk stsc and stts again. Takes 20 bytes
+ * per sample, 24 with composition offsets, plus 4 per sync sample; it's built only if that fits
+ * the given heap budget, however long the recording is.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class Mp4SampleIndex {
+
+    public static final int DEFAULT_HEAP_BUDGET = 8 * 1024 * 1024;
+
+    public final int timescale;
+    public final int sampleCount;
+
+    private final long[] mOffsets;
+    private final int[] mSizes;
+    private final long[] mDecodeTimes;
+    // Null without a ctts box, they're all 0 then.
+    private final int[] mCompositionOffsets;
+    // 0-based and ascending, null if every sample is a sync sample.
+    private final int[] mSyncSamples;
+
+    private Mp4SampleIndex(Mp4Track track) throws IOException {
+        timescale = track.timescale;
+        sampleCount = track.sampleCount;
+        mOffsets = new long[sampleCount];
+        mSizes = new int[sampleCount];
+        mDecodeTimes = new long[sampleCount];
+        mCompositionOffsets = track.ctts != null ? new int[sampleCount] : null;
+        mSyncSamples = track.stss != null ? new int[track.syncSampleCount] : null;
+
+        // stsc runs of chunks with the same sample count, each chunk's samples back to back.
+        int sample = 0;
+        for (int entry = 0; entry < track.stscEntryCount; entry++) {
+            final int firstChunk = track.getStscFirstChunk(entry) - 1;
+            final int endChunk = entry + 1 < track.stscEntryCount ?
+                    track.getStscFirstChunk(entry + 1) - 1 : track.chunkCount;
+            final int samplesPerChunk = track.getStscSamplesPerChunk(entry);
+            if (firstChunk < 0 || endChunk > track.chunkCount || firstChunk > endChunk)
+                throw Mp4Box.malformed("stsc entry " + entry + " is out of order");
+            for (int chunk = firstChunk; chunk < endChunk; chunk++) {
+                long offset = track.getChunkOffset(chunk);
+                if (samplesPerChunk < 0 || samplesPerChunk > sampleCount - sample)
+                    throw Mp4Box.malformed("stsc has more samples than stsz");
+                for (int i = 0; i < samplesPerChunk; i++) {
+                    mOffsets[sample] = offset;
+                    mSizes[sample] = track.getSampleSize(sample);
+                    offset += mSizes[sample] & 0xFFFFFFFFL;
+                    sample++;
+                }
+            }
+        }
+        if (sample != sampleCount)
+            throw Mp4Box.malformed("stsc has " + sample + " samples, stsz " + sampleCount);
+
+        sample = 0;
+        long time = 0;
+        for (int entry = 0; entry < track.sttsEntryCount && sample < sampleCount; entry++) {
+            final long delta = track.getSttsDelta(entry) & 0xFFFFFFFFL;
+            final int count = (int) Math.min(track.getSttsSampleCount(entry) & 0xFFFFFFFFL, sampleCount - sample);
+            for (int i = 0; i < count; i++) {
+                mDecodeTimes[sample++] = time;
+                time += delta;
+            }
+        }
+        if (sample != sampleCount)
+            throw Mp4Box.malformed("stts has " + sample + " samples, stsz " + sampleCount);
+
+        if (mCompositionOffsets != null) {
+            sample = 0;
+            for (int entry = 0; entry < track.cttsEntryCount && sample < sampleCount; entry++) {
+                final int offset = track.getCttsOffset(entry);
+                final int count = (int) Math.min(track.getCttsSampleCount(entry) & 0xFFFFFFFFL, sampleCount - sample);
+                Arrays.fill(mCompositionOffsets, sample, sample + count, offset);
+                sample += count;
+            }
+        }
+
+        if (mSyncSamples != null) {
+            int previous = -1;
+            for (int i = 0; i < mSyncSamples.length; i++) {
+                mSyncSamples[i] = track.getSyncSample(i) - 1;
+                if (mSyncSamples[i] <= previous || mSyncSamples[i] >= sampleCount)
+                    throw Mp4Box.malformed("stss entry " + i + " is out of order");
+                previous = mSyncSamples[i];
+            }
+        }
+    }
+
+    /**
+     * @throws IOException if the track's tables are inconsistent, or the index would take more
+     *                     than heapBudget bytes.
+     */
+    public static Mp4SampleIndex build(Mp4Track track, long heapBudget) throws IOException {
+        final long bytes = getHeapSize(track);
+        if (bytes > heapBudget)
+            throw new IOException("Indexing track " + track.trackId + " takes " + bytes +
+                    " bytes, more than the budget of " + heapBudget);
+        return new Mp4SampleIndex(track);
+    }
+
+    /**
+     * @return how many bytes the arrays of the track's index take.
+     */
+    public static long getHeapSize(Mp4Track track) {
+        final long perSample = 20 + (track.ctts != null ? 4 : 0);
+        return perSample * track.sampleCount + (track.stss != null ? 4L * track.syncSampleCount : 0);
+    }
+
+    public long getOffset(int sample) {
+        return mOffsets[sample];
+    }
+
+    public int getSize(int sample) {
+        return mSizes[sample];
+    }
+
+    /**
+     * @return when the sample is decoded, in {@link #timescale} units.
+     */
+    public long getDecodeTime(int sample) {
+        return mDecodeTimes[sample];
+    }
+
+    /**
+     * @return when the sample is shown, in {@link #timescale} units.
+     */
+    public long getPresentationTime(int sample) {
+        return mCompositionOffsets != null ? mDecodeTimes[sample] + mCompositionOffsets[sample] :
+                mDecodeTimes[sample];
+    }
+
+    public int getCompositionOffset(int sample) {
+        return mCompositionOffsets != null ? mCompositionOffsets[sample] : 0;
+    }
+
+    public boolean hasCompositionOffsets() {
+        return mCompositionOffsets != null;
+    }
+
+    public boolean isSync(int sample) {
+        return mSyncSamples == null || Arrays.binarySearch(mSyncSamples, sample) >= 0;
+    }
+
+    /**
+     * @return the last sample decoded at or before timeUs, or 0 if timeUs is before the first.
+     */
+    public int findSample(long timeUs) {
+        final long time = Mp4MoovWriter.scale(timeUs, 1000000, timescale);
+        int low = 0;
+        int high = sampleCount - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (mDecodeTimes[mid] <= time) low = mid;
+            else high = mid - 1;
+        }
+        return low;
+    }
+
+    /**
+     * @return the last sync sample at or before sample, or the first sync sample if there's none.
+     */
+    public int findSyncSampleAtOrBefore(int sample) {
+        if (mSyncSamples == null || mSyncSamples.length == 0) return sample;
+        int index = Arrays.binarySearch(mSyncSamples, sample);
+        if (index >= 0) return mSyncSamples[index];
+        index = -index - 2;
+        return mSyncSamples[Math.max(0, index)];
+    }
+}
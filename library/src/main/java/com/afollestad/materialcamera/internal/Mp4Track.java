@@ -0,0 +1,178 @@
+package com.afollestad.materialcamera.internal;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A track of an {@link Mp4File}: its headers, and its sample tables read in place from the mapped
+ * moov box. Entries are looked up by index, nothing is copied out of the file.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class Mp4Track {
+
+    public final Mp4File file;
+    public final Mp4Box trak;
+    public final Mp4Box tkhd;
+    public final Mp4Box mdia;
+    public final Mp4Box mdhd;
+    public final Mp4Box minf;
+    public final Mp4Box stbl;
+    public final Mp4Box stsd;
+    public final Mp4Box stts;
+    public final Mp4Box ctts;
+    public final Mp4Box stss;
+    public final Mp4Box stsc;
+    public final Mp4Box stsz;
+    public final Mp4Box chunkOffsets;
+
+    public final int trackId;
+    public final int handlerType;
+    public final int timescale;
+    public final long mediaDuration;
+    public final int width;
+    public final int height;
+
+    public final int sttsEntryCount;
+    public final int cttsEntryCount;
+    public final int syncSampleCount;
+    public final int stscEntryCount;
+    public final int sampleCount;
+    /**
+     * The size of every sample, or 0 if they're listed one by one.
+     */
+    public final int uniformSampleSize;
+    public final int chunkCount;
+    public final boolean largeChunkOffsets;
+
+    Mp4Track(Mp4File file, Mp4Box trak) throws IOException {
+        this.file = file;
+        this.trak = trak;
+        final List<Mp4Box> trakChildren = file.readChildren(trak);
+        tkhd = require(trakChildren, Mp4Box.TKHD);
+        mdia = require(trakChildren, Mp4Box.MDIA);
+        final List<Mp4Box> mdiaChildren = file.readChildren(mdia);
+        mdhd = require(mdiaChildren, Mp4Box.MDHD);
+        final Mp4Box hdlr = require(mdiaChildren, Mp4Box.HDLR);
+        minf = require(mdiaChildren, Mp4Box.MINF);
+        stbl = require(file.readChildren(minf), Mp4Box.STBL);
+        final List<Mp4Box> stblChildren = file.readChildren(stbl);
+        stsd = require(stblChildren, Mp4Box.STSD);
+        stts = require(stblChildren, Mp4Box.STTS);
+        ctts = Mp4Box.find(stblChildren, Mp4Box.CTTS);
+        stss = Mp4Box.find(stblChildren, Mp4Box.STSS);
+        stsc = require(stblChildren, Mp4Box.STSC);
+        stsz = Mp4Box.find(stblChildren, Mp4Box.STSZ);
+        if (stsz == null)
+            throw Mp4Box.malformed("no stsz box, compact sample sizes aren't supported");
+        final Mp4Box stco = Mp4Box.find(stblChildren, Mp4Box.STCO);
+        chunkOffsets = stco != null ? stco : require(stblChildren, Mp4Box.CO64);
+        largeChunkOffsets = chunkOffsets.type == Mp4Box.CO64;
+
+        final boolean tkhdVersion1 = file.getByte(tkhd.getDataOffset()) == 1;
+        trackId = file.getInt(tkhd.getDataOffset() + (tkhdVersion1 ? 20 : 12));
+        // 16.16 fixed point, the last two fields.
+        width = file.getInt(tkhd.getEnd() - 8) >>> 16;
+        height = file.getInt(tkhd.getEnd() - 4) >>> 16;
+        handlerType = file.getInt(hdlr.getDataOffset() + 8);
+        final boolean mdhdVersion1 = file.getByte(mdhd.getDataOffset()) == 1;
+        timescale = file.getInt(mdhd.getDataOffset() + (mdhdVersion1 ? 20 : 12));
+        mediaDuration = mdhdVersion1 ? file.getLong(mdhd.getDataOffset() + 24) :
+                file.getUnsignedInt(mdhd.getDataOffset() + 16);
+        if (timescale <= 0)
+            throw Mp4Box.malformed("track " + trackId + " has no timescale");
+
+        sttsEntryCount = readEntryCount(stts, 8, 8);
+        cttsEntryCount = ctts != null ? readEntryCount(ctts, 8, 8) : 0;
+        syncSampleCount = stss != null ? readEntryCount(stss, 8, 4) : 0;
+        stscEntryCount = readEntryCount(stsc, 8, 12);
+        uniformSampleSize = file.getInt(stsz.getDataOffset() + 4);
+        sampleCount = readEntryCount(stsz, 12, uniformSampleSize == 0 ? 4 : 0);
+        chunkCount = readEntryCount(chunkOffsets, 8, largeChunkOffsets ? 8 : 4);
+    }
+
+    private static Mp4Box require(List<Mp4Box> boxes, int type) throws IOException {
+        final Mp4Box box = Mp4Box.find(boxes, type);
+        if (box == null)
+            throw Mp4Box.malformed("no " + Mp4Box.typeName(type) + " box");
+        return box;
+    }
+
+    // The count precedes the entries, checked against the box size so lookups stay inside it.
+    private int readEntryCount(Mp4Box box, int headerBytes, int entryBytes) throws IOException {
+        if (box.getDataSize() < headerBytes)
+            throw Mp4Box.malformed(Mp4Box.typeName(box.type) + " box is truncated");
+        final long count = file.getUnsignedInt(box.getDataOffset() + headerBytes - 4);
+        if (count > Integer.MAX_VALUE || headerBytes + count * entryBytes > box.getDataSize())
+            throw Mp4Box.malformed(Mp4Box.typeName(box.type) + " box has too many entries");
+        return (int) count;
+    }
+
+    public boolean isVideo() {
+        return handlerType == Mp4Box.HANDLER_VIDEO;
+    }
+
+    public int getSttsSampleCount(int entry) {
+        return file.getInt(stts.getDataOffset() + 8 + entry * 8L);
+    }
+
+    public int getSttsDelta(int entry) {
+        return file.getInt(stts.getDataOffset() + 12 + entry * 8L);
+    }
+
+    public int getCttsSampleCount(int entry) {
+        return file.getInt(ctts.getDataOffset() + 8 + entry * 8L);
+    }
+
+    public int getCttsOffset(int entry) {
+        return file.getInt(ctts.getDataOffset() + 12 + entry * 8L);
+    }
+
+    public int getCttsVersion() {
+        return ctts != null ? file.getByte(ctts.getDataOffset()) : 0;
+    }
+
+    /**
+     * @return the 1-based number of the entry'th sync sample.
+     */
+    public int getSyncSample(int entry) {
+        return file.getInt(stss.getDataOffset() + 8 + entry * 4L);
+    }
+
+    /**
+     * @return the 1-based number of the entry's first chunk.
+     */
+    public int getStscFirstChunk(int entry) {
+        return file.getInt(stsc.getDataOffset() + 8 + entry * 12L);
+    }
+
+    public int getStscSamplesPerChunk(int entry) {
+        return file.getInt(stsc.getDataOffset() + 12 + entry * 12L);
+    }
+
+    public int getStscDescriptionIndex(int entry) {
+        return file.getInt(stsc.getDataOffset() + 16 + entry * 12L);
+    }
+
+    public int getSampleSize(int sample) {
+        if (uniformSampleSize != 0)
+            return uniformSampleSize;
+        return file.getInt(stsz.getDataOffset() + 12 + sample * 4L);
+    }
+
+    public long getChunkOffset(int chunk) {
+        if (largeChunkOffsets)
+            return file.getLong(chunkOffsets.getDataOffset() + 8 + chunk * 8L);
+        return file.getUnsignedInt(chunkOffsets.getDataOffset() + 8 + chunk * 4L);
+    }
+
+    /**
+     * @return the sum of the sample durations, in {@link #timescale} units.
+     */
+    public long getSampleDurationSum() {
+        long sum = 0;
+        for (int i = 0; i < sttsEntryCount; i++)
+            sum += (getSttsSampleCount(i) & 0xFFFFFFFFL) * (getSttsDelta(i) & 0xFFFFFFFFL);
+        return sum;
+    }
+}
@@ -0,0 +1,342 @@
+package com.afollestad.materialcamera.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * Cuts an MP4 file down to a time range without re-encoding. The video starts at the last sync
+ * sample at or before the requested start, since nothing before it can be decoded without the
+ * frames it refers to, and the other tracks are cut to the samples that play along with it. The
+ * output is the input's ftyp, one mdat with the byte range the kept samples are in copied with
+ * {@link FileChannel#transferTo}, and a moov with the kept part of each sample table.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class Mp4Trimmer {
+
+    private Mp4Trimmer() {
+    }
+
+    /**
+     * Trims file in place, through a temporary file next to it. If the input's moov box was in
+     * front of its media data, so is the output's.
+     *
+     * @return where the output starts in the input, in microseconds.
+     */
+    public static long process(File file, long startUs, long endUs) throws IOException {
+        final File temp = new File(file.getParentFile(), "trimming_" + file.getName());
+        final long trimmedStartUs;
+        try {
+            trimmedStartUs = trim(file, temp, startUs, endUs);
+            if (isFastStart(file))
+                Mp4FastStart.process(temp);
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw e;
+        }
+        if (!temp.renameTo(file))
+            throw new IOException("Failed to move " + temp + " to " + file);
+        return trimmedStartUs;
+    }
+
+    /**
+     * Writes the part of input from startUs to endUs to output.
+     *
+     * @return where the output starts in the input, in microseconds: startUs moved back to the
+     * video's sync sample. An endUs past the end, e.g. {@link Long#MAX_VALUE}, keeps the rest.
+     * @throws IOException              if input can't be read, or nothing of it is left in the range.
+     * @throws IllegalArgumentException if the range is empty or starts at or after input's end.
+     */
+    public static long trim(File input, File output, long startUs, long endUs) throws IOException {
+        if (startUs < 0 || endUs <= startUs)
+            throw new IllegalArgumentException("Can't trim to " + startUs + "-" + endUs + "us.");
+        final Mp4File file = Mp4File.open(input);
+        RandomAccessFile out = null;
+        try {
+            long durationUs = 0;
+            for (Mp4Track track : file.tracks)
+                durationUs = Math.max(durationUs, Mp4MoovWriter.scale(track.getSampleDurationSum(), track.timescale, 1000000));
+            if (startUs >= durationUs)
+                throw new IllegalArgumentException("Can't trim " + input.getName() + " from " + startUs +
+                        "us, it's " + durationUs + "us long.");
+            // Scaling times far past the end would overflow.
+            endUs = Math.min(endUs, durationUs);
+
+            final int trackCount = file.tracks.size();
+            final Mp4SampleIndex[] indexes = new Mp4SampleIndex[trackCount];
+            for (int t = 0; t < trackCount; t++)
+                indexes[t] = Mp4SampleIndex.build(file.tracks.get(t), Mp4SampleIndex.DEFAULT_HEAP_BUDGET);
+            final int[] firstSamples = new int[trackCount];
+            final int[] endSamples = new int[trackCount];
+
+            // The video decides the range every other track is cut to.
+            long fromUs = startUs;
+            long toUs = endUs;
+            final int video = file.tracks.indexOf(file.findTrack(Mp4Box.HANDLER_VIDEO));
+            if (video >= 0 && indexes[video].sampleCount > 0) {
+                final Mp4SampleIndex index = indexes[video];
+                final Mp4Track track = file.tracks.get(video);
+                firstSamples[video] = index.findSyncSampleAtOrBefore(index.findSample(startUs));
+                endSamples[video] = Math.max(firstSamples[video] + 1, findSampleAtOrAfter(index, endUs));
+                fromUs = Mp4MoovWriter.scale(index.getDecodeTime(firstSamples[video]), track.timescale, 1000000);
+                // Up to endUs if the video stops before it, e.g. to keep a longer audio track's end.
+                toUs = Math.max(endUs, Mp4MoovWriter.scale(getEndTime(index, track, endSamples[video]),
+                        track.timescale, 1000000));
+            }
+            long rangeStart = Long.MAX_VALUE;
+            long rangeEnd = 0;
+            for (int t = 0; t < trackCount; t++) {
+                final Mp4SampleIndex index = indexes[t];
+                if (t != video) {
+                    firstSamples[t] = findSampleAtOrAfter(index, fromUs);
+                    endSamples[t] = findSampleAtOrAfter(index, toUs);
+                }
+                for (int s = firstSamples[t]; s < endSamples[t]; s++) {
+                    rangeStart = Math.min(rangeStart, index.getOffset(s));
+                    rangeEnd = Math.max(rangeEnd, index.getOffset(s) + (index.getSize(s) & 0xFFFFFFFFL));
+                }
+            }
+            if (rangeEnd == 0)
+                throw new IOException(input.getName() + " has no samples between " + startUs + " and " + endUs + "us.");
+
+            //noinspection ResultOfMethodCallIgnored
+            output.delete();
+            out = new RandomAccessFile(output, "rw");
+            final FileChannel channel = out.getChannel();
+            final Mp4Output mp4Output = new Mp4Output(channel, 0);
+            if (file.ftyp != null)
+                mp4Output.transferFrom(file.channel, file.ftyp.offset, file.ftyp.size);
+            mp4Output.putBoxHeader(Mp4Box.MDAT, rangeEnd - rangeStart);
+            final long shift = mp4Output.position() - rangeStart;
+            mp4Output.transferFrom(file.channel, rangeStart, rangeEnd - rangeStart);
+            final boolean largeChunkOffsets = mp4Output.position() > 0xFFFFFFFFL;
+
+            final Tables tables = new Tables(file, indexes, firstSamples, endSamples, shift, largeChunkOffsets);
+            Mp4MoovWriter.write(mp4Output, file, tables);
+            mp4Output.flush();
+            channel.truncate(mp4Output.position());
+            return fromUs;
+        } finally {
+            CameraUtil.closeQuietly(file);
+            CameraUtil.closeQuietly(out);
+        }
+    }
+
+    private static boolean isFastStart(File input) throws IOException {
+        final Mp4File file = Mp4File.open(input);
+        try {
+            for (Mp4Box box : file.boxes) {
+                if (box.type == Mp4Box.MOOV) return true;
+                if (box.type == Mp4Box.MDAT) return false;
+            }
+            return false;
+        } finally {
+            CameraUtil.closeQuietly(file);
+        }
+    }
+
+    // The first sample decoded at or after timeUs, or the sample count if there's none.
+    private static int findSampleAtOrAfter(Mp4SampleIndex index, long timeUs) {
+        if (index.sampleCount == 0) return 0;
+        final int sample = index.findSample(timeUs);
+        return index.getDecodeTime(sample) < Mp4MoovWriter.scale(timeUs, 1000000, index.timescale) ?
+                sample + 1 : sample;
+    }
+
+    // When the sample before end stops playing, in the track's timescale.
+    private static long getEndTime(Mp4SampleIndex index, Mp4Track track, int end) {
+        return end < index.sampleCount ? index.getDecodeTime(end) : track.getSampleDurationSum();
+    }
+
+    private static final class Tables implements Mp4MoovWriter.Tables {
+
+        private final Mp4File mFile;
+        private final Mp4SampleIndex[] mIndexes;
+        private final int[] mFirstSamples;
+        private final int[] mEndSamples;
+        private final long mShift;
+        private final boolean mLargeChunkOffsets;
+
+        Tables(Mp4File file, Mp4SampleIndex[] indexes, int[] firstSamples, int[] endSamples, long shift,
+               boolean largeChunkOffsets) {
+            mFile = file;
+            mIndexes = indexes;
+            mFirstSamples = firstSamples;
+            mEndSamples = endSamples;
+            mShift = shift;
+            mLargeChunkOffsets = largeChunkOffsets;
+        }
+
+        private long getDuration(int t, int sample) {
+            return getEndTime(mIndexes[t], mFile.tracks.get(t), sample + 1) - mIndexes[t].getDecodeTime(sample);
+        }
+
+        // Kept samples start a new chunk wherever they don't follow the previous one in the file.
+        private boolean isChunkStart(int t, int sample) {
+            final Mp4SampleIndex index = mIndexes[t];
+            return sample == mFirstSamples[t] ||
+                    index.getOffset(sample) != index.getOffset(sample - 1) + (index.getSize(sample - 1) & 0xFFFFFFFFL);
+        }
+
+        @Override
+        public long getMediaDuration(int t) {
+            if (mEndSamples[t] <= mFirstSamples[t]) return 0;
+            return getEndTime(mIndexes[t], mFile.tracks.get(t), mEndSamples[t]) -
+                    mIndexes[t].getDecodeTime(mFirstSamples[t]);
+        }
+
+        @Override
+        public void write(Mp4Output out, int track) throws IOException {
+            writeStts(out, track);
+            writeCtts(out, track);
+            writeStss(out, track);
+            writeStsc(out, track);
+            writeStsz(out, track);
+            writeChunkOffsets(out, track);
+        }
+
+        private void writeStts(Mp4Output out, int t) throws IOException {
+            final int first = mFirstSamples[t];
+            final int end = mEndSamples[t];
+            long entries = 0;
+            for (int s = first; s < end; s++) {
+                if (s == first || getDuration(t, s) != getDuration(t, s - 1))
+                    entries++;
+            }
+            final long box = out.beginBox(Mp4Box.STTS);
+            out.putInt(0);
+            out.putUnsignedInt(entries);
+            for (int s = first; s < end; ) {
+                final long delta = getDuration(t, s);
+                int count = 1;
+                while (s + count < end && getDuration(t, s + count) == delta)
+                    count++;
+                out.putInt(count);
+                out.putUnsignedInt(delta);
+                s += count;
+            }
+            out.endBox(box);
+        }
+
+        private void writeCtts(Mp4Output out, int t) throws IOException {
+            final Mp4SampleIndex index = mIndexes[t];
+            if (!index.hasCompositionOffsets()) return;
+            final int first = mFirstSamples[t];
+            final int end = mEndSamples[t];
+            long entries = 0;
+            for (int s = first; s < end; s++) {
+                if (s == first || index.getCompositionOffset(s) != index.getCompositionOffset(s - 1))
+                    entries++;
+            }
+            final long box = out.beginBox(Mp4Box.CTTS);
+            out.putInt(mFile.tracks.get(t).getCttsVersion() << 24);
+            out.putUnsignedInt(entries);
+            for (int s = first; s < end; ) {
+                final int offset = index.getCompositionOffset(s);
+                int count = 1;
+                while (s + count < end && index.getCompositionOffset(s + count) == offset)
+                    count++;
+                out.putInt(count);
+                out.putInt(offset);
+                s += count;
+            }
+            out.endBox(box);
+        }
+
+        private void writeStss(Mp4Output out, int t) throws IOException {
+            if (mFile.tracks.get(t).stss == null) return;
+            final Mp4SampleIndex index = mIndexes[t];
+            final int first = mFirstSamples[t];
+            final int end = mEndSamples[t];
+            long entries = 0;
+            for (int s = first; s < end; s++) {
+                if (index.isSync(s)) entries++;
+            }
+            final long box = out.beginBox(Mp4Box.STSS);
+            out.putInt(0);
+            out.putUnsignedInt(entries);
+            for (int s = first; s < end; s++) {
+                if (index.isSync(s)) out.putUnsignedInt(s - first + 1);
+            }
+            out.endBox(box);
+        }
+
+        private void writeStsc(Mp4Output out, int t) throws IOException {
+            final int first = mFirstSamples[t];
+            final int end = mEndSamples[t];
+            // One entry per run of chunks with the same number of samples.
+            long entries = 0;
+            int previousSamples = -1;
+            for (int s = first; s < end; ) {
+                final int samples = getChunkSamples(t, s);
+                if (samples != previousSamples) entries++;
+                previousSamples = samples;
+                s += samples;
+            }
+            final long box = out.beginBox(Mp4Box.STSC);
+            out.putInt(0);
+            out.putUnsignedInt(entries);
+            long chunk = 1;
+            previousSamples = -1;
+            for (int s = first; s < end; ) {
+                final int samples = getChunkSamples(t, s);
+                if (samples != previousSamples) {
+                    out.putUnsignedInt(chunk);
+                    out.putInt(samples);
+                    out.putInt(1);
+                }
+                previousSamples = samples;
+                s += samples;
+                chunk++;
+            }
+            out.endBox(box);
+        }
+
+        // How many samples the chunk starting at sample has.
+        private int getChunkSamples(int t, int sample) {
+            int samples = 1;
+            while (sample + samples < mEndSamples[t] && !isChunkStart(t, sample + samples))
+                samples++;
+            return samples;
+        }
+
+        private void writeStsz(Mp4Output out, int t) throws IOException {
+            final Mp4Track track = mFile.tracks.get(t);
+            final Mp4SampleIndex index = mIndexes[t];
+            final int first = mFirstSamples[t];
+            final int end = mEndSamples[t];
+            final long box = out.beginBox(Mp4Box.STSZ);
+            out.putInt(0);
+            out.putInt(track.uniformSampleSize);
+            out.putUnsignedInt(end - first);
+            if (track.uniformSampleSize == 0) {
+                for (int s = first; s < end; s++)
+                    out.putInt(index.getSize(s));
+            }
+            out.endBox(box);
+        }
+
+        private void writeChunkOffsets(Mp4Output out, int t) throws IOException {
+            final Mp4SampleIndex index = mIndexes[t];
+            final int first = mFirstSamples[t];
+            final int end = mEndSamples[t];
+            long chunks = 0;
+            for (int s = first; s < end; s++) {
+                if (isChunkStart(t, s)) chunks++;
+            }
+            final long box = out.beginBox(mLargeChunkOffsets ? Mp4Box.CO64 : Mp4Box.STCO);
+            out.putInt(0);
+            out.putUnsignedInt(chunks);
+            for (int s = first; s < end; s++) {
+                if (!isChunkStart(t, s)) continue;
+                final long offset = index.getOffset(s) + mShift;
+                if (mLargeChunkOffsets) out.putLong(offset);
+                else out.putUnsignedInt(offset);
+            }
+            out.endBox(box);
+        }
+    }
+}
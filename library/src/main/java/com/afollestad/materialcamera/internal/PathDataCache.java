@@ -0,0 +1,88 @@
+package com.afollestad.materialcamera.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide, bounded LRU cache of compiled path data keyed by the path string. The paths it
+ * hands out are frozen and shared between callers; {@link CompiledPath#copy()} one to morph it.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class PathDataCache {
+
+    private static final int DEFAULT_MAX_SIZE = 32;
+
+    private static PathDataCache sInstance;
+
+    private final int mMaxSize;
+    private final LinkedHashMap<String, CompiledPath> mCache;
+    private final PathDataScanner mScanner = new PathDataScanner();
+    private int mHitCount;
+    private int mMissCount;
+
+    public static synchronized PathDataCache getInstance() {
+        if (sInstance == null)
+            sInstance = new PathDataCache(DEFAULT_MAX_SIZE);
+        return sInstance;
+    }
+
+    PathDataCache(int maxSize) {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("maxSize must be greater than 0.");
+        mMaxSize = maxSize;
+        mCache = new LinkedHashMap<String, CompiledPath>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledPath> eldest) {
+                return size() > mMaxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the compiled form of pathData, parsing it only if it isn't cached yet.
+     * @throws RuntimeException if the path data is malformed.
+     */
+    public synchronized CompiledPath get(String pathData) {
+        CompiledPath compiled = mCache.get(pathData);
+        if (compiled != null) {
+            mHitCount++;
+            return compiled;
+        }
+        mMissCount++;
+        compiled = CompiledPath.compile(pathData, mScanner);
+        compiled.freeze();
+        mCache.put(pathData, compiled);
+        return compiled;
+    }
+
+    /**
+     * Adds an already compiled path, e.g. one loaded from a precompiled asset.
+     */
+    public synchronized void put(String pathData, CompiledPath compiled) {
+        compiled.freeze();
+        mCache.put(pathData, compiled);
+    }
+
+    public synchronized int size() {
+        return mCache.size();
+    }
+
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    public synchronized void evictAll() {
+        mCache.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("PathDataCache[size=%d, maxSize=%d, hits=%d, misses=%d]",
+                mCache.size(), mMaxSize, mHitCount, mMissCount);
+    }
+}
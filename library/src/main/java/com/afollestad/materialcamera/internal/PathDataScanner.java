@@ -0,0 +1,225 @@
+package com.afollestad.materialcamera.internal;
+
+/**
+ * Tokenizes the "d" string of a vector path in place. Commands and their float parameters are
+ * written into growable primitive buffers, so scanning never creates intermediate Strings. An
+ * instance can be reused for any number of paths; the buffers are only reallocated when a path
+ * needs more room than any path scanned before it.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class PathDataScanner {
+
+    // Powers of ten that are exactly representable as floats (5^10 < 2^24).
+    private static final float[] POWERS_OF_TEN = {
+            1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+    // Integers up to 2^24 are exact as floats.
+    private static final long MAX_EXACT_MANTISSA = 1 << 24;
+    // Digits past this many can't change a float, they only shift the exponent.
+    private static final int MAX_MANTISSA_DIGITS = 18;
+
+    private String mData;
+    private int mPosition;
+
+    private char[] mCommands = new char[16];
+    private int[] mOffsets = new int[17];
+    private float[] mParams = new float[64];
+    private int mCommandCount;
+    private int mParamCount;
+
+    /**
+     * Scans pathData, replacing the results of the previous scan.
+     *
+     * @throws RuntimeException if the path data is malformed.
+     */
+    public void scan(String pathData) {
+        mData = pathData;
+        mPosition = 0;
+        mCommandCount = 0;
+        mParamCount = 0;
+        final int length = pathData.length();
+        skipSeparators();
+        while (mPosition < length) {
+            final char command = pathData.charAt(mPosition);
+            if (!isCommand(command))
+                throw error("expected a command");
+            mPosition++;
+            addCommand(command);
+            if (command == 'z' || command == 'Z') {
+                // Anything between a close and the next command is ignored.
+                while (mPosition < length && !isCommand(pathData.charAt(mPosition)))
+                    mPosition++;
+            } else {
+                skipSeparators();
+                while (mPosition < length && !isCommand(pathData.charAt(mPosition))) {
+                    addParam(nextFloat());
+                    skipSeparators();
+                }
+            }
+        }
+        mOffsets[mCommandCount] = mParamCount;
+        mData = null;
+    }
+
+    public int getCommandCount() {
+        return mCommandCount;
+    }
+
+    public char getCommand(int index) {
+        return mCommands[index];
+    }
+
+    /**
+     * @return the index in {@link #getParams()} of the first parameter of the given command.
+     */
+    public int getParamStart(int index) {
+        return mOffsets[index];
+    }
+
+    /**
+     * @return the index in {@link #getParams()} after the last parameter of the given command.
+     */
+    public int getParamEnd(int index) {
+        return mOffsets[index + 1];
+    }
+
+    public int getParamCount() {
+        return mParamCount;
+    }
+
+    /**
+     * @return the shared parameter buffer; only the first {@link #getParamCount()} values are valid.
+     */
+    public float[] getParams() {
+        return mParams;
+    }
+
+    // Note that 'e' or 'E' are not valid path commands, but are used for floating point
+    // numbers' scientific notation.
+    private static boolean isCommand(char c) {
+        return ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')) && c != 'e' && c != 'E';
+    }
+
+    private void skipSeparators() {
+        final String s = mData;
+        final int length = s.length();
+        while (mPosition < length) {
+            final char c = s.charAt(mPosition);
+            if (c != ',' && c > ' ')
+                break;
+            mPosition++;
+        }
+    }
+
+    /**
+     * Reads one number starting at the cursor. A '-' that doesn't follow an exponent, or a second
+     * '.', ends the number and starts the next one, the same way PathParser always split them.
+     */
+    private float nextFloat() {
+        final String s = mData;
+        final int length = s.length();
+        final int start = mPosition;
+        int i = mPosition;
+
+        boolean negative = false;
+        char c = s.charAt(i);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int mantissaDigits = 0;
+        int exponent = 0;
+        boolean sawDigit = false;
+        boolean sawDot = false;
+        for (; i < length; i++) {
+            c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                sawDigit = true;
+                if (mantissaDigits < MAX_MANTISSA_DIGITS) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0) mantissaDigits++;
+                    if (sawDot) exponent--;
+                } else if (!sawDot) {
+                    exponent++;
+                }
+            } else if (c == '.' && !sawDot) {
+                sawDot = true;
+            } else {
+                break;
+            }
+        }
+        if (!sawDigit) {
+            mPosition = start;
+            throw error("expected a number");
+        }
+
+        if (i < length && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < length && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+                negativeExponent = s.charAt(i) == '-';
+                i++;
+            }
+            int explicitExponent = 0;
+            boolean sawExponentDigit = false;
+            for (; i < length; i++) {
+                c = s.charAt(i);
+                if (c < '0' || c > '9') break;
+                sawExponentDigit = true;
+                if (explicitExponent < 10000)
+                    explicitExponent = explicitExponent * 10 + (c - '0');
+            }
+            if (!sawExponentDigit) {
+                mPosition = start;
+                throw error("malformed exponent");
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        mPosition = i;
+
+        float value;
+        if (mantissa == 0) {
+            value = 0f;
+        } else if (mantissa <= MAX_EXACT_MANTISSA && exponent >= -10 && exponent <= 10) {
+            // Both operands are exact, so the single IEEE operation rounds exactly the way
+            // Float.parseFloat would.
+            value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent]
+                    : mantissa * POWERS_OF_TEN[exponent];
+        } else {
+            // Rare in path data; let the JDK do the exact conversion.
+            value = Float.parseFloat(s.substring(negative ? start + 1 : start, i));
+        }
+        return negative ? -value : value;
+    }
+
+    private void addCommand(char command) {
+        if (mCommandCount == mCommands.length) {
+            final char[] commands = new char[mCommandCount * 2];
+            System.arraycopy(mCommands, 0, commands, 0, mCommandCount);
+            mCommands = commands;
+            final int[] offsets = new int[mCommandCount * 2 + 1];
+            System.arraycopy(mOffsets, 0, offsets, 0, mCommandCount);
+            mOffsets = offsets;
+        }
+        mCommands[mCommandCount] = command;
+        mOffsets[mCommandCount] = mParamCount;
+        mCommandCount++;
+    }
+
+    private void addParam(float value) {
+        if (mParamCount == mParams.length) {
+            final float[] params = new float[mParamCount * 2];
+            System.arraycopy(mParams, 0, params, 0, mParamCount);
+            mParams = params;
+        }
+        mParams[mParamCount++] = value;
+    }
+
+    private RuntimeException error(String reason) {
+        return new RuntimeException("error in parsing \"" + mData + "\": " + reason +
+                " at index " + mPosition);
+    }
+}
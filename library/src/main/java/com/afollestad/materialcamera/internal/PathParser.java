@@ -15,14 +15,10 @@ package com.afollestad.materialcamera.internal;
  */
 
 import android.graphics.Path;
-import android.util.Log;
-
-import java.util.ArrayList;
 
 // This class is a duplicate from the PathParser.java of frameworks/base, with slight
 // update on incompatible API like copyOfRange().
 class PathParser {
-    private static final String LOGTAG = "PathParser";
     // Copy from Arrays.copyOfRange() which is only available from API level 9.
 
     /**
@@ -80,23 +76,66 @@ class PathParser {
         if (pathData == null) {
             return null;
         }
-        int start = 0;
-        int end = 1;
-        ArrayList<PathDataNode> list = new ArrayList<PathDataNode>();
-        while (end < pathData.length()) {
-            end = nextStart(pathData, end);
-            String s = pathData.substring(start, end).trim();
-            if (s.length() > 0) {
-                float[] val = getFloats(s);
-                addNode(list, s.charAt(0), val);
-            }
-            start = end;
-            end++;
+        return createNodesFromPathData(pathData, new PathDataScanner());
+    }
+
+    /**
+     * Same as {@link #createNodesFromPathData(String)}, but tokenizes with the given scanner so
+     * callers parsing several paths can reuse its buffers.
+     *
+     * @param pathData The string representing a path, the same as "d" string in svg file.
+     * @param scanner  The scanner to tokenize with.
+     * @return an array of the PathDataNode.
+     */
+    public static PathDataNode[] createNodesFromPathData(String pathData, PathDataScanner scanner) {
+        if (pathData == null) {
+            return null;
         }
-        if ((end - start) == 1 && start < pathData.length()) {
-            addNode(list, pathData.charAt(start), new float[0]);
+        scanner.scan(pathData);
+        final float[] params = scanner.getParams();
+        PathDataNode[] nodes = new PathDataNode[scanner.getCommandCount()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new PathDataNode(scanner.getCommand(i),
+                    copyOfRange(params, scanner.getParamStart(i), scanner.getParamEnd(i)));
+        }
+        return nodes;
+    }
+
+    /**
+     * Replays a compiled path into a Path.
+     *
+     * @param compiled The source path.
+     * @param path     The target Path object.
+     */
+    public static void compiledToPath(CompiledPath compiled, Path path) {
+        compiledToPath(compiled, path, new float[6]);
+    }
+
+    /**
+     * Same as {@link #compiledToPath(CompiledPath, Path)}, using a caller-owned scratch array of
+     * at least 6 floats so repeated replays don't allocate.
+     */
+    public static void compiledToPath(CompiledPath compiled, Path path, float[] current) {
+        compiledToPath(compiled, path, current, ArcFlattener.DEFAULT);
+    }
+
+    /**
+     * Same as {@link #compiledToPath(CompiledPath, Path, float[])}, converting arcs with the given
+     * flattener so their precision matches the size the path is drawn at.
+     */
+    public static void compiledToPath(CompiledPath compiled, Path path, float[] current,
+                                      ArcFlattener arcs) {
+        for (int i = 0; i < current.length; i++) {
+            current[i] = 0;
+        }
+        final float[] params = compiled.getParams();
+        char previousCommand = 'm';
+        for (int i = 0, count = compiled.getCommandCount(); i < count; i++) {
+            final char command = compiled.getCommand(i);
+            PathDataNode.addCommand(path, current, previousCommand, command, params,
+                    compiled.getParamStart(i), compiled.getParamEnd(i), arcs);
+            previousCommand = command;
         }
-        return list.toArray(new PathDataNode[list.size()]);
     }
 
     /**
@@ -151,129 +190,6 @@ class PathParser {
         }
     }
 
-    private static int nextStart(String s, int end) {
-        char c;
-        while (end < s.length()) {
-            c = s.charAt(end);
-            // Note that 'e' or 'E' are not valid path commands, but could be
-            // used for floating point numbers' scientific notation.
-            // Therefore, when searching for next command, we should ignore 'e'
-            // and 'E'.
-            if ((((c - 'A') * (c - 'Z') <= 0) || ((c - 'a') * (c - 'z') <= 0))
-                    && c != 'e' && c != 'E') {
-                return end;
-            }
-            end++;
-        }
-        return end;
-    }
-
-    private static void addNode(ArrayList<PathDataNode> list, char cmd, float[] val) {
-        list.add(new PathDataNode(cmd, val));
-    }
-
-    private static class ExtractFloatResult {
-        // We need to return the position of the next separator and whether the
-        // next float starts with a '-' or a '.'.
-        int mEndPosition;
-        boolean mEndWithNegOrDot;
-    }
-
-    /**
-     * Parse the floats in the string.
-     * This is an optimized version of parseFloat(s.split(",|\\s"));
-     *
-     * @param s the string containing a command and list of floats
-     * @return array of floats
-     */
-    private static float[] getFloats(String s) {
-        if (s.charAt(0) == 'z' | s.charAt(0) == 'Z') {
-            return new float[0];
-        }
-        try {
-            float[] results = new float[s.length()];
-            int count = 0;
-            int startPosition = 1;
-            int endPosition = 0;
-            ExtractFloatResult result = new ExtractFloatResult();
-            int totalLength = s.length();
-            // The startPosition should always be the first character of the
-            // current number, and endPosition is the character after the current
-            // number.
-            while (startPosition < totalLength) {
-                extract(s, startPosition, result);
-                endPosition = result.mEndPosition;
-                if (startPosition < endPosition) {
-                    results[count++] = Float.parseFloat(
-                            s.substring(startPosition, endPosition));
-                }
-                if (result.mEndWithNegOrDot) {
-                    // Keep the '-' or '.' sign with next number.
-                    startPosition = endPosition;
-                } else {
-                    startPosition = endPosition + 1;
-                }
-            }
-            return copyOfRange(results, 0, count);
-        } catch (NumberFormatException e) {
-            throw new RuntimeException("error in parsing \"" + s + "\"", e);
-        }
-    }
-
-    /**
-     * Calculate the position of the next comma or space or negative sign
-     *
-     * @param s      the string to search
-     * @param start  the position to start searching
-     * @param result the result of the extraction, including the position of the
-     *               the starting position of next number, whether it is ending with a '-'.
-     */
-    private static void extract(String s, int start, ExtractFloatResult result) {
-        // Now looking for ' ', ',', '.' or '-' from the start.
-        int currentIndex = start;
-        boolean foundSeparator = false;
-        result.mEndWithNegOrDot = false;
-        boolean secondDot = false;
-        boolean isExponential = false;
-        for (; currentIndex < s.length(); currentIndex++) {
-            boolean isPrevExponential = isExponential;
-            isExponential = false;
-            char currentChar = s.charAt(currentIndex);
-            switch (currentChar) {
-                case ' ':
-                case ',':
-                    foundSeparator = true;
-                    break;
-                case '-':
-                    // The negative sign following a 'e' or 'E' is not a separator.
-                    if (currentIndex != start && !isPrevExponential) {
-                        foundSeparator = true;
-                        result.mEndWithNegOrDot = true;
-                    }
-                    break;
-                case '.':
-                    if (!secondDot) {
-                        secondDot = true;
-                    } else {
-                        // This is the second dot, and it is considered as a separator.
-                        foundSeparator = true;
-                        result.mEndWithNegOrDot = true;
-                    }
-                    break;
-                case 'e':
-                case 'E':
-                    isExponential = true;
-                    break;
-            }
-            if (foundSeparator) {
-                break;
-            }
-        }
-        // When there is nothing found, then we put the end position to the end
-        // of the string.
-        result.mEndPosition = currentIndex;
-    }
-
     /**
      * Each PathDataNode represents one command in the "d" attribute of the svg
      * file.
@@ -303,7 +219,8 @@ class PathParser {
             float[] current = new float[6];
             char previousCommand = 'm';
             for (int i = 0; i < node.length; i++) {
-                addCommand(path, current, previousCommand, node[i].mType, node[i].mParams);
+                addCommand(path, current, previousCommand, node[i].mType, node[i].mParams,
+                        0, node[i].mParams.length, ArcFlattener.DEFAULT);
                 previousCommand = node[i].mType;
             }
         }
@@ -325,8 +242,8 @@ class PathParser {
             }
         }
 
-        private static void addCommand(Path path, float[] current,
-                                       char previousCmd, char cmd, float[] val) {
+        private static void addCommand(Path path, float[] current, char previousCmd, char cmd,
+                                       float[] val, int start, int end, ArcFlattener arcs) {
             int incr = 2;
             float currentX = current[0];
             float currentY = current[1];
@@ -378,7 +295,7 @@ class PathParser {
                     incr = 7;
                     break;
             }
-            for (int k = 0; k < val.length; k += incr) {
+            for (int k = start; k < end; k += incr) {
                 switch (cmd) {
                     case 'm': // moveto - Start a new sub-path (relative)
                         path.rMoveTo(val[k + 0], val[k + 1]);
@@ -513,7 +430,7 @@ class PathParser {
                         break;
                     case 'a': // Draws an elliptical arc
                         // (rx ry x-axis-rotation large-arc-flag sweep-flag x y)
-                        drawArc(path,
+                        arcs.arcTo(path,
                                 currentX,
                                 currentY,
                                 val[k + 5] + currentX,
@@ -529,7 +446,7 @@ class PathParser {
                         ctrlPointY = currentY;
                         break;
                     case 'A': // Draws an elliptical arc
-                        drawArc(path,
+                        arcs.arcTo(path,
                                 currentX,
                                 currentY,
                                 val[k + 5],
@@ -554,140 +471,5 @@ class PathParser {
             current[4] = currentSegmentStartX;
             current[5] = currentSegmentStartY;
         }
-
-        private static void drawArc(Path p,
-                                    float x0,
-                                    float y0,
-                                    float x1,
-                                    float y1,
-                                    float a,
-                                    float b,
-                                    float theta,
-                                    boolean isMoreThanHalf,
-                                    boolean isPositiveArc) {
-            /* Convert rotation angle from degrees to radians */
-            double thetaD = Math.toRadians(theta);
-            /* Pre-compute rotation matrix entries */
-            double cosTheta = Math.cos(thetaD);
-            double sinTheta = Math.sin(thetaD);
-            /* Transform (x0, y0) and (x1, y1) into unit space */
-            /* using (inverse) rotation, followed by (inverse) scale */
-            double x0p = (x0 * cosTheta + y0 * sinTheta) / a;
-            double y0p = (-x0 * sinTheta + y0 * cosTheta) / b;
-            double x1p = (x1 * cosTheta + y1 * sinTheta) / a;
-            double y1p = (-x1 * sinTheta + y1 * cosTheta) / b;
-            /* Compute differences and averages */
-            double dx = x0p - x1p;
-            double dy = y0p - y1p;
-            double xm = (x0p + x1p) / 2;
-            double ym = (y0p + y1p) / 2;
-            /* Solve for intersecting unit circles */
-            double dsq = dx * dx + dy * dy;
-            if (dsq == 0.0) {
-                Log.w(LOGTAG, " Points are coincident");
-                return; /* Points are coincident */
-            }
-            double disc = 1.0 / dsq - 1.0 / 4.0;
-            if (disc < 0.0) {
-                Log.w(LOGTAG, "Points are too far apart " + dsq);
-                float adjust = (float) (Math.sqrt(dsq) / 1.99999);
-                drawArc(p, x0, y0, x1, y1, a * adjust,
-                        b * adjust, theta, isMoreThanHalf, isPositiveArc);
-                return; /* Points are too far apart */
-            }
-            double s = Math.sqrt(disc);
-            double sdx = s * dx;
-            double sdy = s * dy;
-            double cx;
-            double cy;
-            if (isMoreThanHalf == isPositiveArc) {
-                cx = xm - sdy;
-                cy = ym + sdx;
-            } else {
-                cx = xm + sdy;
-                cy = ym - sdx;
-            }
-            double eta0 = Math.atan2((y0p - cy), (x0p - cx));
-            double eta1 = Math.atan2((y1p - cy), (x1p - cx));
-            double sweep = (eta1 - eta0);
-            if (isPositiveArc != (sweep >= 0)) {
-                if (sweep > 0) {
-                    sweep -= 2 * Math.PI;
-                } else {
-                    sweep += 2 * Math.PI;
-                }
-            }
-            cx *= a;
-            cy *= b;
-            double tcx = cx;
-            cx = cx * cosTheta - cy * sinTheta;
-            cy = tcx * sinTheta + cy * cosTheta;
-            arcToBezier(p, cx, cy, a, b, x0, y0, thetaD, eta0, sweep);
-        }
-
-        /**
-         * Converts an arc to cubic Bezier segments and records them in p.
-         *
-         * @param p     The target for the cubic Bezier segments
-         * @param cx    The x coordinate center of the ellipse
-         * @param cy    The y coordinate center of the ellipse
-         * @param a     The radius of the ellipse in the horizontal direction
-         * @param b     The radius of the ellipse in the vertical direction
-         * @param e1x   E(eta1) x coordinate of the starting point of the arc
-         * @param e1y   E(eta2) y coordinate of the starting point of the arc
-         * @param theta The angle that the ellipse bounding rectangle makes with horizontal plane
-         * @param start The start angle of the arc on the ellipse
-         * @param sweep The angle (positive or negative) of the sweep of the arc on the ellipse
-         */
-        private static void arcToBezier(Path p,
-                                        double cx,
-                                        double cy,
-                                        double a,
-                                        double b,
-                                        double e1x,
-                                        double e1y,
-                                        double theta,
-                                        double start,
-                                        double sweep) {
-            // Taken from equations at: http://spaceroots.org/documents/ellipse/node8.html
-            // and http://www.spaceroots.org/documents/ellipse/node22.html
-            // Maximum of 45 degrees per cubic Bezier segment
-            int numSegments = Math.abs((int) Math.ceil(sweep * 4 / Math.PI));
-            double eta1 = start;
-            double cosTheta = Math.cos(theta);
-            double sinTheta = Math.sin(theta);
-            double cosEta1 = Math.cos(eta1);
-            double sinEta1 = Math.sin(eta1);
-            double ep1x = (-a * cosTheta * sinEta1) - (b * sinTheta * cosEta1);
-            double ep1y = (-a * sinTheta * sinEta1) + (b * cosTheta * cosEta1);
-            double anglePerSegment = sweep / numSegments;
-            for (int i = 0; i < numSegments; i++) {
-                double eta2 = eta1 + anglePerSegment;
-                double sinEta2 = Math.sin(eta2);
-                double cosEta2 = Math.cos(eta2);
-                double e2x = cx + (a * cosTheta * cosEta2) - (b * sinTheta * sinEta2);
-                double e2y = cy + (a * sinTheta * cosEta2) + (b * cosTheta * sinEta2);
-                double ep2x = -a * cosTheta * sinEta2 - b * sinTheta * cosEta2;
-                double ep2y = -a * sinTheta * sinEta2 + b * cosTheta * cosEta2;
-                double tanDiff2 = Math.tan((eta2 - eta1) / 2);
-                double alpha =
-                        Math.sin(eta2 - eta1) * (Math.sqrt(4 + (3 * tanDiff2 * tanDiff2)) - 1) / 3;
-                double q1x = e1x + alpha * ep1x;
-                double q1y = e1y + alpha * ep1y;
-                double q2x = e2x - alpha * ep2x;
-                double q2y = e2y - alpha * ep2y;
-                p.cubicTo((float) q1x,
-                        (float) q1y,
-                        (float) q2x,
-                        (float) q2y,
-                        (float) e2x,
-                        (float) e2y);
-                eta1 = eta2;
-                e1x = e2x;
-                e1y = e2y;
-                ep1x = ep2x;
-                ep1y = ep2y;
-            }
-        }
     }
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package com.afollestad.materialcamera.internal;
 
 import android.app.Activity;
 import android.app.Fragment;
+import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.content.res.Resources;
 import android.graphics.Color;
@@ -12,6 +13,7 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -19,19 +21,26 @@ import android.widget.ImageButton;
 import android.widget.SeekBar;
 import android.widget.TextView;
 
+import com.afollestad.materialcamera.MaterialCamera;
 import com.afollestad.materialcamera.R;
 import com.afollestad.materialdialogs.MaterialDialog;
 import com.afollestad.materialdialogs.internal.MDTintHelper;
-import com.telly.mrvector.MrVector;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
 
 /**
  * @author Aidan Follestad (afollestad)
  */
 public class PlaybackVideoFragment extends Fragment implements
-        VideoStreamView.Callback, OutputUriInterface, View.OnClickListener {
+        VideoStreamView.Callback, OutputUriInterface, View.OnClickListener, TrimBar.Callback {
+
+    private static final String TAG = "PlaybackVideoFragment";
 
     private TextView mPosition;
     private SeekBar mPositionSeek;
+    private TrimBar mTrimBar;
     private TextView mDuration;
     private ImageButton mPlayPause;
     private View mRetry;
@@ -42,10 +51,12 @@ public class PlaybackVideoFragment extends Fragment implements
 
     private String mOutputUri;
     private boolean mWasPlaying;
+    // Whether the player knows the duration, which then isn't taken from the file anymore.
+    private boolean mPrepared;
     private VideoActivityInterface mInterface;
 
-    private static Drawable mPlayIcon;
-    private static Drawable mPauseIcon;
+    private Drawable mPlayIcon;
+    private Drawable mPauseIcon;
 
     @SuppressWarnings("deprecation")
     @Override
@@ -68,6 +79,10 @@ public class PlaybackVideoFragment extends Fragment implements
                     final int currentPosition = mStreamer.getCurrentPosition();
                     mPosition.setText(CameraUtil.getDurationString(currentPosition));
                     mPositionSeek.setProgress(currentPosition);
+                    if (isTrimming() && currentPosition >= mTrimBar.getEnd() && mStreamer.isPlaying()) {
+                        mStreamer.pause();
+                        mPlayPause.setImageDrawable(mPlayIcon);
+                    }
                     mDuration.setText(String.format("-%s", CameraUtil.getDurationString(
                             mStreamer.getDuration() - mStreamer.getCurrentPosition())));
                     if (mPositionHandler == null) {
@@ -99,12 +114,14 @@ public class PlaybackVideoFragment extends Fragment implements
         }
     };
 
-    public static PlaybackVideoFragment newInstance(String outputUri, boolean allowRetry, int primaryColor) {
+    public static PlaybackVideoFragment newInstance(String outputUri, boolean allowRetry, boolean allowTrim,
+                                                    int primaryColor) {
         PlaybackVideoFragment fragment = new PlaybackVideoFragment();
         fragment.setRetainInstance(true);
         Bundle args = new Bundle();
         args.putString("output_uri", outputUri);
         args.putBoolean("allow_retry", allowRetry);
+        args.putBoolean("allow_trim", allowTrim);
         args.putInt("primary_color", primaryColor);
         fragment.setArguments(args);
         return fragment;
@@ -122,10 +139,8 @@ public class PlaybackVideoFragment extends Fragment implements
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         View v = inflater.inflate(R.layout.fragment_videoplayback, container, false);
         final Resources r = getResources();
-        if (mPlayIcon == null)
-            mPlayIcon = MrVector.inflate(r, R.drawable.ic_action_play);
-        if (mPauseIcon == null)
-            mPauseIcon = MrVector.inflate(r, R.drawable.ic_action_pause);
+        mPlayIcon = VectorIconCache.get(r, R.drawable.ic_action_play);
+        mPauseIcon = VectorIconCache.get(r, R.drawable.ic_action_pause);
         return v;
     }
 
@@ -135,6 +150,7 @@ public class PlaybackVideoFragment extends Fragment implements
 
         mPosition = (TextView) view.findViewById(R.id.position);
         mPositionSeek = (SeekBar) view.findViewById(R.id.positionSeek);
+        mTrimBar = (TrimBar) view.findViewById(R.id.trimBar);
         mDuration = (TextView) view.findViewById(R.id.duration);
         mPlayPause = (ImageButton) view.findViewById(R.id.playPause);
         mRetry = view.findViewById(R.id.retry);
@@ -187,6 +203,17 @@ public class PlaybackVideoFragment extends Fragment implements
             mPlaybackContinueCountdownLabel.setVisibility(View.GONE);
         }
 
+        // Not while counting down to submitting the video, there'd be no time to trim it.
+        if (getArguments().getBoolean("allow_trim", false) &&
+                mPlaybackContinueCountdownLabel.getVisibility() != View.VISIBLE) {
+            mTrimBar.setVisibility(View.VISIBLE);
+            // Lines the handles up with the seek bar's track.
+            mTrimBar.setPadding(mPositionSeek.getPaddingLeft(), 0, mPositionSeek.getPaddingRight(), 0);
+            mTrimBar.setCallback(this);
+        }
+
+        mPrepared = false;
+        readDuration();
         mStreamer.setURI(getActivity(), Uri.parse(mOutputUri), this);
 
         if (mStreamer.isPlaying())
@@ -195,6 +222,35 @@ public class PlaybackVideoFragment extends Fragment implements
             mPlayPause.setImageDrawable(mPlayIcon);
     }
 
+    /**
+     * Reads the duration from the file in the background, which is usually done long before the
+     * player is prepared.
+     */
+    private void readDuration() {
+        final File file = new File(Uri.parse(mOutputUri).getPath());
+        final Handler handler = new Handler();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final Mp4Info info;
+                try {
+                    info = Mp4Info.read(Collections.singletonList(file));
+                } catch (IOException e) {
+                    return;
+                }
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mPrepared || mPositionSeek == null) return;
+                        mPositionSeek.setMax((int) info.durationMs);
+                        mTrimBar.setMax((int) info.durationMs);
+                        mDuration.setText(String.format("-%s", CameraUtil.getDurationString(info.durationMs)));
+                    }
+                });
+            }
+        }, TAG + "Info").start();
+    }
+
     @Override
     public void onDestroyView() {
         super.onDestroyView();
@@ -202,6 +258,7 @@ public class PlaybackVideoFragment extends Fragment implements
         mPauseIcon = null;
         mPosition = null;
         mPositionSeek = null;
+        mTrimBar = null;
         mDuration = null;
         mPlayPause = null;
         mRetry = null;
@@ -236,10 +293,15 @@ public class PlaybackVideoFragment extends Fragment implements
         } else if (v.getId() == R.id.playPause) {
             if (mStreamer != null) {
                 if (mStreamer.isPlaying()) {
-                    ((ImageButton) v).setImageResource(R.drawable.ic_action_play);
+                    ((ImageButton) v).setImageDrawable(mPlayIcon);
                     mStreamer.pause();
                 } else {
-                    ((ImageButton) v).setImageResource(R.drawable.ic_action_pause);
+                    ((ImageButton) v).setImageDrawable(mPauseIcon);
+                    if (isTrimming()) {
+                        final int position = mStreamer.getCurrentPosition();
+                        if (position < mTrimBar.getStart() || position >= mTrimBar.getEnd())
+                            mStreamer.seekTo(mTrimBar.getStart());
+                    }
                     mStreamer.start(getActivity());
                     startCounter();
                 }
@@ -251,22 +313,103 @@ public class PlaybackVideoFragment extends Fragment implements
         }
     }
 
+    private boolean isTrimming() {
+        return mTrimBar != null && mTrimBar.getVisibility() == View.VISIBLE && mTrimBar.isTrimmed();
+    }
+
     private void useVideo() {
+        final boolean trim = isTrimming();
+        final long startMs = trim ? mTrimBar.getStart() : 0;
+        final long endMs = trim && mTrimBar.getEnd() < mPositionSeek.getMax() ? mTrimBar.getEnd() : -1;
         if (mStreamer != null) {
             mStreamer.stop();
             mStreamer.release();
             mStreamer = null;
         }
         stopCounter();
-        if (mInterface != null)
+        if (trim) trimAndUseVideo(startMs, endMs);
+        else if (mInterface != null)
             mInterface.useVideo(mOutputUri);
     }
 
+    /**
+     * Trims the recording in place before it's used, in the background; it takes a few hundred
+     * milliseconds at most, nothing is re-encoded. If it fails the capture ends with the error,
+     * rather than with more of the recording than was chosen.
+     *
+     * @param endMs -1 to keep the rest of the recording.
+     */
+    private void trimAndUseVideo(final long startMs, final long endMs) {
+        mRetry.setEnabled(false);
+        mPlayPause.setEnabled(false);
+        mUseVideo.setEnabled(false);
+        mTrimBar.setEnabled(false);
+        final File file = new File(Uri.parse(mOutputUri).getPath());
+        final Handler handler = new Handler();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Exception error = null;
+                try {
+                    Mp4Trimmer.process(file, startMs * 1000, endMs == -1 ? Long.MAX_VALUE : endMs * 1000);
+                } catch (IOException | IllegalArgumentException e) {
+                    Log.w(TAG, "Failed to trim " + file, e);
+                    error = new Exception("Failed to trim the video: " + e.getMessage(), e);
+                }
+                final Exception trimError = error;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (trimError != null)
+                            throwError(trimError);
+                        else if (mInterface != null)
+                            mInterface.useVideo(mOutputUri);
+                    }
+                });
+            }
+        }, TAG + "Trim").start();
+    }
+
+    private void throwError(Exception e) {
+        final Activity act = getActivity();
+        if (act != null) {
+            act.setResult(Activity.RESULT_CANCELED, new Intent().putExtra(MaterialCamera.ERROR_EXTRA, e));
+            act.finish();
+        }
+    }
+
+    @Override
+    public void onTrimStarted() {
+        if (mStreamer == null) return;
+        mWasPlaying = mStreamer.isPlaying();
+        mStreamer.pause();
+    }
+
+    @Override
+    public void onTrimChanged(int positionMs) {
+        if (mStreamer == null) return;
+        // Shows the frame at the handle.
+        mStreamer.seekTo(positionMs);
+        mPositionSeek.setProgress(positionMs);
+        mPosition.setText(CameraUtil.getDurationString(positionMs));
+    }
+
+    @Override
+    public void onTrimStopped() {
+        if (mStreamer == null) return;
+        if (mStreamer.getCurrentPosition() >= mTrimBar.getEnd())
+            mStreamer.seekTo(mTrimBar.getStart());
+        if (mWasPlaying)
+            mStreamer.start(getActivity());
+    }
+
     @Override
     public void onPrepared(MediaPlayer mp) {
+        mPrepared = true;
         if (!mInterface.hasLengthLimit() && mPositionHandler != null)
             mPositionHandler.removeCallbacks(mPositionUpdater);
         mPositionSeek.setMax(mp.getDuration());
+        mTrimBar.setMax(mp.getDuration());
         mDuration.setText(String.format("-%s", CameraUtil.getDurationString(mp.getDuration())));
         mPlayPause.setEnabled(true);
         mRetry.setEnabled(true);
@@ -0,0 +1,645 @@
+package com.afollestad.materialcamera.internal;
+
+import android.annotation.TargetApi;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Records with a pre-roll: the camera renders into the input surface returned by {@link #start()}
+ * all the time, and the last few seconds are kept encoded in an {@link EncodedSampleRing} per track.
+ * {@link #startRecording} opens a muxer, writes the buffered samples from the keyframe closest to
+ * the pre-roll length back, then keeps writing samples as they're encoded until
+ * {@link #stopRecording}, and after it until the encoders caught up with the moment it was called.
+ * <p>
+ * Encoders are drained on their own thread, which also owns the rings and the muxer; the
+ * microphone is read on another. Errors are delivered to the {@link Listener} on the main thread.
+ * <p>
+ * With a max file size, the muxer is stopped at the first keyframe once the file gets close to
+ * it, and either recording continues in the next file from that keyframe on, or it ends there.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class PreRollRecorder {
+
+    private static final String TAG = "PreRollRecorder";
+    private static final int DEFAULT_AUDIO_SAMPLE_RATE = 44100;
+    private static final int DEFAULT_AUDIO_BIT_RATE = 128000;
+    private static final int AAC_FRAME_SIZE = 1024;
+    private static final long TIMEOUT_US = 10000;
+    // Rings are sized for this much more than the pre-roll, they're trimmed a keyframe group at a time.
+    private static final int HEADROOM_SECONDS = 2;
+    private static final int MAX_FRAME_RATE = 60;
+    // The video ring is allocated up front, so high bit rates get less pre-roll than asked for.
+    private static final int MAX_VIDEO_RING_BYTES = 32 * 1024 * 1024;
+    // What the muxer adds per sample to the sample tables in moov, roughly.
+    private static final int SAMPLE_TABLE_BYTES = 16;
+    // Seconds of recording kept free below the max file size, to reach the next keyframe in.
+    private static final int MAX_FILE_SIZE_HEADROOM_SECONDS = 2;
+    // How long a stopped recording waits for the encoders, and releasing for their end of stream.
+    private static final long STOP_TIMEOUT_MS = 1000;
+    // Further than this from now, the first frame isn't stamped with the clock it's assumed to be.
+    private static final long CLOCK_TOLERANCE_US = 1000000;
+
+    public interface Listener {
+
+        void onError(@NonNull Exception e);
+
+        void onSegmentStarted(@NonNull String finishedPath, @NonNull String nextPath);
+
+        /**
+         * The recording ended at the max file size, and doesn't continue in a new file.
+         */
+        void onMaxFileSizeReached();
+    }
+
+    private final String mVideoMimeType;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mBitRate;
+    private final int mFrameRate;
+    private final long mPreRollUs;
+    private final int mAudioBitRate;
+    private final int mAudioSampleRate;
+    private final int mAudioChannels;
+    private final long mMaxFileSize;
+    private final boolean mSegmentAtMaxFileSize;
+    private final boolean mRealtimeTimestamps;
+    private final Listener mListener;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final MediaCodec.BufferInfo mInfo = new MediaCodec.BufferInfo();
+    private final MediaCodec.BufferInfo mFlushInfo = new MediaCodec.BufferInfo();
+
+    private volatile boolean mRunning;
+    private boolean mFailed;
+    private MediaCodec mVideoEncoder;
+    private Surface mInputSurface;
+    private MediaCodec mAudioEncoder;
+    private AudioRecord mAudioRecord;
+    private Thread mAudioThread;
+
+    // Only touched on the encoder thread.
+    private EncodedSampleRing mVideoRing;
+    private EncodedSampleRing mAudioRing;
+    private MediaFormat mVideoFormat;
+    private MediaFormat mAudioFormat;
+    private boolean mClockOffsetKnown;
+    private long mClockOffsetUs;
+    private String mOutputPath;
+    private int mOrientationHint;
+    private MediaMuxer mMuxer;
+    private int mVideoTrack;
+    private int mAudioTrack;
+    private long mRecordFromUs;
+    private ByteBuffer mCopyBuffer;
+    private File mFirstSegment;
+    private int mSegmentIndex;
+    private long mBytesWritten;
+    private int mSamplesWritten;
+    private boolean mSegmentKeyFrameRequested;
+    // Set while a stopped recording waits for what was captured before the stop, see stopRecording().
+    private boolean mStopping;
+    private long mStopAtUs;
+    private boolean mVideoStopped;
+    private boolean mAudioStopped;
+    private Runnable mStopCallback;
+
+    /**
+     * @param videoMimeType   The video codec, {@link VideoEncoderChooser#MIME_TYPE_AVC} or HEVC.
+     * @param audio           Whether to record the microphone too, the RECORD_AUDIO permission is needed.
+     * @param audioBitRate    The AAC bit rate, or -1 for the default.
+     * @param audioSampleRate The microphone's sample rate, or -1 for the default.
+     * @param audioChannels   1 or 2, or -1 for mono.
+     * @param maxFileSize     The most bytes a recorded file may have, or -1.
+     * @param realtimeTimestamps Whether the camera stamps frames with
+     *                           {@link SystemClock#elapsedRealtimeNanos()}, see
+     *                           CameraCharacteristics#SENSOR_INFO_TIMESTAMP_SOURCE.
+     */
+    public PreRollRecorder(String videoMimeType, int width, int height, int bitRate, int frameRate, int preRollSeconds,
+                           boolean audio, int audioBitRate, int audioSampleRate, int audioChannels,
+                           long maxFileSize, boolean segmentAtMaxFileSize, boolean realtimeTimestamps,
+                           @NonNull Listener listener) {
+        mVideoMimeType = videoMimeType;
+        mWidth = width;
+        mHeight = height;
+        mBitRate = bitRate;
+        mFrameRate = frameRate;
+        mPreRollUs = preRollSeconds * 1000000L;
+        mAudioBitRate = audioBitRate > 0 ? audioBitRate : DEFAULT_AUDIO_BIT_RATE;
+        mAudioSampleRate = audioSampleRate > 0 ? audioSampleRate : DEFAULT_AUDIO_SAMPLE_RATE;
+        mAudioChannels = audioChannels == 2 ? 2 : 1;
+        mMaxFileSize = maxFileSize;
+        mSegmentAtMaxFileSize = segmentAtMaxFileSize;
+        mRealtimeTimestamps = realtimeTimestamps;
+        mListener = listener;
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+
+        final int seconds = preRollSeconds + HEADROOM_SECONDS;
+        final long videoBytes = (long) mBitRate / 8 * seconds;
+        if (videoBytes > MAX_VIDEO_RING_BYTES)
+            Log.w(TAG, "Pre-roll limited to " + MAX_VIDEO_RING_BYTES + " bytes of video, " + videoBytes + " wanted.");
+        mVideoRing = new EncodedSampleRing((int) Math.min(videoBytes, MAX_VIDEO_RING_BYTES),
+                MAX_FRAME_RATE * seconds, mPreRollUs);
+        if (audio) {
+            // Twice the nominal rate, AAC encoders don't hold their bit rate exactly.
+            mAudioRing = new EncodedSampleRing(mAudioBitRate / 4 * seconds,
+                    (mAudioSampleRate / AAC_FRAME_SIZE + 1) * seconds, mPreRollUs);
+        }
+    }
+
+    public String getVideoMimeType() {
+        return mVideoMimeType;
+    }
+
+    public int getBitRate() {
+        return mBitRate;
+    }
+
+    /**
+     * Starts the encoders. The caller calls {@link #release()} if this throws.
+     *
+     * @return the surface the camera renders into.
+     */
+    public Surface start() throws IOException {
+        final MediaFormat videoFormat = MediaFormat.createVideoFormat(mVideoMimeType, mWidth, mHeight);
+        videoFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        videoFormat.setInteger(MediaFormat.KEY_BIT_RATE, mBitRate);
+        videoFormat.setInteger(MediaFormat.KEY_FRAME_RATE, mFrameRate);
+        // A recording can only start at a keyframe, so they're kept close together.
+        videoFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
+        mVideoEncoder = MediaCodec.createEncoderByType(mVideoMimeType);
+        mVideoEncoder.configure(videoFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        mInputSurface = mVideoEncoder.createInputSurface();
+
+        if (mAudioRing != null) {
+            final int channelConfig = mAudioChannels == 2 ?
+                    AudioFormat.CHANNEL_IN_STEREO : AudioFormat.CHANNEL_IN_MONO;
+            final int minBufferSize = AudioRecord.getMinBufferSize(mAudioSampleRate,
+                    channelConfig, AudioFormat.ENCODING_PCM_16BIT);
+            mAudioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, mAudioSampleRate, channelConfig,
+                    AudioFormat.ENCODING_PCM_16BIT, Math.max(minBufferSize, AAC_FRAME_SIZE * 2 * mAudioChannels) * 2);
+            if (mAudioRecord.getState() != AudioRecord.STATE_INITIALIZED)
+                throw new IOException("Failed to open the microphone.");
+            final MediaFormat audioFormat = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC, mAudioSampleRate, mAudioChannels);
+            audioFormat.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+            audioFormat.setInteger(MediaFormat.KEY_BIT_RATE, mAudioBitRate);
+            mAudioEncoder = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
+            mAudioEncoder.configure(audioFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        }
+
+        mRunning = true;
+        mVideoEncoder.start();
+        if (mAudioEncoder != null) {
+            mAudioEncoder.start();
+            mAudioThread = new Thread(mAudioLoop, TAG + "Audio");
+            mAudioThread.start();
+        }
+        mHandler.post(mDrain);
+        return mInputSurface;
+    }
+
+    /**
+     * Starts writing to outputPath, from the keyframe closest to the pre-roll length back.
+     */
+    public void startRecording(final String outputPath, final int orientationHint) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Recording again before the last one caught up ends that one right here.
+                completeStop();
+                if (!mRunning || mOutputPath != null) return;
+                mOutputPath = outputPath;
+                mOrientationHint = orientationHint;
+                mFirstSegment = new File(outputPath);
+                mSegmentIndex = 1;
+                final int start = mVideoRing.findStart(mPreRollUs);
+                if (start != -1) {
+                    mRecordFromUs = mVideoRing.getTimeUs(start);
+                } else {
+                    // Nothing buffered yet, the recording starts at the next keyframe.
+                    mRecordFromUs = Long.MAX_VALUE;
+                    requestKeyFrame();
+                }
+                startMuxerIfReady();
+            }
+        });
+    }
+
+    /**
+     * Finishes the recording, if any. Frames and audio captured before this call are still in the
+     * encoders, so the file is only finished once each track has a sample from after it, or
+     * {@link #STOP_TIMEOUT_MS} passed.
+     *
+     * @param then Optionally run on the main thread afterwards, once the file is finalized.
+     */
+    public void stopRecording(@Nullable final Runnable then) {
+        final long stopUs = System.nanoTime() / 1000;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                completeStop();
+                if (mMuxer == null) {
+                    finishRecording();
+                    if (then != null)
+                        mMainHandler.post(then);
+                    return;
+                }
+                mStopping = true;
+                mStopAtUs = stopUs;
+                mVideoStopped = false;
+                mAudioStopped = mAudioEncoder == null;
+                mStopCallback = then;
+                mHandler.postDelayed(mStopTimeout, STOP_TIMEOUT_MS);
+            }
+        });
+    }
+
+    private final Runnable mStopTimeout = new Runnable() {
+        @Override
+        public void run() {
+            Log.w(TAG, "The encoders didn't catch up with the stop, finishing the recording without them.");
+            completeStop();
+        }
+    };
+
+    private void completeStop() {
+        if (!mStopping) return;
+        mStopping = false;
+        mHandler.removeCallbacks(mStopTimeout);
+        finishRecording();
+        if (mStopCallback != null) {
+            mMainHandler.post(mStopCallback);
+            mStopCallback = null;
+        }
+    }
+
+    /**
+     * Finishes the recording, if any, releases the encoders and stops the encoder thread. Call
+     * this after the camera stopped rendering into the input surface: a recording still going
+     * gets everything up to the end of the encoders' streams.
+     */
+    public void release() {
+        mRunning = false;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mAudioThread != null) {
+                    try {
+                        mAudioThread.join();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    mAudioThread = null;
+                }
+                if (mMuxer != null)
+                    drainToEndOfStream();
+                completeStop();
+                finishRecording();
+                releaseCodec(mVideoEncoder);
+                releaseCodec(mAudioEncoder);
+                mVideoEncoder = null;
+                mAudioEncoder = null;
+                if (mInputSurface != null) {
+                    mInputSurface.release();
+                    mInputSurface = null;
+                }
+                if (mAudioRecord != null) {
+                    mAudioRecord.release();
+                    mAudioRecord = null;
+                }
+                mThread.quitSafely();
+            }
+        });
+    }
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            if (!mRunning) return;
+            try {
+                drain(mVideoEncoder, true, TIMEOUT_US);
+                if (mAudioEncoder != null)
+                    drain(mAudioEncoder, false, 0);
+            } catch (IllegalStateException e) {
+                fail(new Exception("Pre-roll encoding failed: " + e.getMessage(), e));
+                return;
+            }
+            // Posted rather than looped, so start and stop requests get their turn.
+            mHandler.post(this);
+        }
+    };
+
+    private final Runnable mAudioLoop = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                mAudioRecord.startRecording();
+                while (mRunning) {
+                    final int index = mAudioEncoder.dequeueInputBuffer(TIMEOUT_US);
+                    if (index < 0) continue;
+                    final ByteBuffer buffer = mAudioEncoder.getInputBuffer(index);
+                    int read = 0;
+                    if (buffer != null) {
+                        buffer.clear();
+                        read = Math.max(mAudioRecord.read(buffer, buffer.capacity()), 0);
+                    }
+                    // Stamped when the read started, 16 bit samples.
+                    final long frames = read / (2 * mAudioChannels);
+                    final long timeUs = System.nanoTime() / 1000 - frames * 1000000L / mAudioSampleRate;
+                    mAudioEncoder.queueInputBuffer(index, 0, read, timeUs, 0);
+                }
+                // Ends the stream, what's still in the encoder is drained by release().
+                final int index = mAudioEncoder.dequeueInputBuffer(TIMEOUT_US);
+                if (index >= 0) {
+                    mAudioEncoder.queueInputBuffer(index, 0, 0, System.nanoTime() / 1000,
+                            MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                }
+            } catch (IllegalStateException e) {
+                if (mRunning)
+                    fail(new Exception("Failed to record audio: " + e.getMessage(), e));
+            } finally {
+                try {
+                    mAudioRecord.stop();
+                } catch (IllegalStateException ignored) {
+                }
+            }
+        }
+    };
+
+    /**
+     * Signals the end of the video stream, the audio loop ends its own, and writes what's still in
+     * the encoders.
+     */
+    private void drainToEndOfStream() {
+        try {
+            mVideoEncoder.signalEndOfInputStream();
+            drainToEndOfStream(mVideoEncoder, true);
+            if (mAudioEncoder != null)
+                drainToEndOfStream(mAudioEncoder, false);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Failed to drain the encoders.", e);
+        }
+    }
+
+    private void drainToEndOfStream(MediaCodec encoder, boolean video) {
+        final long deadline = SystemClock.elapsedRealtime() + STOP_TIMEOUT_MS;
+        while (!drain(encoder, video, TIMEOUT_US)) {
+            if (SystemClock.elapsedRealtime() > deadline) {
+                Log.w(TAG, "No end of stream from the " + (video ? "video" : "audio") + " encoder.");
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return whether the end of the encoder's stream was reached.
+     */
+    private boolean drain(MediaCodec encoder, boolean video, long timeoutUs) {
+        while (true) {
+            final int index = encoder.dequeueOutputBuffer(mInfo, timeoutUs);
+            timeoutUs = 0;
+            if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                return false;
+            } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                if (video) mVideoFormat = encoder.getOutputFormat();
+                else mAudioFormat = encoder.getOutputFormat();
+                startMuxerIfReady();
+            } else if (index >= 0) {
+                // Codec config is part of the output format, the muxer writes it itself.
+                if ((mInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && mInfo.size > 0) {
+                    final ByteBuffer buffer = encoder.getOutputBuffer(index);
+                    if (buffer != null) {
+                        buffer.position(mInfo.offset);
+                        buffer.limit(mInfo.offset + mInfo.size);
+                        onSample(buffer, video);
+                    }
+                }
+                encoder.releaseOutputBuffer(index, false);
+                if ((mInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0)
+                    return true;
+            }
+        }
+    }
+
+    private void onSample(ByteBuffer buffer, boolean video) {
+        long timeUs = mInfo.presentationTimeUs;
+        final boolean keyFrame = !video || (mInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+        if (video) {
+            if (!mClockOffsetKnown) {
+                mClockOffsetUs = getClockOffsetUs(timeUs, mRealtimeTimestamps, System.nanoTime() / 1000,
+                        SystemClock.elapsedRealtimeNanos() / 1000);
+                mClockOffsetKnown = true;
+            }
+            timeUs += mClockOffsetUs;
+        }
+
+        final boolean afterStop = mStopping && timeUs >= mStopAtUs;
+        if (afterStop) {
+            if (video) mVideoStopped = true;
+            else mAudioStopped = true;
+            if (mVideoStopped && mAudioStopped)
+                completeStop();
+        }
+        if (mMuxer == null || afterStop) {
+            final EncodedSampleRing ring = video ? mVideoRing : mAudioRing;
+            ring.add(buffer, mInfo.size, timeUs, keyFrame);
+            return;
+        }
+        if (video && mRecordFromUs == Long.MAX_VALUE) {
+            if (!keyFrame) return;
+            mRecordFromUs = timeUs;
+        }
+        if (timeUs < mRecordFromUs) return;
+        if (mMaxFileSize > 0 && !checkFileSize(video && keyFrame, timeUs))
+            return;
+        mInfo.presentationTimeUs = timeUs;
+        writeSample(video ? mVideoTrack : mAudioTrack, buffer, mInfo);
+    }
+
+    /**
+     * Maps frame times onto {@link System#nanoTime()}, the clock audio is stamped with. Cameras
+     * stamp frames with CLOCK_BOOTTIME if they say so, and otherwise in practice with
+     * CLOCK_MONOTONIC, which nanoTime() reads; both convert exactly. Only a first frame on neither
+     * clock falls back to when it left the encoder, which is off by the encoder's latency.
+     *
+     * @param frameTimeUs The first frame's time.
+     * @return what to add to frame times, in microseconds.
+     */
+    static long getClockOffsetUs(long frameTimeUs, boolean realtime, long monotonicUs, long realtimeUs) {
+        final long offsetUs = realtime ? monotonicUs - realtimeUs : 0;
+        if (Math.abs(monotonicUs - (frameTimeUs + offsetUs)) <= CLOCK_TOLERANCE_US)
+            return offsetUs;
+        Log.w(TAG, "Frames aren't stamped with the " + (realtime ? "boot" : "monotonic") + " clock.");
+        return monotonicUs - frameTimeUs;
+    }
+
+    /**
+     * Rolls over to the next file, or ends the recording, once the current file gets close to the
+     * max file size.
+     *
+     * @return false if the sample isn't written since the recording ended.
+     */
+    private boolean checkFileSize(boolean videoKeyFrame, long timeUs) {
+        final long estimatedSize = mBytesWritten + mInfo.size + (long) mSamplesWritten * SAMPLE_TABLE_BYTES;
+        if (!mSegmentAtMaxFileSize) {
+            if (estimatedSize <= mMaxFileSize) return true;
+            finishRecording();
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onMaxFileSizeReached();
+                }
+            });
+            return false;
+        }
+
+        final long headroom = (long) (mBitRate + (mAudioEncoder != null ? mAudioBitRate : 0)) / 8 *
+                MAX_FILE_SIZE_HEADROOM_SECONDS;
+        if (estimatedSize < Math.max(mMaxFileSize - headroom, mMaxFileSize / 2))
+            return true;
+        if (!videoKeyFrame) {
+            // The next file has to start with one.
+            if (!mSegmentKeyFrameRequested) {
+                mSegmentKeyFrameRequested = true;
+                requestKeyFrame();
+            }
+            return true;
+        }
+
+        final String finishedPath = mOutputPath;
+        stopMuxer();
+        mOutputPath = CameraUtil.makeSegmentFile(mFirstSegment, ++mSegmentIndex).getAbsolutePath();
+        // Audio that's older than the keyframe the new file starts at is dropped.
+        mRecordFromUs = timeUs;
+        startMuxerIfReady();
+        if (mMuxer == null) return false;
+        final String nextPath = mOutputPath;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onSegmentStarted(finishedPath, nextPath);
+            }
+        });
+        return true;
+    }
+
+    private void writeSample(int track, ByteBuffer buffer, MediaCodec.BufferInfo info) {
+        mMuxer.writeSampleData(track, buffer, info);
+        mBytesWritten += info.size;
+        mSamplesWritten++;
+    }
+
+    private void startMuxerIfReady() {
+        if (mOutputPath == null || mMuxer != null || mVideoFormat == null ||
+                (mAudioEncoder != null && mAudioFormat == null))
+            return;
+        MediaMuxer muxer = null;
+        try {
+            muxer = new MediaMuxer(mOutputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            muxer.setOrientationHint(mOrientationHint);
+            mVideoTrack = muxer.addTrack(mVideoFormat);
+            if (mAudioEncoder != null)
+                mAudioTrack = muxer.addTrack(mAudioFormat);
+            muxer.start();
+        } catch (IOException | IllegalStateException e) {
+            if (muxer != null)
+                muxer.release();
+            mOutputPath = null;
+            fail(new Exception("Failed to begin recording: " + e.getMessage(), e));
+            return;
+        }
+        mMuxer = muxer;
+        mBytesWritten = 0;
+        mSamplesWritten = 0;
+        mSegmentKeyFrameRequested = false;
+        flush(mVideoRing, mVideoTrack);
+        if (mAudioRing != null)
+            flush(mAudioRing, mAudioTrack);
+    }
+
+    private void flush(EncodedSampleRing ring, int track) {
+        for (int n = 0; n < ring.size(); n++) {
+            final long timeUs = ring.getTimeUs(n);
+            if (timeUs < mRecordFromUs) continue;
+            final int size = ring.getSize(n);
+            if (mCopyBuffer == null || mCopyBuffer.capacity() < size)
+                mCopyBuffer = ByteBuffer.allocateDirect(size);
+            mCopyBuffer.clear();
+            ring.copyTo(n, mCopyBuffer);
+            mCopyBuffer.flip();
+            mFlushInfo.set(0, size, timeUs, ring.isKeyFrame(n) ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+            writeSample(track, mCopyBuffer, mFlushInfo);
+        }
+        ring.clear();
+    }
+
+    private void finishRecording() {
+        mOutputPath = null;
+        stopMuxer();
+    }
+
+    private void stopMuxer() {
+        if (mMuxer == null) return;
+        try {
+            mMuxer.stop();
+        } catch (IllegalStateException e) {
+            fail(new Exception("Failed to finish the recording: " + e.getMessage(), e));
+        } finally {
+            mMuxer.release();
+            mMuxer = null;
+        }
+    }
+
+    private void requestKeyFrame() {
+        final Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        try {
+            mVideoEncoder.setParameters(params);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Failed to request a keyframe.", e);
+        }
+    }
+
+    private static void releaseCodec(@Nullable MediaCodec codec) {
+        if (codec == null) return;
+        try {
+            codec.stop();
+        } catch (IllegalStateException ignored) {
+        }
+        codec.release();
+    }
+
+    private void fail(final Exception e) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mFailed) return;
+                mFailed = true;
+                mListener.onError(e);
+            }
+        });
+    }
+}
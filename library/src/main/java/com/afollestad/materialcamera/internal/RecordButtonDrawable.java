@@ -0,0 +1,157 @@
+package com.afollestad.materialcamera.internal;
+
+import android.animation.ValueAnimator;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+/**
+ * The record button's icon. Morphs the record dot into the stop square (and fades the outer ring)
+ * when recording starts, and back when it stops. Every animation frame interpolates into
+ * preallocated buffers and replays into the same Path, so nothing is allocated while the camera
+ * is starting or stopping MediaRecorder.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+class RecordButtonDrawable extends Drawable implements ValueAnimator.AnimatorUpdateListener {
+
+    private static final float VIEWPORT_SIZE = 24f;
+    private static final float SIZE_DP = 56f;
+    private static final long ANIMATION_DURATION = 200;
+
+    // The ring of ic_action_record.
+    private static final String RING = "M12,2C6.48,2 2,6.48 2,12s4.48,10 10,10 10,-4.48 10,-10S17.52,2 12,2z" +
+            "m0,18c-4.42,0 -8,-3.58 -8,-8s3.58,-8 8,-8 8,3.58 8,8 -3.58,8 -8,8z";
+    // The dot of ic_action_record and the square of ic_action_stop, as four cubics each so they
+    // can morph. Each circle segment starts at 45 degrees, where the square's corners are.
+    private static final String DOT = "M15.5355,8.4645C17.4882,10.4171 17.4882,13.5829 15.5355,15.5355" +
+            "C13.5829,17.4882 10.4171,17.4882 8.4645,15.5355C6.5118,13.5829 6.5118,10.4171 8.4645,8.4645" +
+            "C10.4171,6.5118 13.5829,6.5118 15.5355,8.4645Z";
+    private static final String SQUARE = "M18,6C18,10 18,14 18,18C14,18 10,18 6,18C6,14 6,10 6,6" +
+            "C10,6 14,6 18,6Z";
+
+    private final float mDensity;
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Path mRingPath = new Path();
+    private final Path mMorphPath = new Path();
+    private final float[] mCurrent = new float[6];
+    private final CompiledPath mDot;
+    private final CompiledPath mSquare;
+    private final CompiledPath mMorph;
+    private final ValueAnimator mAnimator;
+
+    private int mAlpha = 255;
+    private float mProgress;
+    private float mProgressFrom;
+    private float mProgressTo;
+
+    public RecordButtonDrawable(Resources r) {
+        mDensity = r.getDisplayMetrics().density;
+        mPaint.setColor(Color.WHITE);
+
+        final PathDataCache cache = PathDataCache.getInstance();
+        PathParser.compiledToPath(cache.get(RING), mRingPath, mCurrent);
+        mDot = cache.get(DOT);
+        mSquare = cache.get(SQUARE);
+        if (!mDot.canMorph(mSquare))
+            throw new IllegalStateException("The record and stop shapes can't morph into each other.");
+        mMorph = mDot.copy();
+        updateMorphPath();
+
+        mAnimator = ValueAnimator.ofFloat(0f, 1f);
+        mAnimator.setDuration(ANIMATION_DURATION);
+        mAnimator.addUpdateListener(this);
+    }
+
+    /**
+     * Shows the stop square while recording, and the record dot otherwise.
+     *
+     * @param animate Whether to morph from the current shape, or jump straight to the new one.
+     */
+    public void setRecording(boolean recording, boolean animate) {
+        final float target = recording ? 1f : 0f;
+        mAnimator.cancel();
+        if (!animate || mProgress == target) {
+            setProgress(target);
+            return;
+        }
+        mProgressFrom = mProgress;
+        mProgressTo = target;
+        mAnimator.start();
+    }
+
+    public void cancelAnimation() {
+        mAnimator.cancel();
+    }
+
+    @Override
+    public void onAnimationUpdate(ValueAnimator animation) {
+        // The fraction is a primitive, getAnimatedValue() would box a Float every frame.
+        setProgress(mProgressFrom + (mProgressTo - mProgressFrom) * animation.getAnimatedFraction());
+    }
+
+    private void setProgress(float progress) {
+        mProgress = progress;
+        updateMorphPath();
+        invalidateSelf();
+    }
+
+    private void updateMorphPath() {
+        mMorph.interpolate(mDot, mSquare, mProgress);
+        mMorphPath.rewind();
+        PathParser.compiledToPath(mMorph, mMorphPath, mCurrent);
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        final Rect bounds = getBounds();
+        if (bounds.isEmpty())
+            return;
+        final int saveCount = canvas.save();
+        canvas.translate(bounds.left, bounds.top);
+        canvas.scale(bounds.width() / VIEWPORT_SIZE, bounds.height() / VIEWPORT_SIZE);
+        final int ringAlpha = (int) (mAlpha * (1f - mProgress));
+        if (ringAlpha > 0) {
+            mPaint.setAlpha(ringAlpha);
+            canvas.drawPath(mRingPath, mPaint);
+        }
+        mPaint.setAlpha(mAlpha);
+        canvas.drawPath(mMorphPath, mPaint);
+        canvas.restoreToCount(saveCount);
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        if (mAlpha != alpha) {
+            mAlpha = alpha;
+            invalidateSelf();
+        }
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        mPaint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return (int) (SIZE_DP * mDensity + 0.5f);
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return (int) (SIZE_DP * mDensity + 0.5f);
+    }
+}
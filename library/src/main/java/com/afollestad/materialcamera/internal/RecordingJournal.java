@@ -0,0 +1,285 @@
+package com.afollestad.materialcamera.internal;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * Remembers the recordings in progress, so one cut off by a crash can be found and recovered with
+ * {@link Mp4Recovery} on a later launch. A journal with the file's encoding settings is written
+ * to the files directory before recording to the file starts, and deleted once it's finished.
+ * Finished recordings also leave their sample description behind, the part of the moov box a
+ * recovered file can't be given from the settings alone.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class RecordingJournal {
+
+    private static final String TAG = "RecordingJournal";
+    private static final String DIRECTORY = "mcam_recovery";
+    private static final String JOURNAL_EXTENSION = ".journal";
+    private static final String SAMPLE_DESCRIPTION_EXTENSION = ".stsd";
+    // Journals written by this process belong to recordings that may still be going.
+    private static final String SESSION = UUID.randomUUID().toString();
+
+    private RecordingJournal() {
+    }
+
+    /**
+     * Writes the journal of a recording about to start. Failing to is only logged, recording
+     * works without one. Syncs it to disk, so not on the main thread.
+     */
+    public static void begin(@NonNull Context context, @NonNull File file, String mimeType, int width,
+                             int height, int frameRate, int bitRate, @Degrees.DegreeUnits int rotation) {
+        final Properties journal = new Properties();
+        journal.setProperty("session", SESSION);
+        journal.setProperty("path", file.getAbsolutePath());
+        journal.setProperty("mime_type", mimeType);
+        journal.setProperty("width", Integer.toString(width));
+        journal.setProperty("height", Integer.toString(height));
+        journal.setProperty("frame_rate", Integer.toString(frameRate));
+        journal.setProperty("bit_rate", Integer.toString(bitRate));
+        journal.setProperty("rotation", Integer.toString(rotation));
+        write(context, file, journal);
+    }
+
+    /**
+     * Writes the journal of the file a recording continued in, e.g. at the max file size, with the
+     * settings of the file it continued from. Not on the main thread either.
+     */
+    public static void continueIn(@NonNull Context context, @NonNull File finished, @NonNull File next) {
+        final Properties journal = read(context, finished);
+        if (journal == null) return;
+        journal.setProperty("session", SESSION);
+        journal.setProperty("path", next.getAbsolutePath());
+        write(context, next, journal);
+    }
+
+    /**
+     * Deletes the journal of a finished recording, keeping its sample description for recovering
+     * later recordings made the same way. Reads the file, so not on the main thread.
+     */
+    public static void finish(@NonNull Context context, @NonNull File file) {
+        final File journal = getJournalFile(context, file);
+        if (!journal.exists()) return;
+        try {
+            saveSampleDescription(context, file);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to keep the sample description of " + file, e);
+        }
+        //noinspection ResultOfMethodCallIgnored
+        journal.delete();
+    }
+
+    /**
+     * Goes through the journals left by earlier processes, forgetting the recordings that were
+     * finished or deleted since. Reads every file that's left, so not on the main thread.
+     *
+     * @return the recordings that were cut off and can be recovered.
+     */
+    @NonNull
+    public static List<File> findRecoverable(@NonNull Context context) {
+        final List<File> recoverable = new ArrayList<>();
+        final File[] journals = getDirectory(context).listFiles();
+        if (journals == null) return recoverable;
+        for (File journalFile : journals) {
+            if (!journalFile.getName().endsWith(JOURNAL_EXTENSION)) continue;
+            final Properties journal = read(journalFile);
+            if (journal == null) {
+                //noinspection ResultOfMethodCallIgnored
+                journalFile.delete();
+                continue;
+            }
+            if (SESSION.equals(journal.getProperty("session"))) continue;
+            final File file = new File(journal.getProperty("path", ""));
+            if (!file.exists()) {
+                //noinspection ResultOfMethodCallIgnored
+                journalFile.delete();
+                continue;
+            }
+            final Mp4Box mediaData;
+            try {
+                mediaData = Mp4Recovery.findUnfinishedMediaData(file);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to read " + file, e);
+                continue;
+            }
+            if (mediaData == null) {
+                // Finished after all, e.g. stopped while the app was going away.
+                try {
+                    CameraUtil.closeQuietly(Mp4File.open(file));
+                    finish(context, file);
+                } catch (IOException e) {
+                    // A file prepared and never recorded to is of no use to anyone, but one with
+                    // media data is kept, whatever's wrong with the rest of it.
+                    Log.w(TAG, "Failed to open " + file, e);
+                    if (!hasMediaData(file))
+                        //noinspection ResultOfMethodCallIgnored
+                        file.delete();
+                    //noinspection ResultOfMethodCallIgnored
+                    journalFile.delete();
+                }
+            } else if (findSampleDescription(context, journal) != null) {
+                // Kept until there is a sample description otherwise.
+                recoverable.add(file);
+            }
+        }
+        return recoverable;
+    }
+
+    /**
+     * Makes file, one of {@link #findRecoverable(Context)}, playable again. Reads and rewrites the
+     * file, so not on the main thread.
+     *
+     * @return the number of video frames recovered.
+     */
+    public static int recover(@NonNull Context context, @NonNull File file) throws IOException {
+        final File journalFile = getJournalFile(context, file);
+        final Properties journal = read(journalFile);
+        if (journal == null)
+            throw new IOException("There's no journal for " + file + " to recover it with.");
+        final File sampleDescription = findSampleDescription(context, journal);
+        if (sampleDescription == null)
+            throw new IOException("No recording was finished with the settings of " + file + " yet.");
+        final int frames = Mp4Recovery.recover(file, readFully(sampleDescription),
+                getInt(journal, "frame_rate"), getInt(journal, "rotation"), getInt(journal, "bit_rate"));
+        //noinspection ResultOfMethodCallIgnored
+        journalFile.delete();
+        return frames;
+    }
+
+    private static boolean hasMediaData(File file) {
+        try {
+            return file.length() > 0 && Mp4Recovery.hasMediaData(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read " + file, e);
+            return true;
+        }
+    }
+
+    private static File getDirectory(Context context) {
+        final File directory = new File(context.getFilesDir(), DIRECTORY);
+        //noinspection ResultOfMethodCallIgnored
+        directory.mkdirs();
+        return directory;
+    }
+
+    // Recordings from different directories can have the same name.
+    private static File getJournalFile(Context context, File file) {
+        final String path = file.getAbsolutePath();
+        return new File(getDirectory(context), file.getName() + "_" +
+                Integer.toHexString(path.hashCode()) + JOURNAL_EXTENSION);
+    }
+
+    @Nullable
+    private static Properties read(Context context, File file) {
+        return read(getJournalFile(context, file));
+    }
+
+    @Nullable
+    private static Properties read(File journalFile) {
+        if (!journalFile.exists()) return null;
+        FileInputStream is = null;
+        try {
+            is = new FileInputStream(journalFile);
+            final Properties journal = new Properties();
+            journal.load(is);
+            return journal;
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(TAG, "Failed to read " + journalFile, e);
+            return null;
+        } finally {
+            CameraUtil.closeQuietly(is);
+        }
+    }
+
+    private static void write(Context context, File file, Properties journal) {
+        final File journalFile = getJournalFile(context, file);
+        FileOutputStream os = null;
+        try {
+            os = new FileOutputStream(journalFile);
+            journal.store(os, null);
+            os.getFD().sync();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + journalFile, e);
+        } finally {
+            CameraUtil.closeQuietly(os);
+        }
+    }
+
+    private static int getInt(Properties journal, String key) {
+        try {
+            return Integer.parseInt(journal.getProperty(key, "0"));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Nullable
+    private static File findSampleDescription(Context context, Properties journal) {
+        final String size = "_" + getInt(journal, "width") + "x" + getInt(journal, "height");
+        final String[] types = VideoEncoderChooser.MIME_TYPE_HEVC.equals(journal.getProperty("mime_type")) ?
+                new String[]{"hvc1", "hev1"} : new String[]{"avc1"};
+        for (String type : types) {
+            final File file = new File(getDirectory(context), type + size + SAMPLE_DESCRIPTION_EXTENSION);
+            if (file.exists()) return file;
+        }
+        return null;
+    }
+
+    private static void saveSampleDescription(Context context, File file) throws IOException {
+        final ByteBuffer stsd;
+        final Mp4File mp4 = Mp4File.open(file);
+        try {
+            stsd = Mp4Recovery.readSampleDescription(mp4);
+        } finally {
+            CameraUtil.closeQuietly(mp4);
+        }
+        if (stsd == null) return;
+        final File target = new File(getDirectory(context),
+                Mp4Recovery.getSampleDescriptionName(stsd) + SAMPLE_DESCRIPTION_EXTENSION);
+        // Replaced by every finished recording, an OS or encoder update can change the codec config
+        // it carries. Only rewritten when it did.
+        if (target.exists() && readFully(target).equals(stsd)) return;
+        final File temp = new File(target.getPath() + ".tmp");
+        FileOutputStream os = null;
+        try {
+            os = new FileOutputStream(temp);
+            os.getChannel().write(stsd);
+            os.close();
+            os = null;
+            if (!temp.renameTo(target))
+                throw new IOException("Failed to rename " + temp + " to " + target + ".");
+        } finally {
+            CameraUtil.closeQuietly(os);
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+        }
+    }
+
+    private static ByteBuffer readFully(File file) throws IOException {
+        final FileInputStream is = new FileInputStream(file);
+        try {
+            final ByteBuffer buffer = ByteBuffer.allocate((int) file.length());
+            while (buffer.hasRemaining()) {
+                if (is.getChannel().read(buffer) < 0)
+                    throw new IOException(file + " ended early.");
+            }
+            buffer.flip();
+            return buffer;
+        } finally {
+            CameraUtil.closeQuietly(is);
+        }
+    }
+}
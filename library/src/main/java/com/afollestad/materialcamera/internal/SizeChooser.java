@@ -0,0 +1,232 @@
+package com.afollestad.materialcamera.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size negotiation shared by the Camera1 and Camera2 fragments. Works on plain width/height arrays
+ * so it doesn't depend on either camera API's size class, and remembers the outcome per camera,
+ * view size and policy so reopening a camera (switching cameras, rotating) doesn't negotiate again.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class SizeChooser {
+
+    // Candidates are ranked by aspect ratio first, then by how much of the view or pixel budget
+    // they cover, then by how much bigger than needed they are.
+    private static final float ASPECT_WEIGHT = 100f;
+    private static final float COVERAGE_WEIGHT = 10f;
+    private static final float OVERSIZE_WEIGHT = 0.01f;
+
+    private static final int MAX_CACHED_RESULTS = 16;
+
+    private static final LinkedHashMap<Key, Result> sResults =
+            new LinkedHashMap<Key, Result>(MAX_CACHED_RESULTS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Result> eldest) {
+                    return size() > MAX_CACHED_RESULTS;
+                }
+            };
+
+    private SizeChooser() {
+    }
+
+    /**
+     * What the video size is negotiated for.
+     */
+    static final class Policy {
+
+        public static final Policy DEFAULT = new Policy(4f / 3f, 480);
+
+        /**
+         * Landscape width divided by height, e.g. 4/3.
+         */
+        public final float aspectRatio;
+        /**
+         * The tallest video that's allowed, which also sets the pixel budget: maxHeight tall at
+         * the preferred aspect ratio.
+         */
+        public final int maxHeight;
+
+        public Policy(float aspectRatio, int maxHeight) {
+            if (aspectRatio <= 0 || maxHeight <= 0)
+                throw new IllegalArgumentException("Aspect ratio and max height must be greater than 0.");
+            this.aspectRatio = aspectRatio;
+            this.maxHeight = maxHeight;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Policy)) return false;
+            final Policy other = (Policy) o;
+            return aspectRatio == other.aspectRatio && maxHeight == other.maxHeight;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Float.floatToIntBits(aspectRatio) + maxHeight;
+        }
+    }
+
+    /**
+     * The negotiated video and preview sizes.
+     */
+    static final class Result {
+
+        public final int videoWidth;
+        public final int videoHeight;
+        public final int previewWidth;
+        public final int previewHeight;
+
+        Result(int videoWidth, int videoHeight, int previewWidth, int previewHeight) {
+            this.videoWidth = videoWidth;
+            this.videoHeight = videoHeight;
+            this.previewWidth = previewWidth;
+            this.previewHeight = previewHeight;
+        }
+    }
+
+    private static final class Key {
+
+        final String cameraKey;
+        final int viewWidth;
+        final int viewHeight;
+        final Policy policy;
+
+        Key(String cameraKey, int viewWidth, int viewHeight, Policy policy) {
+            this.cameraKey = cameraKey;
+            this.viewWidth = viewWidth;
+            this.viewHeight = viewHeight;
+            this.policy = policy;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            final Key other = (Key) o;
+            return viewWidth == other.viewWidth && viewHeight == other.viewHeight &&
+                    cameraKey.equals(other.cameraKey) && policy.equals(other.policy);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = cameraKey.hashCode();
+            result = 31 * result + viewWidth;
+            result = 31 * result + viewHeight;
+            return 31 * result + policy.hashCode();
+        }
+    }
+
+    /**
+     * @param cameraKey Identifies the camera and the API it's opened with, the sizes it supports
+     *                  are assumed not to change while the process lives.
+     * @return the result of an earlier {@link #negotiate} with the same arguments, or null. Check
+     * this before building the candidate arrays.
+     */
+    public static Result getCached(String cameraKey, int viewWidth, int viewHeight, Policy policy) {
+        synchronized (sResults) {
+            return sResults.get(new Key(cameraKey, viewWidth, viewHeight, policy));
+        }
+    }
+
+    /**
+     * Picks the video size from the recorder's candidates, then the preview size that best fits
+     * the view at the video's aspect ratio, and remembers the result for {@link #getCached}.
+     *
+     * @throws IllegalArgumentException if either list of candidates is empty.
+     */
+    public static Result negotiate(String cameraKey, int viewWidth, int viewHeight, Policy policy,
+                                   int[] videoWidths, int[] videoHeights,
+                                   int[] previewWidths, int[] previewHeights) {
+        final int video = chooseVideoSize(videoWidths, videoHeights, policy);
+        if (video == -1)
+            throw new IllegalArgumentException("The camera didn't report any video sizes.");
+        final int preview = choosePreviewSize(previewWidths, previewHeights, viewWidth, viewHeight,
+                videoWidths[video], videoHeights[video]);
+        if (preview == -1)
+            throw new IllegalArgumentException("The camera didn't report any preview sizes.");
+        final Result result = new Result(videoWidths[video], videoHeights[video],
+                previewWidths[preview], previewHeights[preview]);
+        synchronized (sResults) {
+            sResults.put(new Key(cameraKey, viewWidth, viewHeight, policy), result);
+        }
+        return result;
+    }
+
+    /**
+     * Picks the video size closest to the policy's aspect ratio, and among those the one that
+     * fills the most of its pixel budget without being taller than its max height. If every size
+     * is too tall, the smallest one is picked.
+     *
+     * @return the index of the chosen size, or -1 if there are no sizes.
+     */
+    public static int chooseVideoSize(int[] widths, int[] heights, Policy policy) {
+        final float budget = policy.maxHeight * policy.aspectRatio * policy.maxHeight;
+        int best = -1;
+        float bestScore = Float.MAX_VALUE;
+        int smallest = -1;
+        long smallestArea = Long.MAX_VALUE;
+        for (int i = 0; i < widths.length; i++) {
+            if (widths[i] <= 0 || heights[i] <= 0)
+                continue;
+            final long area = (long) widths[i] * heights[i];
+            if (area < smallestArea) {
+                smallest = i;
+                smallestArea = area;
+            }
+            if (heights[i] > policy.maxHeight)
+                continue;
+            final float score = ASPECT_WEIGHT * aspectError(widths[i], heights[i], policy.aspectRatio) +
+                    COVERAGE_WEIGHT * (1f - Math.min(1f, area / budget));
+            if (score < bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best != -1 ? best : smallest;
+    }
+
+    /**
+     * Picks the preview size closest to aspectWidth:aspectHeight, and among those the smallest one
+     * that covers the view. Sizes are compared by their long and short edges, so the view's
+     * orientation doesn't matter.
+     *
+     * @return the index of the chosen size, or -1 if there are no sizes.
+     */
+    public static int choosePreviewSize(int[] widths, int[] heights, int viewWidth, int viewHeight,
+                                        int aspectWidth, int aspectHeight) {
+        final float aspectRatio = (float) Math.max(aspectWidth, aspectHeight) /
+                Math.min(aspectWidth, aspectHeight);
+        final int viewLong = Math.max(Math.max(viewWidth, viewHeight), 1);
+        final int viewShort = Math.max(Math.min(viewWidth, viewHeight), 1);
+        final float viewArea = (float) viewLong * viewShort;
+        int best = -1;
+        float bestScore = Float.MAX_VALUE;
+        for (int i = 0; i < widths.length; i++) {
+            if (widths[i] <= 0 || heights[i] <= 0)
+                continue;
+            final int sizeLong = Math.max(widths[i], heights[i]);
+            final int sizeShort = Math.min(widths[i], heights[i]);
+            final float coverage = Math.min(1f, (float) sizeLong / viewLong) *
+                    Math.min(1f, (float) sizeShort / viewShort);
+            final float oversize = Math.max(0f, (float) sizeLong * sizeShort / viewArea - 1f);
+            final float score = ASPECT_WEIGHT * aspectError(widths[i], heights[i], aspectRatio) +
+                    COVERAGE_WEIGHT * (1f - coverage) + OVERSIZE_WEIGHT * oversize;
+            if (score < bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return how far the size's landscape aspect ratio is from aspectRatio, relative to it.
+     */
+    private static float aspectError(int width, int height, float aspectRatio) {
+        final float ratio = (float) Math.max(width, height) / Math.min(width, height);
+        return Math.abs(ratio - aspectRatio) / aspectRatio;
+    }
+}
@@ -0,0 +1,169 @@
+package com.afollestad.materialcamera.internal;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * Two handles laid over the playback seek bar, marking the part of the recording to keep. Touches
+ * that don't start on a handle fall through to the seek bar underneath. Positions are in
+ * milliseconds, like the seek bar's.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+class TrimBar extends View {
+
+    interface Callback {
+
+        void onTrimStarted();
+
+        /**
+         * @param positionMs where the moved handle is now.
+         */
+        void onTrimChanged(int positionMs);
+
+        void onTrimStopped();
+    }
+
+    // Shorter clips would usually be a single key frame interval.
+    private static final int MIN_LENGTH_MS = 1000;
+
+    private final Paint mHandlePaint;
+    private final Paint mShadePaint;
+    private final RectF mHandleRect = new RectF();
+    private final float mHandleWidth;
+    private final float mTouchSlop;
+
+    private Callback mCallback;
+    private int mMax;
+    private int mStart;
+    private int mEnd;
+    // The handle being dragged: 0 for the start, 1 for the end, -1 for none.
+    private int mDragging = -1;
+
+    public TrimBar(Context context) {
+        this(context, null);
+    }
+
+    public TrimBar(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public TrimBar(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        final float density = getResources().getDisplayMetrics().density;
+        mHandleWidth = 4 * density;
+        mTouchSlop = 24 * density;
+        mHandlePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mHandlePaint.setColor(Color.WHITE);
+        mShadePaint = new Paint();
+        mShadePaint.setColor(Color.argb(0x99, 0, 0, 0));
+    }
+
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Sets the length of the recording. An end handle at the end stays there.
+     */
+    public void setMax(int max) {
+        if (max == mMax) return;
+        final boolean atEnd = mEnd == mMax;
+        mMax = max;
+        mStart = Math.min(mStart, max);
+        mEnd = atEnd ? max : Math.min(mEnd, max);
+        invalidate();
+    }
+
+    public int getStart() {
+        return mStart;
+    }
+
+    public int getEnd() {
+        return mEnd;
+    }
+
+    public boolean isTrimmed() {
+        return mMax > 0 && (mStart > 0 || mEnd < mMax);
+    }
+
+    private float toX(int position) {
+        final int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        return getPaddingLeft() + (float) position / mMax * width;
+    }
+
+    private int toPosition(float x) {
+        final int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        if (width <= 0) return 0;
+        final float fraction = (x - getPaddingLeft()) / width;
+        return Math.round(Math.max(0f, Math.min(1f, fraction)) * mMax);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (mMax <= 0) return;
+        final float start = toX(mStart);
+        final float end = toX(mEnd);
+        final float height = getHeight();
+        canvas.drawRect(getPaddingLeft(), 0, start, height, mShadePaint);
+        canvas.drawRect(end, 0, getWidth() - getPaddingRight(), height, mShadePaint);
+        final float radius = mHandleWidth / 2;
+        mHandleRect.set(start - radius, 0, start + radius, height);
+        canvas.drawRoundRect(mHandleRect, radius, radius, mHandlePaint);
+        mHandleRect.set(end - radius, 0, end + radius, height);
+        canvas.drawRoundRect(mHandleRect, radius, radius, mHandlePaint);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (!isEnabled() || mMax <= 0) return false;
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN: {
+                final float startDistance = Math.abs(event.getX() - toX(mStart));
+                final float endDistance = Math.abs(event.getX() - toX(mEnd));
+                if (Math.min(startDistance, endDistance) > mTouchSlop)
+                    return false;
+                // Handles on top of each other are told apart by which way there's room to go.
+                if (startDistance == endDistance)
+                    mDragging = mEnd < mMax ? 1 : 0;
+                else mDragging = startDistance < endDistance ? 0 : 1;
+                if (getParent() != null)
+                    getParent().requestDisallowInterceptTouchEvent(true);
+                if (mCallback != null)
+                    mCallback.onTrimStarted();
+                return true;
+            }
+            case MotionEvent.ACTION_MOVE: {
+                if (mDragging == -1) return false;
+                final int position = toPosition(event.getX());
+                final int minLength = Math.min(MIN_LENGTH_MS, mMax);
+                if (mDragging == 0) {
+                    mStart = Math.min(position, mEnd - minLength);
+                    mStart = Math.max(0, mStart);
+                } else {
+                    mEnd = Math.max(position, mStart + minLength);
+                    mEnd = Math.min(mMax, mEnd);
+                }
+                invalidate();
+                if (mCallback != null)
+                    mCallback.onTrimChanged(mDragging == 0 ? mStart : mEnd);
+                return true;
+            }
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                if (mDragging == -1) return false;
+                mDragging = -1;
+                if (mCallback != null)
+                    mCallback.onTrimStopped();
+                return true;
+        }
+        return mDragging != -1;
+    }
+}
@@ -0,0 +1,127 @@
+package com.afollestad.materialcamera.internal;
+
+import android.content.res.Resources;
+import android.content.res.XmlResourceParser;
+import android.graphics.drawable.Drawable;
+import android.support.annotation.DrawableRes;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.telly.mrvector.MrVector;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide, bounded LRU cache of inflated vector icons keyed by resource ID and screen density.
+ * Only each icon's constant state is kept, so every caller gets its own Drawable while the parsed
+ * path data is inflated once and shared. Icons are loaded from the precompiled
+ * {@link VectorPathsAsset} when possible, and inflated through MrVector otherwise. An app can
+ * override the library's drawables with its own, so a precompiled icon is only used after checking
+ * the resource's XML still matches it; its path data strings are hashed there, not parsed.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class VectorIconCache {
+
+    private static final String TAG = "VectorIconCache";
+    private static final String ANDROID_NS = "http://schemas.android.com/apk/res/android";
+    private static final int MAX_SIZE = 16;
+
+    private static final LruCache<Long, Drawable.ConstantState> sCache = new LruCache<>(MAX_SIZE);
+    private static Map<String, VectorPathsAsset.Icon> sPrecompiled;
+
+    private VectorIconCache() {
+    }
+
+    public static Drawable get(Resources r, @DrawableRes int resId) {
+        final Long key = ((long) resId << 32) | r.getDisplayMetrics().densityDpi;
+        final Drawable.ConstantState state = sCache.get(key);
+        if (state != null)
+            return state.newDrawable(r);
+        VectorPathsAsset.Icon precompiled = getPrecompiled(r).get(r.getResourceEntryName(resId));
+        if (precompiled != null && !matchesResource(r, resId, precompiled))
+            precompiled = null;
+        final Drawable icon = precompiled != null ?
+                new CompiledVectorDrawable(r, precompiled) : MrVector.inflate(r, resId);
+        if (icon.getConstantState() != null)
+            sCache.put(key, icon.getConstantState());
+        return icon;
+    }
+
+    public static int hitCount() {
+        return sCache.hitCount();
+    }
+
+    public static int missCount() {
+        return sCache.missCount();
+    }
+
+    public static void evictAll() {
+        sCache.evictAll();
+    }
+
+    // Whether resId still resolves to the vector the icon was compiled from.
+    private static boolean matchesResource(Resources r, @DrawableRes int resId, VectorPathsAsset.Icon icon) {
+        XmlResourceParser parser = null;
+        try {
+            parser = r.getXml(resId);
+            int type;
+            while ((type = parser.next()) != XmlPullParser.START_TAG && type != XmlPullParser.END_DOCUMENT) {
+            }
+            if (type != XmlPullParser.START_TAG || !"vector".equals(parser.getName()) ||
+                    parser.getAttributeCount() != 4 ||
+                    parseDp(parser.getAttributeValue(ANDROID_NS, "width")) != icon.width ||
+                    parseDp(parser.getAttributeValue(ANDROID_NS, "height")) != icon.height ||
+                    parser.getAttributeFloatValue(ANDROID_NS, "viewportWidth", 0) != icon.viewportWidth ||
+                    parser.getAttributeFloatValue(ANDROID_NS, "viewportHeight", 0) != icon.viewportHeight)
+                return false;
+            final List<String> pathData = new ArrayList<>(icon.paths.length);
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (type != XmlPullParser.START_TAG) continue;
+                final int path = pathData.size();
+                if (!"path".equals(parser.getName()) || path == icon.paths.length ||
+                        parser.getAttributeIntValue(ANDROID_NS, "fillColor", 0) != icon.fillColors[path])
+                    return false;
+                pathData.add(parser.getAttributeValue(ANDROID_NS, "pathData"));
+            }
+            return pathData.size() == icon.paths.length &&
+                    VectorPathsAsset.checksum(pathData) == icon.pathDataChecksum;
+        } catch (XmlPullParserException | IOException | RuntimeException e) {
+            // E.g. overridden with a bitmap, or a color resource as the fill color.
+            return false;
+        } finally {
+            if (parser != null)
+                parser.close();
+        }
+    }
+
+    // Compiled dimensions read back as e.g. "24.0dip".
+    private static float parseDp(String value) {
+        if (value == null || !value.endsWith("dip")) return -1;
+        return Float.parseFloat(value.substring(0, value.length() - 3));
+    }
+
+    private static synchronized Map<String, VectorPathsAsset.Icon> getPrecompiled(Resources r) {
+        if (sPrecompiled == null) {
+            InputStream is = null;
+            try {
+                is = r.getAssets().open(VectorPathsAsset.ASSET_NAME);
+                sPrecompiled = VectorPathsAsset.read(is);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to load precompiled icons, falling back to MrVector.", e);
+                sPrecompiled = Collections.emptyMap();
+            } finally {
+                CameraUtil.closeQuietly(is);
+            }
+        }
+        return sPrecompiled;
+    }
+}
@@ -0,0 +1,134 @@
+package com.afollestad.materialcamera.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The binary form of the library's vector icons. The compileVectorPaths build task writes it from
+ * res/drawable, so at runtime an icon loads with one asset read and no XML or path data parsing.
+ * <p>
+ * Layout: magic, version, icon count, then per icon its resource entry name, size in dp, viewport
+ * size, the {@link #checksum(List)} of its path data, path count, and each path's fill color
+ * followed by the path itself (see {@link CompiledPath#write(java.io.DataOutput)}).
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class VectorPathsAsset {
+
+    public static final String ASSET_NAME = "materialcamera/vector_paths.bin";
+
+    static final int MAGIC = 0x4D435650; // "MCVP"
+    static final int VERSION = 2;
+
+    private VectorPathsAsset() {
+    }
+
+    static final class Icon {
+
+        final float width;
+        final float height;
+        final float viewportWidth;
+        final float viewportHeight;
+        // Tells the library's icon apart from an app's resource overriding it.
+        final int pathDataChecksum;
+        final int[] fillColors;
+        final CompiledPath[] paths;
+
+        Icon(float width, float height, float viewportWidth, float viewportHeight, int pathDataChecksum,
+             int[] fillColors, CompiledPath[] paths) {
+            this.width = width;
+            this.height = height;
+            this.viewportWidth = viewportWidth;
+            this.viewportHeight = viewportHeight;
+            this.pathDataChecksum = pathDataChecksum;
+            this.fillColors = fillColors;
+            this.paths = paths;
+            for (CompiledPath path : paths)
+                path.freeze();
+        }
+    }
+
+    /**
+     * Reads every icon in the stream. The stream is read completely but not closed.
+     *
+     * @return the icons keyed by their resource entry name, e.g. "ic_action_record".
+     * @throws IOException if reading fails, or the stream isn't a supported vector paths asset.
+     */
+    public static Map<String, Icon> read(InputStream stream) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(stream.available(), 1024));
+        final byte[] chunk = new byte[4096];
+        int read;
+        while ((read = stream.read(chunk)) != -1)
+            buffer.write(chunk, 0, read);
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a vector paths asset.");
+        final int version = in.readUnsignedShort();
+        if (version != VERSION)
+            throw new IOException("Unsupported vector paths asset version " + version + ".");
+        final int iconCount = in.readUnsignedShort();
+        final Map<String, Icon> icons = new HashMap<>(iconCount * 2);
+        for (int i = 0; i < iconCount; i++) {
+            final String name = in.readUTF();
+            final float width = in.readFloat();
+            final float height = in.readFloat();
+            final float viewportWidth = in.readFloat();
+            final float viewportHeight = in.readFloat();
+            final int pathDataChecksum = in.readInt();
+            final int pathCount = in.readUnsignedShort();
+            final int[] fillColors = new int[pathCount];
+            final CompiledPath[] paths = new CompiledPath[pathCount];
+            for (int j = 0; j < pathCount; j++) {
+                fillColors[j] = in.readInt();
+                paths[j] = CompiledPath.read(in);
+            }
+            icons.put(name, new Icon(width, height, viewportWidth, viewportHeight, pathDataChecksum, fillColors, paths));
+        }
+        return icons;
+    }
+
+    /**
+     * Writes the icons in the format read by {@link #read(InputStream)}. The stream isn't closed.
+     */
+    public static void write(Map<String, Icon> icons, OutputStream stream) throws IOException {
+        final DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeShort(icons.size());
+        for (Map.Entry<String, Icon> entry : icons.entrySet()) {
+            final Icon icon = entry.getValue();
+            out.writeUTF(entry.getKey());
+            out.writeFloat(icon.width);
+            out.writeFloat(icon.height);
+            out.writeFloat(icon.viewportWidth);
+            out.writeFloat(icon.viewportHeight);
+            out.writeInt(icon.pathDataChecksum);
+            out.writeShort(icon.paths.length);
+            for (int i = 0; i < icon.paths.length; i++) {
+                out.writeInt(icon.fillColors[i]);
+                icon.paths[i].write(out);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * @return a hash of an icon's path data strings, in order. Only {@link String#hashCode()} is
+     * used, so the build and the device agree on it.
+     */
+    public static int checksum(List<String> pathData) {
+        int checksum = 1;
+        for (String path : pathData)
+            checksum = 31 * checksum + path.hashCode();
+        return checksum;
+    }
+}
@@ -49,4 +49,18 @@ interface VideoActivityInterface {
     void setDidRecord(boolean didRecord);
 
     boolean didRecord();
+
+    void setRecordStartLatency(long latencyMs);
+
+    /**
+     * Sets how long the recording took to finalize after it stopped, see
+     * {@link com.afollestad.materialcamera.MaterialCamera#PROCESSING_TIME_EXTRA}.
+     */
+    void setProcessingTime(long processingMs);
+
+    /**
+     * Adds a finished file of a recording that continues in another one, see
+     * {@link com.afollestad.materialcamera.MaterialCamera#SEGMENTS_EXTRA}.
+     */
+    void addSegment(String uri);
 }
\ No newline at end of file
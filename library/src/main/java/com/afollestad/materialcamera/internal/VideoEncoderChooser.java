@@ -0,0 +1,64 @@
+package com.afollestad.materialcamera.internal;
+
+import java.util.Locale;
+
+/**
+ * Picks the video codec to record with from the encoders profiled in {@link EncoderProfile}: HEVC
+ * when a hardware HEVC encoder can keep up with the size and frame rate, H.264 otherwise. Kept
+ * free of Android types like {@link SizeChooser}, so it can be checked against recorded encoder
+ * tables.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class VideoEncoderChooser {
+
+    // MediaRecorder.VideoEncoder.H264, and HEVC which is only declared from API 24 on.
+    public static final int VIDEO_ENCODER_H264 = 2;
+    public static final int VIDEO_ENCODER_HEVC = 5;
+
+    public static final String MIME_TYPE_AVC = "video/avc";
+    public static final String MIME_TYPE_HEVC = "video/hevc";
+
+    private VideoEncoderChooser() {
+    }
+
+    /**
+     * @param encoders The profiled encoders, or null if HEVC can't be used (e.g. before API 24).
+     * @return {@link #VIDEO_ENCODER_HEVC} or {@link #VIDEO_ENCODER_H264}.
+     */
+    public static int choose(EncoderProfile.Encoder[] encoders, int width, int height, int frameRate) {
+        if (encoders != null) {
+            for (EncoderProfile.Encoder encoder : encoders) {
+                if (encoder.hardware && MIME_TYPE_HEVC.equals(encoder.mimeType) &&
+                        canEncode(encoder, width, height, frameRate))
+                    return VIDEO_ENCODER_HEVC;
+            }
+        }
+        return VIDEO_ENCODER_H264;
+    }
+
+    public static String getMimeType(int videoEncoder) {
+        return videoEncoder == VIDEO_ENCODER_HEVC ? MIME_TYPE_HEVC : MIME_TYPE_AVC;
+    }
+
+    /**
+     * @return whether the size fits the encoder either way around, and width * height * frameRate
+     * stays within the pixel rate it was profiled at.
+     */
+    static boolean canEncode(EncoderProfile.Encoder encoder, int width, int height, int frameRate) {
+        final boolean fits = (width <= encoder.maxWidth && height <= encoder.maxHeight) ||
+                (height <= encoder.maxWidth && width <= encoder.maxHeight);
+        return fits && (long) width * height * frameRate <= encoder.maxPixelRate;
+    }
+
+    /**
+     * Software encoders are too slow to record HEVC with. Codec names follow the vendor's
+     * conventions: Android's own software codecs are OMX.google.* and c2.android.*, and some
+     * vendors mark theirs with .sw.
+     */
+    static boolean isHardware(String codecName) {
+        final String name = codecName.toLowerCase(Locale.US);
+        return !(name.startsWith("omx.google.") || name.startsWith("c2.android.") ||
+                name.startsWith("c2.google.") || name.contains(".sw."));
+    }
+}
@@ -0,0 +1,47 @@
+package com.afollestad.materialcamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Aidan Follestad (afollestad)
+ */
+public class EncodingPolicyTest {
+
+    @Test
+    public void scalesTheBitRateWithPixelsPerSecond() {
+        final EncodingPolicy policy = new EncodingPolicy();
+        // 1280 * 720 * 30 * 0.1
+        assertEquals(2764800, policy.getBitRate(1280, 720, 30));
+        assertEquals(2 * 2764800, policy.getBitRate(1280, 720, 60));
+        // 640 * 480 * 30 * 0.1
+        assertEquals(921600, policy.getBitRate(640, 480, 30));
+    }
+
+    @Test
+    public void clampsTheBitRateToItsLimits() {
+        final EncodingPolicy policy = new EncodingPolicy(0.1f, 1000000, 4000000, 30);
+        assertEquals(1000000, policy.getBitRate(320, 240, 15));
+        assertEquals(4000000, policy.getBitRate(1920, 1080, 30));
+        assertEquals(EncodingPolicy.DEFAULT_MAX_BIT_RATE, new EncodingPolicy().getBitRate(3840, 2160, 60));
+    }
+
+    @Test
+    public void recordsAtTheTargetFrameRateIfTheCameraCanRunThatFast() {
+        final EncodingPolicy policy = new EncodingPolicy(0.1f, 500000, 4000000, 30);
+        assertEquals(30, policy.getFrameRate(60));
+        assertEquals(24, policy.getFrameRate(24));
+        assertEquals(30, policy.getFrameRate(-1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAMaxBelowTheMin() {
+        new EncodingPolicy(0.1f, 4000000, 1000000, 30);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNoBitsPerPixel() {
+        new EncodingPolicy(0f, 500000, 1000000, 30);
+    }
+}
@@ -0,0 +1,158 @@
+package com.afollestad.materialcamera.internal;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Samples are filled with a byte derived from their timestamp, so what's copied back out of the
+ * ring can be checked against what went in.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class EncodedSampleRingTest {
+
+    private static final long FRAME_US = 1000000L / 30;
+
+    private static boolean add(EncodedSampleRing ring, int size, long timeUs, boolean keyFrame) {
+        final byte[] data = new byte[size];
+        Arrays.fill(data, valueOf(timeUs));
+        return ring.add(ByteBuffer.wrap(data), size, timeUs, keyFrame);
+    }
+
+    private static byte valueOf(long timeUs) {
+        return (byte) (timeUs / FRAME_US);
+    }
+
+    // Adds a second: a keyframe followed by frames a tenth of its size.
+    private static void addGroup(EncodedSampleRing ring, long startUs, int keyFrameSize, int frames) {
+        assertTrue(add(ring, keyFrameSize, startUs, true));
+        for (int i = 1; i < frames; i++)
+            assertTrue(add(ring, keyFrameSize / 10, startUs + i * FRAME_US, false));
+    }
+
+    private static void assertContents(EncodedSampleRing ring) {
+        assertTrue("the ring starts at a keyframe", ring.isKeyFrame(0));
+        for (int n = 0; n < ring.size(); n++) {
+            if (n > 0)
+                assertTrue("timestamps increase", ring.getTimeUs(n) > ring.getTimeUs(n - 1));
+            final ByteBuffer dst = ByteBuffer.allocate(ring.getSize(n));
+            ring.copyTo(n, dst);
+            assertFalse(dst.hasRemaining());
+            final byte expected = valueOf(ring.getTimeUs(n));
+            for (int i = 0; i < dst.capacity(); i++)
+                assertEquals("sample " + n + " byte " + i, expected, dst.get(i));
+        }
+    }
+
+    @Test
+    public void dropsTheOldestGroupWhenFull() {
+        final EncodedSampleRing ring = new EncodedSampleRing(1000, 100, 10000000);
+        addGroup(ring, 0, 300, 4);
+        addGroup(ring, 1000000, 300, 4);
+        assertEquals(8, ring.size());
+        // The third keyframe doesn't fit after the second group, so the whole first group makes
+        // room for it at the front.
+        addGroup(ring, 2000000, 300, 4);
+        assertEquals(8, ring.size());
+        assertEquals(1000000, ring.getTimeUs(0));
+        assertEquals(2000000 + 3 * FRAME_US, ring.getTimeUs(ring.size() - 1));
+        assertContents(ring);
+    }
+
+    @Test
+    public void dropsTheOldestGroupWhenOutOfSamples() {
+        final EncodedSampleRing ring = new EncodedSampleRing(100000, 6, 10000000);
+        addGroup(ring, 0, 100, 3);
+        addGroup(ring, 1000000, 100, 3);
+        assertTrue(add(ring, 100, 2000000, true));
+        assertEquals(4, ring.size());
+        assertEquals(1000000, ring.getTimeUs(0));
+        assertContents(ring);
+    }
+
+    @Test
+    public void wrapsAround() {
+        // Group sizes that don't divide the capacity, so samples start over at the front at
+        // different points each time around.
+        final EncodedSampleRing ring = new EncodedSampleRing(4096, 1000, 10000000);
+        long timeUs = 0;
+        for (int group = 0; group < 50; group++) {
+            final int keyFrameSize = 300 + group % 7 * 70;
+            for (int i = 0; i < 5; i++) {
+                assertTrue(add(ring, i == 0 ? keyFrameSize : keyFrameSize / 10, timeUs, i == 0));
+                timeUs += FRAME_US;
+            }
+            assertContents(ring);
+        }
+        assertEquals(timeUs - FRAME_US, ring.getTimeUs(ring.size() - 1));
+    }
+
+    @Test
+    public void keepsOnlyWhatReachesBackTheMaxDuration() {
+        final EncodedSampleRing ring = new EncodedSampleRing(10000000, 1000, 2000000);
+        for (int second = 0; second < 5; second++)
+            addGroup(ring, second * 1000000L, 1000, 30);
+        // The groups from 0 and 1 s are dropped at the keyframe at 4 s, 2 s back from there is
+        // still covered without them.
+        assertEquals(2000000, ring.getTimeUs(0));
+        assertEquals(90, ring.size());
+        assertContents(ring);
+    }
+
+    @Test
+    public void startsFromTheKeyFrameClosestToThePreRoll() {
+        final EncodedSampleRing ring = new EncodedSampleRing(10000000, 1000, 2000000);
+        assertEquals(-1, ring.findStart(1000000));
+        for (int second = 0; second < 5; second++)
+            addGroup(ring, second * 1000000L, 1000, 30);
+
+        // The newest sample is at 4.967 s, the keyframe at 3 s is the newest one a second back.
+        final int start = ring.findStart(1000000);
+        assertTrue(ring.isKeyFrame(start));
+        assertEquals(3000000, ring.getTimeUs(start));
+        // Further back than the ring reaches, it starts at the oldest sample.
+        assertEquals(0, ring.findStart(5000000));
+
+        int bytes = 0;
+        for (int n = start; n < ring.size(); n++)
+            bytes += ring.getSize(n);
+        final ByteBuffer drained = ByteBuffer.allocate(bytes);
+        for (int n = start; n < ring.size(); n++)
+            ring.copyTo(n, drained);
+        assertFalse(drained.hasRemaining());
+        assertEquals(valueOf(3000000), drained.get(0));
+        assertEquals(valueOf(ring.getTimeUs(ring.size() - 1)), drained.get(bytes - 1));
+    }
+
+    @Test
+    public void dropsFramesUntilTheFirstKeyFrame() {
+        final EncodedSampleRing ring = new EncodedSampleRing(1000, 100, 10000000);
+        assertFalse(add(ring, 10, 0, false));
+        assertEquals(0, ring.size());
+        assertTrue(add(ring, 100, FRAME_US, true));
+        assertEquals(1, ring.size());
+    }
+
+    @Test
+    public void dropsEverythingForASampleLargerThanTheRing() {
+        final EncodedSampleRing ring = new EncodedSampleRing(1000, 100, 10000000);
+        addGroup(ring, 0, 200, 4);
+        assertFalse(add(ring, 1001, 1000000, true));
+        assertEquals(0, ring.size());
+        // Frames after it can't be decoded without it.
+        assertFalse(add(ring, 20, 1000000 + FRAME_US, false));
+        assertTrue(add(ring, 200, 2000000, true));
+        assertContents(ring);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnEmptyCapacity() {
+        new EncodedSampleRing(0, 100, 1000000);
+    }
+}
@@ -0,0 +1,108 @@
+package com.afollestad.materialcamera.internal;
+
+import com.afollestad.materialcamera.EncodingPolicy;
+import com.afollestad.materialcamera.MaterialCamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author Aidan Follestad (afollestad)
+ */
+public class EncodingSettingsTest {
+
+    private static final int H264 = VideoEncoderChooser.VIDEO_ENCODER_H264;
+    private static final int HEVC = VideoEncoderChooser.VIDEO_ENCODER_HEVC;
+
+    private static EncodingSettings settings(int quality, EncodingPolicy policy, int videoBitRate, int frameRate) {
+        return new EncodingSettings(quality, policy, videoBitRate, frameRate, -1, -1, -1, -1, true);
+    }
+
+    @Test
+    public void usesThePresetsPolicy() {
+        final EncodingSettings low = settings(MaterialCamera.QUALITY_LOW_BANDWIDTH, null, -1, -1);
+        // 640 * 480 * 24 * 0.05
+        assertEquals(368640, low.getVideoBitRate(640, 480, 24, H264));
+        assertEquals(24, low.getTargetFrameRate());
+        assertEquals(480, low.maxResolution);
+
+        final EncodingSettings high = settings(MaterialCamera.QUALITY_HIGH, null, -1, -1);
+        // 1920 * 1080 * 30 * 0.12
+        assertEquals(7464960, high.getVideoBitRate(1920, 1080, 30, H264));
+        assertEquals(2, high.audioChannels);
+        assertEquals(48000, high.audioSampleRate);
+    }
+
+    @Test
+    public void clampsToThePresetsLimits() {
+        final EncodingSettings low = settings(MaterialCamera.QUALITY_LOW_BANDWIDTH, null, -1, -1);
+        assertEquals(1500000, low.getVideoBitRate(1920, 1080, 30, H264));
+        assertEquals(250000, low.getVideoBitRate(176, 144, 15, H264));
+
+        final EncodingSettings balanced = settings(MaterialCamera.QUALITY_BALANCED, null, -1, -1);
+        assertEquals(4000000, balanced.getVideoBitRate(1920, 1080, 60, H264));
+    }
+
+    @Test
+    public void usesTheDefaultPolicyWithoutAPreset() {
+        final EncodingSettings settings = settings(0, null, -1, -1);
+        assertEquals(new EncodingPolicy().getBitRate(1280, 720, 30), settings.getVideoBitRate(1280, 720, 30, H264));
+        assertEquals(EncodingPolicy.DEFAULT_FRAME_RATE, settings.getTargetFrameRate());
+        assertEquals(-1, settings.audioBitRate);
+        assertEquals(SizeChooser.Policy.DEFAULT.maxHeight, settings.maxResolution);
+    }
+
+    @Test
+    public void aPolicyReplacesThePresetsPolicy() {
+        final EncodingPolicy policy = new EncodingPolicy(0.2f, 100000, 30000000, 60);
+        final EncodingSettings settings = settings(MaterialCamera.QUALITY_LOW_BANDWIDTH, policy, -1, -1);
+        assertSame(policy, settings.policy);
+        assertEquals(24883200, settings.getVideoBitRate(1920, 1080, 60, H264));
+        assertEquals(60, settings.getTargetFrameRate());
+        // The rest of the preset still applies.
+        assertEquals(64000, settings.audioBitRate);
+    }
+
+    @Test
+    public void explicitValuesOverrideThePolicy() {
+        final EncodingSettings settings = settings(MaterialCamera.QUALITY_LOW_BANDWIDTH, null, 8000000, 60);
+        // Not clamped to the preset's maximum either.
+        assertEquals(8000000, settings.getVideoBitRate(1920, 1080, 30, H264));
+        assertEquals(60, settings.getTargetFrameRate());
+        assertEquals(60, settings.getFrameRate(60));
+        assertEquals(30, settings.getFrameRate(30));
+        assertEquals(60, settings.getFrameRate(-1));
+
+        final EncodingSettings audio = new EncodingSettings(MaterialCamera.QUALITY_HIGH, null, -1, -1,
+                64000, 22050, 1, 480, true);
+        assertEquals(64000, audio.audioBitRate);
+        assertEquals(22050, audio.audioSampleRate);
+        assertEquals(1, audio.audioChannels);
+        assertEquals(480, audio.maxResolution);
+    }
+
+    @Test
+    public void givesHevcLessOfThePoliciesBitRate() {
+        final EncodingSettings settings = settings(MaterialCamera.QUALITY_HIGH, null, -1, -1);
+        // 1920 * 1080 * 30 * 0.12 * 0.6
+        assertEquals(4478976, settings.getVideoBitRate(1920, 1080, 30, HEVC));
+        // Not below the minimum: 176 * 144 * 30 * 0.12 is under it already.
+        assertEquals(1000000, settings.getVideoBitRate(176, 144, 30, HEVC));
+    }
+
+    @Test
+    public void keepsAnExplicitBitRateForHevc() {
+        final EncodingSettings settings = settings(MaterialCamera.QUALITY_HIGH, null, 8000000, -1);
+        assertEquals(8000000, settings.getVideoBitRate(1920, 1080, 30, HEVC));
+    }
+
+    @Test
+    public void limitsThePoliciesFrameRateToTheCamera() {
+        final EncodingSettings settings = settings(MaterialCamera.QUALITY_HIGH, null, -1, -1);
+        assertEquals(30, settings.getFrameRate(60));
+        assertEquals(15, settings.getFrameRate(15));
+        assertEquals(30, settings.getFrameRate(-1));
+    }
+}
@@ -0,0 +1,199 @@
+package com.afollestad.materialcamera.internal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Joins parts written by {@link Mp4Fixtures}, whose video track is exactly as long as the part and
+ * whose audio track ends a little earlier.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class Mp4ConcatenatorTest {
+
+    private static final int[] PART_SECONDS = {2, 3, 1};
+
+    private File mDir;
+    private final List<File> mParts = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("mp4concatenator", "");
+        assertTrue(mDir.delete() && mDir.mkdir());
+        for (int i = 0; i < PART_SECONDS.length; i++)
+            mParts.add(Mp4Fixtures.write(new File(mDir, "part" + i + ".mp4"), PART_SECONDS[i], 1000000));
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files)
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+        }
+        //noinspection ResultOfMethodCallIgnored
+        mDir.delete();
+    }
+
+    @Test
+    public void keepsEverySampleAsItWas() throws IOException {
+        final File output = new File(mDir, "joined.mp4");
+        Mp4Concatenator.concatenate(mParts, output);
+
+        final Mp4File joined = Mp4File.open(output);
+        try {
+            for (int t = 0; t < joined.tracks.size(); t++) {
+                final Mp4SampleIndex out = Mp4SampleIndex.build(joined.tracks.get(t), Mp4SampleIndex.DEFAULT_HEAP_BUDGET);
+                int outSample = 0;
+                for (File part : mParts) {
+                    final Mp4File in = Mp4File.open(part);
+                    try {
+                        final Mp4SampleIndex index = Mp4SampleIndex.build(in.tracks.get(t), Mp4SampleIndex.DEFAULT_HEAP_BUDGET);
+                        for (int i = 0; i < index.sampleCount; i++, outSample++) {
+                            assertEquals(index.getSize(i), out.getSize(outSample));
+                            assertEquals(index.isSync(i), out.isSync(outSample));
+                            assertEquals("track " + t + " sample " + outSample,
+                                    Mp4Fixtures.readSample(in.channel, index.getOffset(i), index.getSize(i)),
+                                    Mp4Fixtures.readSample(joined.channel, out.getOffset(outSample), out.getSize(outSample)));
+                        }
+                    } finally {
+                        in.close();
+                    }
+                }
+                assertEquals(outSample, out.sampleCount);
+            }
+        } finally {
+            joined.close();
+        }
+    }
+
+    @Test
+    public void continuesEachTrackWhereTheLastPartEnded() throws IOException {
+        final File output = new File(mDir, "joined.mp4");
+        Mp4Concatenator.concatenate(mParts, output);
+
+        final Mp4File joined = Mp4File.open(output);
+        try {
+            int totalSeconds = 0;
+            for (int seconds : PART_SECONDS)
+                totalSeconds += seconds;
+            assertEquals(totalSeconds * 1000L, Mp4MoovWriter.scale(joined.duration, joined.timescale, 1000));
+
+            for (Mp4Track track : joined.tracks) {
+                final Mp4SampleIndex out = Mp4SampleIndex.build(track, Mp4SampleIndex.DEFAULT_HEAP_BUDGET);
+                int outSample = 0;
+                long partStart = 0;
+                for (int p = 0; p < mParts.size(); p++) {
+                    final Mp4File in = Mp4File.open(mParts.get(p));
+                    try {
+                        final Mp4SampleIndex index = Mp4SampleIndex.build(in.tracks.get(joined.tracks.indexOf(track)),
+                                Mp4SampleIndex.DEFAULT_HEAP_BUDGET);
+                        // Every part starts when the one before it ends, however short its audio was.
+                        for (int i = 0; i < index.sampleCount; i++, outSample++)
+                            assertEquals(partStart + index.getDecodeTime(i), out.getDecodeTime(outSample));
+                    } finally {
+                        in.close();
+                    }
+                    partStart += (long) PART_SECONDS[p] * track.timescale;
+                }
+                if (track.isVideo())
+                    assertEquals(partStart, track.getSampleDurationSum());
+            }
+        } finally {
+            joined.close();
+        }
+    }
+
+    @Test
+    public void movesChunkOffsetsIntoTheJoinedMediaData() throws IOException {
+        final File output = new File(mDir, "joined.mp4");
+        Mp4Concatenator.concatenate(mParts, output);
+
+        final Mp4File joined = Mp4File.open(output);
+        try {
+            final long start = joined.getMediaDataStart();
+            final long end = joined.getMediaDataEnd();
+            long inputBytes = 0;
+            for (File part : mParts) {
+                final Mp4File in = Mp4File.open(part);
+                try {
+                    inputBytes += in.getMediaDataEnd() - in.getMediaDataStart();
+                } finally {
+                    in.close();
+                }
+            }
+            assertEquals(inputBytes, end - start);
+
+            // Sorted by offset, the samples of all tracks tile the mdat without gaps or overlaps.
+            final List<long[]> samples = new ArrayList<>();
+            for (Mp4Track track : joined.tracks) {
+                for (int c = 0; c < track.chunkCount; c++) {
+                    final long offset = track.getChunkOffset(c);
+                    assertTrue(offset >= start && offset < end);
+                }
+                final Mp4SampleIndex index = Mp4SampleIndex.build(track, Mp4SampleIndex.DEFAULT_HEAP_BUDGET);
+                for (int i = 0; i < index.sampleCount; i++)
+                    samples.add(new long[]{index.getOffset(i), index.getSize(i)});
+            }
+            final long[][] sorted = samples.toArray(new long[samples.size()][]);
+            Arrays.sort(sorted, new Comparator<long[]>() {
+                @Override
+                public int compare(long[] a, long[] b) {
+                    return a[0] < b[0] ? -1 : a[0] == b[0] ? 0 : 1;
+                }
+            });
+            long position = start;
+            for (long[] sample : sorted) {
+                assertEquals(position, sample[0]);
+                position += sample[1];
+            }
+            assertEquals(end, position);
+        } finally {
+            joined.close();
+        }
+    }
+
+    @Test
+    public void joinsPartsIntoTheFirstAndSkipsUnfinishedOnes() throws IOException {
+        final File unfinished = new File(mDir, "unfinished.mp4");
+        final FileOutputStream os = new FileOutputStream(unfinished);
+        try {
+            os.write(new byte[]{0, 0, 0, 8, 'f', 't', 'y', 'p'});
+        } finally {
+            os.close();
+        }
+        final List<File> parts = new ArrayList<>(mParts);
+        parts.add(1, unfinished);
+
+        final File joined = Mp4Concatenator.joinParts(parts);
+        assertEquals(mParts.get(0), joined);
+        assertFalse(unfinished.exists());
+        for (int i = 1; i < mParts.size(); i++)
+            assertFalse(mParts.get(i).exists());
+        final Mp4Info info = Mp4Info.read(Arrays.asList(joined));
+        assertEquals(6000, info.durationMs);
+    }
+
+    @Test
+    public void joinsNothingWithoutFinishedParts() throws IOException {
+        final File unfinished = new File(mDir, "unfinished.mp4");
+        assertTrue(unfinished.createNewFile());
+        assertNull(Mp4Concatenator.joinParts(Arrays.asList(unfinished)));
+        assertFalse(unfinished.exists());
+    }
+}
@@ -0,0 +1,344 @@
+package com.afollestad.materialcamera.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * Writes MP4 files laid out the way MediaRecorder writes them: ftyp, mdat, then moov, with a 30 fps
+ * video track (a keyframe every second, ten times the size of the frames in between) and a 44.1 kHz
+ * AAC track, interleaved a second at a time. Each video sample is a single length prefixed H.264
+ * slice, and each audio sample starts the way mono AAC frames do, but only the structure is real:
+ * the rest is zeros for video and noise for audio.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class Mp4Fixtures {
+
+    private static final int FRAME_RATE = 30;
+    private static final int VIDEO_TIMESCALE = 90000;
+    private static final int AUDIO_SAMPLE_RATE = 44100;
+    private static final int AUDIO_FRAME_SAMPLES = 1024;
+    private static final int AUDIO_BIT_RATE = 128000;
+
+    private Mp4Fixtures() {
+    }
+
+    public static File write(File file, int seconds, int videoBitRate) throws IOException {
+        return write(file, seconds, videoBitRate, false);
+    }
+
+    /**
+     * @param compositionOffsets Whether the video track has a ctts box, as with B-frames. Sample i
+     *                           is shown i % 3 frames after it's decoded.
+     */
+    public static File write(File file, int seconds, int videoBitRate, boolean compositionOffsets)
+            throws IOException {
+        final int frameSize = videoBitRate / 8 / (FRAME_RATE + 9);
+        final int[] videoSizes = new int[seconds * FRAME_RATE];
+        for (int i = 0; i < videoSizes.length; i++)
+            videoSizes[i] = i % FRAME_RATE == 0 ? frameSize * 10 : frameSize;
+        final int audioFrames = (int) ((long) seconds * AUDIO_SAMPLE_RATE / AUDIO_FRAME_SAMPLES);
+        final int audioFrameSize = AUDIO_BIT_RATE / 8 * AUDIO_FRAME_SAMPLES / AUDIO_SAMPLE_RATE;
+        final int[] audioSizes = new int[audioFrames];
+        for (int i = 0; i < audioSizes.length; i++)
+            audioSizes[i] = audioFrameSize - 8 + i % 16;
+
+        // A chunk per track per second, video first.
+        final long[] videoChunks = new long[seconds];
+        final long[] audioChunks = new long[seconds];
+        final int[] audioChunkSamples = new int[seconds];
+
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            final FileChannel channel = randomAccessFile.getChannel();
+            final Mp4Output out = new Mp4Output(channel, 0);
+            final long ftyp = out.beginBox(Mp4Box.FTYP);
+            out.putInt(Mp4Box.type("mp42"));
+            out.putInt(0);
+            out.putInt(Mp4Box.type("isom"));
+            out.putInt(Mp4Box.type("mp42"));
+            out.endBox(ftyp);
+
+            long payloadSize = 0;
+            for (int size : videoSizes)
+                payloadSize += size;
+            for (int size : audioSizes)
+                payloadSize += size;
+            out.putBoxHeader(Mp4Box.MDAT, payloadSize);
+            out.flush();
+            long position = out.position();
+            final ByteBuffer zeros = ByteBuffer.allocateDirect(256 * 1024);
+            final ByteBuffer noise = ByteBuffer.allocateDirect(64 * 1024);
+            final byte[] bytes = new byte[noise.capacity()];
+            new Random(0).nextBytes(bytes);
+            noise.put(bytes);
+            final ByteBuffer header = ByteBuffer.allocate(6);
+            int audioSample = 0;
+            for (int second = 0; second < seconds; second++) {
+                videoChunks[second] = position;
+                for (int i = second * FRAME_RATE; i < (second + 1) * FRAME_RATE; i++) {
+                    // An IDR or non-IDR slice whose first_mb_in_slice is 0.
+                    header.clear();
+                    header.putInt(videoSizes[i] - 4);
+                    header.put((byte) (i % FRAME_RATE == 0 ? 0x65 : 0x41));
+                    header.put((byte) 0x88);
+                    header.flip();
+                    position = write(channel, header, position);
+                    position = writeZeros(channel, zeros, position, videoSizes[i] - header.limit());
+                }
+                audioChunks[second] = position;
+                final int end = second == seconds - 1 ? audioFrames :
+                        (int) ((long) (second + 1) * AUDIO_SAMPLE_RATE / AUDIO_FRAME_SAMPLES);
+                audioChunkSamples[second] = end - audioSample;
+                for (; audioSample < end; audioSample++) {
+                    // A single channel element with instance tag 0.
+                    header.clear();
+                    header.put((byte) 0);
+                    header.flip();
+                    position = write(channel, header, position);
+                    noise.limit(audioSample % 1024 + audioSizes[audioSample] - 1);
+                    noise.position(audioSample % 1024);
+                    position = write(channel, noise, position);
+                }
+            }
+
+            final Mp4Output moovOut = new Mp4Output(channel, position);
+            writeMoov(moovOut, seconds, videoSizes, videoChunks, audioSizes, audioChunks, audioChunkSamples,
+                    compositionOffsets);
+            moovOut.flush();
+            channel.truncate(moovOut.position());
+        } finally {
+            randomAccessFile.close();
+        }
+        return file;
+    }
+
+    /**
+     * @return the size bytes at offset in channel.
+     */
+    public static ByteBuffer readSample(FileChannel channel, long offset, int size) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0)
+                throw new IOException("Sample at " + offset + " is cut off.");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static long write(FileChannel channel, ByteBuffer src, long position) throws IOException {
+        while (src.hasRemaining())
+            position += channel.write(src, position);
+        return position;
+    }
+
+    private static long writeZeros(FileChannel channel, ByteBuffer zeros, long position, long count)
+            throws IOException {
+        while (count > 0) {
+            zeros.clear();
+            zeros.limit((int) Math.min(zeros.capacity(), count));
+            final int written = channel.write(zeros, position);
+            position += written;
+            count -= written;
+        }
+        return position;
+    }
+
+    private static void writeMoov(Mp4Output out, int seconds, int[] videoSizes, long[] videoChunks,
+                                  int[] audioSizes, long[] audioChunks, int[] audioChunkSamples,
+                                  boolean compositionOffsets) throws IOException {
+        final long moov = out.beginBox(Mp4Box.MOOV);
+        final long mvhd = beginFullBox(out, Mp4Box.MVHD, 0);
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(1000);
+        out.putInt(seconds * 1000);
+        out.putInt(0x10000);
+        out.putInt(0x01000000);
+        out.put(ByteBuffer.allocate(8));
+        putMatrix(out);
+        out.put(ByteBuffer.allocate(24));
+        out.putInt(3);
+        out.endBox(mvhd);
+
+        final int videoSeconds = videoSizes.length / FRAME_RATE;
+        writeTrak(out, 1, Mp4Box.HANDLER_VIDEO, VIDEO_TIMESCALE, VIDEO_TIMESCALE / FRAME_RATE,
+                videoSeconds * 1000, 1280, 720, videoSizes, videoChunks, null, compositionOffsets);
+        writeTrak(out, 2, Mp4Box.HANDLER_SOUND, AUDIO_SAMPLE_RATE, AUDIO_FRAME_SAMPLES,
+                (long) audioSizes.length * AUDIO_FRAME_SAMPLES * 1000 / AUDIO_SAMPLE_RATE, 0, 0,
+                audioSizes, audioChunks, audioChunkSamples, false);
+        out.endBox(moov);
+    }
+
+    /**
+     * @param chunkSamples How many samples each chunk has, or null for {@link #FRAME_RATE} each.
+     */
+    private static void writeTrak(Mp4Output out, int trackId, int handlerType, int timescale, int delta,
+                                  long durationMs, int width, int height, int[] sizes, long[] chunks,
+                                  int[] chunkSamples, boolean compositionOffsets) throws IOException {
+        final boolean video = handlerType == Mp4Box.HANDLER_VIDEO;
+        final long trak = out.beginBox(Mp4Box.TRAK);
+        final long tkhd = beginFullBox(out, Mp4Box.TKHD, 7);
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(trackId);
+        out.putInt(0);
+        out.putUnsignedInt(durationMs);
+        out.put(ByteBuffer.allocate(8));
+        out.putInt(0);
+        out.putInt(video ? 0 : 0x01000000);
+        putMatrix(out);
+        out.putInt(width << 16);
+        out.putInt(height << 16);
+        out.endBox(tkhd);
+
+        final long mdia = out.beginBox(Mp4Box.MDIA);
+        final long mdhd = beginFullBox(out, Mp4Box.MDHD, 0);
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(timescale);
+        out.putUnsignedInt((long) sizes.length * delta);
+        out.putInt(0x55c40000);
+        out.endBox(mdhd);
+        final long hdlr = beginFullBox(out, Mp4Box.HDLR, 0);
+        out.putInt(0);
+        out.putInt(handlerType);
+        out.put(ByteBuffer.allocate(12));
+        out.putInt(0);
+        out.endBox(hdlr);
+
+        final long minf = out.beginBox(Mp4Box.MINF);
+        if (video) {
+            final long vmhd = beginFullBox(out, Mp4Box.type("vmhd"), 1);
+            out.putLong(0);
+            out.endBox(vmhd);
+        } else {
+            final long smhd = beginFullBox(out, Mp4Box.type("smhd"), 0);
+            out.putInt(0);
+            out.endBox(smhd);
+        }
+        final long dinf = out.beginBox(Mp4Box.type("dinf"));
+        final long dref = beginFullBox(out, Mp4Box.type("dref"), 0);
+        out.putInt(1);
+        final long url = beginFullBox(out, Mp4Box.type("url "), 1);
+        out.endBox(url);
+        out.endBox(dref);
+        out.endBox(dinf);
+
+        final long stbl = out.beginBox(Mp4Box.STBL);
+        final long stsd = beginFullBox(out, Mp4Box.STSD, 0);
+        out.putInt(1);
+        if (video) {
+            final long avc1 = out.beginBox(Mp4Box.type("avc1"));
+            out.put(ByteBuffer.allocate(6));
+            // The data reference index, then reserved fields up to the size.
+            out.putInt(1 << 16);
+            out.put(ByteBuffer.allocate(14));
+            out.putInt(width << 16 | height);
+            out.put(ByteBuffer.allocate(50));
+            final long avcC = out.beginBox(Mp4Box.type("avcC"));
+            out.putInt(0x0142c01e);
+            out.endBox(avcC);
+            out.endBox(avc1);
+        } else {
+            final long mp4a = out.beginBox(Mp4Box.type("mp4a"));
+            out.put(ByteBuffer.allocate(6));
+            out.putInt(1 << 16);
+            out.put(ByteBuffer.allocate(6));
+            out.putInt(2 << 16 | 16);
+            out.putInt(0);
+            out.putInt(AUDIO_SAMPLE_RATE << 16);
+            out.endBox(mp4a);
+        }
+        out.endBox(stsd);
+
+        final long stts = beginFullBox(out, Mp4Box.STTS, 0);
+        out.putInt(1);
+        out.putInt(sizes.length);
+        out.putInt(delta);
+        out.endBox(stts);
+
+        if (compositionOffsets) {
+            final long ctts = beginFullBox(out, Mp4Box.CTTS, 0);
+            out.putInt(sizes.length);
+            for (int i = 0; i < sizes.length; i++) {
+                out.putInt(1);
+                out.putInt(i % 3 * delta);
+            }
+            out.endBox(ctts);
+        }
+
+        if (video) {
+            final long stss = beginFullBox(out, Mp4Box.STSS, 0);
+            out.putInt(sizes.length / FRAME_RATE);
+            for (int i = 0; i < sizes.length; i += FRAME_RATE)
+                out.putInt(i + 1);
+            out.endBox(stss);
+        }
+
+        final long stsc = beginFullBox(out, Mp4Box.STSC, 0);
+        if (chunkSamples == null) {
+            out.putInt(1);
+            out.putInt(1);
+            out.putInt(FRAME_RATE);
+            out.putInt(1);
+        } else {
+            int entries = 0;
+            for (int i = 0; i < chunkSamples.length; i++) {
+                if (i == 0 || chunkSamples[i] != chunkSamples[i - 1])
+                    entries++;
+            }
+            out.putInt(entries);
+            for (int i = 0; i < chunkSamples.length; i++) {
+                if (i == 0 || chunkSamples[i] != chunkSamples[i - 1]) {
+                    out.putInt(i + 1);
+                    out.putInt(chunkSamples[i]);
+                    out.putInt(1);
+                }
+            }
+        }
+        out.endBox(stsc);
+
+        final long stsz = beginFullBox(out, Mp4Box.STSZ, 0);
+        out.putInt(0);
+        out.putInt(sizes.length);
+        for (int size : sizes)
+            out.putInt(size);
+        out.endBox(stsz);
+
+        final long stco = beginFullBox(out, Mp4Box.STCO, 0);
+        out.putInt(chunks.length);
+        for (long chunk : chunks)
+            out.putUnsignedInt(chunk);
+        out.endBox(stco);
+
+        out.endBox(stbl);
+        out.endBox(minf);
+        out.endBox(mdia);
+        out.endBox(trak);
+    }
+
+    private static long beginFullBox(Mp4Output out, int type, int flags) throws IOException {
+        final long box = out.beginBox(type);
+        out.putInt(flags);
+        return box;
+    }
+
+    private static void putMatrix(Mp4Output out) throws IOException {
+        out.putInt(0x10000);
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(0x10000);
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(0x40000000);
+    }
+}
@@ -0,0 +1,90 @@
+package com.afollestad.materialcamera.internal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads files written by {@link Mp4Fixtures}, whose audio track ends a little before the movie
+ * does.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class Mp4InfoTest {
+
+    private final List<File> mFiles = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        mFiles.add(Mp4Fixtures.write(File.createTempFile("mp4info", ".mp4"), 2, 1000000));
+        mFiles.add(Mp4Fixtures.write(File.createTempFile("mp4info", ".mp4"), 3, 4000000));
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : mFiles)
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+    }
+
+    private static long getMediaDataBytes(File file) throws IOException {
+        final Mp4File mp4 = Mp4File.open(file);
+        try {
+            return mp4.getMediaDataEnd() - mp4.getMediaDataStart();
+        } finally {
+            mp4.close();
+        }
+    }
+
+    @Test
+    public void takesTheDurationFromTheMovieHeader() throws IOException {
+        final Mp4File mp4 = Mp4File.open(mFiles.get(0));
+        try {
+            assertEquals(2000, Mp4MoovWriter.scale(mp4.duration, mp4.timescale, 1000));
+            final Mp4Track video = mp4.findTrack(Mp4Box.HANDLER_VIDEO);
+            final Mp4Track audio = mp4.findTrack(Mp4Box.HANDLER_SOUND);
+            assertEquals(2L * video.timescale, video.mediaDuration);
+            assertTrue(audio.mediaDuration < 2L * audio.timescale);
+        } finally {
+            mp4.close();
+        }
+
+        // The movie's duration, not that of its shorter audio track.
+        final Mp4Info info = Mp4Info.read(mFiles.subList(0, 1));
+        assertEquals(2000, info.durationMs);
+        assertEquals(1280, info.width);
+        assertEquals(720, info.height);
+    }
+
+    @Test
+    public void dividesTheMediaDataByTheDuration() throws IOException {
+        final Mp4Info info = Mp4Info.read(mFiles.subList(1, 2));
+        assertEquals(3000, info.durationMs);
+        assertEquals(getMediaDataBytes(mFiles.get(1)) * 8 * 1000 / 3000, info.bitRate);
+    }
+
+    @Test
+    public void addsUpTheSegmentsOfARecording() throws IOException {
+        final Mp4Info info = Mp4Info.read(mFiles);
+        assertEquals(5000, info.durationMs);
+        final long bytes = getMediaDataBytes(mFiles.get(0)) + getMediaDataBytes(mFiles.get(1));
+        assertEquals(bytes * 8 * 1000 / 5000, info.bitRate);
+        assertEquals(1280, info.width);
+        assertEquals(720, info.height);
+    }
+
+    @Test
+    public void hasNoBitRateWithoutFiles() throws IOException {
+        final Mp4Info info = Mp4Info.read(new ArrayList<File>());
+        assertEquals(0, info.durationMs);
+        assertEquals(0, info.bitRate);
+    }
+}
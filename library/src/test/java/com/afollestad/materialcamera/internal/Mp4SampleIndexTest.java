@@ -0,0 +1,99 @@
+package com.afollestad.materialcamera.internal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Indexes a file written by {@link Mp4Fixtures}, with a keyframe every 30 video frames and audio
+ * chunks of uneven length, so stsc has more than one entry.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class Mp4SampleIndexTest {
+
+    private static final int SECONDS = 3;
+
+    private File mFile;
+    private Mp4File mMp4;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = Mp4Fixtures.write(File.createTempFile("mp4sampleindex", ".mp4"), SECONDS, 1000000);
+        mMp4 = Mp4File.open(mFile);
+    }
+
+    @After
+    public void tearDown() {
+        CameraUtil.closeQuietly(mMp4);
+        //noinspection ResultOfMethodCallIgnored
+        mFile.delete();
+    }
+
+    @Test
+    public void placesSamplesWhereTheChunkAndSizeTablesSay() throws IOException {
+        for (Mp4Track track : mMp4.tracks) {
+            final Mp4SampleIndex index = Mp4SampleIndex.build(track, Mp4SampleIndex.DEFAULT_HEAP_BUDGET);
+            assertEquals(track.sampleCount, index.sampleCount);
+            int sample = 0;
+            for (int chunk = 0; chunk < track.chunkCount; chunk++) {
+                // The last stsc entry starting at or before the chunk says how many samples it has.
+                int entry = track.stscEntryCount - 1;
+                while (track.getStscFirstChunk(entry) - 1 > chunk)
+                    entry--;
+                long offset = track.getChunkOffset(chunk);
+                for (int i = 0; i < track.getStscSamplesPerChunk(entry); i++, sample++) {
+                    assertEquals(track.getSampleSize(sample), index.getSize(sample));
+                    assertEquals("track " + track.trackId + " sample " + sample, offset, index.getOffset(sample));
+                    offset += index.getSize(sample);
+                }
+            }
+            assertEquals(track.sampleCount, sample);
+        }
+    }
+
+    @Test
+    public void pointsAtTheStartOfEachSample() throws IOException {
+        final Mp4Track video = mMp4.findTrack(Mp4Box.HANDLER_VIDEO);
+        final Mp4SampleIndex index = Mp4SampleIndex.build(video, Mp4SampleIndex.DEFAULT_HEAP_BUDGET);
+        final ByteBuffer header = ByteBuffer.allocate(5);
+        for (int i = 0; i < index.sampleCount; i++) {
+            header.clear();
+            while (header.hasRemaining())
+                assertTrue(mMp4.channel.read(header, index.getOffset(i) + header.position()) > 0);
+            // Every fixture sample is one length prefixed slice, IDR on the sync samples.
+            assertEquals(index.getSize(i) - 4, header.getInt(0));
+            assertEquals(index.isSync(i) ? 0x65 : 0x41, header.get(4));
+        }
+    }
+
+    @Test
+    public void timesSamplesAndFindsSyncSamples() throws IOException {
+        final Mp4Track video = mMp4.findTrack(Mp4Box.HANDLER_VIDEO);
+        final Mp4SampleIndex index = Mp4SampleIndex.build(video, Mp4SampleIndex.DEFAULT_HEAP_BUDGET);
+        final long delta = video.getSttsDelta(0);
+        for (int i = 0; i < index.sampleCount; i++) {
+            assertEquals(i * delta, index.getDecodeTime(i));
+            assertEquals(i % 30 == 0, index.isSync(i));
+        }
+        assertEquals(0, index.findSample(0));
+        assertEquals(45, index.findSample(1500000));
+        assertEquals(index.sampleCount - 1, index.findSample(SECONDS * 1000000L));
+        assertEquals(30, index.findSyncSampleAtOrBefore(45));
+        assertEquals(30, index.findSyncSampleAtOrBefore(30));
+        assertEquals(0, index.findSyncSampleAtOrBefore(29));
+    }
+
+    @Test(expected = IOException.class)
+    public void refusesToIndexOverTheHeapBudget() throws IOException {
+        final Mp4Track video = mMp4.findTrack(Mp4Box.HANDLER_VIDEO);
+        Mp4SampleIndex.build(video, Mp4SampleIndex.getHeapSize(video) - 1);
+    }
+}
@@ -0,0 +1,169 @@
+package com.afollestad.materialcamera.internal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Trims a file written by {@link Mp4Fixtures}, four seconds with a keyframe at the start of each
+ * and composition offsets on the video, so cuts between keyframes have somewhere to snap to.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class Mp4TrimmerTest {
+
+    private static final int SECONDS = 4;
+
+    private File mInput;
+    private File mOutput;
+
+    @Before
+    public void setUp() throws IOException {
+        mInput = Mp4Fixtures.write(File.createTempFile("mp4trimmer", ".mp4"), SECONDS, 1000000, true);
+        mOutput = File.createTempFile("mp4trimmer", ".mp4");
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        mInput.delete();
+        //noinspection ResultOfMethodCallIgnored
+        mOutput.delete();
+    }
+
+    private static long toUs(long time, int timescale) {
+        return Mp4MoovWriter.scale(time, timescale, 1000000);
+    }
+
+    @Test
+    public void startsAtTheSyncSampleBeforeTheCut() throws IOException {
+        assertEquals(1000000, Mp4Trimmer.trim(mInput, mOutput, 1500000, 3200000));
+
+        final Mp4File in = Mp4File.open(mInput);
+        final Mp4File out = Mp4File.open(mOutput);
+        try {
+            final Mp4Track video = out.findTrack(Mp4Box.HANDLER_VIDEO);
+            final Mp4SampleIndex inIndex = Mp4SampleIndex.build(in.findTrack(Mp4Box.HANDLER_VIDEO),
+                    Mp4SampleIndex.DEFAULT_HEAP_BUDGET);
+            final Mp4SampleIndex outIndex = Mp4SampleIndex.build(video, Mp4SampleIndex.DEFAULT_HEAP_BUDGET);
+            // From the keyframe at one second up to the frame shown at 3.2 seconds.
+            assertEquals(96 - 30, outIndex.sampleCount);
+            assertTrue(outIndex.isSync(0));
+            for (int i = 0; i < outIndex.sampleCount; i++) {
+                assertEquals(inIndex.getSize(30 + i), outIndex.getSize(i));
+                assertEquals("sample " + i,
+                        Mp4Fixtures.readSample(in.channel, inIndex.getOffset(30 + i), inIndex.getSize(30 + i)),
+                        Mp4Fixtures.readSample(out.channel, outIndex.getOffset(i), outIndex.getSize(i)));
+            }
+            assertEquals(2200000, toUs(video.getSampleDurationSum(), video.timescale));
+            assertEquals(2200, Mp4MoovWriter.scale(out.duration, out.timescale, 1000));
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    @Test
+    public void clipsTheAudioToTheVideo() throws IOException {
+        final long fromUs = Mp4Trimmer.trim(mInput, mOutput, 1500000, 3200000);
+
+        final Mp4File in = Mp4File.open(mInput);
+        final Mp4File out = Mp4File.open(mOutput);
+        try {
+            final Mp4Track inAudio = in.findTrack(Mp4Box.HANDLER_SOUND);
+            final Mp4Track outAudio = out.findTrack(Mp4Box.HANDLER_SOUND);
+            final Mp4SampleIndex inIndex = Mp4SampleIndex.build(inAudio, Mp4SampleIndex.DEFAULT_HEAP_BUDGET);
+            final Mp4SampleIndex outIndex = Mp4SampleIndex.build(outAudio, Mp4SampleIndex.DEFAULT_HEAP_BUDGET);
+
+            // Exactly the samples decoded while the kept video plays.
+            int first = 0;
+            while (toUs(inIndex.getDecodeTime(first), inAudio.timescale) < fromUs)
+                first++;
+            int end = first;
+            while (toUs(inIndex.getDecodeTime(end), inAudio.timescale) < 3200000)
+                end++;
+            assertEquals(end - first, outIndex.sampleCount);
+            for (int i = 0; i < outIndex.sampleCount; i++) {
+                assertEquals(inIndex.getDecodeTime(first + i) - inIndex.getDecodeTime(first), outIndex.getDecodeTime(i));
+                assertEquals("sample " + i,
+                        Mp4Fixtures.readSample(in.channel, inIndex.getOffset(first + i), inIndex.getSize(first + i)),
+                        Mp4Fixtures.readSample(out.channel, outIndex.getOffset(i), outIndex.getSize(i)));
+            }
+            final Mp4Track outVideo = out.findTrack(Mp4Box.HANDLER_VIDEO);
+            assertTrue(toUs(outAudio.getSampleDurationSum(), outAudio.timescale) <=
+                    toUs(outVideo.getSampleDurationSum(), outVideo.timescale));
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    @Test
+    public void rebuildsTheSampleTables() throws IOException {
+        Mp4Trimmer.trim(mInput, mOutput, 1500000, 3200000);
+
+        final Mp4File out = Mp4File.open(mOutput);
+        try {
+            final long start = out.getMediaDataStart();
+            final long end = out.getMediaDataEnd();
+            for (Mp4Track track : out.tracks) {
+                long sttsSamples = 0;
+                for (int entry = 0; entry < track.sttsEntryCount; entry++)
+                    sttsSamples += track.getSttsSampleCount(entry);
+                assertEquals(track.sampleCount, sttsSamples);
+                assertEquals(track.getSampleDurationSum(), track.mediaDuration);
+                for (int c = 0; c < track.chunkCount; c++) {
+                    final long offset = track.getChunkOffset(c);
+                    assertTrue(offset >= start && offset < end);
+                }
+                final Mp4SampleIndex index = Mp4SampleIndex.build(track, Mp4SampleIndex.DEFAULT_HEAP_BUDGET);
+                for (int i = 0; i < index.sampleCount; i++)
+                    assertTrue(index.getOffset(i) + index.getSize(i) <= end);
+            }
+
+            final Mp4Track video = out.findTrack(Mp4Box.HANDLER_VIDEO);
+            final Mp4SampleIndex index = Mp4SampleIndex.build(video, Mp4SampleIndex.DEFAULT_HEAP_BUDGET);
+            assertEquals(3, video.syncSampleCount);
+            assertTrue(index.hasCompositionOffsets());
+            for (int i = 0; i < index.sampleCount; i++) {
+                assertEquals(i % 30 == 0, index.isSync(i));
+                // Sample 30 of the input is the first kept, and its offsets went along with it.
+                assertEquals((30 + i) % 3 * 3000, index.getCompositionOffset(i));
+                assertEquals(i * 3000L, index.getDecodeTime(i));
+            }
+            assertNull(out.findTrack(Mp4Box.HANDLER_SOUND).ctts);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void keepsTheRestWithAnOpenEnd() throws IOException {
+        assertEquals(3000000, Mp4Trimmer.trim(mInput, mOutput, 3000000, Long.MAX_VALUE));
+        final Mp4Info info = Mp4Info.read(Collections.singletonList(mOutput));
+        assertEquals(1000, info.durationMs);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAStartAtTheEnd() throws IOException {
+        Mp4Trimmer.trim(mInput, mOutput, SECONDS * 1000000L, Long.MAX_VALUE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAStartPastTheEnd() throws IOException {
+        Mp4Trimmer.trim(mInput, mOutput, (SECONDS + 1) * 1000000L, (SECONDS + 2) * 1000000L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnEmptyRange() throws IOException {
+        Mp4Trimmer.trim(mInput, mOutput, 2000000, 2000000);
+    }
+}
@@ -0,0 +1,37 @@
+package com.afollestad.materialcamera.internal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Aidan Follestad (afollestad)
+ */
+public class PreRollRecorderTest {
+
+    // Now on the monotonic and the boot clock, which is ahead by the time spent asleep.
+    private static final long MONOTONIC_US = 5000000000L;
+    private static final long REALTIME_US = 7200000000L;
+    // How long the first frame took to get through the encoder.
+    private static final long LATENCY_US = 120000;
+
+    @Test
+    public void leavesMonotonicFramesAsTheyAre() {
+        assertEquals(0, PreRollRecorder.getClockOffsetUs(MONOTONIC_US - LATENCY_US, false, MONOTONIC_US, REALTIME_US));
+    }
+
+    @Test
+    public void movesBootClockFramesOntoTheMonotonicClock() {
+        assertEquals(MONOTONIC_US - REALTIME_US,
+                PreRollRecorder.getClockOffsetUs(REALTIME_US - LATENCY_US, true, MONOTONIC_US, REALTIME_US));
+    }
+
+    @Test
+    public void estimatesTheOffsetOfFramesOnNeitherClock() {
+        assertEquals(MONOTONIC_US - 42000000,
+                PreRollRecorder.getClockOffsetUs(42000000, false, MONOTONIC_US, REALTIME_US));
+        // Cameras that say they use the boot clock but don't.
+        assertEquals(LATENCY_US,
+                PreRollRecorder.getClockOffsetUs(MONOTONIC_US - LATENCY_US, true, MONOTONIC_US, REALTIME_US));
+    }
+}
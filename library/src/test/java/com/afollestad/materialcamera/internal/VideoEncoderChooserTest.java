@@ -0,0 +1,128 @@
+package com.afollestad.materialcamera.internal;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Chooses from encoder tables the way {@link CameraProfileStore} records them: the max size, and
+ * the pixel rate at the largest of 2160p, 1080p, 720p and 480p the encoder supports.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class VideoEncoderChooserTest {
+
+    private static final int H264 = VideoEncoderChooser.VIDEO_ENCODER_H264;
+    private static final int HEVC = VideoEncoderChooser.VIDEO_ENCODER_HEVC;
+    private static final String AVC = VideoEncoderChooser.MIME_TYPE_AVC;
+    private static final String HEVC_TYPE = VideoEncoderChooser.MIME_TYPE_HEVC;
+
+    // A flagship with hardware HEVC up to 2160p60.
+    private static final EncoderProfile.Encoder[] FLAGSHIP = {
+            encoder(AVC, "c2.qti.avc.encoder", 4096, 2304, 3840L * 2160 * 60),
+            encoder(HEVC_TYPE, "c2.qti.hevc.encoder", 4096, 2304, 3840L * 2160 * 60),
+            encoder(AVC, "c2.android.avc.encoder", 2048, 2048, 1920L * 1080 * 30),
+            encoder(HEVC_TYPE, "c2.android.hevc.encoder", 1920, 1088, 1920L * 1080 * 15)
+    };
+
+    // A mid-range phone whose hardware HEVC stops at 1080p30.
+    private static final EncoderProfile.Encoder[] MID_RANGE = {
+            encoder(AVC, "OMX.MTK.VIDEO.ENCODER.AVC", 1920, 1088, 1920L * 1080 * 60),
+            encoder(HEVC_TYPE, "OMX.MTK.VIDEO.ENCODER.HEVC", 1920, 1088, 1920L * 1080 * 30),
+            encoder(AVC, "OMX.google.h264.encoder", 2048, 2048, 1920L * 1080 * 30)
+    };
+
+    // HEVC only in software, one from Android and one from the vendor.
+    private static final EncoderProfile.Encoder[] SOFTWARE_HEVC = {
+            encoder(AVC, "OMX.Exynos.AVC.Encoder", 3840, 2160, 3840L * 2160 * 30),
+            encoder(HEVC_TYPE, "c2.android.hevc.encoder", 3840, 2160, 3840L * 2160 * 30),
+            encoder(HEVC_TYPE, "OMX.SEC.hevc.sw.enc", 3840, 2160, 3840L * 2160 * 30)
+    };
+
+    private static final EncoderProfile.Encoder[] AVC_ONLY = {
+            encoder(AVC, "OMX.qcom.video.encoder.avc", 1920, 1088, 1920L * 1080 * 30),
+            encoder(AVC, "OMX.google.h264.encoder", 2048, 2048, 1920L * 1080 * 30)
+    };
+
+    private static EncoderProfile.Encoder encoder(String mimeType, String name, int maxWidth, int maxHeight,
+                                                  long maxPixelRate) {
+        return new EncoderProfile.Encoder(mimeType, name, VideoEncoderChooser.isHardware(name),
+                maxWidth, maxHeight, maxPixelRate);
+    }
+
+    @Test
+    public void choosesHardwareHevcThatKeepsUp() {
+        assertEquals(HEVC, VideoEncoderChooser.choose(FLAGSHIP, 3840, 2160, 30));
+        assertEquals(HEVC, VideoEncoderChooser.choose(FLAGSHIP, 3840, 2160, 60));
+        assertEquals(HEVC, VideoEncoderChooser.choose(MID_RANGE, 1920, 1080, 30));
+        assertEquals(HEVC, VideoEncoderChooser.choose(MID_RANGE, 1280, 720, 60));
+    }
+
+    @Test
+    public void neverChoosesSoftwareHevc() {
+        assertEquals(H264, VideoEncoderChooser.choose(SOFTWARE_HEVC, 1280, 720, 30));
+        assertEquals(H264, VideoEncoderChooser.choose(SOFTWARE_HEVC, 640, 480, 15));
+    }
+
+    @Test
+    public void fallsBackToAvcPastTheSizeLimit() {
+        assertEquals(H264, VideoEncoderChooser.choose(MID_RANGE, 3840, 2160, 30));
+        assertEquals(H264, VideoEncoderChooser.choose(MID_RANGE, 2560, 1440, 15));
+        assertEquals(H264, VideoEncoderChooser.choose(FLAGSHIP, 7680, 4320, 15));
+    }
+
+    @Test
+    public void fallsBackToAvcPastThePixelRate() {
+        assertEquals(H264, VideoEncoderChooser.choose(MID_RANGE, 1920, 1080, 60));
+        assertEquals(H264, VideoEncoderChooser.choose(FLAGSHIP, 3840, 2160, 120));
+    }
+
+    @Test
+    public void fitsPortraitSizesTurnedAround() {
+        assertEquals(HEVC, VideoEncoderChooser.choose(MID_RANGE, 1080, 1920, 30));
+        assertEquals(HEVC, VideoEncoderChooser.choose(MID_RANGE, 720, 1280, 30));
+        assertEquals(H264, VideoEncoderChooser.choose(MID_RANGE, 1080, 1920, 60));
+        assertEquals(H264, VideoEncoderChooser.choose(MID_RANGE, 2160, 3840, 30));
+        assertEquals(HEVC, VideoEncoderChooser.choose(FLAGSHIP, 2160, 3840, 30));
+    }
+
+    @Test
+    public void recordsH264WithoutHevcEncoders() {
+        assertEquals(H264, VideoEncoderChooser.choose(null, 1920, 1080, 30));
+        assertEquals(H264, VideoEncoderChooser.choose(new EncoderProfile.Encoder[0], 1920, 1080, 30));
+        assertEquals(H264, VideoEncoderChooser.choose(AVC_ONLY, 1280, 720, 30));
+    }
+
+    @Test
+    public void choosesTheSameFromAProfileReadBack() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new EncoderProfile("test/fingerprint", MID_RANGE).write(bytes);
+        final EncoderProfile profile = EncoderProfile.read(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals("test/fingerprint", profile.fingerprint);
+        assertEquals(HEVC, VideoEncoderChooser.choose(profile.encoders, 1080, 1920, 30));
+        assertEquals(H264, VideoEncoderChooser.choose(profile.encoders, 1920, 1080, 60));
+    }
+
+    @Test
+    public void tellsSoftwareEncodersByName() {
+        assertFalse(VideoEncoderChooser.isHardware("OMX.google.h264.encoder"));
+        assertFalse(VideoEncoderChooser.isHardware("c2.android.hevc.encoder"));
+        assertFalse(VideoEncoderChooser.isHardware("c2.google.av1.encoder"));
+        assertFalse(VideoEncoderChooser.isHardware("OMX.SEC.hevc.sw.enc"));
+        assertTrue(VideoEncoderChooser.isHardware("c2.qti.hevc.encoder"));
+        assertTrue(VideoEncoderChooser.isHardware("OMX.MTK.VIDEO.ENCODER.HEVC"));
+        assertTrue(VideoEncoderChooser.isHardware("OMX.Exynos.HEVC.Encoder"));
+    }
+
+    @Test
+    public void namesTheMimeTypeOfTheChoice() {
+        assertEquals(HEVC_TYPE, VideoEncoderChooser.getMimeType(HEVC));
+        assertEquals(AVC, VideoEncoderChooser.getMimeType(H264));
+    }
+}